@@ -0,0 +1,617 @@
+package org.openymsg;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openymsg.conference.ConferenceEvictionReason;
+import org.openymsg.conference.SessionConferenceEvictionCallback;
+import org.openymsg.contact.roster.ContactAddFailure;
+import org.openymsg.contact.status.SessionStatusBatchCallback;
+import org.openymsg.context.auth.AuthenticationFailure;
+import org.openymsg.context.session.LogoutReason;
+import org.openymsg.message.OfflineMessage;
+import org.openymsg.message.SessionOfflineMessageBatchCallback;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers callbacks on an application supplied executor instead of the session thread, so a slow callback cannot stall
+ * reading and writing for the session. Wrap the application callback and pass it to the session:
+ * 
+ * <pre>
+ * AsyncSessionCallback async = new AsyncSessionCallback(callback, executor, 1000, CallbackOverflowPolicy.DROP_OLDEST);
+ * YahooSession session = new SessionImpl(config, async);
+ * </pre>
+ * 
+ * Events are queued per session and delivered one at a time, in order, even if the executor has many threads. The
+ * queue is bounded; what happens when it is full is set by the {@link CallbackOverflowPolicy}. The optional batch and
+ * eviction callbacks are passed on if the wrapped callback implements them. A batch counts as the number of events it
+ * holds. If the executor rejects a delivery, the queued events are dropped.
+ * @author neilhart
+ */
+public class AsyncSessionCallback implements YahooSessionCallback, SessionStatusBatchCallback,
+		SessionConferenceEvictionCallback, SessionOfflineMessageBatchCallback {
+	/** logger */
+	private static final Log log = LogFactory.getLog(AsyncSessionCallback.class);
+	/** events delivered before giving the executor thread back */
+	private static final int DRAIN_LIMIT = 64;
+	private final YahooSessionCallback callback;
+	private final Executor executor;
+	private final int capacity;
+	private final CallbackOverflowPolicy policy;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	/** guarded by lock */
+	private final ArrayDeque<Event> queue = new ArrayDeque<Event>();
+	/** guarded by lock, a drain is submitted or running */
+	private boolean draining = false;
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong maximumLagNanos = new AtomicLong();
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Create an asynchronous callback
+	 * @param callback application callback
+	 * @param executor runs the deliveries, may be shared by several sessions
+	 * @param capacity maximum queued events
+	 * @param policy what to do with a new event when the queue is full
+	 */
+	public AsyncSessionCallback(YahooSessionCallback callback, Executor executor, int capacity,
+			CallbackOverflowPolicy policy) {
+		if (callback == null) {
+			throw new IllegalArgumentException("callback cannot be null");
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("executor cannot be null");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("policy cannot be null");
+		}
+		this.callback = callback;
+		this.executor = executor;
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	/**
+	 * Whether the wrapped callback takes off-line messages in batches
+	 */
+	public boolean wantsOfflineMessageBatches() {
+		return callback instanceof SessionOfflineMessageBatchCallback;
+	}
+
+	/**
+	 * Events waiting to be delivered
+	 * @return queued events
+	 */
+	public int getQueueSize() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Number of events passed to the callback
+	 * @return delivered events
+	 */
+	public long getDelivered() {
+		return delivered.get();
+	}
+
+	/**
+	 * Number of events dropped because the queue was full or the executor rejected them
+	 * @return dropped events
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * How long the oldest queued event has been waiting
+	 * @return milliseconds, 0 if the queue is empty
+	 */
+	public long getLag() {
+		lock.lock();
+		try {
+			Event oldest = queue.peek();
+			return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.queued);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Longest time a delivered event waited in the queue
+	 * @return milliseconds
+	 */
+	public long getMaximumLag() {
+		return TimeUnit.NANOSECONDS.toMillis(maximumLagNanos.get());
+	}
+
+	@Override
+	public void receivedMessage(final YahooContact from, final String message) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedMessage(from, message);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedBuzz(final YahooContact from) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedBuzz(from);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedOfflineMessage(final YahooContact from, final String message, final long timestampInMillis) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedOfflineMessage(from, message, timestampInMillis);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedTypingNotification(final YahooContact from, final boolean isTyping) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedTypingNotification(from, isTyping);
+			}
+		}, false);
+	}
+
+	@Override
+	public void connectionSuccessful() {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.connectionSuccessful();
+			}
+		}, true);
+	}
+
+	@Override
+	public void connectionFailure() {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.connectionFailure();
+			}
+		}, true);
+	}
+
+	@Override
+	public void connectionPrematurelyEnded() {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.connectionPrematurelyEnded();
+			}
+		}, true);
+	}
+
+	@Override
+	public void authenticationSuccess() {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.authenticationSuccess();
+			}
+		}, true);
+	}
+
+	@Override
+	public void authenticationFailure(final AuthenticationFailure failure) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.authenticationFailure(failure);
+			}
+		}, true);
+	}
+
+	@Override
+	public void logoffNormalComplete() {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.logoffNormalComplete();
+			}
+		}, true);
+	}
+
+	@Override
+	public void logoffForced(final LogoutReason state) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.logoffForced(state);
+			}
+		}, true);
+	}
+
+	@Override
+	public void rosterLoaded() {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.rosterLoaded();
+			}
+		}, true);
+	}
+
+	@Override
+	public void addedContact(final YahooContact contact) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.addedContact(contact);
+			}
+		}, false);
+	}
+
+	@Override
+	public void removedContact(final YahooContact contact) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.removedContact(contact);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedContactAddFailure(final YahooContact contact, final ContactAddFailure failure,
+			final String additionalInformation) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedContactAddFailure(contact, failure, additionalInformation);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedContactAddAccepted(final YahooContact contact) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedContactAddAccepted(contact);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedContactAddDeclined(final YahooContact contact, final String message) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedContactAddDeclined(contact, message);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedContactAddRequest(final String id, final YahooContact contact, final Name name,
+			final String message) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedContactAddRequest(id, contact, name, message);
+			}
+		}, false);
+	}
+
+	@Override
+	public void addedGroups(final Set<YahooContactGroup> contactGroups) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.addedGroups(contactGroups);
+			}
+		}, false);
+	}
+
+	@Override
+	public void statusUpdate(final YahooContact contact, final YahooContactStatus status) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.statusUpdate(contact, status);
+			}
+		}, false);
+	}
+
+	@Override
+	public void conferenceStatusUpdate(final String conferenceId, final YahooConferenceStatus status) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.conferenceStatusUpdate(conferenceId, status);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedConferenceMessage(final YahooConference conference, final YahooContact contact,
+			final String message) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedConferenceMessage(conference, contact, message);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedConferenceDecline(final YahooConference conference, final YahooContact contact,
+			final String message) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedConferenceDecline(conference, contact, message);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedConferenceInvite(final YahooConference conference, final YahooContact inviter,
+			final Set<YahooContact> invited, final Set<YahooContact> members, final String message) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedConferenceInvite(conference, inviter, invited, members, message);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedConferenceAccept(final YahooConference conference, final YahooContact contact) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedConferenceAccept(conference, contact);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedConferenceExtend(final YahooConference conference, final YahooContact inviter,
+			final Set<YahooContact> invited) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedConferenceExtend(conference, inviter, invited);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedConferenceLeft(final YahooConference conference, final YahooContact contact) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedConferenceLeft(conference, contact);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedConferenceInviteAck(final YahooConference conference, final Set<YahooContact> invited,
+			final Set<YahooContact> members, final String message) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				callback.receivedConferenceInviteAck(conference, invited, members, message);
+			}
+		}, false);
+	}
+
+	@Override
+	public void statusUpdates(final Map<YahooContact, YahooContactStatus> statuses) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				if (callback instanceof SessionStatusBatchCallback) {
+					((SessionStatusBatchCallback) callback).statusUpdates(statuses);
+				} else {
+					for (Map.Entry<YahooContact, YahooContactStatus> status : statuses.entrySet()) {
+						callback.statusUpdate(status.getKey(), status.getValue());
+					}
+				}
+			}
+		}, false, statuses.size());
+	}
+
+	@Override
+	public void conferenceEvicted(final YahooConference conference, final ConferenceEvictionReason reason) {
+		if (!(callback instanceof SessionConferenceEvictionCallback)) {
+			return;
+		}
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				((SessionConferenceEvictionCallback) callback).conferenceEvicted(conference, reason);
+			}
+		}, false);
+	}
+
+	@Override
+	public void receivedOfflineMessages(final List<OfflineMessage> messages) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				if (callback instanceof SessionOfflineMessageBatchCallback) {
+					((SessionOfflineMessageBatchCallback) callback).receivedOfflineMessages(messages);
+				} else {
+					for (OfflineMessage message : messages) {
+						callback.receivedOfflineMessage(message.getFrom(), message.getMessage(),
+								message.getTimestampInMillis());
+					}
+				}
+			}
+		}, false, messages.size());
+	}
+
+	private void enqueue(Runnable delivery, boolean critical) {
+		enqueue(delivery, critical, 1);
+	}
+
+	/**
+	 * @param count number of events the delivery holds
+	 */
+	private void enqueue(Runnable delivery, boolean critical, int count) {
+		boolean submit = false;
+		lock.lock();
+		try {
+			if (!critical && queue.size() >= capacity && !makeRoom()) {
+				dropped.addAndGet(count);
+				return;
+			}
+			queue.add(new Event(delivery, critical, count));
+			if (!draining) {
+				draining = true;
+				submit = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (submit) {
+			submitDrain();
+		}
+	}
+
+	/**
+	 * Hand the queue to the executor. If it refuses, nothing would ever deliver the queued events, so they are dropped
+	 * and the next event tries again.
+	 */
+	private void submitDrain() {
+		try {
+			executor.execute(drain);
+		} catch (RejectedExecutionException e) {
+			long rejected = 0;
+			lock.lock();
+			try {
+				for (Event event : queue) {
+					rejected += event.count;
+				}
+				queue.clear();
+				draining = false;
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			dropped.addAndGet(rejected);
+			log.warn("Executor rejected callback delivery, dropped " + rejected + " events", e);
+		}
+	}
+
+	/**
+	 * Make room for a new event, according to the policy. Called with the lock held.
+	 * @return true if there is room
+	 */
+	private boolean makeRoom() {
+		switch (policy) {
+			case BLOCK:
+				while (queue.size() >= capacity) {
+					try {
+						notFull.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				}
+				return true;
+			case DROP_OLDEST:
+				Iterator<Event> events = queue.iterator();
+				while (events.hasNext()) {
+					Event event = events.next();
+					if (!event.critical) {
+						events.remove();
+						dropped.addAndGet(event.count);
+						return true;
+					}
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	private void drain() {
+		for (int i = 0; i < DRAIN_LIMIT; i++) {
+			Event event;
+			lock.lock();
+			try {
+				event = queue.poll();
+				if (event == null) {
+					draining = false;
+					return;
+				}
+				notFull.signal();
+			} finally {
+				lock.unlock();
+			}
+			deliver(event);
+		}
+		// let other sessions sharing the executor have a turn
+		submitDrain();
+	}
+
+	private void deliver(Event event) {
+		long lag = System.nanoTime() - event.queued;
+		long maximum;
+		while (lag > (maximum = maximumLagNanos.get()) && !maximumLagNanos.compareAndSet(maximum, lag)) {
+			// retry
+		}
+		try {
+			event.delivery.run();
+		} catch (RuntimeException e) {
+			log.error("Callback failed", e);
+		}
+		delivered.addAndGet(event.count);
+	}
+
+	private static final class Event {
+		private final Runnable delivery;
+		private final boolean critical;
+		/** number of events in a batch */
+		private final int count;
+		private final long queued = System.nanoTime();
+
+		private Event(Runnable delivery, boolean critical, int count) {
+			this.delivery = delivery;
+			this.critical = critical;
+			this.count = count;
+		}
+	}
+}
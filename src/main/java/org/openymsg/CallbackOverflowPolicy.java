@@ -0,0 +1,15 @@
+package org.openymsg;
+
+/**
+ * What an {@link AsyncSessionCallback} does with a new event when its queue is full. Connection, authentication, logoff
+ * and roster loaded events are never dropped, they are queued beyond the capacity.
+ * @author neilhart
+ */
+public enum CallbackOverflowPolicy {
+	/** wait for room in the queue, which stalls the session thread like a slow callback would */
+	BLOCK,
+	/** drop the new event */
+	DROP_NEWEST,
+	/** drop the oldest queued event that may be dropped, and queue the new event */
+	DROP_OLDEST;
+}
@@ -13,6 +13,7 @@ import org.openymsg.context.SessionContextImpl;
 import org.openymsg.context.auth.AuthenticationFailure;
 import org.openymsg.context.session.PagerLogoffResponse;
 import org.openymsg.execute.ExecutorImpl;
+import org.openymsg.execute.dispatch.Dispatcher;
 import org.openymsg.mail.SessionMail;
 import org.openymsg.mail.SessionMailImpl;
 import org.openymsg.message.SessionMessage;
@@ -36,10 +37,14 @@ public class SessionImpl implements YahooSession {
 	private SessionMail mail;
 	private YahooSessionState state;
 	protected ExecutorImpl executor;
+	/** whether the application's callback takes off-line messages in batches */
+	private final boolean offlineMessageBatches;
 
 	public SessionImpl(SessionConfig config, YahooSessionCallback callback) {
 		this.config = config;
-		this.callback = new SessionCallbackHandler(this, callback);
+		SessionCallbackHandler handler = new SessionCallbackHandler(this, callback);
+		this.callback = handler;
+		this.offlineMessageBatches = handler.wantsOfflineMessageBatches();
 		this.state = YahooSessionState.NOT_STARTED;
 	}
 
@@ -59,10 +64,13 @@ public class SessionImpl implements YahooSession {
 	private void initialize(String username) {
 		this.executor = new ExecutorImpl(username);
 		this.connection = createConnection(executor, callback, config);
-		this.contact = new SessionContactImpl(connection, username, callback);
+		YahooContactPool contactPool = config.getContactPool();
+		this.contact = new SessionContactImpl(connection, username, callback, contactPool,
+				config.getRosterSnapshotStore(), executor);
 		this.context = new SessionContextImpl(config, executor, connection, username, callback);
 		initializeSessionMessage(username);
-		this.conference = new SessionConferenceImpl(username, connection, callback);
+		this.conference = new SessionConferenceImpl(username, connection, callback, contactPool,
+				config.getMaximumConferences(), config.getConferenceIdleTimeout());
 		this.mail = new SessionMailImpl(connection);
 		this.unknown = new SessionUnknown(connection);
 		// TODO Why register here?
@@ -227,6 +235,14 @@ public class SessionImpl implements YahooSession {
 		return contact.getContacts();
 	}
 
+	@Override
+	public long getContactsVersion() {
+		if (!state.isAvailable()) {
+			throw new IllegalStateException("Session in wrong state: " + state);
+		}
+		return contact.getContactsVersion();
+	}
+
 	@Override
 	public Set<YahooContactGroup> getContactGroups() {
 		if (!state.isAvailable()) {
@@ -235,6 +251,14 @@ public class SessionImpl implements YahooSession {
 		return contact.getContactGroups();
 	}
 
+	@Override
+	public long getContactGroupsVersion() {
+		if (!state.isAvailable()) {
+			throw new IllegalStateException("Session in wrong state: " + state);
+		}
+		return contact.getContactGroupsVersion();
+	}
+
 	@Override
 	public ConnectionState getConnectionState() {
 		return connection.getConnectionState();
@@ -269,6 +293,14 @@ public class SessionImpl implements YahooSession {
 		return conference.getConferences();
 	}
 
+	@Override
+	public long getConferencesVersion() {
+		if (!state.isAvailable()) {
+			throw new IllegalStateException("Session in wrong state: " + state);
+		}
+		return conference.getConferencesVersion();
+	}
+
 	@Override
 	public AuthenticationFailure getFailureState() {
 		return context.getFailureState();
@@ -321,7 +353,9 @@ public class SessionImpl implements YahooSession {
 	}
 
 	protected void initializeSessionMessage(String username) {
-		message = new SessionMessageImpl(connection, username, callback);
+		// the handler takes batches for any callback, only collect them when the application wants them
+		Dispatcher dispatcher = offlineMessageBatches ? executor : null;
+		message = new SessionMessageImpl(connection, username, callback, config.getMessageDeduplicator(), dispatcher);
 	}
 
 	@Override
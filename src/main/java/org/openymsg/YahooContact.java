@@ -2,7 +2,8 @@ package org.openymsg;
 
 /**
  * Identity of a contact. This consists of two parts: id and protocol. Most of the time the protocol is
- * YahooProtocol.YAHOO. Comparable to enable easier testing.
+ * YahooProtocol.YAHOO. Comparable to enable easier testing. Instances are immutable; use YahooContactPool to share
+ * them.
  * @author neilhart
  */
 public class YahooContact implements Comparable<YahooContact> {
@@ -10,6 +11,8 @@ public class YahooContact implements Comparable<YahooContact> {
 	private final String name;
 	/** system the id is on. Mostly YahooProtocol.YAHOO */
 	private final YahooProtocol protocol;
+	/** cached hash code */
+	private final int hashCode;
 
 	/**
 	 * Create a new Contact
@@ -25,6 +28,7 @@ public class YahooContact implements Comparable<YahooContact> {
 		}
 		this.name = id;
 		this.protocol = protocol;
+		this.hashCode = calculateHashCode();
 	}
 
 	/**
@@ -59,6 +63,10 @@ public class YahooContact implements Comparable<YahooContact> {
 
 	@Override
 	public final int hashCode() {
+		return this.hashCode;
+	}
+
+	private int calculateHashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
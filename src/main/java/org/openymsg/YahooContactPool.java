@@ -0,0 +1,154 @@
+package org.openymsg;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interning pool for YahooContact. Contacts are held by weak reference, so an entry only lives as long as something
+ * else (a roster, a status map, a conference) holds the contact. The pool is bounded; once full, new contacts are
+ * handed out without being pooled until collected entries free up room. A pool is normally owned by a single session,
+ * but {@link #getShared()} can be returned from the SessionConfig to share contacts across sessions.
+ * @author neilhart
+ */
+public class YahooContactPool {
+	/** default maximum number of pooled contacts */
+	public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+	/** pool shared across sessions */
+	private static final YahooContactPool shared = new YahooContactPool();
+	/** pooled contacts, by protocol and then by name */
+	private final Map<YahooProtocol, Map<String, ContactReference>> contacts =
+			new EnumMap<YahooProtocol, Map<String, ContactReference>>(YahooProtocol.class);
+	/** queue of collected contacts to expunge */
+	private final ReferenceQueue<YahooContact> collected = new ReferenceQueue<YahooContact>();
+	/** maximum number of pooled contacts */
+	private final int maximumSize;
+	/** number of pooled contacts */
+	private int size = 0;
+
+	/**
+	 * Create a pool with the default maximum size
+	 */
+	public YahooContactPool() {
+		this(DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Create a pool
+	 * @param maximumSize maximum number of pooled contacts
+	 */
+	public YahooContactPool(int maximumSize) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException("maximumSize cannot be negative");
+		}
+		this.maximumSize = maximumSize;
+		for (YahooProtocol protocol : YahooProtocol.values()) {
+			this.contacts.put(protocol, new HashMap<String, ContactReference>());
+		}
+	}
+
+	/**
+	 * Pool shared by all sessions that choose to use it
+	 * @return shared pool
+	 */
+	public static YahooContactPool getShared() {
+		return shared;
+	}
+
+	/**
+	 * Get the canonical contact for the name and protocol, creating it if needed. No contact is allocated if the
+	 * contact is already pooled.
+	 * @param name name of contact
+	 * @param protocol protocol of contact
+	 * @return the pooled contact
+	 */
+	public synchronized YahooContact get(String name, YahooProtocol protocol) {
+		if (name == null) {
+			throw new IllegalArgumentException("id cannot be null");
+		}
+		if (protocol == null) {
+			throw new IllegalArgumentException("protocol cannot be null");
+		}
+		expungeCollected();
+		Map<String, ContactReference> names = this.contacts.get(protocol);
+		ContactReference reference = names.get(name);
+		if (reference != null) {
+			YahooContact contact = reference.get();
+			if (contact != null) {
+				return contact;
+			}
+		}
+		YahooContact contact = new YahooContact(name, protocol);
+		pool(names, contact, reference);
+		return contact;
+	}
+
+	/**
+	 * Get the canonical instance equal to the contact. The contact is pooled if there is no equal contact yet.
+	 * @param contact contact to intern
+	 * @return the pooled contact
+	 */
+	public synchronized YahooContact intern(YahooContact contact) {
+		if (contact == null) {
+			throw new IllegalArgumentException("contact cannot be null");
+		}
+		expungeCollected();
+		Map<String, ContactReference> names = this.contacts.get(contact.getProtocol());
+		ContactReference reference = names.get(contact.getName());
+		if (reference != null) {
+			YahooContact pooled = reference.get();
+			if (pooled != null) {
+				return pooled;
+			}
+		}
+		pool(names, contact, reference);
+		return contact;
+	}
+
+	/**
+	 * Number of pooled contacts, including contacts that are collected but not yet expunged
+	 * @return number of pooled contacts
+	 */
+	public synchronized int size() {
+		expungeCollected();
+		return this.size;
+	}
+
+	private void pool(Map<String, ContactReference> names, YahooContact contact, ContactReference staleReference) {
+		if (staleReference == null && this.size >= this.maximumSize) {
+			return;
+		}
+		names.put(contact.getName(), new ContactReference(contact, this.collected));
+		if (staleReference == null) {
+			this.size++;
+		}
+	}
+
+	private void expungeCollected() {
+		ContactReference reference;
+		while ((reference = (ContactReference) this.collected.poll()) != null) {
+			Map<String, ContactReference> names = this.contacts.get(reference.protocol);
+			// only remove if not already replaced
+			if (names.get(reference.name) == reference) {
+				names.remove(reference.name);
+				this.size--;
+			}
+		}
+	}
+
+	/**
+	 * Weak reference that remembers its key, so it can be expunged after the contact is collected
+	 */
+	private static final class ContactReference extends WeakReference<YahooContact> {
+		private final String name;
+		private final YahooProtocol protocol;
+
+		private ContactReference(YahooContact contact, ReferenceQueue<YahooContact> queue) {
+			super(contact, queue);
+			this.name = contact.getName();
+			this.protocol = contact.getProtocol();
+		}
+	}
+}
@@ -6,6 +6,14 @@ import org.openymsg.contact.SessionContactCallback;
 import org.openymsg.context.SessionContextCallback;
 import org.openymsg.message.SessionMessageCallback;
 
+/**
+ * Callback for everything a session receives. An implementation may also implement
+ * {@link org.openymsg.contact.status.SessionStatusBatchCallback} to receive status updates in batches,
+ * {@link org.openymsg.message.SessionOfflineMessageBatchCallback} to receive the off-line messages from login in one
+ * call, and {@link org.openymsg.conference.SessionConferenceEvictionCallback} to be told when a conference is dropped.
+ * Callbacks are made on the session thread; wrap the callback in an {@link AsyncSessionCallback} to deliver them on
+ * another executor.
+ */
 public interface YahooSessionCallback extends SessionMessageCallback, SessionConnectionCallback, SessionContextCallback,
 		SessionContactCallback, SessionConferenceCallback {
 }
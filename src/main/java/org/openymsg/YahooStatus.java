@@ -35,6 +35,8 @@ public enum YahooStatus {
 	// OFFLINE(0x5a55aa56),
 	// WEBLOGIN(0x5a55aa55),
 	// TYPING(0x16);
+	/** all statuses, to avoid copying values() on every lookup */
+	private static final YahooStatus[] all = values();
 	// Unique long representation of this Status.
 	private long value;
 
@@ -61,7 +63,6 @@ public enum YahooStatus {
 	 * @return Status identified by 'value'.
 	 */
 	public static YahooStatus getStatus(long value) {
-		final YahooStatus[] all = YahooStatus.values();
 		for (int i = 0; i < all.length; i++) {
 			if (all[i].getValue() == value) {
 				return all[i];
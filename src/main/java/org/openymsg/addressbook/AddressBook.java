@@ -0,0 +1,55 @@
+package org.openymsg.addressbook;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Address book entries of a session, by contact id, as imported by {@link AddressBookRequest}. The revision of the
+ * last complete import is kept, so the next import only asks for the changes since.
+ * @author neilhart
+ */
+public class AddressBook {
+	private final ConcurrentMap<String, YahooAddressBookEntry> entries =
+			new ConcurrentHashMap<String, YahooAddressBookEntry>();
+	private volatile String revision;
+
+	/**
+	 * @param id contact id
+	 * @return the entry, or null if the contact is not in the address book
+	 */
+	public YahooAddressBookEntry getEntry(String id) {
+		return this.entries.get(id);
+	}
+
+	/**
+	 * @return unmodifiable view of the entries
+	 */
+	public Collection<YahooAddressBookEntry> getEntries() {
+		return Collections.unmodifiableCollection(this.entries.values());
+	}
+
+	public void addOrUpdate(Collection<YahooAddressBookEntry> addressBookEntries) {
+		for (YahooAddressBookEntry entry : addressBookEntries) {
+			this.entries.put(entry.getId(), entry);
+		}
+	}
+
+	public void remove(Collection<String> ids) {
+		for (String id : ids) {
+			this.entries.remove(id);
+		}
+	}
+
+	/**
+	 * @return revision of the last complete import, or null if none completed
+	 */
+	public String getRevision() {
+		return this.revision;
+	}
+
+	public void setRevision(String revision) {
+		this.revision = revision;
+	}
+}
@@ -0,0 +1,113 @@
+package org.openymsg.addressbook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies an address book listing to a roster in batches, so the roster takes its locks once per batch instead of once
+ * per contact. Added or updated contacts and removed ones are applied in listing order. The lists passed to the roster
+ * are reused once the call returns.
+ * @param <E> address book entry of the roster
+ * @author neilhart
+ */
+public abstract class AddressBookBatcher<E> implements AddressBookReader.Handler {
+	/** entries applied to the roster at a time */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	private final int batchSize;
+	private final List<E> entries;
+	private final List<String> removals;
+
+	protected AddressBookBatcher() {
+		this(DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param batchSize maximum entries applied to the roster at a time
+	 */
+	protected AddressBookBatcher(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive");
+		}
+		this.batchSize = batchSize;
+		this.entries = new ArrayList<E>(batchSize);
+		this.removals = new ArrayList<String>();
+	}
+
+	/**
+	 * Read a listing into the roster
+	 * @param in the listing, not closed
+	 * @return the revision of the listing, or null if it has none
+	 * @throws IOException if the listing cannot be read; the entries read until then are applied
+	 */
+	public String read(InputStream in) throws IOException {
+		try {
+			return new AddressBookReader().read(in, this);
+		} finally {
+			flush();
+		}
+	}
+
+	@Override
+	public void contact(String id, String firstName, String lastName, String nickName, String groupName) {
+		flushRemovals();
+		this.entries.add(entry(id, firstName, lastName, nickName, groupName));
+		if (this.entries.size() == this.batchSize) {
+			flushEntries();
+		}
+	}
+
+	@Override
+	public void removed(String id) {
+		flushEntries();
+		this.removals.add(id);
+		if (this.removals.size() == this.batchSize) {
+			flushRemovals();
+		}
+	}
+
+	/**
+	 * Apply what is left of the listing
+	 */
+	public void flush() {
+		flushEntries();
+		flushRemovals();
+	}
+
+	/**
+	 * Create the roster's entry for a contact of the listing
+	 */
+	protected abstract E entry(String id, String firstName, String lastName, String nickName, String groupName);
+
+	/**
+	 * Add or update a batch of entries on the roster
+	 */
+	protected abstract void addOrUpdate(List<E> entries);
+
+	/**
+	 * Remove a batch of entries from the roster
+	 * @param ids ids of the removed contacts
+	 */
+	protected abstract void remove(List<String> ids);
+
+	private void flushEntries() {
+		if (!this.entries.isEmpty()) {
+			try {
+				addOrUpdate(this.entries);
+			} finally {
+				this.entries.clear();
+			}
+		}
+	}
+
+	private void flushRemovals() {
+		if (!this.removals.isEmpty()) {
+			try {
+				remove(this.removals);
+			} finally {
+				this.removals.clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package org.openymsg.addressbook;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams the contacts of a Yahoo address book listing to a handler as they are parsed, without building a document.
+ * The listing is a root element holding one <code>ct</code> element per contact:
+ *
+ * <pre>
+ * &lt;ab k=&quot;testuser&quot; cc=&quot;1&quot; rt=&quot;1364324557&quot;&gt;
+ *   &lt;ct yi=&quot;testbuddy&quot; fn=&quot;Test&quot; nn=&quot;tb&quot; li=&quot;Friends&quot;/&gt;
+ * &lt;/ab&gt;
+ * </pre>
+ *
+ * The revision of the listing, when the root element carries one, is returned so the next request can ask for the
+ * changes since then only. In such a listing of changes, a contact that was deleted carries
+ * <code>d=&quot;1&quot;</code> and is passed to the handler as removed.
+ * @author neilhart
+ */
+public class AddressBookReader {
+	/** logger */
+	private static final Log log = LogFactory.getLog(AddressBookReader.class);
+	/** request parameter and root attribute holding the revision of the listing */
+	public static final String REVISION = "rt";
+	/** contact attribute marking a contact deleted since the requested revision */
+	public static final String DELETED = "d";
+	private static final XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
+	static {
+		xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * Receives the contacts of a listing, in order. Missing fields are empty strings.
+	 */
+	public interface Handler {
+		void contact(String id, String firstName, String lastName, String nickName, String groupName);
+
+		/**
+		 * A contact was deleted from the address book
+		 * @param id id of the contact
+		 */
+		void removed(String id);
+	}
+
+	/**
+	 * Read a listing
+	 * @param in the listing, not closed
+	 * @param handler receives each contact as it is parsed
+	 * @return the revision of the listing, or null if it has none
+	 * @throws IOException if the listing cannot be read or is malformed
+	 */
+	public String read(InputStream in, Handler handler) throws IOException {
+		if (handler == null) {
+			throw new IllegalArgumentException("handler cannot be null");
+		}
+		String revision = null;
+		int contacts = 0;
+		try {
+			XMLStreamReader reader = xmlFactory.createXMLStreamReader(in);
+			try {
+				boolean root = true;
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+						continue;
+					}
+					if (root) {
+						revision = reader.getAttributeValue(null, REVISION);
+						root = false;
+					} else if (reader.getLocalName().equals("ct")) {
+						contact(reader, handler);
+						contacts++;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Malformed address book: " + e.getMessage(), e);
+		}
+		log.trace("Read " + contacts + " address book contacts, revision: " + revision);
+		return revision;
+	}
+
+	private void contact(XMLStreamReader reader, Handler handler) {
+		String id = attribute(reader, "yi");
+		String lcsid = attribute(reader, "lcsid");
+		String firstName = attribute(reader, "fn");
+		String lastName = attribute(reader, "ln");
+		String nickName = attribute(reader, "nn");
+		String groupName = attribute(reader, "li");
+		if (id.length() == 0 && lcsid.length() == 0) {
+			log.debug("Failed building user firstname: " + firstName + ", lastname: " + lastName + ", nickname: "
+					+ nickName + ", groupName: " + groupName);
+		}
+		if (id.length() == 0) {
+			id = lcsid;
+		}
+		if ("1".equals(attribute(reader, DELETED))) {
+			if (id.length() != 0) {
+				handler.removed(id);
+			}
+			return;
+		}
+		handler.contact(id, firstName, lastName, nickName, groupName);
+	}
+
+	private String attribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value == null ? "" : value;
+	}
+}
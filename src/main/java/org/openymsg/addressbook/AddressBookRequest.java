@@ -8,121 +8,112 @@ import org.openymsg.network.NetworkConstants;
 import org.openymsg.network.url.URLStream;
 import org.openymsg.network.url.URLStreamBuilder;
 import org.openymsg.network.url.URLStreamStatus;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashSet;
-import java.util.Set;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.List;
 
+/**
+ * Imports the address book into an {@link AddressBook}. The listing is parsed as it streams in and applied in batches,
+ * the same way the legacy BuddyListImport applies it to the roster. After the first complete import, only the changes
+ * since are asked for, removals included.
+ */
 public class AddressBookRequest implements Request {
 	private static final Log log = LogFactory.getLog(AddressBookRequest.class);
 	private SessionConfig config;
 	private final String cookieY;
 	private final String cookieT;
+	private final AddressBook addressBook;
 
 	public AddressBookRequest(SessionConfig config, String cookieT, String cookieY) {
+		this(config, cookieT, cookieY, new AddressBook());
+	}
+
+	public AddressBookRequest(SessionConfig config, String cookieT, String cookieY, AddressBook addressBook) {
+		if (addressBook == null) {
+			throw new IllegalArgumentException("addressBook cannot be null");
+		}
 		this.config = config;
 		this.cookieT = cookieT;
 		this.cookieY = cookieY;
+		this.addressBook = addressBook;
+	}
+
+	public AddressBook getAddressBook() {
+		return this.addressBook;
 	}
 
 	@Override
 	public void execute() {
 		String cookie = String.format(NetworkConstants.ADDRESSBOOK_COOKIE_FORMAT, this.cookieY, this.cookieT);
-		URLStreamBuilder builder = config.getURLStreamBuilder().url(NetworkConstants.ADDRESSBOOK_URL)
-				.timeout(config.getConnectionTimeout()).disableSSLCheck(config.isSSLCheckDisabled()).cookie(cookie);
+		String url = url();
+		URLStreamBuilder builder = config.getURLStreamBuilder().url(url).timeout(config.getConnectionTimeout())
+				.disableSSLCheck(config.isSSLCheckDisabled()).cookie(cookie);
 		URLStream stream = builder.build();
 		URLStreamStatus status = builder.getStatus();
 		InputStream in = stream.getInputStream();
 		if (!status.isCorrect()) {
-			log.warn("Failed retrieving response for url: " + NetworkConstants.ADDRESSBOOK_URL);
+			log.warn("Failed retrieving response for url: " + url);
 			// TODO handle failure
 			return;
 		}
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		// parse using builder to get DOM representation of the XML file
-		Document dom = null;
 		try {
-			// Using factory get an instance of document builder
-			DocumentBuilder db = dbf.newDocumentBuilder();
-			dom = db.parse(in);
-		} catch (ParserConfigurationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return;
-		} catch (SAXException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return;
+			importEntries(in);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return;
-		}
-		// get the root element
-		Element docEle = dom.getDocumentElement();
-		log.trace("Root is: " + docEle);
-		// get a nodelist of elements
-		NodeList nl = docEle.getElementsByTagName("ct");
-		log.trace("Found ct elements: " + nl.getLength());
-		Set<YahooAddressBookEntry> contacts = new HashSet<YahooAddressBookEntry>();
-		if (nl != null && nl.getLength() > 0) {
-			for (int i = 0; i < nl.getLength(); i++) {
-				// get the employee element
-				Element el = (Element) nl.item(i);
-				// log.trace("ct element: " + el);
-				// get the Employee object
-				YahooAddressBookEntry user = getContact(el);
-				// add it to list
-				contacts.add(user);
-				// contacts.add(e);
-			}
-		} else {
-			log.debug("No node list found for ct. AddressBook empty?");
+			log.warn("Failed reading address book", e);
+			// TODO handle failure
+		} finally {
+			close(in);
 		}
 	}
 
-	private YahooAddressBookEntry getContact(Element empEl) {
-		String id = getTextValue(empEl, "yi");
-		String lcsid = getTextValue(empEl, "lcsid");
-		String firstName = getTextValue(empEl, "fn");
-		String lastName = getTextValue(empEl, "ln");
-		String nickName = getTextValue(empEl, "nn");
-		String groupName = getTextValue(empEl, "li");
-		if (isEmpty(id) && isEmpty(lcsid)) {
-			log.debug("Failed building user firstname: " + firstName + ", lastname: " + lastName + ", nickname: "
-					+ nickName + ", groupName: " + groupName + ", element: " + empEl + "/" + empEl.getAttributes());
-		}
-		if (isEmpty(id) && !isEmpty(lcsid)) {
-			id = lcsid;
+	/**
+	 * Read a listing into the address book
+	 * @param in the listing
+	 * @throws IOException if the listing cannot be read; the entries read until then are applied
+	 */
+	void importEntries(InputStream in) throws IOException {
+		String revision = new AddressBookBatcher<YahooAddressBookEntry>() {
+			@Override
+			protected YahooAddressBookEntry entry(String id, String firstName, String lastName, String nickName,
+					String groupName) {
+				return new YahooAddressBookEntry(id, firstName, lastName, nickName, groupName);
+			}
+
+			@Override
+			protected void addOrUpdate(List<YahooAddressBookEntry> entries) {
+				addressBook.addOrUpdate(entries);
+			}
+
+			@Override
+			protected void remove(List<String> ids) {
+				addressBook.remove(ids);
+			}
+		}.read(in);
+		if (revision != null) {
+			this.addressBook.setRevision(revision);
 		}
-		YahooAddressBookEntry user = new YahooAddressBookEntry(id, firstName, lastName, nickName, groupName);
-		// log.trace("firstname: " + firstName + ", lastname: " + lastName + ", nickname: " +
-		// nickName + ", groupName: " + groupName);
-		return user;
+		log.trace("Imported address book revision: " + revision);
 	}
 
-	private boolean isEmpty(String id) {
-		return id == null || id.length() == 0;
+	private String url() {
+		String revision = this.addressBook.getRevision();
+		try {
+			return NetworkConstants.ADDRESSBOOK_URL + "&diffs=1&" + AddressBookReader.REVISION + "="
+					+ (revision == null ? "0" : URLEncoder.encode(revision, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
-	private String getTextValue(Element ele, String tagName) {
-		// String textVal = null;
-		return ele.getAttribute(tagName);
-		// if(nl != null && nl.getLength() > 0) {
-		// Element el = (Element)nl.item(0);
-		// textVal = el.getFirstChild().getNodeValue();
-		// }
-		//
-		// return textVal;
+	private void close(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			log.warn("Failed closing stream");
+		}
 	}
 
 	@Override
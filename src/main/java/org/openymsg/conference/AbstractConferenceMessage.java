@@ -25,10 +25,7 @@ public abstract class AbstractConferenceMessage implements Message {
 
 	// TODO don't include me
 	protected void writeMembers(PacketBodyBuffer body, String key) throws UnsupportedEncodingException, IOException {
-		for (YahooContact contact : this.membership.getMembers()) {
-			body.addElement(key, contact.getName());
-			// TODO - handle protocol
-		}
+		body.addEncoded(this.membership.getEncodedMembers(key));
 	}
 
 	protected void writeInvited(PacketBodyBuffer body, String key) throws UnsupportedEncodingException, IOException {
@@ -1,14 +1,27 @@
 package org.openymsg.conference;
 
 import org.openymsg.YahooConference;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooContactPool;
+import org.openymsg.YahooProtocol;
 import org.openymsg.connection.read.SinglePacketResponse;
 import org.openymsg.network.YMSG9Packet;
 
 public abstract class AbstractConferenceResponse implements SinglePacketResponse {
 	protected SessionConferenceImpl sessionConference;
+	protected YahooContactPool contactPool;
 
 	public AbstractConferenceResponse(SessionConferenceImpl sessionConference) {
+		this(sessionConference, new YahooContactPool());
+	}
+
+	public AbstractConferenceResponse(SessionConferenceImpl sessionConference, YahooContactPool contactPool) {
 		this.sessionConference = sessionConference;
+		this.contactPool = contactPool;
+	}
+
+	protected YahooContact getContact(String id) {
+		return this.contactPool.get(id, YahooProtocol.YAHOO);
 	}
 
 	protected YahooConference getConference(YMSG9Packet packet) {
@@ -0,0 +1,14 @@
+package org.openymsg.conference;
+
+/**
+ * Why a conference was dropped from the session
+ * @author neilhart
+ */
+public enum ConferenceEvictionReason {
+	/** nothing was sent or received for the conference within the idle timeout */
+	IDLE,
+	/** every other member left or declined, and nobody is still invited */
+	EMPTY,
+	/** the session holds the maximum number of conferences, the least recently used one was dropped */
+	CAPACITY;
+}
@@ -4,7 +4,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openymsg.YahooConference;
 import org.openymsg.YahooContact;
-import org.openymsg.YahooProtocol;
+import org.openymsg.YahooContactPool;
 import org.openymsg.network.YMSG9Packet;
 
 import java.util.ArrayList;
@@ -27,6 +27,10 @@ public class ConferenceExtendResponse extends AbstractConferenceResponse {
 		super(sessionConference);
 	}
 
+	public ConferenceExtendResponse(SessionConferenceImpl sessionConference, YahooContactPool contactPool) {
+		super(sessionConference, contactPool);
+	}
+
 	@Override
 	public void execute(YMSG9Packet packet) {
 		@SuppressWarnings("unused")
@@ -36,7 +40,7 @@ public class ConferenceExtendResponse extends AbstractConferenceResponse {
 		// final String[] invitedContactIds = packet.getValues("52");
 		final String[] otherInvitedUserIds = getCommaSeperated(packet.getValues("51"));
 		String conferenceId = packet.getValue("57");
-		YahooContact inviter = new YahooContact(from, YahooProtocol.YAHOO);
+		YahooContact inviter = getContact(from);
 		Set<YahooContact> invitedContacts = getContacts(otherInvitedUserIds);
 		// Set<YahooContact> invitedContacts = getContacts(invitedContactIds);
 		// final String[] memberContactId = packet.getValues("53");
@@ -77,7 +81,7 @@ public class ConferenceExtendResponse extends AbstractConferenceResponse {
 	private Set<YahooContact> getContacts(final String[] contactIds) {
 		final Set<YahooContact> contacts = new HashSet<YahooContact>();
 		for (final String contactId : contactIds) {
-			YahooContact contact = new YahooContact(contactId, YahooProtocol.YAHOO);
+			YahooContact contact = getContact(contactId);
 			contacts.add(contact);
 		}
 		return contacts;
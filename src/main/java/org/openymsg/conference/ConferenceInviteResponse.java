@@ -4,7 +4,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openymsg.YahooConference;
 import org.openymsg.YahooContact;
-import org.openymsg.YahooProtocol;
+import org.openymsg.YahooContactPool;
 import org.openymsg.network.YMSG9Packet;
 
 import java.util.HashSet;
@@ -24,6 +24,10 @@ public class ConferenceInviteResponse extends AbstractConferenceResponse {
 		super(sessionConference);
 	}
 
+	public ConferenceInviteResponse(SessionConferenceImpl sessionConference, YahooContactPool contactPool) {
+		super(sessionConference, contactPool);
+	}
+
 	@Override
 	public void execute(YMSG9Packet packet) {
 		String to = packet.getValue("1");
@@ -39,7 +43,7 @@ public class ConferenceInviteResponse extends AbstractConferenceResponse {
 		String value233 = packet.getValue("233"); // unknown
 		@SuppressWarnings("unused")
 		String value234 = packet.getValue("234"); // duplicate of conferenceId?
-		YahooContact inviter = new YahooContact(from, YahooProtocol.YAHOO);
+		YahooContact inviter = getContact(from);
 		Set<YahooContact> invitedContacts = getContacts(invitedContactIds);
 		final String[] memberContactId = packet.getValues("53");
 		Set<YahooContact> memberContacts = getContacts(memberContactId);
@@ -78,7 +82,7 @@ public class ConferenceInviteResponse extends AbstractConferenceResponse {
 	private Set<YahooContact> getContacts(final String[] contactIds) {
 		final Set<YahooContact> contacts = new HashSet<YahooContact>();
 		for (final String contactId : contactIds) {
-			YahooContact contact = new YahooContact(contactId, YahooProtocol.YAHOO);
+			YahooContact contact = getContact(contactId);
 			contacts.add(contact);
 		}
 		return contacts;
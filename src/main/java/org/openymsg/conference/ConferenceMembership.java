@@ -2,6 +2,7 @@ package org.openymsg.conference;
 
 import org.openymsg.YahooContact;
 
+import java.io.IOException;
 import java.util.Set;
 
 /**
@@ -15,6 +16,15 @@ public interface ConferenceMembership {
 	 */
 	Set<YahooContact> getMembers();
 
+	/**
+	 * Members encoded as packet body fields, one key/value pair per member. The array is shared until the members
+	 * change, and must not be modified.
+	 * @param key field key for each member
+	 * @return encoded members
+	 * @throws IOException if the members cannot be encoded
+	 */
+	byte[] getEncodedMembers(String key) throws IOException;
+
 	/**
 	 * Set of contacts that are invited to the conference.
 	 * @return contacts that are invited
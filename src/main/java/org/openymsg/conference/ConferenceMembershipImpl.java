@@ -3,10 +3,14 @@ package org.openymsg.conference;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openymsg.YahooContact;
-import org.openymsg.util.CollectionUtils;
+import org.openymsg.network.PacketBodyBuffer;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Information on membership of a YahooConference. It contains the contact that were invited, established membership,
@@ -15,6 +19,9 @@ import java.util.TreeSet;
  * <P>
  * This class also does checking of state. Methods return a boolean that indicates success if there were no problem. If
  * there was a problem, it is logged. Methods should not throw an exception if there is a problem.
+ * <P>
+ * Membership is changed by the reader thread and read when sending conference messages. The sets are guarded by this,
+ * getters return immutable copies. The member copy and the encoded members are kept until the members change.
  * @author neilhart
  */
 public class ConferenceMembershipImpl implements ConferenceMembership {
@@ -26,13 +33,17 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 	private Set<YahooContact> invitedContacts = new TreeSet<YahooContact>();
 	/** set of Contacts that were members that left or declined an invitation */
 	private Set<YahooContact> declinedOrLeftContacts = new TreeSet<YahooContact>();
+	/** immutable copy of memberContacts, null after the members change */
+	private volatile Set<YahooContact> members = Collections.emptySet();
+	/** members encoded by field key, cleared when the members change */
+	private final Map<String, byte[]> encodedMembers = new ConcurrentHashMap<String, byte[]>();
 
 	/**
 	 * Add a set of contacts to the invited list. Contacts are removed from the declinedOrLeft list if they is there.
 	 * @param invited contacts that were invited
 	 * @return true if no issues where found with the internal state
 	 */
-	public boolean addInvited(Set<YahooContact> invited) {
+	public synchronized boolean addInvited(Set<YahooContact> invited) {
 		boolean successful = true;
 		for (YahooContact yahooContact : invited) {
 			// TODO don't like this
@@ -46,7 +57,7 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 	 * @param invited invited contact
 	 * @return true if no issues where found with the internal state
 	 */
-	public boolean addInvited(YahooContact invited) {
+	public synchronized boolean addInvited(YahooContact invited) {
 		boolean successful = true;
 		if (this.invitedContacts.contains(invited)) {
 			successful = false;
@@ -66,7 +77,7 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 	 * @param members contacts that are members
 	 * @return true if no issues where found with the internal state
 	 */
-	public boolean addMember(Set<YahooContact> members) {
+	public synchronized boolean addMember(Set<YahooContact> members) {
 		boolean successful = true;
 		for (YahooContact yahooContact : members) {
 			// TODO don't like this
@@ -80,13 +91,15 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 	 * @param member member contact
 	 * @return true if no issues where found with the internal state
 	 */
-	public boolean addMember(YahooContact member) {
+	public synchronized boolean addMember(YahooContact member) {
 		boolean successful = true;
 		if (memberContacts.contains(member)) {
 			successful = false;
 			log.warn("Adding a contact as a member that was already a member: " + member);
 		}
-		memberContacts.add(member);
+		if (memberContacts.add(member)) {
+			membersChanged();
+		}
 		removeFromInvited(member);
 		removeFromDeclinedOrLeft(member);
 		return successful;
@@ -97,7 +110,7 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 	 * @param decline declining contact
 	 * @return true if no issues where found with the internal state
 	 */
-	public boolean addDecline(YahooContact decline) {
+	public synchronized boolean addDecline(YahooContact decline) {
 		boolean successful = true;
 		log.debug("declined from invited: " + decline);
 		boolean removed = this.invitedContacts.remove(decline);
@@ -107,6 +120,7 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 		}
 		removed = this.memberContacts.remove(decline);
 		if (removed) {
+			membersChanged();
 			successful = false;
 			log.warn("Declined contact was a member: " + decline);
 		}
@@ -119,11 +133,13 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 	 * @param left leaving contact
 	 * @return true if no issues where found with the internal state
 	 */
-	public boolean addLeft(YahooContact left) {
+	public synchronized boolean addLeft(YahooContact left) {
 		boolean successful = true;
 		log.debug("left from member: " + left);
 		boolean removed = this.memberContacts.remove(left);
-		if (!removed) {
+		if (removed) {
+			membersChanged();
+		} else {
 			successful = false;
 			log.warn("Left contact not a member" + left);
 		}
@@ -131,7 +147,6 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 		if (removed) {
 			successful = false;
 			log.warn("Left contact was invited: " + left);
-			this.memberContacts.remove(left);
 		}
 		this.declinedOrLeftContacts.add(left);
 		return successful;
@@ -139,17 +154,55 @@ public class ConferenceMembershipImpl implements ConferenceMembership {
 
 	@Override
 	public Set<YahooContact> getMembers() {
-		return CollectionUtils.unmodifiableSet(this.memberContacts);
+		Set<YahooContact> current = this.members;
+		if (current != null) {
+			return current;
+		}
+		synchronized (this) {
+			if (this.members == null) {
+				this.members = Collections.unmodifiableSet(new TreeSet<YahooContact>(this.memberContacts));
+			}
+			return this.members;
+		}
 	}
 
 	@Override
-	public Set<YahooContact> getInvited() {
-		return CollectionUtils.unmodifiableSet(this.invitedContacts);
+	public byte[] getEncodedMembers(String key) throws IOException {
+		byte[] encoded = this.encodedMembers.get(key);
+		if (encoded != null) {
+			return encoded;
+		}
+		synchronized (this) {
+			encoded = this.encodedMembers.get(key);
+			if (encoded == null) {
+				PacketBodyBuffer body = new PacketBodyBuffer();
+				for (YahooContact contact : this.memberContacts) {
+					body.addElement(key, contact.getName());
+					// TODO - handle protocol
+				}
+				encoded = body.getBuffer();
+				this.encodedMembers.put(key, encoded);
+			}
+			return encoded;
+		}
 	}
 
 	@Override
-	public Set<YahooContact> getDeclineOrLeft() {
-		return CollectionUtils.unmodifiableSet(this.declinedOrLeftContacts);
+	public synchronized Set<YahooContact> getInvited() {
+		return Collections.unmodifiableSet(new TreeSet<YahooContact>(this.invitedContacts));
+	}
+
+	@Override
+	public synchronized Set<YahooContact> getDeclineOrLeft() {
+		return Collections.unmodifiableSet(new TreeSet<YahooContact>(this.declinedOrLeftContacts));
+	}
+
+	/**
+	 * Drop the member copy and the encoded members, they are rebuilt on the next read
+	 */
+	private void membersChanged() {
+		this.members = null;
+		this.encodedMembers.clear();
 	}
 
 	/**
@@ -0,0 +1,190 @@
+package org.openymsg.conference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openymsg.YahooConference;
+import org.openymsg.util.VersionedMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conferences of a session with their membership. Conferences are kept in least recently used order. They are evicted
+ * when idle for longer than the idle timeout, when the registry is over its maximum size, or when nobody but the user
+ * is left. Idle conferences are found whenever the registry is used. Evictions are queued until taken, so the session
+ * can tell the callback without holding the registry lock.
+ * @author neilhart
+ */
+class ConferenceRegistry {
+	/** logger */
+	private static final Log log = LogFactory.getLog(ConferenceRegistry.class);
+	private final int maximumSize;
+	private final long idleTimeout;
+	/** access ordered, guarded by this */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final VersionedMap<String, YahooConference> conferences = new VersionedMap<String, YahooConference>();
+	/** guarded by this */
+	private List<Eviction> evicted = new ArrayList<Eviction>();
+
+	/**
+	 * @param maximumSize maximum number of conferences
+	 * @param idleTimeout milliseconds without activity before a conference is evicted, 0 for never
+	 */
+	ConferenceRegistry(int maximumSize, long idleTimeout) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("maximumSize must be positive");
+		}
+		if (idleTimeout < 0) {
+			throw new IllegalArgumentException("idleTimeout cannot be negative");
+		}
+		this.maximumSize = maximumSize;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Get the membership of a conference, and mark the conference as used
+	 * @param conferenceId conference id
+	 * @return membership, null if the conference is unknown
+	 */
+	synchronized ConferenceMembershipImpl get(String conferenceId) {
+		long now = now();
+		expireIdle(now);
+		Entry entry = this.entries.get(conferenceId);
+		if (entry == null) {
+			return null;
+		}
+		entry.lastUsed = now;
+		return entry.membership;
+	}
+
+	/**
+	 * Get the membership of a conference, adding the conference if it is unknown
+	 * @param conference conference
+	 * @return membership
+	 */
+	synchronized ConferenceMembershipImpl getOrAdd(YahooConference conference) {
+		ConferenceMembershipImpl membership = get(conference.getId());
+		if (membership != null) {
+			return membership;
+		}
+		Entry entry = new Entry(conference, now());
+		this.entries.put(conference.getId(), entry);
+		this.conferences.put(conference.getId(), conference);
+		Iterator<Entry> eldest = this.entries.values().iterator();
+		while (this.entries.size() > this.maximumSize) {
+			evict(eldest, ConferenceEvictionReason.CAPACITY);
+		}
+		return entry.membership;
+	}
+
+	/**
+	 * Remove a conference without queuing an eviction
+	 * @param conferenceId conference id
+	 * @return membership of the removed conference, null if unknown
+	 */
+	synchronized ConferenceMembershipImpl remove(String conferenceId) {
+		Entry entry = this.entries.remove(conferenceId);
+		if (entry == null) {
+			return null;
+		}
+		this.conferences.remove(conferenceId);
+		return entry.membership;
+	}
+
+	/**
+	 * Evict the conference if there are no members or invited contacts left
+	 * @param conferenceId conference id
+	 */
+	synchronized void evictIfEmpty(String conferenceId) {
+		Entry entry = this.entries.get(conferenceId);
+		if (entry != null && entry.membership.getMembers().isEmpty() && entry.membership.getInvited().isEmpty()) {
+			remove(conferenceId);
+			evicted(entry, ConferenceEvictionReason.EMPTY);
+		}
+	}
+
+	/**
+	 * Take the evictions queued since the last call
+	 * @return evictions, oldest first
+	 */
+	synchronized List<Eviction> takeEvicted() {
+		if (this.evicted.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Eviction> taken = this.evicted;
+		this.evicted = new ArrayList<Eviction>();
+		return taken;
+	}
+
+	VersionedMap<String, YahooConference> getConferences() {
+		return this.conferences;
+	}
+
+	synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Current time, in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	private void expireIdle(long now) {
+		if (this.idleTimeout == 0) {
+			return;
+		}
+		Iterator<Entry> eldest = this.entries.values().iterator();
+		while (eldest.hasNext()) {
+			Entry entry = eldest.next();
+			if (now - entry.lastUsed < this.idleTimeout) {
+				// the rest were used more recently
+				return;
+			}
+			eldest.remove();
+			this.conferences.remove(entry.conference.getId());
+			evicted(entry, ConferenceEvictionReason.IDLE);
+		}
+	}
+
+	private void evict(Iterator<Entry> eldest, ConferenceEvictionReason reason) {
+		Entry entry = eldest.next();
+		eldest.remove();
+		this.conferences.remove(entry.conference.getId());
+		evicted(entry, reason);
+	}
+
+	private void evicted(Entry entry, ConferenceEvictionReason reason) {
+		log.debug("Evicting conference: " + entry.conference.getId() + " reason: " + reason);
+		this.evicted.add(new Eviction(entry.conference, reason));
+	}
+
+	/**
+	 * Conference that was evicted
+	 */
+	static final class Eviction {
+		final YahooConference conference;
+		final ConferenceEvictionReason reason;
+
+		private Eviction(YahooConference conference, ConferenceEvictionReason reason) {
+			this.conference = conference;
+			this.reason = reason;
+		}
+	}
+
+	private static final class Entry {
+		private final YahooConference conference;
+		private final ConferenceMembershipImpl membership = new ConferenceMembershipImpl();
+		private long lastUsed;
+
+		private Entry(YahooConference conference, long lastUsed) {
+			this.conference = conference;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
@@ -75,5 +75,16 @@ public interface SessionConference {
 	// * @return matching ConferenceStatus, null if not found.
 	// */
 	// YahooConferenceStatus getConferenceStatus(String conferenceId);
+	/**
+	 * Get the conferences. The set is an immutable snapshot; the same instance is returned until the conferences
+	 * change.
+	 * @return all conferences
+	 */
 	Set<YahooConference> getConferences();
+
+	/**
+	 * Version of the conferences, changes whenever a conference is added or removed
+	 * @return version of the conferences
+	 */
+	long getConferencesVersion();
 }
@@ -0,0 +1,18 @@
+package org.openymsg.conference;
+
+import org.openymsg.YahooConference;
+
+/**
+ * Optional callback for conferences dropped by the session. If the YahooSessionCallback also implements this interface,
+ * it is told about each conference that is dropped, so it can release its own state for the conference. Leaving or
+ * declining a conference drops it without a call.
+ * @author neilhart
+ */
+public interface SessionConferenceEvictionCallback {
+	/**
+	 * The conference is no longer tracked by the session
+	 * @param conference dropped conference
+	 * @param reason why it was dropped
+	 */
+	void conferenceEvicted(YahooConference conference, ConferenceEvictionReason reason);
+}
@@ -4,28 +4,49 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openymsg.YahooConference;
 import org.openymsg.YahooContact;
+import org.openymsg.YahooContactPool;
 import org.openymsg.connection.YahooConnection;
 import org.openymsg.network.ServiceType;
-import org.openymsg.util.CollectionUtils;
 
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class SessionConferenceImpl implements SessionConference {
+	/** default maximum number of conferences kept by a session */
+	public static final int DEFAULT_MAXIMUM_CONFERENCES = 1000;
+	/** default milliseconds without activity before a conference is dropped */
+	public static final long DEFAULT_CONFERENCE_IDLE_TIMEOUT = 60 * 60 * 1000L;
 	/** logger */
 	private static final Log log = LogFactory.getLog(SessionConferenceImpl.class);
 	private String username;
 	private YahooConnection executor;
 	private SessionConferenceCallback callback;
-	private Map<String, YahooConference> conferences = new ConcurrentHashMap<String, YahooConference>();
 	// private Map<String, YahooConferenceStatus> conferenceStatuses = new ConcurrentHashMap<String,
 	// YahooConferenceStatus>();
-	private Map<String, ConferenceMembershipImpl> conferenceMemberships =
-			new ConcurrentHashMap<String, ConferenceMembershipImpl>();
+	private ConferenceRegistry conferences;
+	private YahooContactPool contactPool;
 
 	public SessionConferenceImpl(String username, YahooConnection executor, SessionConferenceCallback callback)
 			throws IllegalArgumentException {
+		this(username, executor, callback, new YahooContactPool());
+	}
+
+	public SessionConferenceImpl(String username, YahooConnection executor, SessionConferenceCallback callback,
+			YahooContactPool contactPool) throws IllegalArgumentException {
+		this(username, executor, callback, contactPool, DEFAULT_MAXIMUM_CONFERENCES, DEFAULT_CONFERENCE_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * @param maximumConferences conferences kept before the least recently used is dropped
+	 * @param idleTimeout milliseconds without activity before a conference is dropped, 0 for never
+	 */
+	public SessionConferenceImpl(String username, YahooConnection executor, SessionConferenceCallback callback,
+			YahooContactPool contactPool, int maximumConferences, long idleTimeout) throws IllegalArgumentException {
+		this(username, executor, callback, contactPool, new ConferenceRegistry(maximumConferences, idleTimeout));
+	}
+
+	SessionConferenceImpl(String username, YahooConnection executor, SessionConferenceCallback callback,
+			YahooContactPool contactPool, ConferenceRegistry conferences) throws IllegalArgumentException {
 		if (username == null) {
 			throw new IllegalArgumentException("Username cannot be null");
 		}
@@ -37,14 +58,19 @@ public class SessionConferenceImpl implements SessionConference {
 		}
 		this.username = username;
 		this.executor = executor;
+		if (contactPool == null) {
+			throw new IllegalArgumentException("ContactPool cannot be null");
+		}
 		this.callback = callback;
+		this.contactPool = contactPool;
+		this.conferences = conferences;
 		initializeRegistry();
 	}
 
 	protected void initializeRegistry() {
 		executor.register(ServiceType.CONFMSG, new ConferenceMessageResponse(this));
-		executor.register(ServiceType.CONFINVITE, new ConferenceInviteResponse(this));
-		executor.register(ServiceType.CONFADDINVITE, new ConferenceExtendResponse(this));
+		executor.register(ServiceType.CONFINVITE, new ConferenceInviteResponse(this, contactPool));
+		executor.register(ServiceType.CONFADDINVITE, new ConferenceExtendResponse(this, contactPool));
 		executor.register(ServiceType.CONFDECLINE, new ConferenceDeclineResponse(this));
 		executor.register(ServiceType.CONFLOGON, new ConferenceAcceptResponse(this));
 		executor.register(ServiceType.CONFLOGOFF, new ConferenceLeaveResponse(this));
@@ -58,7 +84,8 @@ public class SessionConferenceImpl implements SessionConference {
 		if (message == null) {
 			throw new IllegalArgumentException("Message cannot be null");
 		}
-		ConferenceMembership membership = this.conferenceMemberships.get(conference.getId());
+		ConferenceMembership membership = this.conferences.get(conference.getId());
+		notifyEvicted();
 		if (membership == null) {
 			throw new IllegalArgumentException("Unknown conference: " + conference);
 		}
@@ -70,15 +97,10 @@ public class SessionConferenceImpl implements SessionConference {
 		if (conference == null) {
 			throw new IllegalArgumentException("Conference cannot be null");
 		}
-		ConferenceMembership membership = this.conferenceMemberships.get(conference.getId());
+		ConferenceMembership membership = this.conferences.remove(conference.getId());
+		notifyEvicted();
 		if (membership == null) {
-			if (this.conferences.containsKey(conference.getId())) {
-				log.error("Trying to leave with a conference in conferences, but not in membership: "
-						+ conference.getId());
-				return;
-			} else {
-				throw new IllegalArgumentException("Unknown conference: " + conference);
-			}
+			throw new IllegalArgumentException("Unknown conference: " + conference);
 		}
 		executor.execute(new LeaveConferenceMessage(username, conference, membership));
 	}
@@ -88,7 +110,8 @@ public class SessionConferenceImpl implements SessionConference {
 		if (conference == null) {
 			throw new IllegalArgumentException("Conference cannot be null");
 		}
-		ConferenceMembership membership = this.conferenceMemberships.get(conference.getId());
+		ConferenceMembership membership = this.conferences.get(conference.getId());
+		notifyEvicted();
 		if (membership == null) {
 			throw new IllegalArgumentException("Unknown conference: " + conference);
 		}
@@ -105,10 +128,10 @@ public class SessionConferenceImpl implements SessionConference {
 		if (contacts == null) {
 			throw new IllegalArgumentException("Contact cannot be null, but can be empty");
 		}
-		// TODO - how to add invited ids to conference
 		YahooConference conference = new YahooConference(conferenceId);
-		// TODO - cannot reused id
-		conferenceMemberships.put(conferenceId, new ConferenceMembershipImpl());
+		// the invitees keep the conference until they all declined or left
+		this.conferences.getOrAdd(conference).addInvited(contacts);
+		notifyEvicted();
 		executor.execute(new CreateConferenceMessage(username, conference, contacts, message));
 		return conference;
 	}
@@ -118,7 +141,8 @@ public class SessionConferenceImpl implements SessionConference {
 		if (conference == null) {
 			throw new IllegalArgumentException("Conference cannot be null");
 		}
-		ConferenceMembership membership = this.conferenceMemberships.get(conference.getId());
+		ConferenceMembership membership = this.conferences.remove(conference.getId());
+		notifyEvicted();
 		if (membership == null) {
 			throw new IllegalArgumentException("Unknown conference: " + conference);
 		}
@@ -138,7 +162,8 @@ public class SessionConferenceImpl implements SessionConference {
 		// if (primaryID.getId().equals(id) || loginID.getId().equals(id) || identities.containsKey(id)) {
 		// throw new IllegalIdentityException(id + " is an identity of this session and cannot be used here");
 		// }
-		ConferenceMembership membership = conferenceMemberships.get(conference.getId());
+		ConferenceMembership membership = this.conferences.get(conference.getId());
+		notifyEvicted();
 		if (membership == null) {
 			throw new IllegalArgumentException("Unknown conference: " + conference);
 		}
@@ -150,10 +175,11 @@ public class SessionConferenceImpl implements SessionConference {
 		if (conferenceId == null) {
 			throw new IllegalArgumentException("ConferenceId cannot be null");
 		}
-		if (!conferences.containsKey(conferenceId)) {
+		YahooConference conference = this.conferences.getConferences().get(conferenceId);
+		if (conference == null) {
 			log.warn("Conference not found for: " + conferenceId);
 		}
-		return conferences.get(conferenceId);
+		return conference;
 	}
 
 	// @Override
@@ -167,38 +193,53 @@ public class SessionConferenceImpl implements SessionConference {
 	// }
 	//
 	public void receivedConferenceMessage(YahooConference conference, YahooContact contact, String message) {
+		ConferenceMembershipImpl membership = this.conferences.get(conference.getId());
+		if (membership == null) {
+			// the conference is live, it may have been dropped while idle
+			log.debug("message for unknown conference: " + conference);
+			membership = this.conferences.getOrAdd(conference);
+		}
+		membership.addMember(contact);
 		callback.receivedConferenceMessage(conference, contact, message);
+		notifyEvicted();
 	}
 
 	public void receivedConferenceDecline(YahooConference conference, YahooContact contact, String message) {
-		ConferenceMembershipImpl membership = conferenceMemberships.get(conference.getId());
+		ConferenceMembershipImpl membership = this.conferences.get(conference.getId());
 		if (membership == null) {
 			log.warn("no membership for decline: " + conference);
-			membership = new ConferenceMembershipImpl();
-			conferenceMemberships.put(conference.getId(), membership);
+		} else {
+			membership.addDecline(contact);
+			this.conferences.evictIfEmpty(conference.getId());
 		}
-		membership.addDecline(contact);
 		callback.receivedConferenceDecline(conference, contact, message);
+		notifyEvicted();
 	}
 
 	@Override
 	public Set<YahooConference> getConferences() {
-		return CollectionUtils.protectedSet(this.conferences.values());
+		return this.conferences.getConferences().getValues();
+	}
+
+	@Override
+	public long getConferencesVersion() {
+		return this.conferences.getConferences().getVersion();
 	}
 
 	public ConferenceMembership getConferenceMembership(YahooConference conference) {
 		if (conference == null) {
 			throw new IllegalArgumentException("Conference cannot be null");
 		}
-		return conferenceMemberships.get(conference.getId());
+		ConferenceMembership membership = this.conferences.get(conference.getId());
+		notifyEvicted();
+		return membership;
 	}
 
 	public void receivedConferenceInvite(YahooConference conference, YahooContact inviter, Set<YahooContact> invited,
 			Set<YahooContact> members, String message) {
-		ConferenceMembershipImpl membership = conferenceMemberships.get(conference.getId());
+		ConferenceMembershipImpl membership = this.conferences.get(conference.getId());
 		if (membership == null) {
-			membership = new ConferenceMembershipImpl();
-			conferenceMemberships.put(conference.getId(), membership);
+			membership = this.conferences.getOrAdd(conference);
 		} else {
 			log.debug("invited to previously added conference: " + conference);
 			// TODO reset membership?
@@ -207,53 +248,69 @@ public class SessionConferenceImpl implements SessionConference {
 		membership.addMember(members);
 		membership.addInvited(invited);
 		this.callback.receivedConferenceInvite(conference, inviter, invited, members, message);
+		notifyEvicted();
 	}
 
 	public void receivedConferenceInviteAck(YahooConference conference, Set<YahooContact> invited,
 			Set<YahooContact> members, String message) {
-		ConferenceMembershipImpl membership = conferenceMemberships.get(conference.getId());
+		ConferenceMembershipImpl membership = this.conferences.get(conference.getId());
 		if (membership == null) {
 			log.warn("getting ack for a conference we don't have");
-			membership = new ConferenceMembershipImpl();
-			conferenceMemberships.put(conference.getId(), membership);
+			membership = this.conferences.getOrAdd(conference);
 		} else {
 			log.debug("Got ack for conference: " + conference);
 		}
 		membership.addMember(members);
 		membership.addInvited(invited);
 		callback.receivedConferenceInviteAck(conference, invited, members, message);
+		notifyEvicted();
 	}
 
 	public void receivedConferenceAccept(YahooConference conference, YahooContact contact) {
-		ConferenceMembershipImpl membership = conferenceMemberships.get(conference.getId());
+		ConferenceMembershipImpl membership = this.conferences.get(conference.getId());
 		if (membership == null) {
 			log.warn("no membership for accept: " + conference);
-			membership = new ConferenceMembershipImpl();
-			this.conferenceMemberships.put(conference.getId(), membership);
+			membership = this.conferences.getOrAdd(conference);
 		}
 		membership.addMember(contact);
 		callback.receivedConferenceAccept(conference, contact);
+		notifyEvicted();
 	}
 
 	public void receivedConferenceExtend(YahooConference conference, YahooContact inviter, Set<YahooContact> invited) {
-		ConferenceMembershipImpl membership = conferenceMemberships.get(conference.getId());
+		ConferenceMembershipImpl membership = this.conferences.get(conference.getId());
 		if (membership == null) {
-			log.warn("no membership for accept: " + conference);
-			membership = new ConferenceMembershipImpl();
-			conferenceMemberships.put(conference.getId(), membership);
+			log.warn("no membership for extend: " + conference);
+			membership = this.conferences.getOrAdd(conference);
 		}
 		membership.addInvited(invited);
 		callback.receivedConferenceExtend(conference, inviter, invited);
+		notifyEvicted();
 	}
 
 	public void receivedConferenceLeft(YahooConference conference, YahooContact contact) {
-		ConferenceMembershipImpl membership = conferenceMemberships.get(conference.getId());
+		ConferenceMembershipImpl membership = this.conferences.get(conference.getId());
 		if (membership == null) {
-			log.warn("no membership for accept: " + conference);
-			membership = new ConferenceMembershipImpl();
-			conferenceMemberships.put(conference.getId(), membership);
+			log.warn("no membership for leave: " + conference);
+		} else {
+			membership.addLeft(contact);
+			this.conferences.evictIfEmpty(conference.getId());
 		}
-		membership.addLeft(contact);
 		callback.receivedConferenceLeft(conference, contact);
+		notifyEvicted();
+	}
+
+	/**
+	 * Tell the callback about evicted conferences, if it wants to know
+	 */
+	private void notifyEvicted() {
+		List<ConferenceRegistry.Eviction> evicted = this.conferences.takeEvicted();
+		if (evicted.isEmpty() || !(this.callback instanceof SessionConferenceEvictionCallback)) {
+			return;
+		}
+		for (ConferenceRegistry.Eviction eviction : evicted) {
+			((SessionConferenceEvictionCallback) this.callback).conferenceEvicted(eviction.conference,
+					eviction.reason);
+		}
 	}
 }
@@ -1,5 +1,8 @@
 package org.openymsg.config;
 
+import org.openymsg.YahooContactPool;
+import org.openymsg.contact.roster.RosterSnapshotStore;
+import org.openymsg.message.MessageDeduplicator;
 import org.openymsg.network.ConnectionBuilder;
 import org.openymsg.network.url.URLStreamBuilder;
 
@@ -56,4 +59,37 @@ public interface SessionConfig {
 	Integer getSessionTimeout();
 
 	boolean isSSLCheckDisabled();
+
+	/**
+	 * Pool used to share YahooContact instances. Called once per session. Return YahooContactPool.getShared() to share
+	 * contacts across sessions.
+	 * @return contact pool for the session
+	 */
+	YahooContactPool getContactPool();
+
+	/**
+	 * Store for the roster snapshot served at login, before yahoo sends the roster. Null disables snapshots.
+	 * @return snapshot store, or null
+	 */
+	RosterSnapshotStore getRosterSnapshotStore();
+
+	/**
+	 * Maximum number of conferences a session keeps. When a new conference would exceed it, the least recently used
+	 * conference is dropped.
+	 * @return maximum number of conferences
+	 */
+	int getMaximumConferences();
+
+	/**
+	 * Milliseconds a conference may go without activity before it is dropped. 0 keeps idle conferences.
+	 * @return idle timeout in milliseconds
+	 */
+	long getConferenceIdleTimeout();
+
+	/**
+	 * Recognizes messages that yahoo delivers more than once, so they are only passed to the callback once. Called once
+	 * per session. Null delivers every message.
+	 * @return deduplicator for the session, or null
+	 */
+	MessageDeduplicator getMessageDeduplicator();
 }
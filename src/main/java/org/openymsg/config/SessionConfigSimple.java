@@ -2,6 +2,10 @@ package org.openymsg.config;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openymsg.YahooContactPool;
+import org.openymsg.conference.SessionConferenceImpl;
+import org.openymsg.contact.roster.RosterSnapshotStore;
+import org.openymsg.message.MessageDeduplicator;
 import org.openymsg.network.ConnectionBuilder;
 import org.openymsg.network.NetworkConstants;
 import org.openymsg.network.direct.DirectConnectionBuilder;
@@ -97,4 +101,41 @@ public class SessionConfigSimple implements SessionConfig {
 	public boolean isSSLCheckDisabled() {
 		return false;
 	}
+
+	/**
+	 * Each session gets its own pool
+	 * @return new pool
+	 */
+	@Override
+	public YahooContactPool getContactPool() {
+		return new YahooContactPool();
+	}
+
+	/**
+	 * No roster snapshot
+	 * @return null
+	 */
+	@Override
+	public RosterSnapshotStore getRosterSnapshotStore() {
+		return null;
+	}
+
+	@Override
+	public int getMaximumConferences() {
+		return SessionConferenceImpl.DEFAULT_MAXIMUM_CONFERENCES;
+	}
+
+	@Override
+	public long getConferenceIdleTimeout() {
+		return SessionConferenceImpl.DEFAULT_CONFERENCE_IDLE_TIMEOUT;
+	}
+
+	/**
+	 * No de-duplication
+	 * @return null
+	 */
+	@Override
+	public MessageDeduplicator getMessageDeduplicator() {
+		return null;
+	}
 }
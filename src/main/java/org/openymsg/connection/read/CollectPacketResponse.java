@@ -7,10 +7,16 @@ import org.openymsg.network.YMSG9Packet;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Adapts a MultiplePacketResponse to the packets as they are read. The packets are collected until the response is
+ * finished, unless the response is a StreamingPacketResponse, which is handed each packet as it arrives.
+ */
 public class CollectPacketResponse implements SinglePacketResponse {
 	private static final Log log = LogFactory.getLog(CollectPacketResponse.class);
 	private final MultiplePacketResponse response;
 	protected List<YMSG9Packet> packets = new ArrayList<YMSG9Packet>();
+	/** whether a streamed response has begun */
+	private boolean started = false;
 
 	public CollectPacketResponse(MultiplePacketResponse response) {
 		this.response = response;
@@ -18,6 +24,31 @@ public class CollectPacketResponse implements SinglePacketResponse {
 
 	@Override
 	public void execute(YMSG9Packet packet) {
+		if (this.response instanceof StreamingPacketResponse) {
+			stream((StreamingPacketResponse) this.response, packet);
+		} else {
+			collect(packet);
+		}
+	}
+
+	private void stream(StreamingPacketResponse streaming, YMSG9Packet packet) {
+		if (!this.started) {
+			this.started = true;
+			streaming.begin();
+		}
+		try {
+			streaming.fragment(packet);
+		} finally {
+			if (streaming.isFinished(packet.status)) {
+				this.started = false;
+				streaming.end();
+			} else {
+				log.debug("still streaming: " + packet.status);
+			}
+		}
+	}
+
+	private void collect(YMSG9Packet packet) {
 		boolean finished = false;
 		this.packets.add(packet);
 		if (response.isFinished(packet.status)) {
@@ -0,0 +1,27 @@
+package org.openymsg.connection.read;
+
+import org.openymsg.network.YMSG9Packet;
+
+/**
+ * A MultiplePacketResponse that handles each packet as it arrives, instead of having all the packets collected first.
+ * The packets of a response are delivered as begin, a fragment per packet (the last included), then end, once
+ * isFinished is true for a packet. Handlers can release each packet after parsing it, and deliver partial results
+ * before the last packet arrives. execute should be the same as streaming the list.
+ */
+public interface StreamingPacketResponse extends MultiplePacketResponse {
+	/**
+	 * Called before the first packet of a response
+	 */
+	void begin();
+
+	/**
+	 * Called for each packet of a response
+	 * @param packet the next packet
+	 */
+	void fragment(YMSG9Packet packet);
+
+	/**
+	 * Called after the last packet of a response, even if handling it failed
+	 */
+	void end();
+}
@@ -0,0 +1,168 @@
+package org.openymsg.contact;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooContactGroup;
+import org.openymsg.YahooContactPool;
+import org.openymsg.YahooProtocol;
+import org.openymsg.contact.group.ContactGroupImpl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single pass parser of the LIST_15 packet bodies. Friends are indexed by name, so a contact in more than one group is
+ * found in constant time. Keys are parsed straight from the body, without boxing or copying the entries.
+ * @author neilhart
+ */
+class RosterParser {
+	/** logger */
+	private static final Log log = LogFactory.getLog(RosterParser.class);
+	private final YahooContactPool contactPool;
+	/** friends by name, in roster order */
+	private final Map<String, YahooContact> friends = new LinkedHashMap<String, YahooContact>();
+	/** friends found since the last takeNewFriends */
+	private List<YahooContact> newFriends = new ArrayList<YahooContact>();
+	private final Set<YahooContact> ignored = new LinkedHashSet<YahooContact>();
+	private final Set<YahooContact> pending = new LinkedHashSet<YahooContact>();
+	private final Map<String, ContactGroupImpl> groups = new HashMap<String, ContactGroupImpl>();
+	private ContactGroupImpl currentGroup = null;
+	private String username = null;
+	private YahooProtocol protocol = YahooProtocol.YAHOO;
+	private boolean isPending = false;
+
+	RosterParser(YahooContactPool contactPool) {
+		this.contactPool = contactPool;
+	}
+
+	/**
+	 * Parse the body of one packet. State carries over to the next packet, except for a buddy that is ended by the
+	 * end of the packet.
+	 * @param body packet body of keys and values
+	 */
+	void parse(String[] body) {
+		for (int i = 0; i + 1 < body.length; i += 2) {
+			String value = body[i + 1];
+			switch (parseKey(body[i])) {
+				case 302:
+					/*
+					 * This is always 318 before a group, 319 before the first s/n in a group, 320 before any ignored
+					 * s/n. It is not sent for s/n's in a group after the first. All ignored s/n's are listed last, so
+					 * when we see a 320 we clear the group and begin marking the s/n's as ignored. It is always
+					 * followed by an identical 300 key.
+					 */
+					if (value != null && value.equals("320")) {
+						currentGroup = null;
+					}
+					break;
+				case 301:
+					/*
+					 * This is 319 before all s/n's in a group after the first. It is followed by an identical 300.
+					 */
+					endBuddy();
+					break;
+				case 223: /* Pending add user request */
+					isPending = true;
+					break;
+				case 65: /* This is the group */
+					currentGroup = groups.get(value);
+					if (currentGroup == null) {
+						currentGroup = new ContactGroupImpl(value);
+						groups.put(value, currentGroup);
+					}
+					break;
+				case 7: /* buddy's s/n */
+					username = value;
+					break;
+				case 241: /* another protocol user */
+					protocol = YahooProtocol.getProtocolOrDefault(value, username);
+					break;
+				default:
+					// 300 - 318 before a group, 319 before any s/n in a group, and 320 before any ignored s/n.
+					// 59 - cookies, 317 - stealth setting
+					break;
+			}
+		}
+		endBuddy();
+	}
+
+	private void endBuddy() {
+		if (username == null) {
+			return;
+		}
+		YahooContact contact;
+		if (currentGroup != null) {
+			contact = friends.get(username);
+			if (contact == null) {
+				/* This buddy is in a group */
+				contact = contactPool.get(username, protocol);
+				friends.put(username, contact);
+				newFriends.add(contact);
+			} else if (!contact.getProtocol().equals(protocol) && contact.getProtocol().equals(YahooProtocol.YAHOO)) {
+				log.error("Switching protocols because user is in list more that once: " + contact.getName()
+						+ " from: " + contact.getProtocol() + " to: " + protocol);
+				// TODO remove old contact?
+			}
+			currentGroup.add(contact);
+		} else {
+			/* This buddy is on the ignore list (and therefore in no group) */
+			contact = contactPool.get(username, protocol);
+			ignored.add(contact);
+		}
+		if (isPending) {
+			pending.add(contact);
+		}
+		username = null;
+		isPending = false;
+		protocol = YahooProtocol.YAHOO;
+	}
+
+	/**
+	 * Parse a numeric key without boxing
+	 * @param key packet key
+	 * @return the key, or -1 if not numeric
+	 */
+	static int parseKey(String key) {
+		int length = key.length();
+		if (length == 0 || length > 9) {
+			return -1;
+		}
+		int result = 0;
+		for (int i = 0; i < length; i++) {
+			int digit = key.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			result = result * 10 + digit;
+		}
+		return result;
+	}
+
+	/**
+	 * Friends found since the last call, so they can be delivered before the roster is complete
+	 * @return new friends, in roster order
+	 */
+	List<YahooContact> takeNewFriends() {
+		List<YahooContact> taken = newFriends;
+		newFriends = new ArrayList<YahooContact>();
+		return taken;
+	}
+
+	Set<YahooContact> getIgnored() {
+		return ignored;
+	}
+
+	Set<YahooContact> getPending() {
+		return pending;
+	}
+
+	Set<YahooContactGroup> getGroups() {
+		return new LinkedHashSet<YahooContactGroup>(groups.values());
+	}
+}
@@ -2,12 +2,15 @@ package org.openymsg.contact;
 
 import org.openymsg.YahooContact;
 import org.openymsg.YahooContactGroup;
+import org.openymsg.YahooContactPool;
 import org.openymsg.YahooContactStatus;
 import org.openymsg.connection.YahooConnection;
 import org.openymsg.contact.group.SessionGroupImpl;
+import org.openymsg.contact.roster.RosterSnapshotStore;
 import org.openymsg.contact.roster.SessionRosterImpl;
 import org.openymsg.contact.status.ContactStatusImpl;
 import org.openymsg.contact.status.SessionStatusImpl;
+import org.openymsg.execute.dispatch.Dispatcher;
 import org.openymsg.network.ServiceType;
 
 import java.util.Set;
@@ -20,15 +23,36 @@ public class SessionContactImpl implements SessionContact {
 	private YahooConnection executor;
 
 	public SessionContactImpl(YahooConnection executor, String username, SessionContactCallback callback) {
+		this(executor, username, callback, new YahooContactPool());
+	}
+
+	public SessionContactImpl(YahooConnection executor, String username, SessionContactCallback callback,
+			YahooContactPool contactPool) {
+		this(executor, username, callback, contactPool, null, null);
+	}
+
+	/**
+	 * @param snapshotStore when not null, the saved roster is given to the callback before yahoo sends the roster
+	 * @param dispatcher loads the saved roster, may be null without a snapshot store
+	 */
+	public SessionContactImpl(YahooConnection executor, String username, SessionContactCallback callback,
+			YahooContactPool contactPool, RosterSnapshotStore snapshotStore, Dispatcher dispatcher) {
 		this.executor = executor;
 		sessionRoster = new SessionRosterImpl(executor, username, callback);
 		sessionGroup = new SessionGroupImpl(executor, username);
-		sessionStatus = new SessionStatusImpl(executor, callback);
+		sessionStatus = new SessionStatusImpl(executor, callback, contactPool);
+		SessionRosterSnapshot snapshot = null;
+		if (snapshotStore != null) {
+			snapshot = new SessionRosterSnapshot(snapshotStore, username, sessionRoster, sessionGroup, contactPool);
+		}
 		this.executor.register(ServiceType.LIST_15,
-				new ListOfContactsResponse(sessionRoster, sessionGroup, sessionStatus));
+				new ListOfContactsResponse(sessionRoster, sessionGroup, sessionStatus, contactPool, snapshot));
 		this.executor.register(ServiceType.REMOVE_BUDDY, new ContactRemoveAckResponse(sessionRoster, sessionGroup));
 		this.executor.register(ServiceType.ADD_BUDDY,
 				new ContactAddAckResponse(sessionRoster, sessionGroup, sessionStatus));
+		if (snapshot != null) {
+			snapshot.load(dispatcher);
+		}
 	}
 
 	@Override
@@ -36,11 +60,21 @@ public class SessionContactImpl implements SessionContact {
 		return this.sessionGroup.getContactGroups();
 	}
 
+	@Override
+	public long getContactGroupsVersion() {
+		return this.sessionGroup.getContactGroupsVersion();
+	}
+
 	@Override
 	public Set<YahooContact> getContacts() {
 		return this.sessionRoster.getContacts();
 	}
 
+	@Override
+	public long getContactsVersion() {
+		return this.sessionRoster.getContactsVersion();
+	}
+
 	@Override
 	public void acceptFriendAuthorization(String id, YahooContact contact) throws IllegalStateException {
 		this.sessionRoster.acceptFriendAuthorization(id, contact);
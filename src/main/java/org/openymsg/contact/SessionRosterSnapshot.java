@@ -0,0 +1,121 @@
+package org.openymsg.contact;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooContactGroup;
+import org.openymsg.YahooContactPool;
+import org.openymsg.contact.group.ContactGroupImpl;
+import org.openymsg.contact.group.SessionGroupImpl;
+import org.openymsg.contact.roster.RosterSnapshot;
+import org.openymsg.contact.roster.RosterSnapshotStore;
+import org.openymsg.contact.roster.SessionRosterImpl;
+import org.openymsg.execute.dispatch.Dispatcher;
+import org.openymsg.execute.dispatch.Request;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the saved roster into the session on the session's dispatcher, so reading the file does not hold up login,
+ * and saves the roster once yahoo has sent it. A snapshot that cannot be read or written only costs the faster
+ * startup, so failures are logged and not thrown.
+ * @author neilhart
+ */
+public class SessionRosterSnapshot {
+	/** logger */
+	private static final Log log = LogFactory.getLog(SessionRosterSnapshot.class);
+	private RosterSnapshotStore store;
+	private String username;
+	private SessionRosterImpl sessionRoster;
+	private SessionGroupImpl sessionGroup;
+	private YahooContactPool contactPool;
+
+	public SessionRosterSnapshot(RosterSnapshotStore store, String username, SessionRosterImpl sessionRoster,
+			SessionGroupImpl sessionGroup, YahooContactPool contactPool) {
+		if (store == null) {
+			throw new IllegalArgumentException("store cannot be null");
+		}
+		this.store = store;
+		this.username = username;
+		this.sessionRoster = sessionRoster;
+		this.sessionGroup = sessionGroup;
+		this.contactPool = contactPool;
+	}
+
+	/**
+	 * Serve the saved roster, if there is one, from the dispatcher's thread. Packets are handled on that thread too, so
+	 * the snapshot is either served before the roster from yahoo or ignored.
+	 * @param dispatcher session dispatcher
+	 */
+	public void load(Dispatcher dispatcher) {
+		if (dispatcher == null) {
+			throw new IllegalArgumentException("dispatcher cannot be null");
+		}
+		try {
+			dispatcher.execute(new LoadRequest());
+		} catch (IllegalStateException e) {
+			log.warn("Not loading roster snapshot for: " + this.username, e);
+		}
+	}
+
+	/**
+	 * Serve the saved roster, if there is one
+	 */
+	public void load() {
+		RosterSnapshot snapshot;
+		try {
+			snapshot = this.store.load(this.username);
+		} catch (IOException e) {
+			log.warn("Failed loading roster snapshot for: " + this.username, e);
+			return;
+		}
+		if (snapshot == null) {
+			return;
+		}
+		log.debug("Loaded roster snapshot: " + snapshot);
+		Set<YahooContactGroup> groups = new HashSet<YahooContactGroup>();
+		for (Map.Entry<String, Set<YahooContact>> entry : snapshot.getGroups().entrySet()) {
+			ContactGroupImpl group = new ContactGroupImpl(entry.getKey());
+			for (YahooContact contact : entry.getValue()) {
+				group.add(this.contactPool.intern(contact));
+			}
+			groups.add(group);
+		}
+		Set<YahooContact> contacts = new LinkedHashSet<YahooContact>();
+		for (YahooContact contact : snapshot.getContacts()) {
+			contacts.add(this.contactPool.intern(contact));
+		}
+		this.sessionGroup.loadedSnapshot(groups);
+		this.sessionRoster.loadedSnapshot(contacts);
+	}
+
+	/**
+	 * Save the current roster
+	 */
+	public void save() {
+		RosterSnapshot snapshot =
+				RosterSnapshot.valueOf(this.sessionRoster.getContacts(), this.sessionGroup.getContactGroups());
+		try {
+			this.store.save(this.username, snapshot);
+			log.debug("Saved roster snapshot: " + snapshot);
+		} catch (IOException e) {
+			log.warn("Failed saving roster snapshot for: " + this.username, e);
+		}
+	}
+
+	private class LoadRequest implements Request {
+		@Override
+		public void execute() {
+			load();
+		}
+
+		@Override
+		public void failure(Exception ex) {
+			log.warn("Failed loading roster snapshot for: " + username, ex);
+		}
+	}
+}
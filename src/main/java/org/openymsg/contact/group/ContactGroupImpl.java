@@ -2,16 +2,14 @@ package org.openymsg.contact.group;
 
 import org.openymsg.YahooContact;
 import org.openymsg.YahooContactGroup;
-import org.openymsg.util.CollectionUtils;
+import org.openymsg.util.VersionedSet;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
 
 public class ContactGroupImpl implements YahooContactGroup {
 	private String name;
 	boolean active;
-	private Set<YahooContact> contacts = Collections.synchronizedSet(new HashSet<YahooContact>());
+	private VersionedSet<YahooContact> contacts = new VersionedSet<YahooContact>();
 
 	public ContactGroupImpl(String name) {
 		this.name = name;
@@ -28,7 +26,7 @@ public class ContactGroupImpl implements YahooContactGroup {
 
 	@Override
 	public Set<YahooContact> getContacts() {
-		return CollectionUtils.protectedSet(this.contacts);
+		return this.contacts.getSnapshot();
 	}
 
 	@Override
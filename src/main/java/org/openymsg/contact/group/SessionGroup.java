@@ -6,11 +6,17 @@ import java.util.Set;
 
 public interface SessionGroup {
 	/**
-	 * get the groups
+	 * get the groups. The set is an immutable snapshot; the same instance is returned until the groups change.
 	 * @return all contact groups
 	 */
 	Set<YahooContactGroup> getContactGroups();
 
+	/**
+	 * Version of the groups, changes whenever a group is added or removed
+	 * @return version of the groups
+	 */
+	long getContactGroupsVersion();
+
 	/**
 	 * Add a group to the messenger. Any group without a contact is only local and will not be saved in Yahoo.
 	 * @param groupName new group's name
@@ -2,16 +2,16 @@ package org.openymsg.contact.group;
 
 import org.openymsg.YahooContactGroup;
 import org.openymsg.connection.YahooConnection;
-import org.openymsg.util.CollectionUtils;
+import org.openymsg.util.VersionedSet;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
 
 public class SessionGroupImpl implements SessionGroup, SessionGroupCallback {
 	private YahooConnection executor;
 	private String username;
-	private Set<YahooContactGroup> contactGroups = Collections.synchronizedSet(new HashSet<YahooContactGroup>());
+	private VersionedSet<YahooContactGroup> contactGroups = new VersionedSet<YahooContactGroup>();
+	/** groups are from a snapshot and are replaced by the groups from yahoo */
+	private boolean snapshotGroups = false;
 
 	public SessionGroupImpl(YahooConnection executor, String username) {
 		if (executor == null) {
@@ -32,7 +32,7 @@ public class SessionGroupImpl implements SessionGroup, SessionGroupCallback {
 		if (newName == null) {
 			throw new IllegalArgumentException("newName may not be null");
 		}
-		for (YahooContactGroup existingGroup : this.contactGroups) {
+		for (YahooContactGroup existingGroup : this.contactGroups.getSnapshot()) {
 			if (existingGroup.getName().equalsIgnoreCase(newName)) {
 				throw new IllegalArgumentException("newName matches a group with name: " + existingGroup.getName());
 			}
@@ -45,12 +45,37 @@ public class SessionGroupImpl implements SessionGroup, SessionGroupCallback {
 
 	@Override
 	public Set<YahooContactGroup> getContactGroups() {
-		return CollectionUtils.protectedSet(this.contactGroups);
+		return this.contactGroups.getSnapshot();
+	}
+
+	@Override
+	public long getContactGroupsVersion() {
+		return this.contactGroups.getVersion();
 	}
 
 	@Override
 	public void addedGroups(Set<YahooContactGroup> contactGroups) {
-		this.contactGroups.addAll(contactGroups);
+		synchronized (this.contactGroups) {
+			if (this.snapshotGroups) {
+				this.contactGroups.clear();
+				this.snapshotGroups = false;
+			}
+			this.contactGroups.addAll(contactGroups);
+		}
+	}
+
+	/**
+	 * Serve the groups of a saved snapshot until yahoo sends the roster
+	 * @param contactGroups groups from the snapshot
+	 */
+	public void loadedSnapshot(Set<YahooContactGroup> contactGroups) {
+		synchronized (this.contactGroups) {
+			if (!this.contactGroups.getSnapshot().isEmpty()) {
+				return;
+			}
+			this.contactGroups.addAll(contactGroups);
+			this.snapshotGroups = true;
+		}
 	}
 
 	public boolean possibleAddGroup(ContactGroupImpl group) {
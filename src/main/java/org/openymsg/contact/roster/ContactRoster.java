@@ -3,7 +3,7 @@ package org.openymsg.contact.roster;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openymsg.YahooContact;
-import org.openymsg.util.CollectionUtils;
+import org.openymsg.util.VersionedSet;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -18,7 +18,7 @@ public class ContactRoster {
 	/** Logger */
 	private static final Log log = LogFactory.getLog(ContactRoster.class);
 	/** Simple set of contacts that match what yahoo has */
-	private Set<YahooContact> contacts = new HashSet<YahooContact>();
+	private VersionedSet<YahooContact> contacts = new VersionedSet<YahooContact>();
 	/** Requests that where sent, but not ack'ed */
 	private Set<YahooContact> outstandingAddRequests = new HashSet<YahooContact>();
 
@@ -39,6 +39,15 @@ public class ContactRoster {
 		this.contacts.add(contact);
 	}
 
+	/**
+	 * Contact is no longer in the yahoo list
+	 * @param contact removed contact
+	 * @return true if the contact was in the list
+	 */
+	public synchronized boolean removedContact(YahooContact contact) {
+		return this.contacts.remove(contact);
+	}
+
 	/**
 	 * Add request submitted, contact will be check against internal lists
 	 * @param contact add request checked
@@ -92,10 +101,18 @@ public class ContactRoster {
 	}
 
 	/**
-	 * Get the list of yahoo contacts
+	 * Get the list of yahoo contacts. The set is an immutable snapshot, shared until the list changes.
 	 * @return list of yahoo contacts
 	 */
-	public synchronized Set<YahooContact> getContacts() {
-		return CollectionUtils.protectedSet(this.contacts);
+	public Set<YahooContact> getContacts() {
+		return this.contacts.getSnapshot();
+	}
+
+	/**
+	 * Version of the list of yahoo contacts, changes whenever the list changes
+	 * @return version
+	 */
+	public long getVersion() {
+		return this.contacts.getVersion();
 	}
 }
@@ -0,0 +1,66 @@
+package org.openymsg.contact.roster;
+
+import org.openymsg.YahooContact;
+import org.openymsg.YahooContactGroup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable copy of a roster, the contacts and the members of each group, as last received from yahoo.
+ * @author neilhart
+ */
+public class RosterSnapshot {
+	private final Set<YahooContact> contacts;
+	private final Map<String, Set<YahooContact>> groups;
+
+	/**
+	 * Create a snapshot
+	 * @param contacts contacts in the roster
+	 * @param groups members by group name
+	 */
+	public RosterSnapshot(Set<YahooContact> contacts, Map<String, Set<YahooContact>> groups) {
+		if (contacts == null) {
+			throw new IllegalArgumentException("contacts cannot be null");
+		}
+		if (groups == null) {
+			throw new IllegalArgumentException("groups cannot be null");
+		}
+		this.contacts = Collections.unmodifiableSet(new LinkedHashSet<YahooContact>(contacts));
+		Map<String, Set<YahooContact>> copy = new LinkedHashMap<String, Set<YahooContact>>();
+		for (Map.Entry<String, Set<YahooContact>> entry : groups.entrySet()) {
+			copy.put(entry.getKey(), Collections.unmodifiableSet(new LinkedHashSet<YahooContact>(entry.getValue())));
+		}
+		this.groups = Collections.unmodifiableMap(copy);
+	}
+
+	/**
+	 * Create a snapshot from the current roster and groups
+	 * @param contacts contacts in the roster
+	 * @param groups groups in the roster
+	 * @return snapshot
+	 */
+	public static RosterSnapshot valueOf(Set<YahooContact> contacts, Set<YahooContactGroup> groups) {
+		Map<String, Set<YahooContact>> members = new LinkedHashMap<String, Set<YahooContact>>();
+		for (YahooContactGroup group : groups) {
+			members.put(group.getName(), group.getContacts());
+		}
+		return new RosterSnapshot(contacts, members);
+	}
+
+	public Set<YahooContact> getContacts() {
+		return this.contacts;
+	}
+
+	public Map<String, Set<YahooContact>> getGroups() {
+		return this.groups;
+	}
+
+	@Override
+	public String toString() {
+		return "RosterSnapshot [contacts=" + contacts.size() + ", groups=" + groups.keySet() + "]";
+	}
+}
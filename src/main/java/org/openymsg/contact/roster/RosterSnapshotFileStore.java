@@ -0,0 +1,150 @@
+package org.openymsg.contact.roster;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps one binary snapshot file per account in a directory. The file holds each contact once, groups refer to their
+ * members by index, contacts that are only in a group follow the roster contacts. A new snapshot is written to a
+ * temporary file and then renamed over the old one.
+ * @author neilhart
+ */
+public class RosterSnapshotFileStore implements RosterSnapshotStore {
+	/** logger */
+	private static final Log log = LogFactory.getLog(RosterSnapshotFileStore.class);
+	/** "YROS" */
+	private static final int MAGIC = 0x59524f53;
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".roster";
+	private final File directory;
+
+	/**
+	 * Create a store
+	 * @param directory directory for the snapshot files, created if needed
+	 */
+	public RosterSnapshotFileStore(File directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("directory cannot be null");
+		}
+		this.directory = directory;
+	}
+
+	@Override
+	public RosterSnapshot load(String username) throws IOException {
+		File file = getFile(username);
+		if (!file.isFile()) {
+			log.debug("No roster snapshot for: " + username);
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a roster snapshot: " + file);
+			}
+			int version = in.readUnsignedByte();
+			if (version != VERSION) {
+				throw new IOException("Unknown roster snapshot version: " + version + " in: " + file);
+			}
+			int contactCount = in.readInt();
+			int rosterCount = in.readInt();
+			if (rosterCount < 0 || rosterCount > contactCount) {
+				throw new IOException("Bad roster count: " + rosterCount + " in: " + file);
+			}
+			List<YahooContact> contacts = new ArrayList<YahooContact>(contactCount);
+			for (int i = 0; i < contactCount; i++) {
+				String name = in.readUTF();
+				YahooProtocol protocol = YahooProtocol.getProtocolOrDefault(in.readUTF(), name);
+				contacts.add(new YahooContact(name, protocol));
+			}
+			int groupCount = in.readInt();
+			Map<String, Set<YahooContact>> groups = new LinkedHashMap<String, Set<YahooContact>>();
+			for (int i = 0; i < groupCount; i++) {
+				String name = in.readUTF();
+				int memberCount = in.readInt();
+				Set<YahooContact> members = new LinkedHashSet<YahooContact>();
+				for (int j = 0; j < memberCount; j++) {
+					int index = in.readInt();
+					if (index < 0 || index >= contactCount) {
+						throw new IOException("Bad contact index: " + index + " in: " + file);
+					}
+					members.add(contacts.get(index));
+				}
+				groups.put(name, members);
+			}
+			return new RosterSnapshot(new LinkedHashSet<YahooContact>(contacts.subList(0, rosterCount)), groups);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public void save(String username, RosterSnapshot snapshot) throws IOException {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("snapshot cannot be null");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory: " + directory);
+		}
+		File file = getFile(username);
+		File temp = new File(directory, file.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			Map<YahooContact, Integer> indexes = new HashMap<YahooContact, Integer>();
+			Set<YahooContact> contacts = new LinkedHashSet<YahooContact>(snapshot.getContacts());
+			// group members that are not in the roster still need an index
+			for (Set<YahooContact> members : snapshot.getGroups().values()) {
+				contacts.addAll(members);
+			}
+			out.writeInt(contacts.size());
+			out.writeInt(snapshot.getContacts().size());
+			for (YahooContact contact : contacts) {
+				indexes.put(contact, indexes.size());
+				out.writeUTF(contact.getName());
+				out.writeUTF(contact.getProtocol().getValue());
+			}
+			out.writeInt(snapshot.getGroups().size());
+			for (Map.Entry<String, Set<YahooContact>> group : snapshot.getGroups().entrySet()) {
+				out.writeUTF(group.getKey());
+				out.writeInt(group.getValue().size());
+				for (YahooContact member : group.getValue()) {
+					out.writeInt(indexes.get(member));
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			// some platforms will not rename over an existing file
+			if (!file.delete() || !temp.renameTo(file)) {
+				throw new IOException("Cannot replace roster snapshot: " + file);
+			}
+		}
+	}
+
+	private File getFile(String username) {
+		if (username == null) {
+			throw new IllegalArgumentException("username cannot be null");
+		}
+		return new File(directory, username.replaceAll("[^A-Za-z0-9._@-]", "_") + SUFFIX);
+	}
+}
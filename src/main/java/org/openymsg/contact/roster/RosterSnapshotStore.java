@@ -0,0 +1,25 @@
+package org.openymsg.contact.roster;
+
+import java.io.IOException;
+
+/**
+ * Storage for a roster snapshot per account. The snapshot is served at login, before yahoo sends the roster.
+ * @author neilhart
+ */
+public interface RosterSnapshotStore {
+	/**
+	 * Load the last snapshot for the account
+	 * @param username account name
+	 * @return snapshot, or null if there is none
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	RosterSnapshot load(String username) throws IOException;
+
+	/**
+	 * Replace the snapshot for the account
+	 * @param username account name
+	 * @param snapshot snapshot to save
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	void save(String username, RosterSnapshot snapshot) throws IOException;
+}
@@ -6,8 +6,19 @@ import org.openymsg.YahooContactGroup;
 import java.util.Set;
 
 public interface SessionRoster {
+	/**
+	 * Get the contacts. The set is an immutable snapshot; the same instance is returned until the roster changes.
+	 * @return all contacts
+	 */
 	Set<YahooContact> getContacts();
 
+	/**
+	 * Version of the contacts, changes whenever the contacts change. Compare with an earlier version to check if a
+	 * snapshot from getContacts() is still current.
+	 * @return version of the contacts
+	 */
+	long getContactsVersion();
+
 	void acceptFriendAuthorization(String id, YahooContact contact) throws IllegalStateException;
 
 	void rejectFriendAuthorization(YahooContact contact, String message) throws IllegalStateException;
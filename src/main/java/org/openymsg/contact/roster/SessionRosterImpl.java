@@ -8,6 +8,7 @@ import org.openymsg.YahooContactGroup;
 import org.openymsg.connection.YahooConnection;
 import org.openymsg.network.ServiceType;
 
+import java.util.HashSet;
 import java.util.Set;
 
 public class SessionRosterImpl implements SessionRoster, SessionRosterCallback {
@@ -18,6 +19,8 @@ public class SessionRosterImpl implements SessionRoster, SessionRosterCallback {
 	private ContactRoster contacts = new ContactRoster();
 	private SessionRosterCallback callback;
 	private boolean rosterLoaded = false;
+	/** contacts served from a snapshot and not yet confirmed by yahoo, null without a snapshot */
+	private Set<YahooContact> snapshotContacts = null;
 
 	public SessionRosterImpl(YahooConnection executor, String username, SessionRosterCallback callback) {
 		this.executor = executor;
@@ -78,14 +81,41 @@ public class SessionRosterImpl implements SessionRoster, SessionRosterCallback {
 			log.warn("Loading contact after roster is loaded: " + contact);
 		}
 		this.contacts.loadedContact(contact);
+		if (this.snapshotContacts != null && this.snapshotContacts.remove(contact)) {
+			// already given to the callback from the snapshot
+			return;
+		}
 		this.callback.addedContact(contact);
 	}
 
+	/**
+	 * Serve the contacts of a saved snapshot before yahoo sends the roster. Contacts that yahoo sends later are not
+	 * added again, and contacts that yahoo does not send are removed when the roster is loaded.
+	 * @param snapshotContacts contacts from the snapshot
+	 */
+	public void loadedSnapshot(Set<YahooContact> snapshotContacts) {
+		log.trace("loadedSnapshot: " + snapshotContacts.size() + " contacts");
+		if (this.rosterLoaded) {
+			log.warn("Ignoring snapshot after roster is loaded");
+			return;
+		}
+		this.snapshotContacts = new HashSet<YahooContact>(snapshotContacts);
+		for (YahooContact contact : snapshotContacts) {
+			this.contacts.loadedContact(contact);
+			this.callback.addedContact(contact);
+		}
+	}
+
 	@Override
 	public Set<YahooContact> getContacts() {
 		return contacts.getContacts();
 	}
 
+	@Override
+	public long getContactsVersion() {
+		return contacts.getVersion();
+	}
+
 	// TODO is this only for ack? should check with timeout
 	public void receivedContactAddAck(YahooContact contact) {
 		contacts.addRequestAcked(contact);
@@ -124,6 +154,14 @@ public class SessionRosterImpl implements SessionRoster, SessionRosterCallback {
 	public void rosterLoaded() {
 		log.trace("rosterLoaded");
 		this.rosterLoaded = true;
+		if (this.snapshotContacts != null) {
+			for (YahooContact contact : this.snapshotContacts) {
+				log.debug("Removing contact from snapshot that is no longer in the roster: " + contact);
+				this.contacts.removedContact(contact);
+				this.callback.removedContact(contact);
+			}
+			this.snapshotContacts = null;
+		}
 		this.callback.rosterLoaded();
 	}
 
@@ -1,7 +1,13 @@
 package org.openymsg.contact.status;
 
+/**
+ * Presence of a contact on chat and pager. Use valueOf to get one of the four shared instances.
+ */
 public class ContactPresence {
 	public static final ContactPresence EMPTY = new ContactPresence(false, false);
+	public static final ContactPresence ON_PAGER = new ContactPresence(false, true);
+	public static final ContactPresence ON_CHAT = new ContactPresence(true, false);
+	public static final ContactPresence ON_CHAT_AND_PAGER = new ContactPresence(true, true);
 	protected final boolean onChat;
 	protected final boolean onPager;
 
@@ -10,6 +16,27 @@ public class ContactPresence {
 		this.onPager = onPager;
 	}
 
+	/**
+	 * Get the shared presence
+	 * @param onChat on chat
+	 * @param onPager on pager
+	 * @return shared immutable instance
+	 */
+	public static ContactPresence valueOf(boolean onChat, boolean onPager) {
+		if (onChat) {
+			return onPager ? ON_CHAT_AND_PAGER : ON_CHAT;
+		}
+		return onPager ? ON_PAGER : EMPTY;
+	}
+
+	/**
+	 * Index of the shared instance, 0 to 3
+	 * @return index of the matching shared instance
+	 */
+	int index() {
+		return (onChat ? 2 : 0) + (onPager ? 1 : 0);
+	}
+
 	public boolean isOnline() {
 		return this.onChat || this.onPager;
 	}
@@ -1,13 +1,31 @@
 package org.openymsg.contact.status;
 
 import org.openymsg.YahooContactStatus;
+import org.openymsg.YahooStatus;
 
+/**
+ * Status of a contact. Use valueOf to get a shared instance for the common combinations of a non-custom status,
+ * presence and unknown idle time.
+ */
 // TODO handle stealthBlocked and stealth mode
 public class ContactStatusImpl implements YahooContactStatus {
+	/** unknown idle time */
+	private static final Long NO_IDLE_TIME = -1L;
+	/** shared instances, by YahooStatus ordinal and then presence index, with no presence last */
+	private static final ContactStatusImpl[][] statuses = new ContactStatusImpl[YahooStatus.values().length][5];
+	static {
+		ContactPresence[] presences = {ContactPresence.EMPTY, ContactPresence.ON_PAGER, ContactPresence.ON_CHAT,
+				ContactPresence.ON_CHAT_AND_PAGER, null};
+		for (YahooStatus status : YahooStatus.values()) {
+			for (int i = 0; i < presences.length; i++) {
+				statuses[status.ordinal()][i] =
+						new ContactStatusImpl(NormalStatusMessage.valueOf(status), presences[i], NO_IDLE_TIME);
+			}
+		}
+	}
 	public static final YahooContactStatus PENDING =
 			new ContactStatusImpl(new PendingStatusMessage(), ContactPresence.EMPTY, -1L);
-	public static final ContactStatusImpl OFFLINE =
-			new ContactStatusImpl(NormalStatusMessage.OFFLINE, ContactPresence.EMPTY, -1L);
+	public static final ContactStatusImpl OFFLINE = valueOf(NormalStatusMessage.OFFLINE, ContactPresence.EMPTY, -1L);
 	/** The status message a user (away, available, etc). */
 	private final StatusMessage status;
 	/** The presence of a user */
@@ -21,6 +39,28 @@ public class ContactStatusImpl implements YahooContactStatus {
 		this.idleTime = idleTime;
 	}
 
+	/**
+	 * Get a status, shared if the status message is a shared NormalStatusMessage, the presence is null or shared, and
+	 * the idle time is unknown. Otherwise a new status is created.
+	 * @param status status message
+	 * @param presence presence, may be null
+	 * @param idleTime idle time in seconds, or -1
+	 * @return status
+	 */
+	public static ContactStatusImpl valueOf(StatusMessage status, ContactPresence presence, Long idleTime) {
+		if (status != null && NO_IDLE_TIME.equals(idleTime)
+				&& status == NormalStatusMessage.valueOf(status.getStatus())) {
+			if (presence == null) {
+				return statuses[status.getStatus().ordinal()][4];
+			}
+			ContactStatusImpl shared = statuses[status.getStatus().ordinal()][presence.index()];
+			if (shared.presence == presence) {
+				return shared;
+			}
+		}
+		return new ContactStatusImpl(status, presence, idleTime);
+	}
+
 	/**
 	 * Returns the amount of seconds that this user has been idle, or -1 if this is unknown.
 	 * @return the amount of seconds that this user has been idle, or -1.
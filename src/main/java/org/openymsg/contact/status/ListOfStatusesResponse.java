@@ -2,7 +2,7 @@ package org.openymsg.contact.status;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openymsg.connection.read.MultiplePacketResponse;
+import org.openymsg.connection.read.StreamingPacketResponse;
 import org.openymsg.network.MessageStatus;
 import org.openymsg.network.YMSG9Packet;
 
@@ -10,12 +10,15 @@ import java.util.List;
 
 /**
  * LOGON packets can contain multiple friend status sections, ISAWAY and ISBACK packets contain only one. Update the
- * YahooUser details and fire event. status == 0 is a single status
+ * YahooUser details and fire event. status == 0 is a single status. The list is parsed as each packet arrives, and
+ * the statuses of the whole list are delivered together after the last packet.
  */
-public class ListOfStatusesResponse implements MultiplePacketResponse {
+public class ListOfStatusesResponse implements StreamingPacketResponse {
 	/** logger */
 	private static final Log log = LogFactory.getLog(ListOfStatusesResponse.class);
 	private SingleStatusResponse singleStatusResponse;
+	/** parser of the list being received, null between lists */
+	private SingleStatusResponse.StatusParser parser;
 
 	public ListOfStatusesResponse(SingleStatusResponse singleStatusResponse) {
 		this.singleStatusResponse = singleStatusResponse;
@@ -27,11 +30,41 @@ public class ListOfStatusesResponse implements MultiplePacketResponse {
 			log.info("Not status packets");
 			return;
 		}
-		YMSG9Packet primaryPacket = packets.get(0);
-		for (int i = 1; i < packets.size(); i++) {
-			primaryPacket.append(packets.get(i));
+		begin();
+		try {
+			for (YMSG9Packet packet : packets) {
+				fragment(packet);
+			}
+		} finally {
+			end();
+		}
+	}
+
+	@Override
+	public void begin() {
+		if (this.parser != null) {
+			log.warn("Status list started before the previous one ended");
+			end();
+		}
+		this.parser = this.singleStatusResponse.newParser();
+	}
+
+	@Override
+	public void fragment(YMSG9Packet packet) {
+		if (this.parser == null) {
+			log.warn("Status packet without begin: " + packet.status);
+			begin();
+		}
+		this.parser.add(packet);
+	}
+
+	@Override
+	public void end() {
+		if (this.parser != null) {
+			SingleStatusResponse.StatusParser finished = this.parser;
+			this.parser = null;
+			finished.deliver();
 		}
-		this.singleStatusResponse.execute(primaryPacket);
 	}
 
 	@Override
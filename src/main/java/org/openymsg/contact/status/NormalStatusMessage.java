@@ -2,13 +2,32 @@ package org.openymsg.contact.status;
 
 import org.openymsg.YahooStatus;
 
+/**
+ * Status without a custom message. Use valueOf to get the shared instance for a status.
+ */
 public class NormalStatusMessage extends AbstractStatusMessage {
-	public static final NormalStatusMessage OFFLINE = new NormalStatusMessage(YahooStatus.OFFLINE);
+	/** shared instances, by YahooStatus ordinal */
+	private static final NormalStatusMessage[] messages = new NormalStatusMessage[YahooStatus.values().length];
+	static {
+		for (YahooStatus status : YahooStatus.values()) {
+			messages[status.ordinal()] = new NormalStatusMessage(status);
+		}
+	}
+	public static final NormalStatusMessage OFFLINE = valueOf(YahooStatus.OFFLINE);
 
 	public NormalStatusMessage(YahooStatus status) {
 		super(status);
 	}
 
+	/**
+	 * Get the shared status message
+	 * @param status status
+	 * @return shared immutable instance
+	 */
+	public static NormalStatusMessage valueOf(YahooStatus status) {
+		return messages[status.ordinal()];
+	}
+
 	@Override
 	public String toString() {
 		return "NormalStatusMessage [status=" + this.getStatus() + "]";
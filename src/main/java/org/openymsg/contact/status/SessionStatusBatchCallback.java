@@ -0,0 +1,20 @@
+package org.openymsg.contact.status;
+
+import org.openymsg.YahooContact;
+import org.openymsg.YahooContactStatus;
+
+import java.util.Map;
+
+/**
+ * Optional callback for status updates delivered in batches. If the YahooSessionCallback also implements this
+ * interface, all the status changes decoded from one STATUS_15 or Y6_STATUS_UPDATE packet, or one collection of
+ * STATUS_15 packets, are delivered in a single call instead of one statusUpdate call per contact.
+ * @author neilhart
+ */
+public interface SessionStatusBatchCallback {
+	/**
+	 * Status changes from one packet or packet collection.
+	 * @param statuses immutable map of contact to new status, in packet order
+	 */
+	void statusUpdates(Map<YahooContact, YahooContactStatus> statuses);
+}
@@ -3,11 +3,14 @@ package org.openymsg.contact.status;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openymsg.YahooContact;
+import org.openymsg.YahooContactPool;
 import org.openymsg.YahooContactStatus;
 import org.openymsg.connection.YahooConnection;
 import org.openymsg.network.ServiceType;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,11 +25,19 @@ public class SessionStatusImpl implements SessionStatus, SessionStatusCallback {
 	private YahooConnection executor;
 	private SessionStatusCallback callback;
 	private Map<YahooContact, YahooContactStatus> statuses = new HashMap<YahooContact, YahooContactStatus>();
+	/** status updates collected between beginStatusUpdates and endStatusUpdates, null when not batching */
+	private Map<YahooContact, YahooContactStatus> batch = null;
+	/** number of beginStatusUpdates calls not ended yet */
+	private int batchDepth = 0;
 
 	public SessionStatusImpl(YahooConnection executor, SessionStatusCallback callback) {
+		this(executor, callback, new YahooContactPool());
+	}
+
+	public SessionStatusImpl(YahooConnection executor, SessionStatusCallback callback, YahooContactPool contactPool) {
 		this.executor = executor;
 		this.callback = callback;
-		SingleStatusResponse singleStatusResponse = new SingleStatusResponse(this);
+		SingleStatusResponse singleStatusResponse = new SingleStatusResponse(this, contactPool);
 		this.executor.register(ServiceType.STATUS_15, new ListOfStatusesResponse(singleStatusResponse));
 		this.executor.register(ServiceType.Y6_STATUS_UPDATE, singleStatusResponse);
 	}
@@ -38,9 +49,51 @@ public class SessionStatusImpl implements SessionStatus, SessionStatusCallback {
 
 	@Override
 	public void statusUpdate(YahooContact contact, YahooContactStatus status) {
-		log.trace("statusUpdate: " + contact + " " + status);
+		if (log.isTraceEnabled()) {
+			log.trace("statusUpdate: " + contact + " " + status);
+		}
 		this.statuses.put(contact, status);
-		this.callback.statusUpdate(contact, status);
+		if (this.batch != null) {
+			this.batch.put(contact, status);
+		} else {
+			this.callback.statusUpdate(contact, status);
+		}
+	}
+
+	/**
+	 * Start collecting status updates. They are delivered when endStatusUpdates is called. Calls nest; updates
+	 * collected inside an outer batch, such as a status packet arriving while a status list is read, join it.
+	 */
+	public void beginStatusUpdates() {
+		if (this.batchDepth++ == 0) {
+			this.batch = new LinkedHashMap<YahooContact, YahooContactStatus>();
+		}
+	}
+
+	/**
+	 * Deliver the status updates collected since the outermost beginStatusUpdates. If the callback is a
+	 * SessionStatusBatchCallback, they are delivered as one batch, otherwise one at a time.
+	 */
+	public void endStatusUpdates() {
+		if (this.batchDepth == 0) {
+			log.warn("Status updates not being collected");
+			return;
+		}
+		if (--this.batchDepth > 0) {
+			return;
+		}
+		Map<YahooContact, YahooContactStatus> updates = this.batch;
+		this.batch = null;
+		if (updates == null || updates.isEmpty()) {
+			return;
+		}
+		if (this.callback instanceof SessionStatusBatchCallback) {
+			((SessionStatusBatchCallback) this.callback).statusUpdates(Collections.unmodifiableMap(updates));
+		} else {
+			for (Map.Entry<YahooContact, YahooContactStatus> update : updates.entrySet()) {
+				this.callback.statusUpdate(update.getKey(), update.getValue());
+			}
+		}
 	}
 
 	public void addPending(YahooContact contact) {
@@ -66,9 +119,13 @@ public class SessionStatusImpl implements SessionStatus, SessionStatusCallback {
 	public void addedPending(Set<YahooContact> usersOnPendingList) {
 		log.trace("publishPending: " + usersOnPendingList);
 		YahooContactStatus status = ContactStatusImpl.PENDING;
-		for (YahooContact contact : usersOnPendingList) {
-			this.statuses.put(contact, status);
-			this.callback.statusUpdate(contact, status);
+		beginStatusUpdates();
+		try {
+			for (YahooContact contact : usersOnPendingList) {
+				statusUpdate(contact, status);
+			}
+		} finally {
+			endStatusUpdates();
 		}
 		// for (Contact contact : usersOnPendingList) {
 		// System.err.println("pending:" + contactImpl.getId() + "/" + contactImpl.getProtocol());
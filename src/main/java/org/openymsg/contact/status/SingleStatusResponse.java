@@ -3,14 +3,13 @@ package org.openymsg.contact.status;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openymsg.YahooContact;
+import org.openymsg.YahooContactPool;
 import org.openymsg.YahooProtocol;
 import org.openymsg.YahooStatus;
 import org.openymsg.connection.read.SinglePacketResponse;
 import org.openymsg.network.ServiceType;
 import org.openymsg.network.YMSG9Packet;
 
-import java.util.Iterator;
-
 /**
  * LOGON packets can contain multiple friend status sections, ISAWAY and ISBACK packets contain only one. Update the
  * YahooUser details and fire event. status == 0 is a single status
@@ -18,9 +17,15 @@ import java.util.Iterator;
 public class SingleStatusResponse implements SinglePacketResponse {
 	private static final Log log = LogFactory.getLog(SingleStatusResponse.class);
 	private SessionStatusImpl sessionStatus;
+	private YahooContactPool contactPool;
 
 	public SingleStatusResponse(SessionStatusImpl sessionStatus) {
+		this(sessionStatus, new YahooContactPool());
+	}
+
+	public SingleStatusResponse(SessionStatusImpl sessionStatus, YahooContactPool contactPool) {
 		this.sessionStatus = sessionStatus;
+		this.contactPool = contactPool;
 	}
 
 	/**
@@ -29,111 +34,163 @@ public class SingleStatusResponse implements SinglePacketResponse {
 	 */
 	@Override
 	public void execute(YMSG9Packet packet) {
-		// If LOGOFF packet, the packet's user status is wrong (available)
-		// TODO - handle log off
-		final boolean logoff = (packet.service == ServiceType.LOGOFF);
-		// Process online friends data
-		// Process each friend
-		Iterator<String[]> iter = packet.entries().iterator();
-		long longStatus = 0;
-		Boolean onChat = null;
-		Boolean onPager = null;
-		String visibility = null;
-		String clearIdleTime = null;
-		String idleTime = null;
-		String customMessage = null;
-		String customStatus = null;
-		YahooProtocol protocol = YahooProtocol.YAHOO;
-		String userId = null;
-		String clientVersion = null;
-		while (iter.hasNext()) {
-			String[] s = iter.next();
-			int key = Integer.valueOf(s[0]);
-			String value = s[1];
-			// log.info("Key: " + key + ", value: " + value);
-			switch (key) {
-				case 300:
-					// initial row, most of the time
-					break;
-				case 7:
-					// check and see if we have one
-					if (userId != null) {
-						updateFriendStatus(logoff, userId, onChat, onPager, visibility, clearIdleTime, idleTime,
-								customMessage, customStatus, longStatus, protocol, clientVersion);
-						longStatus = 0;
-						onChat = null;
-						onPager = null;
-						visibility = null;
-						clearIdleTime = null;
-						idleTime = null;
-						customMessage = null;
-						customStatus = null;
-						userId = null;
-						clientVersion = null;
-						protocol = YahooProtocol.YAHOO;
-					}
-					userId = value;
-					break;
-				case 10:
-					try {
-						longStatus = Long.parseLong(value);
-					} catch (NumberFormatException e) {
+		this.sessionStatus.beginStatusUpdates();
+		try {
+			StatusParser parser = new StatusParser();
+			parser.parse(packet);
+			parser.finish();
+		} finally {
+			this.sessionStatus.endStatusUpdates();
+		}
+	}
+
+	/**
+	 * Start parsing a status list that arrives in several packets. The statuses are collected until the parser
+	 * delivers them.
+	 * @return parser for the list
+	 */
+	StatusParser newParser() {
+		this.sessionStatus.beginStatusUpdates();
+		return new StatusParser();
+	}
+
+	/**
+	 * Parser for a status list that arrives in several packets. A friend's status is complete once the next friend
+	 * starts, or when the parser is finished, so a friend may be split over two packets.
+	 */
+	final class StatusParser {
+		private boolean logoff = false;
+		private long longStatus = 0;
+		private Boolean onChat = null;
+		private Boolean onPager = null;
+		private String visibility = null;
+		private String clearIdleTime = null;
+		private String idleTime = null;
+		private String customMessage = null;
+		private String customStatus = null;
+		private YahooProtocol protocol = YahooProtocol.YAHOO;
+		private String userId = null;
+		private String clientVersion = null;
+
+		private StatusParser() {
+		}
+
+		/**
+		 * Parse the next packet of the list
+		 * @param packet next packet of the list
+		 */
+		void add(YMSG9Packet packet) {
+			parse(packet);
+		}
+
+		/**
+		 * Deliver the statuses of the whole list as one batch, at the end of the list
+		 */
+		void deliver() {
+			try {
+				finish();
+			} finally {
+				sessionStatus.endStatusUpdates();
+			}
+		}
+
+		private void parse(YMSG9Packet packet) {
+			// If LOGOFF packet, the packet's user status is wrong (available)
+			// TODO - handle log off
+			this.logoff = (packet.service == ServiceType.LOGOFF);
+			// Process online friends data
+			// Process each friend
+			String[] body = packet.body;
+			for (int i = 0; i < body.length - 1; i += 2) {
+				int key = Integer.valueOf(body[i]);
+				String value = body[i + 1];
+				// log.info("Key: " + key + ", value: " + value);
+				switch (key) {
+					case 300:
+						// initial row, most of the time
+						break;
+					case 7:
+						// check and see if we have one
+						finish();
+						userId = value;
+						break;
+					case 10:
+						try {
+							longStatus = Long.parseLong(value);
+						} catch (NumberFormatException e) {
+							customMessage = value;
+						}
+						break;
+					case 17:
+						onChat = value.equals("1");
+						break;
+					case 13: // one of these matters
+						onPager = value.equals("1");
+						visibility = value;
+						break;
+					case 19:
 						customMessage = value;
-					}
-					break;
-				case 17:
-					onChat = value.equals("1");
-					break;
-				case 13: // one of these matters
-					onPager = value.equals("1");
-					visibility = value;
-					break;
-				case 19:
-					customMessage = value;
-					break;
-				case 47:
-					customStatus = value;
-					break;
-				case 97:
-					// TODO - unicodeStatus
-					@SuppressWarnings("unused")
-					boolean unicodeStatusMessage = value.equals("1");
-					break;
-				case 138:
-					clearIdleTime = value;
-					break;
-				case 241:
-					protocol = YahooProtocol.getProtocolOrDefault(value, userId);
-					break;
-				case 244:
-					// TODO - track version
-					clientVersion = value;
-					// 6 - at least MSN - Windows Live Messenger 2011 (Build 15.4.3538.513)
-					// 244 going invisible with latest yahoo desktop client.
-					break;
-				case 137:
-					idleTime = value;
-					break;
-				case 301:
-					// ending row, most of the time
-					break;
+						break;
+					case 47:
+						customStatus = value;
+						break;
+					case 97:
+						// TODO - unicodeStatus
+						@SuppressWarnings("unused")
+						boolean unicodeStatusMessage = value.equals("1");
+						break;
+					case 138:
+						clearIdleTime = value;
+						break;
+					case 241:
+						protocol = YahooProtocol.getProtocolOrDefault(value, userId);
+						break;
+					case 244:
+						// TODO - track version
+						clientVersion = value;
+						// 6 - at least MSN - Windows Live Messenger 2011 (Build 15.4.3538.513)
+						// 244 going invisible with latest yahoo desktop client.
+						break;
+					case 137:
+						idleTime = value;
+						break;
+					case 301:
+						// ending row, most of the time
+						break;
+				}
 			}
 		}
-		if (userId != null) {
-			updateFriendStatus(logoff, userId, onChat, onPager, visibility, clearIdleTime, idleTime, customMessage,
-					customStatus, longStatus, protocol, clientVersion);
+
+		private void finish() {
+			if (userId != null) {
+				updateFriendStatus(logoff, userId, onChat, onPager, visibility, clearIdleTime, idleTime,
+						customMessage, customStatus, longStatus, protocol, clientVersion);
+			}
+			longStatus = 0;
+			onChat = null;
+			onPager = null;
+			visibility = null;
+			clearIdleTime = null;
+			idleTime = null;
+			customMessage = null;
+			customStatus = null;
+			userId = null;
+			clientVersion = null;
+			protocol = YahooProtocol.YAHOO;
 		}
 	}
 
 	private void updateFriendStatus(boolean logoff, String userId, Boolean onChat, Boolean onPager, String visibility,
 			String clearIdleTime, String idleTime, String customMessage, String customStatus, long longStatus,
 			YahooProtocol protocol, String clientVersion) {
-		log.trace("UpdateFriendStatus arguments: logoff: " + logoff + ", user: " + userId + ", onChat: " + onChat
-				+ ", onPager: " + onPager + ", visibility: " + visibility + ", clearIdleTime: " + clearIdleTime
-				+ ", idleTime: " + idleTime + ", customMessage: " + customMessage + ", customStatus: " + customStatus
-				+ ", longStatus: " + longStatus + ", protocol: " + protocol);
+		if (log.isTraceEnabled()) {
+			log.trace("UpdateFriendStatus arguments: logoff: " + logoff + ", user: " + userId + ", onChat: " + onChat
+					+ ", onPager: " + onPager + ", visibility: " + visibility + ", clearIdleTime: " + clearIdleTime
+					+ ", idleTime: " + idleTime + ", customMessage: " + customMessage + ", customStatus: "
+					+ customStatus + ", longStatus: " + longStatus + ", protocol: " + protocol);
+		}
 		YahooStatus newStatus = YahooStatus.AVAILABLE;
-		YahooContact contact = new YahooContact(userId, protocol);
+		YahooContact contact = this.contactPool.get(userId, protocol);
 		// ContactStatusImpl status = sessionStatus.getStatus(contact);
 		// TODO - handle this
 		// When we add a friend, we get a status update before
@@ -158,25 +215,25 @@ public class SingleStatusResponse implements SinglePacketResponse {
 		ContactPresence presence = null;
 		StatusMessage status = null;
 		if (onChat != null) {
-			presence = new ContactPresence(onChat, onPager);
-			status = new NormalStatusMessage(newStatus);
+			presence = ContactPresence.valueOf(onChat, onPager);
+			status = NormalStatusMessage.valueOf(newStatus);
 			// log.info("update: " + newStatus + "/" + onChat + "/" + onPager);
 			// status.update(newStatus, onChat, onPager);
 		} else if (onPager != null) {
 			// log.info("update: " + newStatus + "/" + visibility);
 			presence = getPresenceByVisibility(visibility);
-			status = new NormalStatusMessage(newStatus);
+			status = NormalStatusMessage.valueOf(newStatus);
 			// status.update(newStatus, visibility);
 		} else if (logoff) {
-			presence = new ContactPresence(false, false);
-			status = new NormalStatusMessage(newStatus);
+			presence = ContactPresence.EMPTY;
+			status = NormalStatusMessage.valueOf(newStatus);
 			// logoff message doesn't have chat or pager info, but we reset those in this case.
 			// log.info("update: " + newStatus + " and false/false");
 			// status.update(newStatus, false, false);
 		} else {
 			// status update with no chat, nor pager information, so leave those values alone.
 			// log.info("update: " + newStatus);
-			status = new NormalStatusMessage(newStatus);
+			status = NormalStatusMessage.valueOf(newStatus);
 			// status.update(newStatus);
 		}
 		if (customMessage != null) {
@@ -200,9 +257,9 @@ public class SingleStatusResponse implements SinglePacketResponse {
 		Long statusIdleTime = getIdleTime(clearIdleTime, idleTime);
 		// Hack for MSN users
 		if (contact.getProtocol().isMsn() && status.is(YahooStatus.STEPPEDOUT)) {
-			status = new NormalStatusMessage(YahooStatus.AWAY);
+			status = NormalStatusMessage.valueOf(YahooStatus.AWAY);
 		}
-		ContactStatusImpl contactStatus = new ContactStatusImpl(status, presence, statusIdleTime);
+		ContactStatusImpl contactStatus = ContactStatusImpl.valueOf(status, presence, statusIdleTime);
 		this.sessionStatus.statusUpdate(contact, contactStatus);
 	}
 
@@ -213,7 +270,7 @@ public class SingleStatusResponse implements SinglePacketResponse {
 	public ContactPresence getPresenceByVisibility(String visibility) {
 		// This is the new version, where 13=combined pager/chat
 		final int iVisibility = (visibility == null) ? 0 : Integer.parseInt(visibility);
-		return new ContactPresence((iVisibility & 2) > 0, (iVisibility & 1) > 0);
+		return ContactPresence.valueOf((iVisibility & 2) > 0, (iVisibility & 1) > 0);
 	}
 
 	private Long getIdleTime(String clearIdleTime, String idleTime) {
@@ -1,5 +1,6 @@
 package org.openymsg.context;
 
+import org.openymsg.AsyncSessionCallback;
 import org.openymsg.Name;
 import org.openymsg.SessionImpl;
 import org.openymsg.YahooConference;
@@ -8,13 +9,21 @@ import org.openymsg.YahooContact;
 import org.openymsg.YahooContactGroup;
 import org.openymsg.YahooContactStatus;
 import org.openymsg.YahooSessionCallback;
+import org.openymsg.conference.ConferenceEvictionReason;
+import org.openymsg.conference.SessionConferenceEvictionCallback;
 import org.openymsg.contact.roster.ContactAddFailure;
+import org.openymsg.contact.status.SessionStatusBatchCallback;
 import org.openymsg.context.auth.AuthenticationFailure;
 import org.openymsg.context.session.LogoutReason;
+import org.openymsg.message.OfflineMessage;
+import org.openymsg.message.SessionOfflineMessageBatchCallback;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-public class SessionCallbackHandler implements YahooSessionCallback {
+public class SessionCallbackHandler implements YahooSessionCallback, SessionStatusBatchCallback,
+		SessionConferenceEvictionCallback, SessionOfflineMessageBatchCallback {
 	private SessionImpl session;
 	private YahooSessionCallback callback;
 
@@ -23,6 +32,18 @@ public class SessionCallbackHandler implements YahooSessionCallback {
 		this.callback = callback;
 	}
 
+	/**
+	 * Whether the application's callback takes off-line messages in batches. This handler and
+	 * {@link AsyncSessionCallback} always implement {@link SessionOfflineMessageBatchCallback}, so they cannot be asked
+	 * with instanceof.
+	 */
+	public boolean wantsOfflineMessageBatches() {
+		if (callback instanceof AsyncSessionCallback) {
+			return ((AsyncSessionCallback) callback).wantsOfflineMessageBatches();
+		}
+		return callback instanceof SessionOfflineMessageBatchCallback;
+	}
+
 	@Override
 	public void receivedMessage(YahooContact from, String message) {
 		callback.receivedMessage(from, message);
@@ -132,6 +153,17 @@ public class SessionCallbackHandler implements YahooSessionCallback {
 		callback.statusUpdate(contact, status);
 	}
 
+	@Override
+	public void statusUpdates(Map<YahooContact, YahooContactStatus> statuses) {
+		if (callback instanceof SessionStatusBatchCallback) {
+			((SessionStatusBatchCallback) callback).statusUpdates(statuses);
+		} else {
+			for (Map.Entry<YahooContact, YahooContactStatus> status : statuses.entrySet()) {
+				callback.statusUpdate(status.getKey(), status.getValue());
+			}
+		}
+	}
+
 	@Override
 	public void conferenceStatusUpdate(String conferenceId, YahooConferenceStatus status) {
 		callback.conferenceStatusUpdate(conferenceId, status);
@@ -173,4 +205,23 @@ public class SessionCallbackHandler implements YahooSessionCallback {
 			Set<YahooContact> members, String message) {
 		callback.receivedConferenceInviteAck(conference, invited, members, message);
 	}
+
+	@Override
+	public void conferenceEvicted(YahooConference conference, ConferenceEvictionReason reason) {
+		if (callback instanceof SessionConferenceEvictionCallback) {
+			((SessionConferenceEvictionCallback) callback).conferenceEvicted(conference, reason);
+		}
+	}
+
+	@Override
+	public void receivedOfflineMessages(List<OfflineMessage> messages) {
+		if (callback instanceof SessionOfflineMessageBatchCallback) {
+			((SessionOfflineMessageBatchCallback) callback).receivedOfflineMessages(messages);
+		} else {
+			for (OfflineMessage message : messages) {
+				callback.receivedOfflineMessage(message.getFrom(), message.getMessage(),
+						message.getTimestampInMillis());
+			}
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package org.openymsg.legacy.addressBook;
 
+import org.openymsg.util.StringPool;
+
 public class YahooAddressBookEntry {
 	static final public YahooAddressBookEntry EMPTY = new YahooAddressBookEntry(null, null, null, null, null);
 	private String id;
@@ -13,7 +15,8 @@ public class YahooAddressBookEntry {
 		this.firstName = firstName;
 		this.lastName = lastName;
 		this.nickName = nickName;
-		this.groupName = groupName;
+		// shared by all entries in the group
+		this.groupName = StringPool.getShared().share(groupName);
 	}
 
 	public String getId() {
@@ -0,0 +1,77 @@
+package org.openymsg.legacy.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openymsg.legacy.network.chatroom.YahooChatUser;
+import org.openymsg.legacy.roster.Roster;
+
+/**
+ * Reads the chat users from a (compounded) CHATJOIN packet in a single pass over the body. Each user is a record
+ * starting with a 109 (id) field, followed by its 113 (attributes), 141 (alias), 110 (age) and 142 (location) fields.
+ */
+final class ChatJoinParser {
+	private ChatJoinParser() {
+	}
+
+	/**
+	 * Number of users in the packet. Yahoo sometimes lies about the '108' count of users, so this is the smaller of the
+	 * reported count and the number of user records actually present.
+	 * @param pkt CHATJOIN packet
+	 * @return number of users
+	 */
+	static int countUsers(YMSG9Packet pkt) {
+		int reported = Integer.parseInt(pkt.getValue("108"));
+		int records = 0;
+		for (int i = 0; i < pkt.body.length && records < reported; i += 2) {
+			if (pkt.body[i].equals("109")) {
+				records++;
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Read the users, removing the duplicates found in multi-part packets. A later record for the same user replaces
+	 * the earlier one.
+	 * @param pkt CHATJOIN packet
+	 * @param count number of users to read, from {@link #countUsers(YMSG9Packet)}
+	 * @param roster roster whose users are reused, may be null
+	 * @return users by id, in packet order
+	 */
+	static Map<String, YahooChatUser> parseUsers(YMSG9Packet pkt, int count, Roster roster) {
+		Map<String, YahooChatUser> users = new LinkedHashMap<String, YahooChatUser>(count * 2);
+		String[] body = pkt.body;
+		int i = 0;
+		// skip to the first record
+		while (i < body.length && !body[i].equals("109")) {
+			i += 2;
+		}
+		for (int parsed = 0; parsed < count && i < body.length; parsed++) {
+			String userId = body[i + 1];
+			String attributes = null;
+			String alias = null;
+			String age = null;
+			String location = null;
+			for (i += 2; i < body.length && !body[i].equals("109"); i += 2) {
+				String key = body[i];
+				if (attributes == null && key.equals("113")) {
+					attributes = body[i + 1];
+				} else if (alias == null && key.equals("141")) {
+					alias = body[i + 1];
+				} else if (age == null && key.equals("110")) {
+					age = body[i + 1];
+				} else if (location == null && key.equals("142")) {
+					location = body[i + 1];
+				}
+			}
+			YahooUser user = roster == null ? null : roster.getUser(userId);
+			if (user == null) {
+				user = new YahooUser(userId);
+			}
+			users.put(userId, new YahooChatUser(user, Integer.parseInt(attributes), alias, Integer.parseInt(age),
+					location));
+		}
+		return users;
+	}
+}
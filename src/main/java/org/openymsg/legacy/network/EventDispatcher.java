@@ -9,11 +9,10 @@
  */
 package org.openymsg.legacy.network;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,8 +33,12 @@ import org.openymsg.legacy.network.event.SessionListener;
 public class EventDispatcher extends Thread {
 	private volatile boolean quitFlag = false;
 	private static final Log log = LogFactory.getLog(EventDispatcher.class);
+	/** most events dispatched per drain of the queue */
+	private static final int BATCH_SIZE = 64;
+	/** queued by kill() to wake the thread up, always the last event */
+	private static final FireEvent STOP = new FireEvent(null, ServiceType.LOGOFF);
 	// queue of events that are going to be fired.
-	private final List<FireEvent> queue = Collections.synchronizedList(new LinkedList<FireEvent>());
+	private final BlockingQueue<FireEvent> queue = new LinkedBlockingQueue<FireEvent>();
 	private final Session session;
 
 	public EventDispatcher(String username, final Session session) {
@@ -47,9 +50,11 @@ public class EventDispatcher extends Thread {
 	 * Gracefully stops this thread after sending out all currently queued
 	 * events. No new events can be queued after calling this method.
 	 */
-	public void kill() {
-		quitFlag = true;
-		// interrupt();
+	public synchronized void kill() {
+		if (!quitFlag) {
+			quitFlag = true;
+			queue.add(STOP);
+		}
 	}
 
 	/**
@@ -72,7 +77,7 @@ public class EventDispatcher extends Thread {
 	 * @param type
 	 *            The service typ of the event that's being dispatched.
 	 */
-	public void append(final SessionEvent event, final ServiceType type) {
+	public synchronized void append(final SessionEvent event, final ServiceType type) {
 		if (type == null) {
 			throw new IllegalArgumentException("Argument 'type' cannot be null.");
 		}
@@ -90,28 +95,26 @@ public class EventDispatcher extends Thread {
 	@Override
 	public void run() {
 		try {
-			while (!quitFlag) {
+			final List<FireEvent> batch = new ArrayList<FireEvent>(BATCH_SIZE);
+			while (true) {
 				try {
-					Thread.sleep(50);
+					batch.add(queue.take());
 				} catch (InterruptedException e) {
-					// ignore.
+					// ignore, the thread only stops on the STOP event.
+					continue;
 				}
-				while (!queue.isEmpty()) {
-					final FireEvent event = queue.remove(0);
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for (final FireEvent event : batch) {
+					if (event == STOP) {
+						return;
+					}
 					try {
 						runEventNOW(event);
 					} catch (Exception e) {
 						log.error("Failed proceessing runEventNOW", e);
 					}
 				}
-			}
-			while (!queue.isEmpty()) {
-				final FireEvent event = queue.remove(0);
-				try {
-					runEventNOW(event);
-				} catch (Exception e) {
-					log.error("Failed proceessing runEventNOW", e);
-				}
+				batch.clear();
 			}
 		} finally {
 			log.info("Removing NDC");
@@ -131,8 +134,8 @@ public class EventDispatcher extends Thread {
 			return;
 		}
 		try {
-			Set<SessionListener> externalSessionListeners = new HashSet<SessionListener>(session.getSessionListeners());
-			for (final SessionListener l : externalSessionListeners) {
+			// the listeners are copy-on-write, iterating sees a stable snapshot
+			for (final SessionListener l : session.getSessionListeners()) {
 				l.dispatch(event);
 			}
 		} catch (RuntimeException ex) {
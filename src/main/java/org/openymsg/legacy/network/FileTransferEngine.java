@@ -0,0 +1,408 @@
+package org.openymsg.legacy.network;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves file transfer data between HTTP and disk through file channels, without buffering whole files in memory.
+ * Downloads are written to a partial file next to the target, which is renamed when complete; an interrupted download
+ * is resumed from where it stopped, asking the server for the rest with a Range header. The address and the ETag or
+ * Last-Modified validator of a download are kept next to its partial file, and the Range is made conditional on the
+ * validator with If-Range, so a partial file is only ever continued with the rest of the same file. Transfers can run
+ * on a bounded pool of daemon threads, reporting their progress to a listener.
+ * @author neilhart
+ */
+public class FileTransferEngine {
+	/** logger */
+	private static final Log log = LogFactory.getLog(FileTransferEngine.class);
+	public static final int DEFAULT_THREADS = 4;
+	/** suffix of the file a download is written to until complete */
+	public static final String PARTIAL_SUFFIX = ".part";
+	/** suffix of the file holding where the partial file came from */
+	public static final String RESUME_SUFFIX = ".part.resume";
+	private static final String RESUME_LOCATION = "location";
+	private static final String RESUME_VALIDATOR = "validator";
+	/** bytes moved per channel transfer, between progress reports */
+	static final long CHUNK_SIZE = 1024 * 1024;
+	private static final int HTTP_PARTIAL = 206;
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+	private static final FileTransferEngine shared = new FileTransferEngine(DEFAULT_THREADS);
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Receives the progress of a transfer, from the thread running it
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param transferred bytes transferred so far, including those of an earlier attempt that was resumed
+		 * @param total bytes of the whole file, or -1 if the server did not tell
+		 */
+		void progress(long transferred, long total);
+	}
+
+	/**
+	 * @param threads number of transfers that run at the same time
+	 */
+	public FileTransferEngine(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		final AtomicInteger count = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "openymsg file transfer " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Engine shared by all sessions
+	 */
+	public static FileTransferEngine getShared() {
+		return shared;
+	}
+
+	/**
+	 * Queue a download
+	 * @see #download(URL, String, File, boolean, ProgressListener)
+	 * @return the file written
+	 */
+	public Future<File> submitDownload(final URL location, final String cookie, final File target,
+			final boolean useServerName, final ProgressListener listener) {
+		return executor.submit(new Callable<File>() {
+			@Override
+			public File call() throws IOException {
+				return download(location, cookie, target, useServerName, listener);
+			}
+		});
+	}
+
+	/**
+	 * Download a file, resuming an earlier attempt that left a partial file behind
+	 * @param location address of the file
+	 * @param cookie value of the Cookie header, may be null
+	 * @param target file to write
+	 * @param useServerName if the file name in the Content-Disposition header, if any, replaces that of the target
+	 * @param listener receives the progress, may be null
+	 * @return the file written
+	 * @throws FileTransferFailedException if the server refuses the download
+	 * @throws IOException if the transfer fails, the partial file is kept so it can be resumed
+	 */
+	public File download(URL location, String cookie, File target, boolean useServerName, ProgressListener listener)
+			throws IOException {
+		if (location == null) {
+			throw new IllegalArgumentException("location cannot be null");
+		}
+		if (target == null) {
+			throw new IllegalArgumentException("target cannot be null");
+		}
+		final File partial = new File(target.getPath() + PARTIAL_SUFFIX);
+		final File resume = new File(target.getPath() + RESUME_SUFFIX);
+		long offset = partial.length();
+		final String validator = offset > 0 ? resumeValidator(resume, location) : null;
+		if (offset > 0 && validator == null) {
+			log.debug("Not resuming partial download of another or unknown source: " + partial);
+			offset = 0;
+		}
+		final HttpURLConnection connection = (HttpURLConnection) location.openConnection();
+		Util.initURLConnection(connection);
+		connection.setRequestProperty("User-Agent", NetworkConstants.USER_AGENT);
+		if (cookie != null) {
+			connection.setRequestProperty("Cookie", cookie);
+		}
+		if (offset > 0) {
+			connection.setRequestProperty("Range", "bytes=" + offset + "-");
+			// the server sends the whole file instead if it changed
+			connection.setRequestProperty("If-Range", validator);
+		}
+		try {
+			final int code = connection.getResponseCode();
+			if (code == HttpURLConnection.HTTP_OK) {
+				// the file changed, or the server ignores ranges, so everything is sent again
+				offset = 0;
+			} else if (code == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+				// the partial file does not match the file on the server anymore
+				discard(partial, resume);
+				throw new FileTransferFailedException("Cannot resume download, server HTTP error code: " + code);
+			} else if (code != HTTP_PARTIAL || offset == 0) {
+				throw new FileTransferFailedException("Server HTTP error code: " + code);
+			} else if (rangeStart(connection) != offset || !validator.equals(validator(connection))) {
+				log.debug("Server sent another part or file, restarting download of " + partial);
+				discard(partial, resume);
+				return download(location, cookie, target, useServerName, listener);
+			}
+			if (offset == 0) {
+				writeResume(resume, location, validator(connection));
+			}
+			final long length = contentLength(connection);
+			final long total = length < 0 ? -1 : offset + length;
+			final File destination = useServerName ? serverFile(connection, target) : target;
+			if (offset > 0) {
+				log.debug("Resuming download of " + destination + " at " + offset + " bytes");
+			}
+			final long transferred = receive(connection.getInputStream(), partial, offset, total, listener);
+			if (total >= 0 && transferred < total) {
+				throw new IOException("Download interrupted at " + transferred + " of " + total + " bytes");
+			}
+			if (destination.exists() && !destination.delete()) {
+				throw new IOException("Cannot replace " + destination);
+			}
+			if (!partial.renameTo(destination)) {
+				throw new IOException("Cannot rename " + partial + " to " + destination);
+			}
+			resume.delete();
+			return destination;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Queue an upload
+	 * @see #upload(URL, String, byte[], File, ProgressListener)
+	 */
+	public Future<Void> submitUpload(final URL address, final String cookie, final byte[] header, final File file,
+			final ProgressListener listener) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				upload(address, cookie, header, file, listener);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Post a file, preceded by a header
+	 * @param address where to post
+	 * @param cookie value of the Cookie header, may be null
+	 * @param header bytes sent before the file
+	 * @param file file to send
+	 * @param listener receives the progress of the file, may be null
+	 * @throws FileTransferFailedException if the server rejects the upload
+	 * @throws IOException if the transfer fails
+	 */
+	public void upload(URL address, String cookie, byte[] header, File file, ProgressListener listener)
+			throws IOException {
+		if (address == null) {
+			throw new IllegalArgumentException("address cannot be null");
+		}
+		if (header == null) {
+			throw new IllegalArgumentException("header cannot be null");
+		}
+		if (file == null) {
+			throw new IllegalArgumentException("file cannot be null");
+		}
+		final HttpURLConnection connection = (HttpURLConnection) address.openConnection();
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			final long size = channel.size();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true); // POST, not GET
+			Util.initURLConnection(connection);
+			if (header.length + size <= Integer.MAX_VALUE) {
+				// otherwise the connection buffers the whole body to find its length
+				connection.setFixedLengthStreamingMode((int) (header.length + size));
+			} else {
+				connection.setChunkedStreamingMode((int) CHUNK_SIZE);
+			}
+			connection.setRequestProperty("User-Agent", NetworkConstants.USER_AGENT);
+			if (cookie != null) {
+				connection.setRequestProperty("Cookie", cookie);
+			}
+			// not closed on failure, closing a short fixed length body throws over the cause
+			final OutputStream out = connection.getOutputStream();
+			out.write(header);
+			final WritableByteChannel target = Channels.newChannel(out);
+			long position = 0;
+			while (position < size) {
+				final long sent = channel.transferTo(position, Math.min(CHUNK_SIZE, size - position), target);
+				if (sent <= 0) {
+					// the file shrank while it was sent
+					throw new IOException("File ended at " + position + " of " + size + " bytes: " + file);
+				}
+				position += sent;
+				if (listener != null) {
+					listener.progress(position, size);
+				}
+			}
+			out.close();
+			final int code = connection.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK) {
+				throw new FileTransferFailedException("Server rejected upload, HTTP error code: " + code);
+			}
+		} finally {
+			in.close();
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Stop the threads once the queued transfers are done
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private long receive(InputStream in, File partial, long offset, long total, ProgressListener listener)
+			throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(partial, "rw");
+		try {
+			final FileChannel channel = file.getChannel();
+			// drops what a server that ignored the range sent last time
+			channel.truncate(offset);
+			final ReadableByteChannel source = Channels.newChannel(in);
+			long position = offset;
+			long read;
+			while ((read = channel.transferFrom(source, position, CHUNK_SIZE)) > 0) {
+				position += read;
+				if (listener != null) {
+					listener.progress(position, total);
+				}
+			}
+			return position;
+		} finally {
+			file.close();
+			in.close();
+		}
+	}
+
+	/**
+	 * Validator to resume a partial file with, null unless it was downloaded from the location and the server gave a
+	 * validator for it
+	 */
+	private String resumeValidator(File resume, URL location) {
+		if (!resume.isFile()) {
+			return null;
+		}
+		final Properties properties = new Properties();
+		try {
+			final InputStream in = new FileInputStream(resume);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.warn("Failed reading " + resume, e);
+			return null;
+		}
+		if (!location.toString().equals(properties.getProperty(RESUME_LOCATION))) {
+			return null;
+		}
+		return properties.getProperty(RESUME_VALIDATOR);
+	}
+
+	/**
+	 * Remember where the partial file comes from, before anything is written to it
+	 */
+	private void writeResume(File resume, URL location, String validator) throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty(RESUME_LOCATION, location.toString());
+		if (validator != null) {
+			properties.setProperty(RESUME_VALIDATOR, validator);
+		}
+		final OutputStream out = new FileOutputStream(resume);
+		try {
+			properties.store(out, null);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void discard(File partial, File resume) {
+		partial.delete();
+		resume.delete();
+	}
+
+	/**
+	 * Strong ETag of the response, or else its Last-Modified date, null if it has neither
+	 */
+	private String validator(HttpURLConnection connection) {
+		final String etag = connection.getHeaderField("ETag");
+		if (etag != null && !etag.startsWith("W/")) {
+			return etag;
+		}
+		return connection.getHeaderField("Last-Modified");
+	}
+
+	/**
+	 * First byte of a partial response, -1 if the Content-Range header is missing or malformed
+	 */
+	private long rangeStart(HttpURLConnection connection) {
+		final String range = connection.getHeaderField("Content-Range");
+		if (range == null || !range.startsWith("bytes ") || range.indexOf('-') < 0) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(range.substring("bytes ".length(), range.indexOf('-')).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private long contentLength(HttpURLConnection connection) {
+		final String length = connection.getHeaderField("Content-Length");
+		if (length == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(length.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Target named after the Content-Disposition header, in the directory of the target
+	 */
+	private File serverFile(HttpURLConnection connection, File target) {
+		final String disposition = connection.getHeaderField("Content-Disposition");
+		if (disposition == null) {
+			return target;
+		}
+		final int i = disposition.indexOf("filename=");
+		if (i < 0) {
+			return target;
+		}
+		String name = disposition.substring(i + 9);
+		// Strip quotes if necessary
+		if (name.length() > 1 && name.charAt(0) == '\"') {
+			name = name.substring(1, name.length() - 1);
+		}
+		// the server names the file, not where it goes
+		name = new File(name).getName();
+		if (name.length() == 0) {
+			return target;
+		}
+		return new File(target.getParentFile(), name);
+	}
+}
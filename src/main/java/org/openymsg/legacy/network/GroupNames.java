@@ -0,0 +1,59 @@
+package org.openymsg.legacy.network;
+
+import org.openymsg.util.StringPool;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Group names of legacy rosters, so a {@link YahooUser} keeps the groups it is in as a small sorted array instead of a
+ * set, and every user in a group shares one instance of its name. The names are shared through the weak
+ * {@link StringPool}, so the names of groups no user is in any more are not kept.
+ * @author neilhart
+ */
+final class GroupNames {
+	static final String[] NO_GROUPS = new String[0];
+
+	private GroupNames() {
+	}
+
+	/**
+	 * Sorted names of groups, skipping null names
+	 */
+	static String[] names(Collection<String> groupNames) {
+		String[] groups = NO_GROUPS;
+		if (groupNames != null) {
+			for (String name : groupNames) {
+				groups = add(groups, name);
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * Add a group to sorted names of groups
+	 * @return the names with the group, the same array if it was there already or the name is null
+	 */
+	static String[] add(String[] groups, String name) {
+		if (name == null) {
+			return groups;
+		}
+		final int i = Arrays.binarySearch(groups, name);
+		if (i >= 0) {
+			return groups;
+		}
+		final int insert = -i - 1;
+		final String[] added = new String[groups.length + 1];
+		System.arraycopy(groups, 0, added, 0, insert);
+		added[insert] = StringPool.getShared().share(name);
+		System.arraycopy(groups, insert, added, insert + 1, groups.length - insert);
+		return added;
+	}
+
+	/**
+	 * If sorted names of groups include a group
+	 */
+	static boolean contains(String[] groups, Object name) {
+		return name instanceof String && Arrays.binarySearch(groups, name) >= 0;
+	}
+}
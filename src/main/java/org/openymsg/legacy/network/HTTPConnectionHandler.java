@@ -12,17 +12,29 @@ package org.openymsg.legacy.network;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PushbackInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Queue;
 
 /**
+ * Connection through a HTTP proxy. By default every outbound packet is posted on a new HTTP/1.0 connection, and
+ * incoming packets only arrive in the responses, with an IDLE packet posted after 30 seconds of silence. In keep-alive
+ * mode (the openymsg.network.httpKeepAlive property, or the constructor flag) one HTTP/1.1 connection is reused for all
+ * posts, packets queued while a post is in flight are sent together in the next post, and the server is polled every
+ * openymsg.network.httpPollInterval milliseconds of silence.
  * @author G. der Kinderen, Nimbuzz B.V. guus@nimbuzz.com
  * @author S.E. Morris
  */
@@ -31,6 +43,10 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 	private final static long IDLE_TIMEOUT = 30 * 1000;
 	private static final String HTTP_HEADER_POST =
 			"POST http://" + Util.httpHost() + "/notify HTTP/1.0" + NetworkConstants.END;
+	private static final String HTTP_HEADER_POST_11 =
+			"POST http://" + Util.httpHost() + "/notify HTTP/1.1" + NetworkConstants.END;
+	private static final String HTTP_HEADER_KEEP_ALIVE =
+			"Connection: keep-alive" + NetworkConstants.END + "Proxy-Connection: keep-alive" + NetworkConstants.END;
 	private static final String HTTP_HEADER_AGENT = "User-Agent: " + NetworkConstants.USER_AGENT + NetworkConstants.END;
 	private static final String HTTP_HEADER_HOST = "Host: " + Util.httpHost() + NetworkConstants.END;
 	private static final String HTTP_HEADER_PROXY_AUTH =
@@ -38,10 +54,17 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 	private Session session; // Associated session object
 	private String proxyHost; // HTTP proxy host name
 	private int proxyPort; // HTTP proxy post
-	private long lastFetch; // Time of last packet fetch
+	private volatile long lastFetch; // Time of last packet fetch
 	private final Queue<YMSG9Packet> packets; // Incoming packet queue
+	private final boolean keepAlive; // Reuse one HTTP/1.1 connection
+	private final long idleTimeout; // Silence before polling with an IDLE packet
+	private final List<OutboundPacket> outbound = new ArrayList<OutboundPacket>(); // Waiting for a post
+	private final Object postLock = new Object(); // Held while a post is in flight
+	private Socket socket; // Kept-alive connection, guarded by postLock
+	private PushbackInputStream socketInput; // guarded by postLock
+	private DataOutputStream socketOutput; // guarded by postLock
 	private boolean connected = false; // Sending/receiving data?
-	private String cookie = null; // HTTP cookie field
+	private volatile String cookie = null; // HTTP cookie field
 	private long identifier = 0; // Some kind of id, from LOGON incoming
 	private Notifier notifierThread; // Send IDLE packets on timeout
 
@@ -60,11 +83,24 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 	 * @param blacklist Option set of hosts explicitly forbidden to use.
 	 */
 	public HTTPConnectionHandler(String proxyHost, int proxyPort, Collection<String> blacklist) {
+		this(proxyHost, proxyPort, blacklist, Util.httpKeepAlive());
+	}
+
+	/**
+	 * Creates a new instance, using the host and port as configured.
+	 * @param proxyHost Host to use.
+	 * @param proxyPort Port to use.
+	 * @param blacklist Option set of hosts explicitly forbidden to use.
+	 * @param keepAlive Reuse one HTTP/1.1 connection, batch queued packets and poll for incoming packets.
+	 */
+	public HTTPConnectionHandler(String proxyHost, int proxyPort, Collection<String> blacklist, boolean keepAlive) {
 		if (proxyHost == null || proxyHost.length() == 0 || proxyPort <= 0 || proxyPort > 65535) {
 			throw new IllegalArgumentException("Bad HTTP proxy properties");
 		}
 		this.proxyHost = proxyHost;
 		this.proxyPort = proxyPort;
+		this.keepAlive = keepAlive;
+		this.idleTimeout = keepAlive ? Util.httpPollInterval() : IDLE_TIMEOUT;
 		packets = new LinkedList<YMSG9Packet>();
 		connected = false;
 		// Names are prefixed with "http." for 1.3 and after
@@ -140,6 +176,9 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 				notifierThread = null;
 			}
 		}
+		synchronized (postLock) {
+			closeSocket();
+		}
 	}
 
 	/**
@@ -152,66 +191,280 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 	 * throw an exception, these are caught and transfered onto the queue too, then rethrown by receivePacket() .
 	 */
 	@Override
-	synchronized void sendPacket(PacketBodyBuffer body, ServiceType service, long status, long sessionID)
-			throws IOException, IllegalStateException {
+	void sendPacket(PacketBodyBuffer body, ServiceType service, long status, long sessionID) throws IOException,
+			IllegalStateException {
 		if (!connected)
 			throw new IllegalStateException("Not logged in");
-		if (filterOutput(body, service))
+		if (!keepAlive) {
+			synchronized (postLock) {
+				byte[] packet;
+				synchronized (this) {
+					if (filterOutput(body, service))
+						return;
+					packet = encode(body, service, status, sessionID);
+				}
+				postOnNewConnection(packet);
+			}
 			return;
+		}
+		OutboundPacket pending;
+		synchronized (this) {
+			if (filterOutput(body, service))
+				return;
+			pending = new OutboundPacket(encode(body, service, status, sessionID));
+			outbound.add(pending);
+		}
+		synchronized (postLock) {
+			// a post made while we waited for the lock may already have carried the packet
+			if (!pending.sent) {
+				List<OutboundPacket> batch;
+				synchronized (this) {
+					batch = new ArrayList<OutboundPacket>(outbound);
+					outbound.clear();
+				}
+				IOException failure = null;
+				try {
+					postOnKeptAliveConnection(batch);
+				} catch (IOException e) {
+					failure = e;
+				}
+				for (OutboundPacket sent : batch) {
+					sent.sent = true;
+					sent.failure = failure;
+				}
+			}
+		}
+		if (pending.failure != null)
+			throw pending.failure;
+	}
+
+	// YMSG9 header and body, as posted
+	private byte[] encode(PacketBodyBuffer body, ServiceType service, long status, long sessionID) throws IOException {
 		byte[] b = body.getBuffer();
-		Socket soc = new Socket(proxyHost, proxyPort);
-		PushbackInputStream pbis = new PushbackInputStream(soc.getInputStream());
-		DataOutputStream dos = new DataOutputStream(soc.getOutputStream());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(b.length + NetworkConstants.YMSG9_HEADER_SIZE);
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.write(NetworkConstants.MAGIC, 0, 4);
+		dos.write(NetworkConstants.VERSION_HTTP, 0, 4);
+		dos.writeShort(b.length & 0xffff);
+		dos.writeShort(service.getValue() & 0xffff);
+		dos.writeInt((int) (status & 0xffffffff));
+		dos.writeInt((int) (sessionID & 0xffffffff));
+		dos.write(b, 0, b.length);
+		return baos.toByteArray();
+	}
+
+	private void writeRequest(DataOutputStream dos, byte[][] payload, boolean http11) throws IOException {
+		int length = 0;
+		for (byte[] packet : payload)
+			length += packet.length;
 		// HTTP header
-		dos.writeBytes(HTTP_HEADER_POST);
-		dos.writeBytes("Content-length: " + (b.length + NetworkConstants.YMSG9_HEADER_SIZE) + NetworkConstants.END);
+		dos.writeBytes(http11 ? HTTP_HEADER_POST_11 : HTTP_HEADER_POST);
+		dos.writeBytes("Content-length: " + length + NetworkConstants.END);
 		dos.writeBytes(HTTP_HEADER_AGENT);
 		dos.writeBytes(HTTP_HEADER_HOST);
 		if (HTTP_HEADER_PROXY_AUTH != null)
 			dos.writeBytes(HTTP_HEADER_PROXY_AUTH);
 		if (cookie != null)
 			dos.writeBytes("Cookie: " + cookie + NetworkConstants.END);
+		if (http11)
+			dos.writeBytes(HTTP_HEADER_KEEP_ALIVE);
 		dos.writeBytes(NetworkConstants.END);
-		// YMSG9 header
-		dos.write(NetworkConstants.MAGIC, 0, 4);
-		dos.write(NetworkConstants.VERSION_HTTP, 0, 4);
-		dos.writeShort(b.length & 0xffff);
-		dos.writeShort(service.getValue() & 0xffff);
-		dos.writeInt((int) (status & 0xffffffff));
-		dos.writeInt((int) (sessionID & 0xffffffff));
-		// YMSG9 body
-		dos.write(b, 0, b.length);
+		// YMSG9 packets
+		for (byte[] packet : payload)
+			dos.write(packet, 0, packet.length);
 		dos.flush();
-		// HTTP response header
+	}
+
+	private void postOnNewConnection(byte[] packet) throws IOException {
+		Socket soc = new Socket(proxyHost, proxyPort);
+		try {
+			PushbackInputStream pbis = new PushbackInputStream(soc.getInputStream());
+			writeRequest(new DataOutputStream(soc.getOutputStream()), new byte[][] {packet}, false);
+			// HTTP response header
+			String s = readLine(pbis);
+			if (s == null || s.indexOf(" 200 ") < 0) // Not "HTTP/1.0 200 OK"
+			{
+				throw new IOException("HTTP request returned didn't return OK (200): " + s);
+			}
+			while (s != null && s.trim().length() > 0)
+				// Read past header
+				s = readLine(pbis);
+			readPayload(pbis);
+		} finally {
+			soc.close();
+		}
+		// Reset idle timeout
+		lastFetch = System.currentTimeMillis();
+	}
+
+	/**
+	 * Post the packets on the kept-alive connection, opening it if needed. If a reused connection turns out to have
+	 * been closed by the proxy before any of the response arrived, the post is repeated once on a new connection.
+	 */
+	private void postOnKeptAliveConnection(List<OutboundPacket> batch) throws IOException {
+		byte[][] payload = new byte[batch.size()][];
+		for (int i = 0; i < payload.length; i++)
+			payload[i] = batch.get(i).packet;
+		if (log.isDebugEnabled() && payload.length > 1)
+			log.debug("Posting " + payload.length + " packets");
+		boolean retry = socket != null;
+		while (true) {
+			if (socket == null) {
+				socket = new Socket(proxyHost, proxyPort);
+				socketInput = new PushbackInputStream(socket.getInputStream());
+				socketOutput = new DataOutputStream(socket.getOutputStream());
+			}
+			boolean responseStarted = false;
+			try {
+				writeRequest(socketOutput, payload, true);
+				int c = socketInput.read();
+				if (c < 0)
+					throw new EOFException("HTTP connection closed by proxy");
+				socketInput.unread(c);
+				responseStarted = true;
+				if (readKeptAliveResponse(socketInput))
+					closeSocket();
+				break;
+			} catch (IOException e) {
+				closeSocket();
+				if (!retry || responseStarted)
+					throw e;
+				log.debug("Kept-alive HTTP connection was closed, reconnecting", e);
+				retry = false;
+			}
+		}
+		// Reset idle timeout
+		lastFetch = System.currentTimeMillis();
+	}
+
+	/**
+	 * Read a HTTP/1.1 response, consuming exactly its body so the connection can be reused.
+	 * @return true if the connection must be closed afterwards
+	 */
+	private boolean readKeptAliveResponse(PushbackInputStream pbis) throws IOException {
 		String s = readLine(pbis);
-		if (s == null || s.indexOf(" 200 ") < 0) // Not "HTTP/1.0 200 OK"
-		{
+		if (s.indexOf(" 200 ") < 0) {
 			throw new IOException("HTTP request returned didn't return OK (200): " + s);
 		}
-		while (s != null && s.trim().length() > 0)
-			// Read past header
+		boolean close = !s.startsWith("HTTP/1.1");
+		int contentLength = -1;
+		boolean chunked = false;
+		s = readLine(pbis);
+		while (s.trim().length() > 0) {
+			int colon = s.indexOf(':');
+			if (colon > 0) {
+				String name = s.substring(0, colon).trim();
+				String value = s.substring(colon + 1).trim();
+				if (name.equalsIgnoreCase("Content-Length")) {
+					contentLength = parseLength(value, 10);
+				} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+					chunked = value.equalsIgnoreCase("chunked");
+				} else if (name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Proxy-Connection")) {
+					if (value.equalsIgnoreCase("close"))
+						close = true;
+					else if (value.equalsIgnoreCase("keep-alive"))
+						close = false;
+				}
+			}
 			s = readLine(pbis);
+		}
+		byte[] content;
+		if (chunked) {
+			content = readChunked(pbis);
+		} else if (contentLength >= 0) {
+			content = new byte[contentLength];
+			new DataInputStream(pbis).readFully(content);
+		} else {
+			// body ends with the connection
+			content = readToEnd(pbis);
+			close = true;
+		}
+		readPayload(new ByteArrayInputStream(content));
+		return close;
+	}
+
+	private byte[] readChunked(PushbackInputStream pbis) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		DataInputStream dis = new DataInputStream(pbis);
+		while (true) {
+			String size = readLine(pbis);
+			int extension = size.indexOf(';');
+			if (extension >= 0)
+				size = size.substring(0, extension);
+			int length = parseLength(size.trim(), 16);
+			if (length == 0)
+				break;
+			byte[] chunk = new byte[length];
+			dis.readFully(chunk);
+			content.write(chunk, 0, length);
+			readLine(pbis); // end of chunk
+		}
+		// trailers
+		while (readLine(pbis).trim().length() > 0) {
+			// ignore
+		}
+		return content.toByteArray();
+	}
+
+	// A malformed length is an I/O failure, so the connection it came on is closed
+	private int parseLength(String value, int radix) throws IOException {
+		int length;
+		try {
+			length = Integer.parseInt(value, radix);
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad HTTP length: " + value);
+		}
+		if (length < 0) {
+			throw new IOException("Bad HTTP length: " + value);
+		}
+		return length;
+	}
+
+	private byte[] readToEnd(InputStream in) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			content.write(buffer, 0, read);
+		return content.toByteArray();
+	}
+
+	// Packet count followed by that many packets, queued for receivePacket()
+	private void readPayload(InputStream in) throws IOException {
 		// Payload count
 		byte[] code = new byte[4];
-		int res = pbis.read(code, 0, 4); // Packet count (Little-Endian?)
+		int res = in.read(code, 0, 4); // Packet count (Little-Endian?)
 		if (res < 4) {
 			throw new IOException("Premature end of HTTP data");
 		}
 		int count = code[0];
 		// Payload body
-		YMSG9InputStream yip = new YMSG9InputStream(pbis);
+		YMSG9InputStream yip = new YMSG9InputStream(in);
 		YMSG9Packet pkt;
 		for (int i = 0; i < count; i++) {
 			pkt = yip.readPacket();
-			if (!filterInput(pkt)) {
-				if (!packets.add(pkt)) {
-					throw new IllegalArgumentException("Unable to add data to the packetQueue!");
+			synchronized (this) {
+				if (!filterInput(pkt)) {
+					if (!packets.add(pkt)) {
+						throw new IllegalArgumentException("Unable to add data to the packetQueue!");
+					}
+					notifyAll();
 				}
 			}
 		}
-		soc.close();
-		// Reset idle timeout
-		lastFetch = System.currentTimeMillis();
+	}
+
+	private void closeSocket() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.debug("Failed closing HTTP connection", e);
+			}
+			socket = null;
+			socketInput = null;
+			socketOutput = null;
+		}
 	}
 
 	// Read one line of text, terminating in usual \r \n combinations
@@ -219,6 +472,8 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 		int c = pbis.read();
 		StringBuffer sb = new StringBuffer();
 		while (c != '\n' && c != '\r') {
+			if (c < 0)
+				throw new EOFException("HTTP connection closed");
 			sb.append((char) c);
 			c = pbis.read();
 		}
@@ -236,20 +491,18 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 	YMSG9Packet receivePacket() throws IOException {
 		if (!connected)
 			throw new IllegalStateException("Not logged in");
-		while (true) {
-			synchronized (this) {
-				if (packets.size() > 0) {
-					Object o = packets.poll();
-					if (o instanceof IOException)
-						throw (IOException) o;
-					return (YMSG9Packet) o;
+		synchronized (this) {
+			while (packets.isEmpty()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// ignore
 				}
 			}
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				// ignore
-			}
+			Object o = packets.poll();
+			if (o instanceof IOException)
+				throw (IOException) o;
+			return (YMSG9Packet) o;
 		}
 	}
 
@@ -313,8 +566,9 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 	}
 
 	/**
-	 * This thread fires off a IDLE packet every thirty seconds. This is because the only way the server can deliver us
-	 * any incoming packets is on the input stream of a HTTP connection we have made ourselves.
+	 * This thread fires off a IDLE packet after thirty seconds of silence, or after the poll interval in keep-alive
+	 * mode. This is because the only way the server can deliver us any incoming packets is on the input stream of a
+	 * HTTP connection we have made ourselves.
 	 */
 	class Notifier extends Thread {
 		volatile boolean quitFlag = false;
@@ -334,7 +588,7 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 					// ignore
 				}
 				long t = System.currentTimeMillis();
-				if (!quitFlag && connected && (t - lastFetch > IDLE_TIMEOUT)
+				if (!quitFlag && connected && (t - lastFetch > idleTimeout)
 						&& session.getSessionStatus() == SessionState.LOGGED_ON) {
 					try {
 						session.transmitIdle();
@@ -346,6 +600,21 @@ public class HTTPConnectionHandler extends ConnectionHandler {
 		}
 	}
 
+	/**
+	 * Encoded packet waiting for a post, with the outcome of the post that carried it
+	 */
+	private static final class OutboundPacket {
+		private final byte[] packet;
+		/** guarded by postLock */
+		private boolean sent = false;
+		/** guarded by postLock */
+		private IOException failure;
+
+		private OutboundPacket(byte[] packet) {
+			this.packet = packet;
+		}
+	}
+
 	@Override
 	boolean isLocked(int millisDuration) {
 		return true;
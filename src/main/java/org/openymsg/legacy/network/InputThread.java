@@ -234,6 +234,9 @@ public class InputThread extends Thread {
 		case PICTURE:
 			parentSession.receivePicture(pkt);
 			break;
+		case PICTURE_CHECKSUM:
+			parentSession.receivePictureChecksum(pkt);
+			break;
 		case Y7_AUTHORIZATION:
 			parentSession.receiveAuthorization(pkt);
 			break;
@@ -0,0 +1,107 @@
+package org.openymsg.legacy.network;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Outcome of a login, completed by the input thread when the server accepts or refuses it, or by the login timeout.
+ * {@link #get()} throws an ExecutionException whose cause is the {@link LoginRefusedException},
+ * {@link FailedLoginException} or {@link java.io.InterruptedIOException} (timeout) the login failed with. A login
+ * cannot be cancelled through the future; call {@link Session#logout()} once it is done instead.
+ */
+public class LoginFuture implements Future<Void> {
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicBoolean claimed = new AtomicBoolean(false);
+	private volatile Exception failure;
+
+	LoginFuture() {
+	}
+
+	/**
+	 * Claim the right to complete this future, so only the first outcome is used
+	 * @return true if the caller should complete the future
+	 */
+	boolean claim() {
+		return claimed.compareAndSet(false, true);
+	}
+
+	/**
+	 * Complete the login
+	 * @param failure why the login failed, null if it succeeded
+	 */
+	void complete(Exception failure) {
+		this.failure = failure;
+		done.countDown();
+	}
+
+	/**
+	 * Wait, ignoring interrupts, until the login completes or the timeout passes. The interrupt status is restored.
+	 * @param timeoutInMillis maximum time to wait
+	 * @return true if the login completed
+	 */
+	boolean awaitUninterruptibly(long timeoutInMillis) {
+		long deadline = System.currentTimeMillis() + timeoutInMillis;
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return done.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Why the login failed
+	 * @return the failure, or null if the login succeeded or is not done
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public Void get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	@Override
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("Login not completed");
+		}
+		return result();
+	}
+
+	private Void result() throws ExecutionException {
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,289 @@
+package org.openymsg.legacy.network;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Buddy pictures keyed by the contact and the checksum Yahoo announces for the picture, so a picture is downloaded once
+ * however many sessions or announcements refer to it. The checksum is declared by the contact and the data is not
+ * checked against it, so entries are not shared between contacts: a contact announcing the checksum of someone else's
+ * picture only fills its own entry. The most recently used pictures are kept in memory; with a directory, every
+ * picture is also written to disk, so it survives eviction and restarts. Concurrent fetches of the same picture share
+ * one download.
+ * @author neilhart
+ */
+public class PictureCache {
+	/** logger */
+	private static final Log log = LogFactory.getLog(PictureCache.class);
+	public static final int DEFAULT_MAXIMUM_PICTURES = 1000;
+	private static final PictureCache shared = new PictureCache(DEFAULT_MAXIMUM_PICTURES, null);
+	private final int maximumPictures;
+	private final File directory;
+	/** access ordered, guarded by this */
+	private final Map<String, byte[]> pictures = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	/** downloads in progress by key */
+	private final ConcurrentMap<String, FutureTask<byte[]>> fetching =
+			new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+	/**
+	 * @param maximumPictures maximum number of pictures kept in memory
+	 * @param directory where pictures are stored, null to keep them in memory only
+	 */
+	public PictureCache(int maximumPictures, File directory) {
+		if (maximumPictures < 1) {
+			throw new IllegalArgumentException("maximumPictures must be positive");
+		}
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("directory cannot be created: " + directory);
+		}
+		this.maximumPictures = maximumPictures;
+		this.directory = directory;
+	}
+
+	/**
+	 * Cache shared by all sessions, in memory only
+	 */
+	public static PictureCache getShared() {
+		return shared;
+	}
+
+	/**
+	 * Get a picture that was fetched before
+	 * @param contactId contact the picture is of
+	 * @param checksum picture checksum
+	 * @return picture data, null if not cached
+	 */
+	public byte[] get(String contactId, String checksum) {
+		if (contactId == null || checksum == null) {
+			return null;
+		}
+		final String key = key(contactId, checksum);
+		synchronized (this) {
+			byte[] data = this.pictures.get(key);
+			if (data != null) {
+				return data;
+			}
+		}
+		byte[] data = read(key);
+		if (data != null) {
+			remember(key, data);
+		}
+		return data;
+	}
+
+	/**
+	 * Get a picture, downloading it unless it is cached
+	 * @param contactId contact the picture is of, null if unknown in which case the picture is downloaded and not
+	 *            cached
+	 * @param checksum picture checksum, null if unknown in which case the picture is downloaded and not cached
+	 * @param location where the picture is downloaded from
+	 * @return picture data
+	 * @throws IOException if the download fails
+	 */
+	public byte[] fetch(final String contactId, final String checksum, final URL location) throws IOException {
+		if (location == null) {
+			throw new IllegalArgumentException("location cannot be null");
+		}
+		if (contactId == null || checksum == null) {
+			return download(location);
+		}
+		byte[] data = get(contactId, checksum);
+		if (data != null) {
+			return data;
+		}
+		final String key = key(contactId, checksum);
+		FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				// another fetch may have finished since this one missed
+				byte[] data = get(contactId, checksum);
+				if (data == null) {
+					data = download(location);
+					put(contactId, checksum, data);
+				}
+				return data;
+			}
+		});
+		FutureTask<byte[]> running = this.fetching.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				this.fetching.remove(key, task);
+			}
+		}
+		return await(running);
+	}
+
+	/**
+	 * Add a picture
+	 * @param contactId contact the picture is of
+	 * @param checksum picture checksum
+	 * @param data picture data
+	 */
+	public void put(String contactId, String checksum, byte[] data) {
+		if (contactId == null) {
+			throw new IllegalArgumentException("contactId cannot be null");
+		}
+		if (checksum == null) {
+			throw new IllegalArgumentException("checksum cannot be null");
+		}
+		if (data == null) {
+			throw new IllegalArgumentException("data cannot be null");
+		}
+		final String key = key(contactId, checksum);
+		remember(key, data);
+		write(key, data);
+	}
+
+	/**
+	 * Number of pictures in memory
+	 */
+	public synchronized int size() {
+		return this.pictures.size();
+	}
+
+	/**
+	 * Download a picture
+	 * @param location where the picture is downloaded from
+	 * @return picture data
+	 */
+	protected byte[] download(URL location) throws IOException {
+		final URLConnection connection = location.openConnection();
+		Util.initURLConnection(connection);
+		final InputStream in = connection.getInputStream();
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buff = new byte[4096];
+			int bytesRead;
+			while ((bytesRead = in.read(buff)) > 0) {
+				out.write(buff, 0, bytesRead);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Key of a contact's picture. The contact id is length prefixed, so no checksum a contact announces can make the
+	 * key of another contact.
+	 */
+	private static String key(String contactId, String checksum) {
+		return contactId.length() + "-" + contactId + "-" + checksum;
+	}
+
+	private synchronized void remember(String key, byte[] data) {
+		this.pictures.put(key, data);
+		if (this.pictures.size() > this.maximumPictures) {
+			this.pictures.remove(this.pictures.keySet().iterator().next());
+		}
+	}
+
+	private byte[] read(String key) {
+		if (this.directory == null) {
+			return null;
+		}
+		final File file = file(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			final InputStream in = new FileInputStream(file);
+			try {
+				final byte[] data = new byte[(int) file.length()];
+				int offset = 0;
+				int read;
+				while (offset < data.length && (read = in.read(data, offset, data.length - offset)) > 0) {
+					offset += read;
+				}
+				return offset == data.length ? data : null;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.warn("Failed reading cached picture: " + file, e);
+			return null;
+		}
+	}
+
+	private void write(String key, byte[] data) {
+		if (this.directory == null) {
+			return;
+		}
+		final File file = file(key);
+		try {
+			// written aside and renamed, so a reader never sees part of a picture
+			final File temporary = File.createTempFile("picture", ".tmp", this.directory);
+			final OutputStream out = new FileOutputStream(temporary);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+			if (!temporary.renameTo(file)) {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			log.warn("Failed storing picture: " + file, e);
+		}
+	}
+
+	/**
+	 * File of a key. Keys are usually made of letters and numbers; anything else is hex encoded so it cannot name a
+	 * path.
+	 */
+	private File file(String key) {
+		boolean plain = key.length() > 0 && key.length() <= 128;
+		for (int i = 0; plain && i < key.length(); i++) {
+			char c = key.charAt(i);
+			plain = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-';
+		}
+		if (plain) {
+			return new File(this.directory, "picture-" + key);
+		}
+		final StringBuilder name = new StringBuilder("picture_");
+		for (int i = 0; i < key.length(); i++) {
+			String hex = Integer.toHexString(key.charAt(i));
+			name.append("0000", hex.length(), 4).append(hex);
+		}
+		return new File(this.directory, name.toString());
+	}
+
+	private byte[] await(FutureTask<byte[]> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted fetching picture");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Failed fetching picture", cause);
+		}
+	}
+}
@@ -23,6 +23,8 @@ public interface PropertyConstants {
 	public final static String DIRECT_PORTS = "openymsg.network.directPorts";
 	public final static String HTTP_HOST = "openymsg.network.httpHost";
 	public final static String HTTP_PROXY_AUTH = "openymsg.network.httpProxyAuth";
+	public final static String HTTP_KEEP_ALIVE = "openymsg.network.httpKeepAlive";
+	public final static String HTTP_POLL_INTERVAL = "openymsg.network.httpPollInterval";
 	public final static String FT_HOST = "openymsg.network.fileTransferHost";
 	/**
 	 * Property defaults
@@ -31,5 +33,6 @@ public interface PropertyConstants {
 	public final static String DIRECT_HOST_DEFAULT = "scs.msg.yahoo.com";
 	public final static int[] DIRECT_PORTS_DEFAULT = {5050, 23, 25, 80};
 	public final static String HTTP_HOST_DEFAULT = "http.pager.yahoo.com";
+	public final static long HTTP_POLL_INTERVAL_DEFAULT = 5 * 1000;
 	public final static String FT_HOST_DEFAULT = "filetransfer.msg.yahoo.com";
 }
@@ -9,11 +9,9 @@
  */
 package org.openymsg.legacy.network;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -28,12 +26,12 @@ import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
@@ -42,6 +40,13 @@ import java.util.StringTokenizer;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -120,18 +125,45 @@ public class Session implements StatusConstants, FriendManager {
 	private TimerTask pingerTask;
 	protected InputThread ipThread;
 	protected EventDispatcher eventDispatchQueue;
-	private YahooException loginException = null;
+	private volatile YahooException loginException = null;
+	/** Times out logins, shared so an in-flight login holds no thread */
+	private static final Timer loginTimer = new Timer("openymsg login", true);
+	/** Closes failed sessions, so a slow close does not hold up the timer or the failed logins of other sessions */
+	private static final ExecutorService loginCloser = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "openymsg login close " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	/** Milliseconds login() waits past the login timeout, and then for a failed session to be closed */
+	private static final long LOGIN_CLOSE_WAIT = 5000;
+	private volatile LoginFuture loginFuture;
+	private volatile TimerTask loginTimeout;
+	/** Completed when the chat server answers CHATCONNECT and CHATJOIN */
+	private volatile LoginFuture chatConnected;
+	private volatile LoginFuture chatJoined;
 	// private boolean receivedListFired = false;
-	/** For split packets in multiple parts */
-	private YMSG9Packet cachePacket;
+	/** For split packets in multiple parts, joined once the last part arrives */
+	private final List<YMSG9Packet> cacheParts = new ArrayList<YMSG9Packet>();
+	/** Incomplete parts of a multi-part chat login packet */
+	private final List<YMSG9Packet> chatLoginParts = new ArrayList<YMSG9Packet>();
 	private ChatroomManager chatroomManager;
+	private final FileTransferEngine fileTransfers = FileTransferEngine.getShared();
 	/** Current conferences, hashed on room */
 	private Hashtable<String, YahooConference> conferences = new Hashtable<String, YahooConference>();
-	private SessionState chatSessionStatus;
+	private volatile SessionState chatSessionStatus;
 	private volatile YahooChatLobby currentLobby = null;
 	private YahooIdentity chatID;
-	private Set<SessionListener> sessionListeners = new HashSet<SessionListener>();
+	/** copy-on-write, so the dispatcher can iterate it for every event without copying or locking */
+	private final Set<SessionListener> sessionListeners = new CopyOnWriteArraySet<SessionListener>();
 	private SessionPictureHandler pictureHandler = null;
+	private volatile PictureCache pictureCache = PictureCache.getShared();
+	/** checksum of the picture each contact announced last */
+	private final Map<String, String> pictureChecksums = new ConcurrentHashMap<String, String>();
 	/** Message number to be included in sending a message */
 	private int messageNumber = new Random().nextInt(1000000);
 	private long pingTimestamp = 0L;
@@ -268,6 +300,50 @@ public class Session implements StatusConstants, FriendManager {
 	public void login(String username, String password, boolean createPingerTask, boolean searchForAddress,
 			boolean checkSSL, boolean isInvisible) throws IllegalStateException, IOException, AccountLockedException,
 			LoginRefusedException, FailedLoginException {
+		LoginFuture future = loginAsync(username, password, createPingerTask, searchForAddress, checkSSL, isInvisible);
+		// the timeout task completes the future, waiting longer only guards against a late timer or a slow close
+		if (!future.awaitUninterruptibly(Util.loginTimeout(NetworkConstants.LOGIN_TIMEOUT) + LOGIN_CLOSE_WAIT)) {
+			if (future.claim()) {
+				closeLater(future, new InterruptedIOException("Login timed out"));
+			}
+			if (!future.awaitUninterruptibly(LOGIN_CLOSE_WAIT)) {
+				throw new InterruptedIOException("Login timed out, the failed session is still being closed");
+			}
+		}
+		Exception failure = future.getFailure();
+		log.trace("finished waiting for connection: " + sessionStatus + "/" + failure);
+		if (failure == null) {
+			return;
+		}
+		if (failure instanceof LoginRefusedException) {
+			throw (LoginRefusedException) failure;
+		}
+		if (failure instanceof FailedLoginException) {
+			throw (FailedLoginException) failure;
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		throw new FailedLoginException("User " + username + ": Login failed unexpectedly.", failure);
+	}
+
+	/**
+	 * Start connecting to the Yahoo server without waiting for the login to complete. The returned future completes
+	 * when the server accepts or refuses the login, or when the login times out; by then a failed session has been
+	 * closed, as with {@link #login(String, String, boolean, boolean, boolean, boolean)}. No thread is held while
+	 * the login is in progress.
+	 * 
+	 * @param username
+	 *            Yahoo id
+	 * @param password
+	 *            password
+	 * @param createPingerTask
+	 *            Session will do it's own thread for pings and keepAlives
+	 * @return the login outcome
+	 */
+	public LoginFuture loginAsync(String username, String password, boolean createPingerTask,
+			boolean searchForAddress, boolean checkSSL, boolean isInvisible) throws IllegalStateException,
+			IOException {
 		this.checkSSL = checkSSL;
 		this.isInvisible = isInvisible;
 		identities = new HashMap<String, YahooIdentity>();
@@ -303,6 +379,9 @@ public class Session implements StatusConstants, FriendManager {
 		this.password = password;
 		sessionId = 0;
 		imvironment = "0";
+		final LoginFuture future = new LoginFuture();
+		loginFuture = future;
+		boolean started = false;
 		try {
 			// Create the socket and threads (ipThread, sessionPingRunnable and
 			// maybe eventDispatchQueue)
@@ -311,35 +390,86 @@ public class Session implements StatusConstants, FriendManager {
 			// Begin login process
 			log.trace("Transmitting auth...");
 			transmitAuth();
-			// Wait until connection or timeout
-			long timeout = System.currentTimeMillis() + Util.loginTimeout(NetworkConstants.LOGIN_TIMEOUT);
-			while (sessionStatus != SessionState.LOGGED_ON && sessionStatus != SessionState.FAILED && !past(timeout)
-					&& loginException == null) {
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					// ignore
-				}
-			}
-			log.trace("finished waiting for connection: " + sessionStatus + "/" + past(timeout) + "/" + loginException);
-			if (past(timeout)) {
-				sessionStatus = SessionState.FAILED;
-				throw new InterruptedIOException("Login timed out");
-			}
-			if (sessionStatus == SessionState.FAILED) {
-				if (loginException instanceof FailedLoginException) {
-					throw (FailedLoginException) loginException;
-				}
-				throw (LoginRefusedException) loginException;
-			}
+			started = true;
 		} finally {
-			// Logon failure? When network input finishes, all supporting
-			// threads are stopped.
-			if (sessionStatus != SessionState.LOGGED_ON) {
+			if (!started) {
 				log.error("Never logged in, sessionStatus is: " + sessionStatus);
+				future.claim();
+				future.complete(null);
+				loginFuture = null;
 				closeSession();
 			}
 		}
+		loginTimeout = new TimerTask() {
+			@Override
+			public void run() {
+				finishLogin(future, new InterruptedIOException("Login timed out"));
+			}
+		};
+		loginTimer.schedule(loginTimeout, Util.loginTimeout(NetworkConstants.LOGIN_TIMEOUT));
+		// the reply may have arrived before the timeout was scheduled
+		signalLogin();
+		return future;
+	}
+
+	/**
+	 * Called by the input thread after the login state changes, completes the login future once the login succeeded
+	 * or failed.
+	 */
+	private void signalLogin() {
+		LoginFuture future = loginFuture;
+		if (future == null || future.isDone()) {
+			return;
+		}
+		if (sessionStatus == SessionState.LOGGED_ON) {
+			finishLogin(future, null);
+		} else if (sessionStatus == SessionState.FAILED || loginException != null) {
+			YahooException failure = loginException;
+			finishLogin(future, failure != null ? failure : new FailedLoginException("User " + loginID
+					+ ": Login failed unexpectedly.", null));
+		}
+	}
+
+	/**
+	 * Complete the login, unless it is already completed. A failed session is closed first, off the input and timer
+	 * threads.
+	 */
+	private void finishLogin(final LoginFuture future, final Exception failure) {
+		if (!future.claim()) {
+			return;
+		}
+		TimerTask timeout = loginTimeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		if (failure == null) {
+			future.complete(null);
+			return;
+		}
+		closeLater(future, failure);
+	}
+
+	private void closeLater(final LoginFuture future, final Exception failure) {
+		loginCloser.execute(new Runnable() {
+			@Override
+			public void run() {
+				closeFailedLogin(future, failure);
+			}
+		});
+	}
+
+	private void closeFailedLogin(LoginFuture future, Exception failure) {
+		sessionStatus = SessionState.FAILED;
+		try {
+			log.error("Never logged in, sessionStatus is: " + sessionStatus, failure);
+			closeSession();
+		} catch (IOException e) {
+			log.error("Failed closing session after failed login", e);
+		} catch (RuntimeException e) {
+			log.error("Failed closing session after failed login", e);
+		} finally {
+			future.complete(failure);
+		}
 	}
 
 	/**
@@ -363,7 +493,8 @@ public class Session implements StatusConstants, FriendManager {
 	void forceCloseSession() throws IOException {
 		log.trace("force close session");
 		sessionStatus = SessionState.UNSTARTED;
-		cachePacket = null;
+		cacheParts.clear();
+		chatLoginParts.clear();
 		try {
 			network.close();
 		} catch (IOException e) {
@@ -840,6 +971,21 @@ public class Session implements StatusConstants, FriendManager {
 		transmitFileTransfer(user, msg, file);
 	}
 
+	/**
+	 * Queue sending a file on the file transfer threads. The file is checked,
+	 * and the packet describing it built, straight away.
+	 * 
+	 * @param listener
+	 *            receives the progress of the upload, may be null
+	 */
+	public Future<Void> sendFileTransfer(String user, File file, String msg,
+			FileTransferEngine.ProgressListener listener)
+			throws IllegalStateException, FileTransferFailedException, IOException {
+		checkStatus();
+		final byte[] packet = fileTransferHeader(user, msg, file);
+		return fileTransfers.submitUpload(fileTransferURL(), cookieY + "; " + cookieT, packet, file, listener);
+	}
+
 	public void saveFileTransferAs(SessionFileTransferEvent ev, String filename)
 			throws FileTransferFailedException, IOException {
 		saveFT(ev, null, filename);
@@ -854,46 +1000,42 @@ public class Session implements StatusConstants, FriendManager {
 		saveFT(ev, dir, ev.getFilename());
 	}
 
+	/**
+	 * Queue a file transfer 'save as' on the file transfer threads.
+	 * 
+	 * @param listener
+	 *            receives the progress of the download, may be null
+	 * @return the file saved
+	 */
+	public Future<File> saveFileTransferAs(SessionFileTransferEvent ev, String filename,
+			FileTransferEngine.ProgressListener listener) {
+		return fileTransfers.submitDownload(ev.getLocation(), cookieY + "; " + cookieT, new File(filename), false,
+				listener);
+	}
+
+	/**
+	 * Queue a file transfer 'save to' on the file transfer threads.
+	 * 
+	 * @param listener
+	 *            receives the progress of the download, may be null
+	 * @return the file saved
+	 */
+	public Future<File> saveFileTransferTo(SessionFileTransferEvent ev, String dir,
+			FileTransferEngine.ProgressListener listener) {
+		return fileTransfers.submitDownload(ev.getLocation(), cookieY + "; " + cookieT,
+				new File(dir, ev.getFilename()), true, listener);
+	}
+
+	/**
+	 * Downloads are written to a partial file first, so a download that
+	 * fails can be resumed by saving the same transfer again.
+	 */
 	private void saveFT(SessionFileTransferEvent ev, String path, String filename)
 			throws FileTransferFailedException, IOException {
-		int len;
-		byte[] buff = new byte[4096];
-		// HTTP request
-		HttpURLConnection uConn = (HttpURLConnection) (ev.getLocation().openConnection());
-		Util.initURLConnection(uConn);
-		uConn.setRequestProperty("User-Agent", NetworkConstants.USER_AGENT);
-		// uConn.setRequestProperty("Host",ftHost);
-		uConn.setRequestProperty("Cookie", cookieY + "; " + cookieT);
-		uConn.connect();
-		// Response header
-		if (uConn.getResponseCode() != 200)
-			throw new FileTransferFailedException("Server HTTP error code: " + uConn.getResponseCode());
-		String rp = uConn.getHeaderField("Content-Disposition");
-		if (path != null && rp != null) {
-			int i = rp.indexOf("filename=");
-			if (i >= 0)
-				filename = rp.substring(i + 9);
-			// Strip quotes if necessary
-			if (filename.charAt(0) == '\"')
-				filename = filename.substring(1, filename.length() - 1);
-		}
 		// Response body
 		if (path != null)
 			filename = path + filename;
-		InputStream is = uConn.getInputStream();
-		BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(filename));
-		try {
-			do {
-				len = is.read(buff);
-				if (len > 0)
-					bos.write(buff, 0, len);
-			} while (len >= 0);
-			bos.flush();
-		} finally {
-			bos.close();
-			is.close();
-		}
-		uConn.disconnect();
+		fileTransfers.download(ev.getLocation(), cookieY + "; " + cookieT, new File(filename), path != null, null);
 	}
 
 	/**
@@ -941,32 +1083,26 @@ public class Session implements StatusConstants, FriendManager {
 		}
 		final long timeout = System.currentTimeMillis() + Util.loginTimeout(NetworkConstants.LOGIN_TIMEOUT);
 		chatID = yahooId;
+		chatConnected = new LoginFuture();
+		chatJoined = new LoginFuture();
 		try {
 			transmitChatConnect(chatID.getId());
-			while (chatSessionStatus != SessionState.CONNECTED && !past(timeout)) {
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					// ignore
-				}
-			}
-			if (past(timeout)) {
+			if (!chatConnected.awaitUninterruptibly(timeout - System.currentTimeMillis())) {
 				throw new InterruptedIOException("Chat connect timed out");
 			}
+			if (chatSessionStatus == SessionState.FAILED) {
+				throw new LoginRefusedException("User " + chatID + " refused chat connect");
+			}
 			// Transmit 'login' packet and wait for acknowledgement
 			transmitChatJoin(lobby.getNetworkName(), lobby.getParentRoomId());
-			while (chatSessionStatus == SessionState.CONNECTED && !past(timeout)) {
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					// ignore
-				}
-			}
-			if (past(timeout)) {
+			if (!chatJoined.awaitUninterruptibly(timeout - System.currentTimeMillis())) {
 				throw new InterruptedIOException("Chat login timed out");
 			}
 			if (chatSessionStatus == SessionState.FAILED) {
-				throw (LoginRefusedException) loginException;
+				if (loginException instanceof LoginRefusedException) {
+					throw (LoginRefusedException) loginException;
+				}
+				throw new LoginRefusedException("User " + chatID + " refused chat login");
 			}
 			// Successful?
 			if (chatSessionStatus == SessionState.LOGGED_ON) {
@@ -1404,6 +1540,16 @@ public class Session implements StatusConstants, FriendManager {
 	 */
 	protected void transmitFileTransfer(String to, String message, File file)
 			throws FileTransferFailedException, IOException {
+		final byte[] packet = fileTransferHeader(to, message, file);
+		fileTransfers.upload(fileTransferURL(), cookieY + "; " + cookieT, packet, file, null);
+	}
+
+	/**
+	 * Header of a FILETRANSFER upload: a Yahoo packet describing the file,
+	 * followed by the marker before the file data.
+	 */
+	private byte[] fileTransferHeader(String to, String message, File file)
+			throws FileTransferFailedException, IOException {
 		if (file == null) {
 			throw new IllegalArgumentException("Argument 'file' cannot be null.");
 		}
@@ -1414,7 +1560,6 @@ public class Session implements StatusConstants, FriendManager {
 		if (file.length() == 0L) {
 			throw new FileTransferFailedException("File transfer: empty file");
 		}
-		final String cookie = cookieY + "; " + cookieT;
 		final byte[] marker = { '2', '9', (byte) 0xc0, (byte) 0x80 };
 		// Create a Yahoo packet into 'packet'
 		final PacketBodyBuffer body = new PacketBodyBuffer();
@@ -1435,32 +1580,13 @@ public class Session implements StatusConstants, FriendManager {
 		dos.write(packet, 0, packet.length);
 		dos.write(marker, 0, 4); // Extra 4 bytes : marker before file data
 		// (?)
-		packet = baos.toByteArray();
+		return baos.toByteArray();
+	}
+
+	private URL fileTransferURL() throws MalformedURLException {
 		// Send to Yahoo using POST
 		String ftHost = Util.fileTransferHost();
-		String ftURL = "http://" + ftHost + NetworkConstants.FILE_TF_PORTPATH;
-		HttpURLConnection uConn = (HttpURLConnection) (new URL(ftURL).openConnection());
-		uConn.setRequestMethod("POST");
-		uConn.setDoOutput(true); // POST, not GET
-		Util.initURLConnection(uConn);
-		uConn.setRequestProperty("Content-Length", Long.toString(file.length() + packet.length));
-		uConn.setRequestProperty("User-Agent", NetworkConstants.USER_AGENT);
-		// uConn.setRequestProperty("Host",ftHost);
-		uConn.setRequestProperty("Cookie", cookie);
-		uConn.connect();
-		final BufferedOutputStream bos = new BufferedOutputStream(uConn.getOutputStream());
-		try {
-			bos.write(packet);
-			bos.write(Util.getBytesFromFile(file));
-			bos.flush();
-		} finally {
-			bos.close();
-		}
-		final int ret = uConn.getResponseCode();
-		uConn.disconnect();
-		if (ret != 200) {
-			throw new FileTransferFailedException("Server rejected upload");
-		}
+		return new URL("http://" + ftHost + NetworkConstants.FILE_TF_PORTPATH);
 	}
 
 	/**
@@ -2182,6 +2308,7 @@ public class Session implements StatusConstants, FriendManager {
 			// Notify login() calling thread of failure
 			sessionStatus = SessionState.FAILED;
 			eventDispatchQueue.append(sessionEvent, ServiceType.LOGOFF);
+			signalLogin();
 		}
 	}
 
@@ -2199,6 +2326,7 @@ public class Session implements StatusConstants, FriendManager {
 							+ chatSessionStatus);
 		}
 		chatSessionStatus = SessionState.CONNECTED;
+		signalChat(chatConnected);
 	}
 
 	/**
@@ -2298,10 +2426,7 @@ public class Session implements StatusConstants, FriendManager {
 				}
 			}
 			// Note: Yahoo sometimes lies about the '108' count of users!
-			// Reduce count until to see how many users there *actually* are!
-			int cnt = Integer.parseInt(pkt.getValue("108"));
-			while (cnt > 0 && pkt.getNthValue("109", cnt - 1) == null)
-				cnt--;
+			int cnt = ChatJoinParser.countUsers(pkt);
 			// Is this an update packet, for an existing member?
 			YahooChatUser ycu = ycl.getUser(pkt.getValue("109"));
 			if (cnt == 1 && ycu != null) {
@@ -2325,24 +2450,17 @@ public class Session implements StatusConstants, FriendManager {
 			if (joining)
 				ycl.clearUsers();
 			// When sent in muliple parts the login packet usually
-			// contains a high degree of duplicates. Remove using hash.
-			Hashtable<String, YahooChatUser> ht = new Hashtable<String, YahooChatUser>();
-			for (int i = 0; i < cnt; i++) {
-				// Note: automatically creates YahooUser if necessary
-				ycu = createChatUser(pkt, i);
-				ht.put(ycu.getId(), ycu);
-			}
+			// contains a high degree of duplicates, the parser removes them.
+			Map<String, YahooChatUser> users = ChatJoinParser.parseUsers(pkt, cnt, roster);
 			// Create event, add users
-			SessionChatEvent se = new SessionChatEvent(this, cnt, ycl);
+			SessionChatEvent se = new SessionChatEvent(this, users.size(), ycl);
 			int i = 0;
-			for (Enumeration<YahooChatUser> en = ht.elements(); en.hasMoreElements();) {
-				ycu = en.nextElement();
+			for (YahooChatUser user : users.values()) {
 				// Does this user exist already? (This should always be
 				// no, as update packets should always have only one member
 				// who already exists - thus caught by the 'if' block above!
-				if (!ycl.exists(ycu))
-					ycl.addUser(ycu); // Add to lobby
-				se.setChatUser(i++, ycu); // Add to event
+				ycl.addUserIfAbsent(user); // Add to lobby
+				se.setChatUser(i++, user); // Add to event
 			}
 			// We don't send an event if we get the larger 'logging in'
 			// type packet as the chat user list is brand new. We only send
@@ -2362,6 +2480,8 @@ public class Session implements StatusConstants, FriendManager {
 			// FIX: Not thread safe if multiple chatroom supported!
 			if (joining && chatSessionStatus != SessionState.FAILED)
 				chatSessionStatus = SessionState.LOGGED_ON;
+			if (chatSessionStatus == SessionState.LOGGED_ON || chatSessionStatus == SessionState.FAILED)
+				signalChat(chatJoined);
 		}
 	}
 
@@ -2938,24 +3058,22 @@ public class Session implements StatusConstants, FriendManager {
 	protected void receiveStatus15(YMSG9Packet pkt) {
 		// Incomplete
 		if (pkt.status == 9) {
-			if (cachePacket == null) {
-				cachePacket = pkt;
-			} else {
-				cachePacket.append(pkt);
-			}
+			cacheParts.add(pkt);
 		} else {
 			try {
 				Thread.sleep(1000 * 3);
 			} catch (InterruptedException e) {
 				log.warn("Failed sleeping during receivedStatus15");
 			}
-			if (cachePacket == null)
+			if (cacheParts.isEmpty())
 				updateFriendsStatus(pkt);
 			else {
-				cachePacket.append(pkt);
-				updateFriendsStatus(cachePacket);
+				cacheParts.add(pkt);
+				YMSG9Packet first = cacheParts.get(0);
+				first.appendAll(cacheParts.subList(1, cacheParts.size()));
+				cacheParts.clear();
+				updateFriendsStatus(first);
 			}
-			cachePacket = null;
 		}
 	}
 
@@ -2970,16 +3088,14 @@ public class Session implements StatusConstants, FriendManager {
 	{
 		// These fields will be concatenated, others will be appended
 		String[] concatFields = { "87", "88", "89" };
-		// Either cache or merge with cached packet
-		if (cachePacket == null) {
-			cachePacket = pkt;
-		} else {
-			cachePacket.merge(pkt, concatFields);
-		}
+		// Cache until complete, then merge all the parts at once
+		cacheParts.add(pkt);
 		// Complete: this is the final packet
 		if (pkt.exists("59")) {
-			_receiveList(cachePacket);
-			cachePacket = null;
+			YMSG9Packet first = cacheParts.get(0);
+			first.mergeAll(cacheParts.subList(1, cacheParts.size()), concatFields);
+			cacheParts.clear();
+			_receiveList(first);
 		}
 	}
 
@@ -3289,6 +3405,7 @@ public class Session implements StatusConstants, FriendManager {
 		} catch (java.io.IOException e) {
 			log.trace("Failed to set status to available");
 		}
+		signalLogin();
 	}
 
 	/**
@@ -3365,6 +3482,7 @@ public class Session implements StatusConstants, FriendManager {
 				}
 				sessionStatus = SessionState.LOGGED_ON;
 				eventDispatchQueue.append(ServiceType.LOGON);
+				signalLogin();
 			}
 		}
 	}
@@ -3510,6 +3628,17 @@ public class Session implements StatusConstants, FriendManager {
 	protected void erroneousChatLogin(YMSG9Packet pkt) // 0x98
 	{
 		chatSessionStatus = SessionState.FAILED;
+		signalChat(chatConnected);
+		signalChat(chatJoined);
+	}
+
+	/**
+	 * Wake up chatLogin() waiting for the chat login stage
+	 */
+	private void signalChat(LoginFuture stage) {
+		if (stage != null && stage.claim()) {
+			stage.complete(null);
+		}
 	}
 
 	/**
@@ -3535,13 +3664,6 @@ public class Session implements StatusConstants, FriendManager {
 		sendPacket(body, service, Status.AVAILABLE);
 	}
 
-	/**
-	 * Convenience method - have we passed a given time? (More readable)
-	 */
-	private boolean past(long time) {
-		return (System.currentTimeMillis() > time);
-	}
-
 	/**
 	 * Start threads
 	 */
@@ -3649,6 +3771,7 @@ public class Session implements StatusConstants, FriendManager {
 		sessionStatus = SessionState.FAILED;
 		SessionExceptionEvent se = new SessionExceptionEvent(Session.this, msg, e);
 		eventDispatchQueue.append(se, ServiceType.X_EXCEPTION);
+		signalLogin();
 	}
 
 	/**
@@ -3667,19 +3790,17 @@ public class Session implements StatusConstants, FriendManager {
 		}
 		// Incomplete
 		if (pkt.status == 5) {
-			if (cachePacket == null) {
-				cachePacket = pkt;
-			} else {
-				cachePacket.append(pkt);
-			}
+			chatLoginParts.add(pkt);
 			return null;
 		}
-		// This is the last one making up the complete packet. Append and
-		// return.
-		if (cachePacket != null) {
-			cachePacket.append(pkt);
-			pkt = cachePacket;
-			cachePacket = null;
+		// This is the last one making up the complete packet. Join all the
+		// parts in one copy and return.
+		if (!chatLoginParts.isEmpty()) {
+			chatLoginParts.add(pkt);
+			YMSG9Packet first = chatLoginParts.get(0);
+			first.appendAll(chatLoginParts.subList(1, chatLoginParts.size()));
+			pkt = first;
+			chatLoginParts.clear();
 		}
 		return pkt;
 	}
@@ -3949,13 +4070,22 @@ public class Session implements StatusConstants, FriendManager {
 	}
 
 	/**
-	 * Sends out a request to receive a picture (avatar) from a contact
+	 * Sends out a request to receive a picture (avatar) from a contact. If
+	 * the contact announced a picture that is cached, the picture is delivered
+	 * from the cache instead.
 	 * 
 	 * @param friend
 	 *            The name of the contact for which a picture is requested.
 	 * @throws IOException
 	 */
 	public void requestPicture(final String friend) throws IOException {
+		final String checksum = pictureChecksums.get(friend);
+		final byte[] cached = pictureCache.get(friend, checksum);
+		if (cached != null) {
+			log.trace("Picture of " + friend + " is cached: " + checksum);
+			firePicture(loginID.getId(), friend, cached);
+			return;
+		}
 		final PacketBodyBuffer body = new PacketBodyBuffer();
 		body.addElement("4", loginID.getId());
 		body.addElement("5", friend);
@@ -3965,7 +4095,8 @@ public class Session implements StatusConstants, FriendManager {
 
 	/**
 	 * Processes an incoming 'PICTURE' packet, which contains avatar-like
-	 * information of a contact.
+	 * information of a contact. The picture is only downloaded if its checksum
+	 * is not cached.
 	 * 
 	 * @param pkt
 	 *            The packet to parse.
@@ -3976,39 +4107,64 @@ public class Session implements StatusConstants, FriendManager {
 		if (imgUrlStr == null) {
 			return;
 		}
-		InputStream imgIn = null;
+		final String from = pkt.getValue("4");
+		final String checksum = pkt.getValue("192");
+		if (from != null && checksum != null) {
+			pictureChecksums.put(from, checksum);
+		}
 		try {
-			final URL imgUrl = new URL(imgUrlStr);
-			imgIn = imgUrl.openStream();
-			final ByteArrayOutputStream out = new ByteArrayOutputStream();
-			final byte[] buff = new byte[1024];
-			int bytesRead;
-			while ((bytesRead = imgIn.read(buff)) > 0) {
-				out.write(buff, 0, bytesRead);
-			}
-			final SessionPictureEvent se = new SessionPictureEvent(this, pkt.getValue("5"), // to
-																							// /
-																							// us
-					pkt.getValue("4"), // from
-					out.toByteArray() // data
-			);
-			eventDispatchQueue.append(se, ServiceType.NOTIFY);
+			final byte[] data = pictureCache.fetch(from, checksum, new URL(imgUrlStr));
+			firePicture(pkt.getValue("5"), from, data);
 		} catch (MalformedURLException ex) {
 			log.warn("Received a picture, but it appears to contain " + "an invalid image location.", ex);
 		} catch (IOException ex) {
 			log.warn("Received a picture, but reading its data caused " + "an unexpected exception.", ex);
-		} finally {
-			if (imgIn == null) {
-				return;
-			}
-			try {
-				imgIn.close();
-			} catch (IOException ex) {
-				log.warn("Unable to close the image stream object.", ex);
-			}
 		}
 	}
 
+	/**
+	 * Processes an incoming 'PICTURE_CHECKSUM' packet, announcing the checksum
+	 * of the picture of a contact. A picture that is cached is delivered
+	 * straight away; otherwise the checksum is remembered, so the picture is
+	 * cached when it is requested.
+	 * 
+	 * @param pkt
+	 *            The packet to parse.
+	 */
+	protected void receivePictureChecksum(YMSG9Packet pkt) // 0xbd
+	{
+		final String from = pkt.getValue("4");
+		final String checksum = pkt.getValue("192");
+		if (from == null || checksum == null) {
+			return;
+		}
+		if (checksum.equals(pictureChecksums.put(from, checksum))) {
+			return;
+		}
+		final byte[] cached = pictureCache.get(from, checksum);
+		if (cached != null) {
+			firePicture(pkt.getValue("5"), from, cached);
+		}
+	}
+
+	private void firePicture(String to, String from, byte[] data) {
+		final SessionPictureEvent se = new SessionPictureEvent(this, to, from, data);
+		eventDispatchQueue.append(se, ServiceType.NOTIFY);
+	}
+
+	/**
+	 * Sets the cache pictures are looked up in and added to. By default all
+	 * sessions share {@link PictureCache#getShared()}.
+	 * 
+	 * @param pictureCache
+	 */
+	public void setPictureCache(PictureCache pictureCache) {
+		if (pictureCache == null) {
+			throw new IllegalArgumentException("Argument 'pictureCache' cannot be null.");
+		}
+		this.pictureCache = pictureCache;
+	}
+
 	/**
 	 * Sets the SessionPictureHandler for this session.
 	 * 
@@ -63,6 +63,16 @@ public abstract class Util implements PropertyConstants {
 		return System.getProperty(HTTP_PROXY_AUTH);
 	}
 
+	// Read openymsg.network.httpKeepAlive, or false
+	public static boolean httpKeepAlive() {
+		return Boolean.getBoolean(HTTP_KEEP_ALIVE);
+	}
+
+	// Read openymsg.network.httpPollInterval in milliseconds, or use default
+	public static long httpPollInterval() {
+		return Long.getLong(HTTP_POLL_INTERVAL, HTTP_POLL_INTERVAL_DEFAULT);
+	}
+
 	// Read openymsg.network.httpHost, or use default
 	public static String fileTransferHost() {
 		return System.getProperty(FT_HOST, FT_HOST_DEFAULT);
@@ -11,7 +11,9 @@ package org.openymsg.legacy.network;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class is nothing more than a convenient data structure to hold the information extracted from a single YMSG
@@ -163,6 +165,22 @@ public class YMSG9Packet {
 		body = arr;
 	}
 
+	// Append the bodies of all the supplied packets, copying this body once
+	void appendAll(List<YMSG9Packet> packets) {
+		int length = body.length;
+		for (YMSG9Packet pkt : packets)
+			length += pkt.body.length;
+		String[] arr = new String[length];
+		System.arraycopy(body, 0, arr, 0, body.length);
+		int pos = body.length;
+		for (YMSG9Packet pkt : packets) {
+			System.arraycopy(pkt.body, 0, arr, pos, pkt.body.length);
+			pos += pkt.body.length;
+		}
+		body = arr;
+		quickSetAccess = null;
+	}
+
 	// Merge the supplied packet into this one, with special regard to
 	// certain fields which need to be concatenated. If the field key is
 	// in the array provided, it is appended onto the end of the current value
@@ -211,6 +229,55 @@ public class YMSG9Packet {
 		}
 	}
 
+	// Merge all the supplied packets into this one, with the same result as
+	// merge() called for each of them in turn, but building the body once and
+	// concatenating the fields with a StringBuilder instead of a string copy
+	// per part. As with merge(), a field is only concatenated to the first
+	// field with its key from an earlier packet; repeats within one packet are
+	// kept as separate fields.
+	void mergeAll(List<YMSG9Packet> packets, String[] concatFields) {
+		int length = body.length;
+		for (YMSG9Packet pkt : packets)
+			length += pkt.body.length;
+		List<String> merged = new ArrayList<String>(length);
+		// Index of the value of each concatenated field, and its value so far
+		Map<String, Integer> concatIndex = new HashMap<String, Integer>();
+		Map<String, StringBuilder> concatValues = new HashMap<String, StringBuilder>();
+		mergeFields(body, concatFields, merged, concatIndex, concatValues);
+		for (YMSG9Packet pkt : packets)
+			mergeFields(pkt.body, concatFields, merged, concatIndex, concatValues);
+		for (Map.Entry<String, Integer> entry : concatIndex.entrySet())
+			merged.set(entry.getValue(), concatValues.get(entry.getKey()).toString());
+		body = merged.toArray(new String[merged.size()]);
+		quickSetAccess = null;
+	}
+
+	private static void mergeFields(String[] fields, String[] concatFields, List<String> merged,
+			Map<String, Integer> concatIndex, Map<String, StringBuilder> concatValues) {
+		// Concatenated fields first seen in this packet, only joined by later packets
+		Map<String, Integer> added = new HashMap<String, Integer>();
+		for (int i = 0; i < fields.length; i += 2) {
+			String k = fields[i], v = fields[i + 1];
+			StringBuilder value = concatValues.get(k);
+			if (value != null) {
+				value.append(v);
+				continue;
+			}
+			if (!added.containsKey(k))
+				for (int j = 0; j < concatFields.length; j++)
+					if (concatFields[j].equals(k)) {
+						added.put(k, merged.size() + 1);
+						break;
+					}
+			merged.add(k);
+			merged.add(v);
+		}
+		for (Map.Entry<String, Integer> entry : added.entrySet()) {
+			concatIndex.put(entry.getKey(), entry.getValue());
+			concatValues.put(entry.getKey(), new StringBuilder(merged.get(entry.getValue())));
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
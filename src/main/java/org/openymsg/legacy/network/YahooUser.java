@@ -10,9 +10,11 @@
 package org.openymsg.legacy.network;
 
 import org.openymsg.legacy.addressBook.YahooAddressBookEntry;
+import org.openymsg.util.StringPool;
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -37,9 +39,10 @@ public class YahooUser {
 	 */
 	protected final String userId;
 	/**
-	 * A set of IDs of the groups to which this user belongs.
+	 * The groups to which this user belongs, as sorted shared {@link GroupNames}. Replaced, never changed, when the
+	 * user is added to a group, so a large roster spends a few bytes per user on its groups instead of a HashSet.
 	 */
-	private final Set<String> groupIds;
+	private volatile String[] groups;
 	/**
 	 * The presence status of this user (away, available, etc).
 	 */
@@ -91,9 +94,10 @@ public class YahooUser {
 	 */
 	public YahooUser(final String userId, final String groupId, final YahooProtocol protocol) {
 		this.userId = userId.toLowerCase();
-		groupIds = new HashSet<String>();
 		if (groupId != null && groupId.length() != 0) {
-			groupIds.add(groupId);
+			groups = GroupNames.add(GroupNames.NO_GROUPS, groupId);
+		} else {
+			groups = GroupNames.NO_GROUPS;
 		}
 		this.protocol = protocol;
 	}
@@ -104,9 +108,14 @@ public class YahooUser {
 		this.addressBookEntry = addressBookEntry;
 	}
 
+	/**
+	 * Creates a new user in the given groups. The groups are copied; later changes to the set do not affect the user.
+	 * @param userId The ID of the user
+	 * @param groupIds The IDs of the groups in which this user has been put, may be empty.
+	 */
 	public YahooUser(final String userId, Set<String> groupIds, final YahooProtocol protocol) {
 		this.userId = userId.toLowerCase();
-		this.groupIds = groupIds;
+		this.groups = GroupNames.names(groupIds);
 		this.protocol = protocol;
 	}
 
@@ -189,8 +198,9 @@ public class YahooUser {
 	 * @param status A custom status.
 	 */
 	public void setCustom(final String message, final String status) {
-		customStatusMessage = message;
-		customStatus = status;
+		// many users share the same few messages
+		customStatusMessage = StringPool.getShared().share(message);
+		customStatus = StringPool.getShared().share(status);
 	}
 
 	/**
@@ -255,8 +265,8 @@ public class YahooUser {
 	 * internal library code, and should probably not be used by users of the OpenYMSG library directly.
 	 * @param groupId The ID of the group that this user is in.
 	 */
-	public void addGroupId(final String groupId) {
-		groupIds.add(groupId);
+	public synchronized void addGroupId(final String groupId) {
+		groups = GroupNames.add(groups, groupId);
 	}
 
 	/**
@@ -265,7 +275,7 @@ public class YahooUser {
 	 * @return the IDs of the groups that this user is in, or an empty set (never <tt>null</tt>)
 	 */
 	public Set<String> getGroupIds() {
-		return Collections.unmodifiableSet(groupIds);
+		return new GroupIds();
 	}
 
 	/**
@@ -294,7 +304,7 @@ public class YahooUser {
 	 * @return <tt>true</tt> if this user is on our contact list, <tt>false</tt> if this user is anonymous.
 	 */
 	public boolean isFriend() {
-		return !groupIds.isEmpty();
+		return groups.length != 0;
 	}
 
 	/**
@@ -409,4 +419,45 @@ public class YahooUser {
 	public void update(YahooProtocol protocol) {
 		this.protocol = protocol;
 	}
+
+	/**
+	 * Unmodifiable view of the group IDs
+	 */
+	private final class GroupIds extends AbstractSet<String> {
+		@Override
+		public boolean contains(Object groupId) {
+			return GroupNames.contains(groups, groupId);
+		}
+
+		@Override
+		public int size() {
+			return groups.length;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			final String[] current = groups;
+			return new Iterator<String>() {
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return index < current.length;
+				}
+
+				@Override
+				public String next() {
+					if (index == current.length) {
+						throw new NoSuchElementException();
+					}
+					return current[index++];
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
 }
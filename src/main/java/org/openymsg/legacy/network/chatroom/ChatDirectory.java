@@ -0,0 +1,354 @@
+package org.openymsg.legacy.network.chatroom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openymsg.legacy.network.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Process wide cache of the chat directory: the category tree for each locale prefix, shared by all sessions. The
+ * first request for a tree loads it while concurrent requests wait for the same load. Once the tree is older than the
+ * refresh interval it is still returned, and reloaded in the background; the existing categories, rooms and lobbies are
+ * updated in place, so the lobbies sessions have joined keep their users. Directory listings are parsed as they stream
+ * in, without building a document. Cookies are not kept in the cache: each load is made with the cookies of the session
+ * that asked for it.
+ * @author neilhart
+ */
+class ChatDirectory {
+	/** logger */
+	private static final Log log = LogFactory.getLog(ChatDirectory.class);
+	private static final String PUBLIC_TYPE = "yahoo";
+	private static final String CAT_URL = "insider.msg.yahoo.com/ycontent/?chatroom_";
+	private static final XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
+	private static final ChatDirectory shared = new ChatDirectory(new HttpSource(),
+			ChatroomManager.REFRESH_TIMOUT_IN_SECONDS * 1000L, Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "openymsg chat directory");
+					thread.setDaemon(true);
+					return thread;
+				}
+			}));
+	static {
+		// listings never need a DTD, and must not pull in external entities
+		xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+	private final Source source;
+	private final long refreshInterval;
+	private final Executor refresher;
+	/** category trees by locale prefix and cookie use */
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * @param source where listings are read from
+	 * @param refreshInterval milliseconds before a tree is reloaded
+	 * @param refresher runs the background reloads
+	 */
+	ChatDirectory(Source source, long refreshInterval, Executor refresher) {
+		this.source = source;
+		this.refreshInterval = refreshInterval;
+		this.refresher = refresher;
+	}
+
+	static ChatDirectory getShared() {
+		return shared;
+	}
+
+	/**
+	 * Get the category tree, loading it if needed
+	 * @param localePrefix locale prefix, empty or ending with '.'
+	 * @param cookieLine cookies, which stop yahoo from filtering adult categories, may be null
+	 * @return root category
+	 * @throws IOException if the tree is not loaded and loading it fails
+	 */
+	YahooChatCategory loadCategories(String localePrefix, String cookieLine) throws IOException {
+		String key = key(localePrefix, cookieLine);
+		Entry entry = this.entries.get(key);
+		if (entry == null) {
+			Entry created = new Entry(localePrefix);
+			entry = this.entries.putIfAbsent(key, created);
+			if (entry == null) {
+				entry = created;
+			}
+		}
+		return entry.get(cookieLine);
+	}
+
+	/**
+	 * Get a tree that is already loaded
+	 * @return root category, null if not loaded
+	 */
+	YahooChatCategory getCategories(String localePrefix, String cookieLine) {
+		Entry entry = this.entries.get(key(localePrefix, cookieLine));
+		return entry == null ? null : entry.getLoaded();
+	}
+
+	/**
+	 * Read the rooms of a category, and update its rooms and lobbies to match
+	 * @param category category to load
+	 * @param cookieLine cookies of the session loading the rooms, may be null
+	 * @throws IOException if the listing cannot be read
+	 */
+	void loadRooms(YahooChatCategory category, String cookieLine) throws IOException {
+		String address = ChatroomManager.PREFIX + category.getLocalePrefix() + CAT_URL + category.getId();
+		InputStream in = this.source.open(address, cookieLine);
+		try {
+			category.updateRooms(parseRooms(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Current time, in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	private YahooChatCategory fetchCategories(String localePrefix, String cookieLine) throws IOException {
+		String address = ChatroomManager.PREFIX + localePrefix + ChatroomManager.TOP_URL;
+		InputStream in = this.source.open(address, cookieLine);
+		try {
+			return parseCategories(in, localePrefix, cookieLine != null);
+		} finally {
+			in.close();
+		}
+	}
+
+	private YahooChatCategory parseCategories(InputStream in, String localePrefix, boolean cookied)
+			throws IOException {
+		YahooChatCategory root = null;
+		List<YahooChatCategory> parents = new ArrayList<YahooChatCategory>();
+		try {
+			XMLStreamReader reader = xmlFactory.createXMLStreamReader(in);
+			try {
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						String element = reader.getLocalName();
+						if (root == null && element.equals("content")) {
+							root = new YahooChatCategory(Long.parseLong(reader.getAttributeValue(null, "time")),
+									"<root>", null, localePrefix, cookied, this);
+							parents.add(root);
+						} else if (root != null && element.equals("category")) {
+							long id = Long.parseLong(reader.getAttributeValue(null, "id"));
+							YahooChatCategory category = new YahooChatCategory(id,
+									reader.getAttributeValue(null, "name"), null, localePrefix, cookied, this);
+							parents.get(parents.size() - 1).addSubcategory(category);
+							parents.add(category);
+						}
+					} else if (event == XMLStreamConstants.END_ELEMENT && root != null
+							&& reader.getLocalName().equals("category")) {
+						parents.remove(parents.size() - 1);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Malformed chat categories: " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed chat categories: " + e, e);
+		}
+		if (root == null) {
+			throw new IOException("No chat categories");
+		}
+		return root;
+	}
+
+	private List<YahooChatRoom> parseRooms(InputStream in) throws IOException {
+		List<YahooChatRoom> rooms = new ArrayList<YahooChatRoom>();
+		try {
+			XMLStreamReader reader = xmlFactory.createXMLStreamReader(in);
+			try {
+				YahooChatRoom room = null;
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+						continue;
+					}
+					String element = reader.getLocalName();
+					if (element.equals("room")) {
+						room = new YahooChatRoom(Long.parseLong(reader.getAttributeValue(null, "id")),
+								reader.getAttributeValue(null, "name"), reader.getAttributeValue(null, "topic"),
+								PUBLIC_TYPE.equals(reader.getAttributeValue(null, "type")));
+						rooms.add(room);
+					} else if (room != null && element.equals("lobby")) {
+						int number = Integer.parseInt(reader.getAttributeValue(null, "count"));
+						YahooChatLobby lobby = room.createLobby(number);
+						lobby.setReportedUsers(intAttribute(reader, "users"));
+						lobby.setReportedVoices(intAttribute(reader, "voices"));
+						lobby.setReportedWebcams(intAttribute(reader, "webcams"));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Malformed chat rooms: " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed chat rooms: " + e, e);
+		}
+		return rooms;
+	}
+
+	private static int intAttribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value == null ? -1 : Integer.parseInt(value);
+	}
+
+	private static String key(String localePrefix, String cookieLine) {
+		// yahoo filters adult categories without cookies, so those trees differ
+		return cookieLine == null ? localePrefix : localePrefix + "#cookies";
+	}
+
+	/**
+	 * Category tree of one locale prefix
+	 */
+	private final class Entry {
+		private final String localePrefix;
+		/** guarded by this */
+		private YahooChatCategory root = null;
+		/** when the tree was loaded, guarded by this */
+		private long loaded = 0;
+		/** load in progress, guarded by this */
+		private FutureTask<YahooChatCategory> loading = null;
+
+		private Entry(String localePrefix) {
+			this.localePrefix = localePrefix;
+		}
+
+		synchronized YahooChatCategory getLoaded() {
+			return this.root;
+		}
+
+		/**
+		 * @param cookieLine cookies of the requesting session, used if the tree is loaded or refreshed
+		 */
+		YahooChatCategory get(String cookieLine) throws IOException {
+			FutureTask<YahooChatCategory> task;
+			boolean first = false;
+			synchronized (this) {
+				if (this.root != null) {
+					if (this.loading == null && now() - this.loaded >= refreshInterval) {
+						this.loading = newLoad(cookieLine);
+						refresher.execute(this.loading);
+					}
+					return this.root;
+				}
+				if (this.loading == null) {
+					this.loading = newLoad(cookieLine);
+					first = true;
+				}
+				task = this.loading;
+			}
+			if (first) {
+				task.run();
+			}
+			return await(task);
+		}
+
+		private FutureTask<YahooChatCategory> newLoad(final String cookieLine) {
+			return new FutureTask<YahooChatCategory>(new Callable<YahooChatCategory>() {
+				@Override
+				public YahooChatCategory call() throws IOException {
+					return load(cookieLine);
+				}
+			});
+		}
+
+		private YahooChatCategory load(String cookieLine) throws IOException {
+			YahooChatCategory fetched = null;
+			try {
+				fetched = fetchCategories(this.localePrefix, cookieLine);
+				return fetched;
+			} catch (IOException e) {
+				if (getLoaded() != null) {
+					log.warn("Failed refreshing chat categories, keeping the loaded ones", e);
+				}
+				throw e;
+			} finally {
+				synchronized (this) {
+					this.loading = null;
+					if (fetched != null && this.root != null) {
+						this.root.updateSubcategories(fetched);
+					} else if (fetched != null) {
+						this.root = fetched;
+					}
+					if (this.root != null) {
+						// a failed refresh keeps the old tree until the next interval
+						this.loaded = now();
+					}
+				}
+			}
+		}
+
+		private YahooChatCategory await(FutureTask<YahooChatCategory> task) throws IOException {
+			try {
+				task.get();
+				return getLoaded();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted loading chat categories");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new IOException("Failed loading chat categories", cause);
+			}
+		}
+	}
+
+	/**
+	 * Where directory listings are read from
+	 */
+	interface Source {
+		/**
+		 * @param address listing address
+		 * @param cookieLine cookies, may be null
+		 * @return the listing
+		 */
+		InputStream open(String address, String cookieLine) throws IOException;
+	}
+
+	/**
+	 * Reads the listings from yahoo
+	 */
+	private static final class HttpSource implements Source {
+		@Override
+		public InputStream open(String address, String cookieLine) throws IOException {
+			URLConnection connection = new URL(address).openConnection();
+			Util.initURLConnection(connection);
+			if (cookieLine != null) {
+				connection.setRequestProperty("Cookie", cookieLine);
+			}
+			log.debug("Loading chat directory: " + address);
+			return connection.getInputStream();
+		}
+	}
+}
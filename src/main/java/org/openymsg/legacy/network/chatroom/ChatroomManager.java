@@ -9,24 +9,16 @@
  */
 package org.openymsg.legacy.network.chatroom;
 
-import org.jdom.Document;
-import org.jdom.Element;
 import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
 import org.openymsg.legacy.network.NetworkConstants;
-import org.openymsg.legacy.network.Util;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * The Yahoo chatroom listing can be retrieved without being logged onto the Yahoo IM network. This class manages this
- * proceess
+ * proceess. The category trees are cached by the shared {@link ChatDirectory}, so all managers of a locale prefix use
+ * the same tree, which is loaded once and refreshed in the background.
  * @author G. der Kinderen, Nimbuzz B.V. guus@nimbuzz.com
  */
 public class ChatroomManager {
@@ -37,18 +29,15 @@ public class ChatroomManager {
 	public final static int REFRESH_TIMOUT_IN_SECONDS = 15 * 60;
 	public final static String PREFIX = "http://";
 	public final static String TOP_URL = "insider.msg.yahoo.com/ycontent/?chatcat=0";
-	/**
-	 * all Locale Prefix / Root Category combinations.
-	 */
-	private final static Map<String, YahooChatCategory> roots = new HashMap<String, YahooChatCategory>();
-	/**
-	 * map of timestamp values indicating when the specified localePrefix was last updated;
-	 */
-	private final static Map<String, Long> timestamps = new HashMap<String, Long>();
 	private final String cLine;
 	private final String localePrefix;
+	private final ChatDirectory directory;
 
 	public ChatroomManager(String[] sessionCookies, String localePrefix) {
+		this(sessionCookies, localePrefix, ChatDirectory.getShared());
+	}
+
+	ChatroomManager(String[] sessionCookies, String localePrefix, ChatDirectory directory) {
 		if (sessionCookies != null) {
 			cLine = /* FIXME "Cookie: "+ */
 					sessionCookies[NetworkConstants.COOKIE_Y] + "; " + sessionCookies[NetworkConstants.COOKIE_T];
@@ -57,61 +46,36 @@ public class ChatroomManager {
 		}
 		this.localePrefix =
 				(localePrefix == null) ? "" : (localePrefix.endsWith(".") ? localePrefix : localePrefix + ".");
+		this.directory = directory;
 	}
 
 	/**
-	 * Recursively loads all YahooCategories that are sub-categories of the provided parent category.
-	 * @param parentElement XML Element that describes the parent category.
-	 * @param parentCategory Parent Category to which the child categories are to be appended.
-	 * @param cookieLine Cookie-lines to determine what categories and/or rooms to load.
+	 * This method fetches the top level category. If the cookies are passed, Yahoo will not filter adult categories.
+	 * Note: the Yahoo servers prove to be unstable at times. This can cause connection timeouts. Once loaded, the tree
+	 * is returned straight away; when it is older than {@link #REFRESH_TIMOUT_IN_SECONDS} it is reloaded in the
+	 * background, updating the categories, rooms and lobbies in place.
+	 * @return the root category
+	 * @throws IOException if the categories were not loaded yet, and loading them failed
+	 * @throws JDOMException never, kept for compatibility
+	 * @throws MalformedURLException never, kept for compatibility
 	 */
-	@SuppressWarnings("unchecked")
-	private void recursiveLoad(Element parentElement, YahooChatCategory parentCategory, String cookieLine) {
-		List<Element> childCategories = parentElement.getChildren("category");
-		for (Element e : childCategories) {
-			final long id = Long.parseLong(e.getAttributeValue("id"));
-			final String name = e.getAttributeValue("name");
-			final YahooChatCategory yahooCategory = new YahooChatCategory(id, name, cookieLine, localePrefix);
-			recursiveLoad(e, yahooCategory, cookieLine);
-			parentCategory.addSubcategory(yahooCategory);
-		}
+	public YahooChatCategory loadCategories() throws MalformedURLException, JDOMException, IOException {
+		return directory.loadCategories(localePrefix, cLine);
 	}
 
 	/**
-	 * This method fetches the top level category. If the cookies are passed, Yahoo will not filter adult categories.
-	 * Note: the Yahoo servers prove to be unstable at times. This can cause connection timeouts.
-	 * @return ''true'' if the rootCategory was successfully loaded, ''false'' if an IOException occured while trying to
-	 *         execute the HTTP request that should retrieve the categories, or if something unexpected caused nothing
-	 *         to be returned.
-	 * @throws IOException
-	 * @throws JDOMException
-	 * @throws MalformedURLException
+	 * Loads the rooms of a category with the cookies of this manager. The categories returned by
+	 * {@link #loadCategories()} are shared by all managers and keep no cookies, so
+	 * {@link YahooChatCategory#loadRooms()} cannot load the rooms of those listed with cookies.
+	 * @param category category to load the rooms of
+	 * @throws IOException if the rooms could not be read
+	 * @throws IllegalStateException if the category was listed with cookies and this manager has none
 	 */
-	public synchronized YahooChatCategory loadCategories() throws MalformedURLException, JDOMException, IOException {
-		final long currentTimestamp = System.currentTimeMillis();
-		if (timestamps.containsKey(localePrefix)) {
-			final long timeout = timestamps.get(localePrefix);
-			if (timeout + (REFRESH_TIMOUT_IN_SECONDS * 1000) > currentTimestamp) {
-				// if timeout has not passed, return the cached object.
-				return roots.get(localePrefix);
-			}
-		}
-		// add or update the cache, then return that new update.
-		final String addr = PREFIX + localePrefix + TOP_URL;
-		URLConnection uConn = new URL(addr).openConnection();
-		Util.initURLConnection(uConn);
-		if (cLine != null) {
-			uConn.setRequestProperty("Cookie", cLine);
+	public void loadRooms(YahooChatCategory category) throws IOException, IllegalStateException {
+		if (category == null) {
+			throw new IllegalArgumentException("category cannot be null");
 		}
-		final SAXBuilder builder = new SAXBuilder();
-		final Document doc = builder.build(new URL(addr));
-		final Element content = doc.getRootElement();
-		final YahooChatCategory root =
-				new YahooChatCategory(Long.parseLong(content.getAttributeValue("time")), "<root>", cLine, localePrefix);
-		recursiveLoad(content.getChild("chatCategories"), root, cLine);
-		timestamps.put(localePrefix, currentTimestamp);
-		roots.put(localePrefix, root);
-		return root;
+		category.loadRooms(cLine);
 	}
 
 	/**
@@ -122,7 +86,7 @@ public class ChatroomManager {
 	 * @return Lobby object represented by the networkName.
 	 */
 	public YahooChatLobby getLobby(String networkName) {
-		final YahooChatCategory root = roots.get(localePrefix);
+		final YahooChatCategory root = directory.getCategories(localePrefix, cLine);
 		if (root == null) {
 			throw new IllegalStateException(
 					"Root category for this locale (" + localePrefix + ") has not been loaded yet.");
@@ -9,18 +9,16 @@
  */
 package org.openymsg.legacy.network.chatroom;
 
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.input.SAXBuilder;
 import org.openymsg.legacy.network.Util;
 
 import java.io.IOException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Categories are like directories. Each category may contain more categories (sub directories), a list of public
@@ -77,16 +75,18 @@ import java.util.Set;
  * changes radically. NOTE: this class used to rely on a home-brew HTTP class called openymsg.network.HTTPConnection .
  * This was because Yahoo had a nasty habit of sending back HTTP responses with no blank line between the header and the
  * opening XML line (invalid, in other words!) As Sept 2006 (v0.7) the problem appears to have been fixed, so this code
- * has been converted to use the regular java.net.* HTTP classes.
+ * has been converted to use the regular java.net.* HTTP classes. The listings are read by {@link ChatDirectory}, which
+ * updates the categories, rooms and lobbies of an existing tree in place when it is refreshed; the sets returned here
+ * may be read while that happens.
  * @author G. der Kinderen, Nimbuzz B.V. guus@nimbuzz.com
  * @author S.E. Morris
  */
 public class YahooChatCategory {
-	private final static String PUBLIC_TYPE = "yahoo";
-	private final static String CAT_URL = "insider.msg.yahoo.com/ycontent/?chatroom_";
 	private final String name;
 	private final long id;
 	private final String cookieLine; // Cookie HTTP header
+	/** listed by yahoo for a session with cookies, so its rooms must be loaded with cookies too */
+	private final boolean cookied;
 	private final Set<YahooChatCategory> subcategories;
 	private final Set<YahooChatRoom> privateRooms;
 	private final Set<YahooChatRoom> publicRooms;
@@ -94,7 +94,10 @@ public class YahooChatCategory {
 	/**
 	 * Chatroom lobbies hashed by network name;
 	 */
-	private final Hashtable<String, YahooChatLobby> chatByNetName;
+	private final ConcurrentMap<String, YahooChatLobby> chatByNetName;
+	private final ChatDirectory directory;
+	/** number of room loads, so callers that waited for a load do not repeat it */
+	private volatile int roomLoads = 0;
 
 	/**
 	 * Creates a new Category instance.
@@ -104,14 +107,24 @@ public class YahooChatCategory {
 	 * @param localePrefix
 	 */
 	public YahooChatCategory(long id, String rawName, String cookieLine, String localePrefix) {
+		this(id, rawName, cookieLine, localePrefix, cookieLine != null, ChatDirectory.getShared());
+	}
+
+	/**
+	 * @param cookied whether yahoo listed the category for a session with cookies
+	 */
+	YahooChatCategory(long id, String rawName, String cookieLine, String localePrefix, boolean cookied,
+			ChatDirectory directory) {
 		this.id = id;
 		name = Util.entityDecode(rawName);
 		this.cookieLine = cookieLine;
+		this.cookied = cookied;
 		this.localePrefix = localePrefix;
-		subcategories = new HashSet<YahooChatCategory>();
-		privateRooms = new HashSet<YahooChatRoom>();
-		publicRooms = new HashSet<YahooChatRoom>();
-		chatByNetName = new Hashtable<String, YahooChatLobby>();
+		this.directory = directory;
+		subcategories = Collections.newSetFromMap(new ConcurrentHashMap<YahooChatCategory, Boolean>());
+		privateRooms = Collections.newSetFromMap(new ConcurrentHashMap<YahooChatRoom, Boolean>());
+		publicRooms = Collections.newSetFromMap(new ConcurrentHashMap<YahooChatRoom, Boolean>());
+		chatByNetName = new ConcurrentHashMap<String, YahooChatLobby>();
 	}
 
 	/**
@@ -162,6 +175,10 @@ public class YahooChatCategory {
 		return id;
 	}
 
+	String getLocalePrefix() {
+		return localePrefix;
+	}
+
 	/**
 	 * Package level methods: get lobby object based upon network name
 	 */
@@ -179,53 +196,98 @@ public class YahooChatCategory {
 
 	/**
 	 * The loadRooms() method loads both private and public rooms for this category. The first time a category is
-	 * inspected, we need to fetch the data from Yahoo to populate it. If this method is called again, a complete new
-	 * tree of categories, rooms and lobbies will be created.
-	 * @throws IOException
+	 * inspected, we need to fetch the data from Yahoo to populate it. If this method is called again, the rooms and
+	 * lobbies are updated in place: rooms and lobbies that are still listed are kept, with their users, and only their
+	 * topics and reported counts change. Callers that wait for a load in progress return when it completes, without
+	 * fetching the data again.
+	 * @throws IOException if the rooms could not be read
+	 * @throws IllegalStateException if the category was listed with cookies it does not keep, as the categories
+	 *             {@link ChatroomManager#loadCategories()} returns to a manager with cookies are; load their rooms
+	 *             with {@link ChatroomManager#loadRooms(YahooChatCategory)}
+	 */
+	public void loadRooms() throws IOException, IllegalStateException {
+		loadRooms(cookieLine);
+	}
+
+	/**
+	 * Load the rooms with the cookies of a session, as the categories of a shared tree do not keep any. A category
+	 * listed with cookies only has its rooms loaded with cookies, so a listing yahoo filtered does not remove rooms
+	 * other sessions see; one listed without cookies only without, so it does not get rooms other sessions do not
+	 * see.
+	 * @param cookieLine cookies, may be null
+	 * @throws IOException if the rooms could not be read
+	 * @throws IllegalStateException if the category was listed with cookies and there are none
+	 */
+	void loadRooms(String cookieLine) throws IOException, IllegalStateException {
+		if (cookied && cookieLine == null) {
+			throw new IllegalStateException("Category listed with cookies, rooms cannot be loaded without: " + this);
+		}
+		final int loads = roomLoads;
+		synchronized (this) {
+			if (loads != roomLoads) {
+				return;
+			}
+			directory.loadRooms(this, cookied ? cookieLine : null);
+			roomLoads++;
+		}
+	}
+
+	/**
+	 * Update the subcategories, recursively, to those of a freshly loaded tree. Categories that are still listed are
+	 * kept, so their rooms do not need to be loaded again.
+	 * @param fetched the same category, freshly loaded
 	 */
-	/*
-	 * TODO: recreation should be made impossible by adding this code to the constructor. Instead of recreation, event
-	 * handling should properly modify the existing tree.
+	void updateSubcategories(YahooChatCategory fetched) {
+		final Map<Long, YahooChatCategory> existing = new HashMap<Long, YahooChatCategory>();
+		for (YahooChatCategory category : subcategories) {
+			existing.put(category.getId(), category);
+		}
+		for (YahooChatCategory category : fetched.getSubcategories()) {
+			final YahooChatCategory current = existing.remove(category.getId());
+			if (current == null) {
+				subcategories.add(category);
+			} else {
+				current.updateSubcategories(category);
+			}
+		}
+		subcategories.removeAll(existing.values());
+	}
+
+	/**
+	 * Update the rooms to a freshly loaded listing. A room is the same room if its id, name and type are unchanged.
+	 * @param fetched rooms of this category
 	 */
-	@SuppressWarnings("unchecked")
-	public synchronized void loadRooms() throws Exception {
-		publicRooms.clear();
-		privateRooms.clear();
-		// Open a HTTP connection to a given category
-		final String addr = ChatroomManager.PREFIX + localePrefix + CAT_URL;
-		final URLConnection uConn = new URL(addr + id).openConnection();
-		Util.initURLConnection(uConn);
-		if (cookieLine != null) {
-			uConn.setRequestProperty("Cookie", cookieLine);
+	void updateRooms(List<YahooChatRoom> fetched) {
+		final Map<Long, YahooChatRoom> existing = new HashMap<Long, YahooChatRoom>();
+		for (YahooChatRoom room : publicRooms) {
+			existing.put(room.getId(), room);
+		}
+		for (YahooChatRoom room : privateRooms) {
+			existing.put(room.getId(), room);
 		}
-		final SAXBuilder builder = new SAXBuilder();
-		final Document doc = builder.build(new URL(addr + id));
-		final Element chatRooms = doc.getRootElement().getChild("chatRooms");
-		final List<Element> rooms = chatRooms.getChildren("room");
-		for (Element room : rooms) {
-			final String roomType = room.getAttributeValue("type");
-			final long roomId = Long.parseLong(room.getAttributeValue("id"));
-			final String roomName = room.getAttributeValue("name");
-			final String roomTopic = room.getAttributeValue("topic");
-			final YahooChatRoom yahooChatRoom =
-					new YahooChatRoom(roomId, roomName, roomTopic, roomType.equals(PUBLIC_TYPE));
-			final List<Element> lobbies = room.getChildren("lobby");
-			for (Element lobby : lobbies) {
-				final int lobbyNumber = Integer.parseInt(lobby.getAttributeValue("count"));
-				final int reportedUsers = Integer.parseInt(lobby.getAttributeValue("users", "-1"));
-				final int reportedVoices = Integer.parseInt(lobby.getAttributeValue("voices", "-1"));
-				final int reportedWebcams = Integer.parseInt(lobby.getAttributeValue("webcams", "-1"));
-				final YahooChatLobby l = yahooChatRoom.createLobby(lobbyNumber);
-				l.setReportedUsers(reportedUsers);
-				l.setReportedVoices(reportedVoices);
-				l.setReportedWebcams(reportedWebcams);
+		for (YahooChatRoom room : fetched) {
+			final YahooChatRoom current = existing.get(room.getId());
+			if (current != null && current.isPublic() == room.isPublic()
+					&& current.getRawName().equals(room.getRawName())) {
+				existing.remove(room.getId());
+				current.update(room, chatByNetName);
+				continue;
+			}
+			for (YahooChatLobby lobby : room.getLobbies()) {
 				// Hash on room:lobby, so we can find it in chat packet code
-				chatByNetName.put(l.getNetworkName(), l);
+				chatByNetName.put(lobby.getNetworkName(), lobby);
 			}
-			if (yahooChatRoom.isPublic()) {
-				publicRooms.add(yahooChatRoom);
+			if (room.isPublic()) {
+				publicRooms.add(room);
 			} else {
-				privateRooms.add(yahooChatRoom);
+				privateRooms.add(room);
+			}
+		}
+		for (YahooChatRoom room : existing.values()) {
+			publicRooms.remove(room);
+			privateRooms.remove(room);
+			for (YahooChatLobby lobby : room.getLobbies()) {
+				chatByNetName.remove(lobby.getNetworkName(), lobby);
 			}
 		}
 	}
@@ -10,14 +10,16 @@
 package org.openymsg.legacy.network.chatroom;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Represents a single chat lobby. Yahoo chatrooms consist of one or more numbered lobbies inside each public/private
  * room. The name of room and the number of the lobby (separated by a colon) form the 'network name' of the lobby - used
  * by Yahoo to identify uniquely a given chat 'space' on its systems. Each lobby has a count of users, a count of voice
- * chat users, and a count of webcam users. See also YahooChatRoom and YahooChatCategory.
+ * chat users, and a count of webcam users. See also YahooChatRoom and YahooChatCategory. The members are indexed by id
+ * in a concurrent map, so joins, leaves and updates take constant time and the members can be read while the input
+ * thread changes them.
  * @author G. der Kinderen, Nimbuzz B.V. guus@nimbuzz.com
  * @author S.E. Morris
  */
@@ -25,10 +27,10 @@ public class YahooChatLobby {
 	private int lobbyNumber;
 	private final long parentRoomId;
 	private final String networkName;
-	private final Map<String, YahooChatUser> users;
-	private int reportedWebcams = -1;
-	private int reportedUsers = -1;
-	private int reportedVoices = -1;
+	private final ConcurrentMap<String, YahooChatUser> users;
+	private volatile int reportedWebcams = -1;
+	private volatile int reportedUsers = -1;
+	private volatile int reportedVoices = -1;
 
 	/**
 	 * Creates a new lobby, identified by the provided lobby number. Lobbies can have reported attributes. This happens
@@ -41,12 +43,12 @@ public class YahooChatLobby {
 	public YahooChatLobby(String parentRoomName, long parentRoomId, int lobbyNumber) {
 		this.lobbyNumber = lobbyNumber;
 		this.parentRoomId = parentRoomId;
-		users = new HashMap<String, YahooChatUser>();
+		users = new ConcurrentHashMap<String, YahooChatUser>();
 		networkName = parentRoomName + ":" + this.lobbyNumber;
 	}
 
 	/**
-	 * Adds a new user to this lobby. If the user already exists in this lobby, nothing happens.
+	 * Adds a new user to this lobby, replacing the user with the same id if it already exists in this lobby.
 	 * @param yahooChatUser The user to add to this lobby.
 	 */
 	public void addUser(YahooChatUser yahooChatUser) {
@@ -56,6 +58,18 @@ public class YahooChatLobby {
 		users.put(yahooChatUser.getId(), yahooChatUser);
 	}
 
+	/**
+	 * Adds a new user to this lobby. If the user already exists in this lobby, nothing happens.
+	 * @param yahooChatUser The user to add to this lobby.
+	 * @return ''true'' if the user was added.
+	 */
+	public boolean addUserIfAbsent(YahooChatUser yahooChatUser) {
+		if (yahooChatUser == null) {
+			throw new IllegalArgumentException("Argument 'yahooChatUser' cannot be null.");
+		}
+		return users.putIfAbsent(yahooChatUser.getId(), yahooChatUser) == null;
+	}
+
 	/**
 	 * Removes the user from this lobby, if it was in the lobby.
 	 * @param yahooChatUser The user to remove from this lobby.
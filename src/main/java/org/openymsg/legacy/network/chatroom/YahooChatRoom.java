@@ -11,8 +11,12 @@ package org.openymsg.legacy.network.chatroom;
 
 import org.openymsg.legacy.network.Util;
 
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Represents a single chat room, either public (Yahoo owned) or private (user owned). Each room is divided into
@@ -25,7 +29,7 @@ import java.util.Set;
  */
 public class YahooChatRoom {
 	private String name, rawName;
-	private String topic;
+	private volatile String topic;
 	private long id; // Id code
 	private boolean isPublic; // True=public, false=private
 	private Set<YahooChatLobby> lobbies; // YahooChatLobby objects
@@ -36,7 +40,7 @@ public class YahooChatRoom {
 		this.name = Util.entityDecode(this.rawName);
 		this.topic = topic;
 		this.isPublic = ac;
-		lobbies = new HashSet<YahooChatLobby>();
+		lobbies = Collections.newSetFromMap(new ConcurrentHashMap<YahooChatLobby, Boolean>());
 	}
 
 	/**
@@ -123,6 +127,35 @@ public class YahooChatRoom {
 		return isPublic;
 	}
 
+	/**
+	 * Update the topic and lobbies to those of a freshly loaded listing of this room. Lobbies that are still listed are
+	 * kept, with their users, and take the reported counts of the listing.
+	 * @param fetched this room, freshly loaded
+	 * @param lobbiesByNetName index of lobbies by network name, updated with the lobbies added and removed
+	 */
+	void update(YahooChatRoom fetched, ConcurrentMap<String, YahooChatLobby> lobbiesByNetName) {
+		topic = fetched.getTopic();
+		final Map<Integer, YahooChatLobby> existing = new HashMap<Integer, YahooChatLobby>();
+		for (YahooChatLobby lobby : lobbies) {
+			existing.put(lobby.getLobbyNumber(), lobby);
+		}
+		for (YahooChatLobby lobby : fetched.getLobbies()) {
+			final YahooChatLobby current = existing.remove(lobby.getLobbyNumber());
+			if (current == null) {
+				lobbies.add(lobby);
+				lobbiesByNetName.put(lobby.getNetworkName(), lobby);
+			} else {
+				current.setReportedUsers(lobby.getReportedUsers());
+				current.setReportedVoices(lobby.getReportedVoices());
+				current.setReportedWebcams(lobby.getReportedWebcams());
+			}
+		}
+		for (YahooChatLobby lobby : existing.values()) {
+			lobbies.remove(lobby);
+			lobbiesByNetName.remove(lobby.getNetworkName(), lobby);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see java.lang.Object#toString()
@@ -18,14 +18,18 @@ import org.openymsg.legacy.network.event.SessionListEvent;
 import org.openymsg.legacy.network.event.SessionListener;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A Roster object is a representation of the contact list of a particular user. The Roster is a set of all users to
@@ -36,6 +40,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * The Roster class implements the Set interface, as it represents a unique set of Yahoo Users. To avoid accidental mass
  * subscription or unsubscription, most bulk operations (addAll, removeAll) are unsupported in this implementation.
+ * <p>
+ * By default every change is broadcast as it happens. With a batch window set, changes are coalesced per user and
+ * broadcast together, which spares listeners the thousands of events of the list and status storm at login.
  * @author Guus der Kinderen, guus@nimbuzz.com
  */
 public class Roster implements Set<YahooUser>, SessionListener {
@@ -43,7 +50,7 @@ public class Roster implements Set<YahooUser>, SessionListener {
 	/**
 	 * The collection of RosterListener instances that will be notified of new changes to the roster.
 	 */
-	private final Collection<RosterListener> listeners = new LinkedList<RosterListener>();
+	private final Collection<RosterListener> listeners = new CopyOnWriteArrayList<RosterListener>();
 	/**
 	 * A collection of all YahooUsers on the roster. The YahooUsers are mapped by the value returned by
 	 * {@link YahooUser.getId()}
@@ -54,11 +61,32 @@ public class Roster implements Set<YahooUser>, SessionListener {
 	 * {@link YahooUser.getId()}
 	 */
 	private final Map<String, YahooAddressBookEntry> addressBookUsersById =
-			new Hashtable<String, YahooAddressBookEntry>();
+			new ConcurrentHashMap<String, YahooAddressBookEntry>();
+	/**
+	 * Revision of the address book entries, null until the address book is imported.
+	 */
+	private volatile String addressBookRevision = null;
 	/**
 	 * Interface used to relay changes to the roster to the Yahoo network.
 	 */
 	private final FriendManager friendManager;
+	/**
+	 * Milliseconds changes are collected before they are broadcast, 0 to broadcast per inbound packet, negative to
+	 * broadcast each change as it happens.
+	 */
+	private volatile long batchWindow = -1;
+	/**
+	 * Changes waiting to be broadcast in batching mode, coalesced by user id. Guarded by itself.
+	 */
+	private final Map<String, RosterEvent> pendingEvents = new LinkedHashMap<String, RosterEvent>();
+	/**
+	 * Broadcasts the pending changes when the batch window closes. Guarded by pendingEvents.
+	 */
+	private TimerTask flushTask = null;
+	/**
+	 * Held while pending changes are broadcast, so batches reach the listeners in order.
+	 */
+	private final Object flushLock = new Object();
 
 	/**
 	 * Creates a new roster object, that makes use of the provided manager to transmit changes made to the roster to the
@@ -81,9 +109,7 @@ public class Roster implements Set<YahooUser>, SessionListener {
 		if (listener == null) {
 			throw new IllegalArgumentException("Argument 'listener' cannot be null.");
 		}
-		synchronized (listeners) {
-			listeners.add(listener);
-		}
+		listeners.add(listener);
 		log.debug("Added new RosterListener.");
 	}
 
@@ -96,25 +122,130 @@ public class Roster implements Set<YahooUser>, SessionListener {
 		if (listener == null) {
 			throw new IllegalArgumentException("Argument 'listener' cannot be null.");
 		}
-		synchronized (listeners) {
-			listeners.remove(listener);
-		}
+		listeners.remove(listener);
 		log.debug("Removed RosterListener.");
 	}
 
 	/**
-	 * Utility method to broadcast an event to all registered Listeners. This operation is thread safe.
+	 * Turns batching of roster events on or off. In batching mode the changes to a user are coalesced into one event:
+	 * an add followed by a remove cancels out, a remove followed by an add becomes an update, and otherwise the last
+	 * change wins. Listeners implementing {@link RosterBatchListener} receive all coalesced changes as a single
+	 * {@link RosterBatchEvent}, others receive one event per changed user.
+	 * @param window milliseconds changes are collected before they are broadcast, 0 to broadcast the changes of each
+	 *        inbound packet together, or negative to broadcast every change as it happens, which is the default
+	 */
+	public void setBatchWindow(long window) {
+		this.batchWindow = window;
+		if (window < 0) {
+			flushEvents();
+		}
+	}
+
+	/**
+	 * @return the batch window in milliseconds, negative if batching is off
+	 * @see #setBatchWindow(long)
+	 */
+	public long getBatchWindow() {
+		return batchWindow;
+	}
+
+	/**
+	 * Utility method to broadcast an event to all registered Listeners. In batching mode the event is held back to be
+	 * coalesced with the other changes to its user. This operation is thread safe.
 	 * @param event The event that is going to be broadcasted to all registered event listeners.
 	 */
 	void broadcastEvent(final RosterEvent event) {
-		final RosterListener[] copies;
-		synchronized (listeners) {
-			copies = listeners.toArray(new RosterListener[listeners.size()]);
+		final long window = batchWindow;
+		if (window < 0) {
+			for (final RosterListener rosterListener : listeners) {
+				rosterListener.rosterChanged(event);
+			}
+			log.trace("Broadcasted RosterEvent to " + listeners.size() + " listeners: " + event);
+			return;
 		}
-		for (final RosterListener rosterListener : copies) {
-			rosterListener.rosterChanged(event);
+		synchronized (pendingEvents) {
+			final String userId = event.getUser().getId();
+			final RosterEvent coalesced = coalesce(pendingEvents.get(userId), event);
+			if (coalesced == null) {
+				pendingEvents.remove(userId);
+			} else {
+				pendingEvents.put(userId, coalesced);
+			}
+			if (window > 0 && flushTask == null) {
+				flushTask = new TimerTask() {
+					@Override
+					public void run() {
+						try {
+							flushEvents();
+						} catch (RuntimeException e) {
+							// the timer is shared, do not let a listener stop it
+							log.error("Failed broadcasting roster events", e);
+						}
+					}
+				};
+				BatchTimer.timer.schedule(flushTask, window);
+			}
 		}
-		log.trace("Broadcasted RosterEvent to " + copies.length + " listeners: " + event);
+	}
+
+	/**
+	 * Broadcasts the changes collected in batching mode right away. Does nothing when none are pending.
+	 */
+	public void flushEvents() {
+		synchronized (flushLock) {
+			final List<RosterEvent> events;
+			synchronized (pendingEvents) {
+				if (flushTask != null) {
+					flushTask.cancel();
+					flushTask = null;
+				}
+				if (pendingEvents.isEmpty()) {
+					return;
+				}
+				events = new ArrayList<RosterEvent>(pendingEvents.values());
+				pendingEvents.clear();
+			}
+			final RosterBatchEvent batch = new RosterBatchEvent(this, events);
+			for (final RosterListener rosterListener : listeners) {
+				if (rosterListener instanceof RosterBatchListener) {
+					((RosterBatchListener) rosterListener).rosterChanged(batch);
+				} else {
+					for (final RosterEvent event : events) {
+						rosterListener.rosterChanged(event);
+					}
+				}
+			}
+			log.trace("Broadcasted " + events.size() + " coalesced RosterEvents to " + listeners.size() + " listeners");
+		}
+	}
+
+	/**
+	 * Combines two successive changes to the same user.
+	 * @param previous the pending change, may be null
+	 * @param next the new change
+	 * @return the change that has the effect of both, or null if they cancel out
+	 */
+	private RosterEvent coalesce(RosterEvent previous, RosterEvent next) {
+		if (previous == null) {
+			return next;
+		}
+		final RosterEventType type;
+		if (previous.getType() == RosterEventType.add) {
+			if (next.getType() == RosterEventType.remove) {
+				// listeners never saw the user
+				return null;
+			}
+			type = RosterEventType.add;
+		} else if (next.getType() == RosterEventType.remove) {
+			type = RosterEventType.remove;
+		} else {
+			// listeners know the user from before, even if it was removed in between
+			type = RosterEventType.update;
+		}
+		if (type == next.getType()) {
+			return next;
+		}
+		return new RosterEvent(this, next.getUser(), type);
 	}
 
 	// Modification methods
@@ -483,6 +614,16 @@ public class Roster implements Set<YahooUser>, SessionListener {
 	 */
 	@Override
 	public void dispatch(FireEvent event) {
+		try {
+			dispatchEvent(event);
+		} finally {
+			if (batchWindow == 0) {
+				flushEvents();
+			}
+		}
+	}
+
+	private void dispatchEvent(FireEvent event) {
 		final SessionEvent sEvent = event.getEvent();
 		final ServiceType sType = event.getType();
 		if (!(sEvent instanceof SessionFriendEvent) && sType != ServiceType.LIST) {
@@ -542,36 +683,89 @@ public class Roster implements Set<YahooUser>, SessionListener {
 	}
 
 	public void addOrUpdateAddressBook(YahooAddressBookEntry addressBookEntry) {
-		String userId = addressBookEntry.getId();
-		log.trace("Adding to address book: " + addressBookEntry);
-		synchronized (this.addressBookUsersById) {
-			this.addressBookUsersById.put(userId, addressBookEntry);
+		addOrUpdateAddressBook(Collections.singletonList(addressBookEntry));
+	}
+
+	/**
+	 * Adds or updates a batch of address book entries, merging them into the users already on the roster. The locks are
+	 * taken once for the batch, and an update event is broadcast for each merged user.
+	 * @param addressBookEntries entries read from the address book
+	 */
+	public void addOrUpdateAddressBook(Collection<YahooAddressBookEntry> addressBookEntries) {
+		log.trace("Adding to address book: " + addressBookEntries.size() + " entries");
+		for (YahooAddressBookEntry addressBookEntry : addressBookEntries) {
+			this.addressBookUsersById.put(addressBookEntry.getId(), addressBookEntry);
+		}
+		List<YahooUser> updated = new ArrayList<YahooUser>();
+		synchronized (usersById) {
+			for (YahooAddressBookEntry addressBookEntry : addressBookEntries) {
+				String userId = addressBookEntry.getId();
+				YahooUser user = usersById.get(userId);
+				if (user != null) {
+					YahooUser newUser = createMergedUser(addressBookEntry, userId, user);
+					log.trace("updated user with addressBook: " + user);
+					usersById.put(userId, newUser);
+					updated.add(newUser);
+				}
+			}
+		}
+		// notify listeners.
+		for (YahooUser newUser : updated) {
+			broadcastEvent(new RosterEvent(this, newUser, RosterEventType.update));
+		}
+		if (batchWindow == 0) {
+			flushEvents();
 		}
-		boolean isUpdate = false;
-		YahooUser newUser = null;
+		log.trace("Done Adding to address book: " + addressBookEntries.size() + " entries");
+	}
+
+	/**
+	 * Removes a batch of address book entries, for contacts deleted from the address book. The users on the roster
+	 * lose their address book details, and an update event is broadcast for each.
+	 * @param ids ids of the deleted contacts
+	 */
+	public void removeAddressBook(Collection<String> ids) {
+		log.trace("Removing from address book: " + ids.size() + " entries");
+		List<YahooUser> updated = new ArrayList<YahooUser>();
 		synchronized (usersById) {
-			YahooUser user = usersById.get(userId);
-			if (user != null) {
-				isUpdate = true;
-				newUser = createMergedUser(addressBookEntry, userId, user);
-				log.trace("updated user with addressBook: " + user);
-				usersById.put(userId, newUser);
+			for (String userId : ids) {
+				if (this.addressBookUsersById.remove(userId) == null) {
+					continue;
+				}
+				YahooUser user = usersById.get(userId);
+				if (user != null) {
+					YahooUser newUser = createMergedUser(YahooAddressBookEntry.EMPTY, userId, user);
+					usersById.put(userId, newUser);
+					updated.add(newUser);
+				}
 			}
 		}
-		RosterEventType rosterType;
 		// notify listeners.
-		if (isUpdate) {
-			rosterType = RosterEventType.update;
-			broadcastEvent(new RosterEvent(this, newUser, rosterType));
+		for (YahooUser newUser : updated) {
+			broadcastEvent(new RosterEvent(this, newUser, RosterEventType.update));
+		}
+		if (batchWindow == 0) {
+			flushEvents();
 		}
-		log.trace("Done Adding to address book: " + addressBookEntry);
+	}
+
+	/**
+	 * Revision of the address book entries on this roster, so the next import only asks for the changes since.
+	 * @return the revision, or null if the address book was not imported yet
+	 */
+	public String getAddressBookRevision() {
+		return addressBookRevision;
+	}
+
+	public void setAddressBookRevision(String addressBookRevision) {
+		this.addressBookRevision = addressBookRevision;
 	}
 
 	private YahooUser createMergedUser(YahooAddressBookEntry addressBookEntry, String userId, YahooUser user) {
 		YahooUser newUser;
-		Set<String> groupIds = new HashSet<String>(user.getGroupIds()); // returns an unmodifiable set
 		YahooProtocol protocol = user.getProtocol();
-		newUser = new YahooUser(userId, groupIds, protocol, addressBookEntry);
+		// the groups are copied
+		newUser = new YahooUser(userId, user.getGroupIds(), protocol, addressBookEntry);
 		Status status = user.getStatus();
 		String customMessage = user.getCustomStatusMessage();
 		String customStatus = user.getCustomStatus();
@@ -581,4 +775,11 @@ public class Roster implements Set<YahooUser>, SessionListener {
 		}
 		return newUser;
 	}
+
+	/**
+	 * Timer closing the batch windows of all rosters, started on first use.
+	 */
+	private static final class BatchTimer {
+		private static final Timer timer = new Timer("OpenYMSG roster batch timer", true);
+	}
 }
@@ -0,0 +1,54 @@
+package org.openymsg.legacy.roster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.List;
+
+/**
+ * A RosterBatchEvent carries the changes a {@link Roster} in batching mode collected since its last broadcast, at most
+ * one per user. It is forwarded to registered {@link RosterBatchListener}s.
+ * @see Roster#setBatchWindow(long)
+ */
+public class RosterBatchEvent extends EventObject {
+	private static final long serialVersionUID = -3561349618202545431L;
+	private final transient List<RosterEvent> events;
+
+	/**
+	 * Creates a new RosterBatchEvent instance.
+	 * @param source the Roster that changed
+	 * @param events the coalesced changes, in the order their users first changed
+	 */
+	public RosterBatchEvent(final Roster source, final List<RosterEvent> events) {
+		super(source);
+		if (events == null) {
+			throw new IllegalArgumentException("Argument 'events' cannot be null.");
+		}
+		this.events = Collections.unmodifiableList(new ArrayList<RosterEvent>(events));
+	}
+
+	/**
+	 * @return the changes, one per user
+	 */
+	public List<RosterEvent> getEvents() {
+		return events;
+	}
+
+	/**
+	 * The object on which the Event initially occurred.
+	 * @return The object on which the Event initially occurred.
+	 */
+	@Override
+	public Roster getSource() {
+		return (Roster) source;
+	}
+
+	/**
+	 * Returns a String representation of this RosterBatchEvent.
+	 * @return A a String representation of this RosterBatchEvent.
+	 */
+	@Override
+	public String toString() {
+		return getClass().getName() + "[events=" + events.size() + ", source=" + source + "]";
+	}
+}
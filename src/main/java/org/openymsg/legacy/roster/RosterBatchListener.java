@@ -0,0 +1,15 @@
+package org.openymsg.legacy.roster;
+
+/**
+ * A {@link RosterListener} that takes the changes of a batch at once. When its Roster broadcasts in batching mode, it
+ * receives a single {@link RosterBatchEvent} instead of one {@link RosterEvent} per changed user.
+ * @see Roster#setBatchWindow(long)
+ */
+public interface RosterBatchListener extends RosterListener {
+	/**
+	 * Listener method that gets fired with the coalesced changes of a batch, if the event Listener has been registered
+	 * with a Roster in batching mode.
+	 * @param event
+	 */
+	public void rosterChanged(final RosterBatchEvent event);
+}
@@ -9,11 +9,16 @@
  */
 package org.openymsg.legacy.support;
 
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Some chatrooms are particularly prone to repeated messages being spammed across the screen - be it by advertisers, or
- * users who selfishly flood the screen with the same text, to get a response!)
+ * users who selfishly flood the screen with the same text, to get a response!) The history of each user is small and
+ * fixed: fingerprints of their last messages instead of the messages, and the times of their last messages for flood
+ * detection. Users are forgotten when idle, or least recently heard first when there are too many, so the memory used
+ * is bounded however many users pass through a room. Safe to use from several threads.
  * @author G. der Kinderen, Nimbuzz B.V. guus@nimbuzz.com
  * @author S.E. Morris
  */
@@ -21,74 +26,137 @@ public class AntiSpam {
 	public static final int REPEAT = 0x0001;
 	public static final int FLOOD = 0x0002;
 	public static final int CAPS = 0x0004;
-	private Hashtable<String, UserHistory> users; // Key=username,
-	// value=UserHistory
-	private static MessageDecoder decoder; // Decode message to plain text
+	/** default maximum number of users remembered */
+	public static final int DEFAULT_MAXIMUM_USERS = 10000;
+	/** default milliseconds a silent user is remembered */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000L;
+	/** default number of messages allowed within the flood window */
+	public static final int DEFAULT_FLOOD_MESSAGES = 5;
+	/** default milliseconds of the flood window */
+	public static final long DEFAULT_FLOOD_WINDOW = 3000L;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final MessageDecoder decoder = new MessageDecoder(); // Decode message to plain text
 	// The size of the history used to detect repeat messages
 	private static final int MEMORY_SZ = 5;
 	// Messages <= this length always pass certain checks
 	private static final int MIN_MESG_SZ = 10;
+	private final int maximumUsers;
+	private final long idleTimeout;
+	private final int floodMessages;
+	private final long floodWindow;
+	/** Key=username, value=UserHistory; access ordered, guarded by itself */
+	private final Map<String, UserHistory> users = new LinkedHashMap<String, UserHistory>(16, 0.75f, true);
 
-	// FIX: Flood needs implementing!
-	// private static final int TRAFFIC_FREQ = 500;
 	/**
 	 * CONSTRUCTOR
 	 */
 	public AntiSpam() {
-		users = new Hashtable<String, UserHistory>();
+		this(DEFAULT_MAXIMUM_USERS, DEFAULT_IDLE_TIMEOUT, DEFAULT_FLOOD_MESSAGES, DEFAULT_FLOOD_WINDOW);
 	}
 
-	static {
-		// As this decoder only decodes to text, we don't need to configure
-		// it with MessageDecoderSettings - might as well make it static!
-		decoder = new MessageDecoder();
+	/**
+	 * @param maximumUsers maximum number of users remembered
+	 * @param idleTimeout milliseconds a silent user is remembered, 0 for until evicted by newer users
+	 * @param floodMessages number of messages allowed within the flood window
+	 * @param floodWindow milliseconds of the flood window
+	 */
+	public AntiSpam(int maximumUsers, long idleTimeout, int floodMessages, long floodWindow) {
+		if (maximumUsers < 1) {
+			throw new IllegalArgumentException("maximumUsers must be positive");
+		}
+		if (idleTimeout < 0) {
+			throw new IllegalArgumentException("idleTimeout cannot be negative");
+		}
+		if (floodMessages < 1) {
+			throw new IllegalArgumentException("floodMessages must be positive");
+		}
+		if (floodWindow < 1) {
+			throw new IllegalArgumentException("floodWindow must be positive");
+		}
+		this.maximumUsers = maximumUsers;
+		this.idleTimeout = idleTimeout;
+		this.floodMessages = floodMessages;
+		this.floodWindow = floodWindow;
 	}
 
 	/**
 	 * Accessors
 	 */
 	public int getViolations(String u, String m) {
-		UserHistory h = users.get(u);
-		int ret = 0;
 		m = decoder.decodeToText(m);
-		if (h == null) {
-			h = new UserHistory();
-			users.put(u, h);
-		} else {
-			if (isRepeat(h, m))
-				ret |= REPEAT;
-			if (isFlood(h, m))
-				ret |= FLOOD;
-			if (isCaps(h, m))
-				ret |= CAPS;
+		long fingerprint = fingerprint(m);
+		long now = now();
+		UserHistory h;
+		boolean known;
+		synchronized (users) {
+			expireIdle(now);
+			h = users.get(u);
+			known = h != null;
+			if (!known) {
+				h = new UserHistory(floodMessages);
+				users.put(u, h);
+				Iterator<UserHistory> eldest = users.values().iterator();
+				while (users.size() > maximumUsers) {
+					eldest.next();
+					eldest.remove();
+				}
+			}
+			h.lastUsed = now;
+		}
+		synchronized (h) {
+			int ret = 0;
+			if (known) {
+				if (isRepeat(h, m, fingerprint))
+					ret |= REPEAT;
+				if (isFlood(h, now))
+					ret |= FLOOD;
+				if (isCaps(h, m))
+					ret |= CAPS;
+			}
+			h.update(fingerprint, now, ret);
+			return ret;
+		}
+	}
+
+	/**
+	 * Number of users remembered
+	 */
+	public int size() {
+		synchronized (users) {
+			return users.size();
 		}
-		h.update(m, ret);
-		return ret;
+	}
+
+	/**
+	 * Current time, in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
 	}
 
 	/**
 	 * Returns true if this user has sent a message identical to this recently (in the last MEMORY_SZ messages).
 	 */
-	boolean isRepeat(UserHistory h, String m) {
+	boolean isRepeat(UserHistory h, String m, long fingerprint) {
 		// Don't check small message (people say "yes" or "ok" a lot)
 		if (m.length() <= MIN_MESG_SZ)
 			return false;
 		// Look for message in history
-		for (int i = 0; i < h.memory.length; i++)
-			if (h.memory[i] != null && h.memory[i].equals(m))
+		for (int i = 0; i < h.memoryCount; i++)
+			if (h.memory[i] == fingerprint)
 				return true;
 		return false;
 	}
 
 	/**
-	 * Returns true if the traffic from this user goes over
+	 * Returns true if this message is more than floodMessages within the flood window
 	 */
-	boolean isFlood(UserHistory h,
-			String m) { /*
-						 * // How long they have been on, in seconds int
-						 * timeActive=(int)(System.currentTimeMillis()-startTime)/1000; if( (h.bytesSent+
-						 */
-		return false;
+	boolean isFlood(UserHistory h, long now) {
+		// The oldest of the last floodMessages messages, once there are that many
+		if (h.times.length > h.timesCount)
+			return false;
+		return now - h.times[h.timesPos] < floodWindow;
 	}
 
 	boolean isCaps(UserHistory h, String m) {
@@ -113,28 +181,55 @@ public class AntiSpam {
 		return (f >= 75.0);
 	}
 
+	private void expireIdle(long now) {
+		if (idleTimeout == 0)
+			return;
+		Iterator<UserHistory> eldest = users.values().iterator();
+		while (eldest.hasNext()) {
+			if (now - eldest.next().lastUsed < idleTimeout)
+				return; // the rest were heard from more recently
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the message text
+	 */
+	static long fingerprint(String m) {
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < m.length(); i++)
+			hash = (hash ^ m.charAt(i)) * FNV_PRIME;
+		return hash;
+	}
+
 	/**
 	 * Details per user
 	 */
 	private static class UserHistory {
-		String[] memory;
-		int memoryPos = 0, bytesSent = 0;
+		// Fingerprints of recent messages
+		final long[] memory = new long[MEMORY_SZ];
+		int memoryPos = 0, memoryCount = 0;
+		// Times of the most recent messages, oldest at timesPos once full
+		final long[] times;
+		int timesPos = 0, timesCount = 0;
+		// Guarded by the users map
+		long lastUsed;
 
-		// long startTime;
-		UserHistory() {
-			memory = new String[MEMORY_SZ];
-			// startTime = System.currentTimeMillis();
+		UserHistory(int floodMessages) {
+			times = new long[floodMessages];
 		}
 
-		void update(String m, int flags) {
+		void update(long fingerprint, long now, int flags) {
 			// Update repeat (only if not already un history!)
 			if ((flags & REPEAT) == 0) {
-				memory[memoryPos] = m;
-				memoryPos++;
-				memoryPos %= memory.length;
+				memory[memoryPos] = fingerprint;
+				memoryPos = (memoryPos + 1) % memory.length;
+				memoryCount = Math.min(memoryCount + 1, memory.length);
 			}
 			// Update flood
-			bytesSent += m.length();
+			times[timesPos] = now;
+			timesPos = (timesPos + 1) % times.length;
+			timesCount = Math.min(timesCount + 1, times.length);
 		}
 	}
 }
@@ -9,281 +9,301 @@
  */
 package org.openymsg.legacy.support;
 
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This message decoder class is designed to work along side the main jYMSG9 classes, accepting raw message strings from
  * Yahoo, and translating them into something a bit more Java-friendly. Currently the decoder can translate messages
- * into plain text only (formatting stripped).
+ * into plain text only (formatting stripped). The decoder holds no state, so one instance can be shared by any number
+ * of threads. Messages are tokenized in a single pass; plain text without markup is returned as is, and
+ * {@link #decodeToText(String)} strips the markup without building the element tree.
  * @author G. der Kinderen, Nimbuzz B.V. guus@nimbuzz.com
  * @author S.E. Morris
  */
 public class MessageDecoder {
-	protected char[] msg; // Incoming message as chars
-	protected StringBuffer out; // Decode to this buffer
-	protected int pos; // Char position in incoming msg
-	protected Stack<MessageElement> stack; // Element stack
 	protected static final char ESC = 0x1b;
-	protected static final String ESC_SEQ = "\u001b[";
 
 	/**
 	 * CONSTRUCTOR
 	 */
 	public MessageDecoder() {
-		out = new StringBuffer();
-		stack = new Stack<MessageElement>();
 	}
 
 	/**
 	 * Decode message
 	 */
-	public synchronized MessageElement decode(String m) {
-		msg = m.toCharArray();
-		out.setLength(0);
-		stack.removeAllElements();
-		pos = 0;
+	public MessageElement decode(String m) {
 		MessageElement section = new MessageElement(MessageElement.ROOT);
-		stack.push(section);
-		while (pos < msg.length) {
-			if (startsWith("<font "))
-				handleFont();
-			else if (startsWith("<fade "))
-				handleFade();
-			else if (startsWith("<alt "))
-				handleAlt();
-			else if (startsWith(ESC_SEQ))
-				handleEscape();
-			else if (startsWith("</font>"))
-				handleFontExit();
-			else if (startsWith("</fade>"))
-				handleFadeExit();
-			else if (startsWith("</alt>"))
-				handleAltExit();
-			else if (startsWith("<"))
-				handleOtherTag();
-			else
-				out.append(msg[pos]);
-			pos++;
+		if (isPlain(m)) {
+			if (m.length() > 0)
+				section.addChild(new MessageElement(MessageElement.TEXT, m));
+			return section;
 		}
-		addText();
+		List<MessageElement> stack = new ArrayList<MessageElement>();
+		stack.add(section);
+		parse(m, new StringBuilder(m.length()), stack);
 		return section;
 	}
 
+	/**
+	 * Decode message to plain text, without building the elements
+	 */
 	public String decodeToText(String m) {
-		MessageElement me = decode(m);
-		return me.toText();
+		if (isPlain(m))
+			return m;
+		StringBuilder text = new StringBuilder(m.length());
+		parse(m, text, null);
+		return text.toString();
 	}
 
 	/**
-	 * Handler for each type of data
+	 * Tokenize the message. Text goes to the buffer; with a stack, the markup becomes elements and the text is added
+	 * to them as each piece of markup starts.
 	 */
-	protected void handleFont() {
-		addText();
-		pos += 6; // Skip over '<font '
-		int end = nextNonLiteral('>');
-		String s = new String(msg, pos, end - pos);
-		add(new MessageElement(MessageElement.FONT, s));
-		pos = end;
+	private static void parse(String m, StringBuilder text, List<MessageElement> stack) {
+		int length = m.length();
+		int pos = 0;
+		while (pos < length) {
+			char c = m.charAt(pos);
+			if (c == '<') {
+				addText(text, stack);
+				pos = handleTag(m, pos, text, stack);
+			} else if (c == ESC && pos + 1 < length && m.charAt(pos + 1) == '[') {
+				addText(text, stack);
+				pos = handleEscape(m, pos, stack);
+			} else {
+				// Copy the run of text up to the next markup
+				int end = nextMarkup(m, pos + 1);
+				text.append(m, pos, end);
+				pos = end;
+			}
+		}
+		addText(text, stack);
 	}
 
-	protected void handleFade() {
-		addText();
-		pos += 6; // Skip over '<FADE '
-		int end = nextNonLiteral('>');
-		String s = new String(msg, pos, end - pos);
-		add(new MessageElement(MessageElement.FADE, s));
-		pos = nextNonLiteral('>');
+	/**
+	 * Handler for each type of data. Each returns the position after the markup.
+	 */
+	private static int handleTag(String m, int pos, StringBuilder text, List<MessageElement> stack) {
+		if (startsWith(m, pos, "<font "))
+			return handleOpen(m, pos + 6, MessageElement.FONT, stack);
+		if (startsWith(m, pos, "<fade "))
+			return handleOpen(m, pos + 6, MessageElement.FADE, stack);
+		if (startsWith(m, pos, "<alt "))
+			return handleOpen(m, pos + 5, MessageElement.ALT, stack);
+		if (startsWith(m, pos, "</font>")) {
+			remove(stack, MessageElement.FONT);
+			return pos + 7;
+		}
+		if (startsWith(m, pos, "</fade>")) {
+			remove(stack, MessageElement.FADE);
+			return pos + 7;
+		}
+		if (startsWith(m, pos, "</alt>")) {
+			remove(stack, MessageElement.ALT);
+			return pos + 6;
+		}
+		return handleOtherTag(m, pos, text, stack);
 	}
 
-	protected void handleAlt() {
-		addText();
-		pos += 5; // Skip over '<ALT '
-		int end = nextNonLiteral('>');
-		String s = new String(msg, pos, end - pos);
-		add(new MessageElement(MessageElement.ALT, s));
-		pos = nextNonLiteral('>');
+	private static int handleOpen(String m, int pos, int type, List<MessageElement> stack) {
+		add(stack, type);
+		return nextNonLiteral(m, pos, '>') + 1;
 	}
 
-	protected void handleEscape() {
-		addText();
+	private static int handleEscape(String m, int pos, List<MessageElement> stack) {
 		pos += 2; // Skip over ESC [
-		MessageElement section = null;
-		char c = msg[pos];
-		if (c >= '1' && c <= '4') // Bold, italic, colour, underline
-		{
-			// Add a new section to stack
-			switch (c) {
+		if (stack != null && pos < m.length()) {
+			switch (m.charAt(pos)) {
 				case '1':
-					section = new MessageElement(MessageElement.BOLD);
+					add(stack, MessageElement.BOLD);
 					break;
 				case '2':
-					section = new MessageElement(MessageElement.ITALIC);
+					add(stack, MessageElement.ITALIC);
 					break;
 				case '3':
-					section = new MessageElement(MessageElement.COLOUR_INDEX, "" + msg[pos + 1]);
+					add(stack, MessageElement.COLOUR_INDEX);
 					break;
 				case '4':
-					section = new MessageElement(MessageElement.UNDERLINE);
-					break;
-			}
-			add(section);
-		} else if (c == 'x') // End: bold, italic, underline
-		{
-			pos++;
-			// Up stack to find matching opening section
-			int ty = MessageElement.ROOT;
-			switch (msg[pos]) {
-				case '1':
-					ty = MessageElement.BOLD;
+					add(stack, MessageElement.UNDERLINE);
 					break;
-				case '2':
-					ty = MessageElement.ITALIC;
+				case '#': // Absolute colour #rrggbb
+					add(stack, MessageElement.COLOUR_ABS);
 					break;
-				case '4':
-					ty = MessageElement.UNDERLINE;
+				case 'x': // End: bold, italic, underline
+					if (pos + 1 < m.length()) {
+						switch (m.charAt(pos + 1)) {
+							case '1':
+								remove(stack, MessageElement.BOLD);
+								break;
+							case '2':
+								remove(stack, MessageElement.ITALIC);
+								break;
+							case '4':
+								remove(stack, MessageElement.UNDERLINE);
+								break;
+						}
+					}
 					break;
 			}
-			if (ty > MessageElement.ROOT)
-				remove(ty);
-		} else if (c == '#') // Absolute colour #rrggbb
-		{
-			pos++;
-			String s = new String(msg, pos, 6);
-			section = new MessageElement(MessageElement.COLOUR_ABS, s);
-			add(section);
 		}
-		pos = nextNonLiteral('m');
-	}
-
-	protected void handleFontExit() {
-		addText();
-		pos += 6;
-		remove(MessageElement.FONT);
-	}
-
-	protected void handleFadeExit() {
-		addText();
-		pos += 6;
-		remove(MessageElement.FADE);
+		return nextNonLiteral(m, pos, 'm') + 1;
 	}
 
-	protected void handleAltExit() {
-		addText();
-		pos += 5;
-		remove(MessageElement.ALT);
-	}
-
-	protected void handleOtherTag() {
-		addText();
-		pos += 1;
-		int end = nextNonLiteral('>');
-		String s = new String(msg, pos, end - pos).toLowerCase();
+	private static int handleOtherTag(String m, int pos, StringBuilder text, List<MessageElement> stack) {
+		int start = pos + 1;
+		int end = nextNonLiteral(m, start, '>');
 		// Is this a colour name? ie. <red> <blue> ...etc...
-		int i1 = MessageElement.whichColourName(s);
-		if (i1 >= 0) {
-			MessageElement section = new MessageElement(MessageElement.COLOUR_NAME, i1);
-			add(section);
-			pos = end;
+		int colour = whichColourName(m, start, end);
+		if (colour >= 0) {
+			if (stack != null)
+				add(stack, new MessageElement(MessageElement.COLOUR_NAME, colour));
+			return end + 1;
 		}
 		// Is this b i u or /b /i /u ?
-		else if (s.equals("b")) {
-			add(new MessageElement(MessageElement.BOLD));
-			pos++;
-		} else if (s.equals("/b")) {
-			remove(MessageElement.BOLD);
-			pos += 2;
-		} else if (s.equals("i")) {
-			add(new MessageElement(MessageElement.ITALIC));
-			pos++;
-		} else if (s.equals("/i")) {
-			remove(MessageElement.ITALIC);
-			pos += 2;
-		} else if (s.equals("u")) {
-			add(new MessageElement(MessageElement.UNDERLINE));
-			pos++;
-		} else if (s.equals("/u")) {
-			remove(MessageElement.UNDERLINE);
-			pos += 2;
+		int type = whichStyle(m, start, end);
+		if (type > MessageElement.ROOT) {
+			add(stack, type);
+			return end + 1;
+		}
+		if (end - start == 2 && m.charAt(start) == '/') {
+			type = whichStyle(m, start + 1, end);
+			if (type > MessageElement.ROOT) {
+				remove(stack, type);
+				return end + 1;
+			}
 		}
 		// Is this a /colour name? ie. </red> </blue> ...etc...
-		else if (s.length() > 1 && s.charAt(0) == '/') {
-			int i2 = MessageElement.whichColourName(s.substring(1));
-			if (i2 >= 0)
-				remove(MessageElement.COLOUR_NAME, i2);
-			pos = end;
+		if (end - start > 1 && m.charAt(start) == '/') {
+			colour = whichColourName(m, start + 1, end);
+			if (colour >= 0)
+				remove(stack, MessageElement.COLOUR_NAME, colour);
+			return end + 1;
 		}
 		// <#rrggbb> ?
-		else if (s.startsWith("#")) {
-			add(new MessageElement(MessageElement.COLOUR_ABS, s.substring(1)));
-			pos += 7;
-		} else {
-			// If we fail to identify the tag, put it out as text. We've
-			// already swallowed the opening '<', so add that to the start
-			// of the new out buffer and let the parser pick up from the
-			// next character. (Unswallow last character!)
-			out.append('<');
-			pos--;
+		if (end > start && m.charAt(start) == '#') {
+			add(stack, MessageElement.COLOUR_ABS);
+			return start + 8;
 		}
+		// If we fail to identify the tag, put it out as text and let the
+		// parser pick up from the next character.
+		text.append('<');
+		return start;
 	}
 
 	/**
-	 * Stack ops
+	 * Stack ops, which do nothing when decoding to text
 	 */
-	private void add(MessageElement s) {
-		stack.peek().addChild(s); // Add to current element
-		stack.push(s); // Become current element
+	private static void add(List<MessageElement> stack, int type) {
+		if (stack != null)
+			add(stack, new MessageElement(type));
+	}
+
+	private static void add(List<MessageElement> stack, MessageElement s) {
+		stack.get(stack.size() - 1).addChild(s); // Add to current element
+		stack.add(s); // Become current element
 	}
 
-	private void remove(int type) {
-		if (stack.size() > 1) {
-			MessageElement me = stack.pop();
+	private static void remove(List<MessageElement> stack, int type) {
+		if (stack != null && stack.size() > 1) {
+			MessageElement me = stack.remove(stack.size() - 1);
 			while (me.type != type && stack.size() > 1) {
-				me = stack.pop();
+				me = stack.remove(stack.size() - 1);
 			}
 		}
 	}
 
-	private void remove(int type, int col) {
-		if (stack.size() > 1) {
-			MessageElement me = stack.pop();
+	private static void remove(List<MessageElement> stack, int type, int col) {
+		if (stack != null && stack.size() > 1) {
+			MessageElement me = stack.remove(stack.size() - 1);
 			while ((me.type != type || !me.colourEquals(col)) && stack.size() > 1) {
-				me = stack.pop();
+				me = stack.remove(stack.size() - 1);
 			}
 		}
 	}
 
-	private void addText() {
-		if (out.length() > 0) {
-			MessageElement me = stack.peek();
-			MessageElement me2 = new MessageElement(MessageElement.TEXT, out.toString());
-			me.addChild(me2);
-			out = new StringBuffer();
+	private static void addText(StringBuilder text, List<MessageElement> stack) {
+		if (stack != null && text.length() > 0) {
+			MessageElement me = stack.get(stack.size() - 1);
+			me.addChild(new MessageElement(MessageElement.TEXT, text.toString()));
+			text.setLength(0);
 		}
 	}
 
 	/**
 	 * Low level util methods
 	 */
-	private boolean startsWith(String s) {
+	private static boolean isPlain(String m) {
+		return nextMarkup(m, 0) == m.length();
+	}
+
+	private static int nextMarkup(String m, int pos) {
+		int length = m.length();
+		while (pos < length) {
+			char c = m.charAt(pos);
+			if (c == '<' || c == ESC)
+				return pos;
+			pos++;
+		}
+		return length;
+	}
+
+	/**
+	 * Case insensitive match of a lower case tag
+	 */
+	private static boolean startsWith(String m, int pos, String s) {
+		if (pos + s.length() > m.length())
+			return false;
 		for (int i = 0; i < s.length(); i++) {
-			// Exit if we run out of msg half way through a successful match
-			if (pos + i >= msg.length)
-				return false;
-			// Otherwise, check next char in pattern
-			char c = msg[pos + i];
+			char c = m.charAt(pos + i);
 			if (c >= 'A' && c <= 'Z')
-				c = Character.toLowerCase(c);
+				c = (char) (c + ('a' - 'A'));
 			if (c != s.charAt(i))
 				return false;
 		}
 		return true;
 	}
 
-	private int nextNonLiteral(char t) {
+	private static boolean equalsTag(String m, int start, int end, String s) {
+		return end - start == s.length() && m.regionMatches(true, start, s, 0, s.length());
+	}
+
+	private static int whichColourName(String m, int start, int end) {
+		for (int i = 0; i < MessageElement.COLOUR_INDEXES.length; i++) {
+			if (equalsTag(m, start, end, MessageElement.COLOUR_INDEXES[i]))
+				return i;
+		}
+		return -1;
+	}
+
+	private static int whichStyle(String m, int start, int end) {
+		if (end - start != 1)
+			return MessageElement.ROOT;
+		switch (m.charAt(start)) {
+			case 'b':
+			case 'B':
+				return MessageElement.BOLD;
+			case 'i':
+			case 'I':
+				return MessageElement.ITALIC;
+			case 'u':
+			case 'U':
+				return MessageElement.UNDERLINE;
+			default:
+				return MessageElement.ROOT;
+		}
+	}
+
+	private static int nextNonLiteral(String m, int pos, char t) {
 		boolean literal = false;
+		int length = m.length();
 		int p = pos;
-		while (p < msg.length && (msg[p] != t || literal)) {
-			if (msg[p] == '\"')
+		while (p < length) {
+			char c = m.charAt(p);
+			if (c == t && !literal)
+				break;
+			if (c == '\"')
 				literal = !literal;
 			p++;
 		}
@@ -71,14 +71,6 @@ public class MessageElement {
 	/**
 	 * Utility methods
 	 */
-	static int whichColourName(String n) {
-		for (int i = 0; i < COLOUR_INDEXES.length; i++) {
-			if (n.equals(COLOUR_INDEXES[i]))
-				return i;
-		}
-		return -1;
-	}
-
 	boolean colourEquals(int i) {
 		return (colour == i);
 	}
@@ -94,12 +86,12 @@ public class MessageElement {
 	 * Translate to plain text
 	 */
 	public String toText() {
-		final StringBuffer sb = new StringBuffer();
+		final StringBuilder sb = new StringBuilder();
 		toText(sb);
 		return sb.toString();
 	}
 
-	private void toText(StringBuffer sb) {
+	private void toText(StringBuilder sb) {
 		if (type == TEXT)
 			sb.append(text);
 		for (MessageElement sc : children) {
@@ -0,0 +1,163 @@
+package org.openymsg.message;
+
+import org.openymsg.YahooContact;
+
+/**
+ * Remembers the most recent incoming messages by sender and message id, so a message that yahoo delivers again can be
+ * recognized. Holds a fixed number of entries for a limited time. Entries are 64 bit hashes kept in a ring of
+ * primitive arrays, indexed by an open addressing table, so no object is allocated per message. Two different
+ * messages that hash the same would be taken as duplicates; with 64 bit hashes and a few thousand entries this is not
+ * expected to happen.
+ * @author neilhart
+ */
+public class MessageDeduplicator {
+	/** default number of remembered messages */
+	public static final int DEFAULT_SIZE = 1024;
+	/** default milliseconds a message is remembered */
+	public static final long DEFAULT_WINDOW = 10 * 60 * 1000L;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private final long window;
+	/** hash of each remembered message, in arrival order */
+	private final long[] hashes;
+	/** arrival time of each remembered message */
+	private final long[] times;
+	/** ring position + 1 of the message hashed to each slot, 0 for an empty slot */
+	private final int[] table;
+	private final int mask;
+	/** next ring position to write */
+	private int next = 0;
+	/** number of remembered messages */
+	private int size = 0;
+
+	/**
+	 * Create a deduplicator with the default size and window
+	 */
+	public MessageDeduplicator() {
+		this(DEFAULT_SIZE, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Create a deduplicator
+	 * @param size number of remembered messages
+	 * @param window milliseconds a message is remembered
+	 */
+	public MessageDeduplicator(int size, long window) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be positive");
+		}
+		if (window < 1) {
+			throw new IllegalArgumentException("window must be positive");
+		}
+		this.window = window;
+		this.hashes = new long[size];
+		this.times = new long[size];
+		// at most half full
+		int tableSize = Integer.highestOneBit(size) << 2;
+		this.table = new int[tableSize];
+		this.mask = tableSize - 1;
+	}
+
+	/**
+	 * Check if the message was seen within the window, and remember it
+	 * @param contact sender
+	 * @param messageId message id from the sender
+	 * @return true if the message was already seen
+	 */
+	public synchronized boolean isDuplicate(YahooContact contact, String messageId) {
+		if (contact == null) {
+			throw new IllegalArgumentException("contact cannot be null");
+		}
+		if (messageId == null) {
+			throw new IllegalArgumentException("messageId cannot be null");
+		}
+		long hash = hash(contact, messageId);
+		long now = now();
+		int slot = find(hash);
+		if (slot >= 0) {
+			int position = this.table[slot] - 1;
+			boolean duplicate = now - this.times[position] < this.window;
+			this.times[position] = now;
+			return duplicate;
+		}
+		if (this.size == this.hashes.length) {
+			// forget the oldest
+			removeSlot(find(this.hashes[this.next]));
+		} else {
+			this.size++;
+		}
+		this.hashes[this.next] = hash;
+		this.times[this.next] = now;
+		insert(hash, this.next);
+		this.next = (this.next + 1) % this.hashes.length;
+		return false;
+	}
+
+	/**
+	 * Current time, in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	private int find(long hash) {
+		int slot = home(hash);
+		while (this.table[slot] != 0) {
+			if (this.hashes[this.table[slot] - 1] == hash) {
+				return slot;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		return -1;
+	}
+
+	private void insert(long hash, int position) {
+		int slot = home(hash);
+		while (this.table[slot] != 0) {
+			slot = (slot + 1) & this.mask;
+		}
+		this.table[slot] = position + 1;
+	}
+
+	/**
+	 * Empty a slot, moving later entries of the probe sequence back so lookups don't stop early
+	 */
+	private void removeSlot(int slot) {
+		int empty = slot;
+		this.table[empty] = 0;
+		int current = empty;
+		while (true) {
+			current = (current + 1) & this.mask;
+			if (this.table[current] == 0) {
+				return;
+			}
+			int home = home(this.hashes[this.table[current] - 1]);
+			// the entry can stay if its home is cyclically within (empty, current]
+			boolean stays = empty <= current ? empty < home && home <= current : empty < home || home <= current;
+			if (!stays) {
+				this.table[empty] = this.table[current];
+				this.table[current] = 0;
+				empty = current;
+			}
+		}
+	}
+
+	private int home(long hash) {
+		return (int) (hash ^ (hash >>> 32)) & this.mask;
+	}
+
+	private static long hash(YahooContact contact, String messageId) {
+		long hash = FNV_OFFSET;
+		hash = hash(hash, contact.getName());
+		hash = (hash ^ contact.getProtocol().ordinal()) * FNV_PRIME;
+		return hash(hash, messageId);
+	}
+
+	private static long hash(long hash, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+		}
+		// separate the fields
+		return (hash ^ 0xffff) * FNV_PRIME;
+	}
+}
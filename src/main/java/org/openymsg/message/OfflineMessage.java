@@ -0,0 +1,43 @@
+package org.openymsg.message;
+
+import org.openymsg.YahooContact;
+
+/**
+ * Message that was sent while the user was off-line
+ * @author neilhart
+ */
+public class OfflineMessage {
+	private final YahooContact from;
+	private final String message;
+	private final long timestampInMillis;
+
+	public OfflineMessage(YahooContact from, String message, long timestampInMillis) {
+		if (from == null) {
+			throw new IllegalArgumentException("from cannot be null");
+		}
+		this.from = from;
+		this.message = message;
+		this.timestampInMillis = timestampInMillis;
+	}
+
+	public YahooContact getFrom() {
+		return this.from;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+
+	/**
+	 * original time stamp of the message
+	 */
+	public long getTimestampInMillis() {
+		return this.timestampInMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "OfflineMessage [from=" + from + ", timestampInMillis=" + timestampInMillis + ", message=" + message
+				+ "]";
+	}
+}
@@ -0,0 +1,126 @@
+package org.openymsg.message;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openymsg.execute.dispatch.Dispatcher;
+import org.openymsg.execute.dispatch.Request;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the off-line messages that yahoo sends at login, which may span several packets. The messages are
+ * delivered together once the collection window after the first message has passed. When the batch reaches its
+ * maximum size, the collected messages are delivered right away, and collecting starts over.
+ * @author neilhart
+ */
+class OfflineMessageCollector {
+	/** logger */
+	private static final Log log = LogFactory.getLog(OfflineMessageCollector.class);
+	/** default milliseconds to collect after the first message */
+	static final long DEFAULT_WINDOW = 1000;
+	/** default maximum messages in a batch */
+	static final int DEFAULT_MAXIMUM_SIZE = 500;
+	private static final Comparator<OfflineMessage> BY_TIMESTAMP = new Comparator<OfflineMessage>() {
+		@Override
+		public int compare(OfflineMessage o1, OfflineMessage o2) {
+			long t1 = o1.getTimestampInMillis();
+			long t2 = o2.getTimestampInMillis();
+			return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+		}
+	};
+	private final SessionMessageImpl session;
+	private final Dispatcher dispatcher;
+	private final long window;
+	private final int maximumSize;
+	/** guarded by this */
+	private List<OfflineMessage> messages = new ArrayList<OfflineMessage>();
+	/** guarded by this, a delivery is scheduled for the current batch */
+	private boolean scheduled = false;
+
+	OfflineMessageCollector(SessionMessageImpl session, Dispatcher dispatcher) {
+		this(session, dispatcher, DEFAULT_WINDOW, DEFAULT_MAXIMUM_SIZE);
+	}
+
+	OfflineMessageCollector(SessionMessageImpl session, Dispatcher dispatcher, long window, int maximumSize) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("maximumSize must be positive");
+		}
+		this.session = session;
+		this.dispatcher = dispatcher;
+		this.window = window;
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Add a message to the current batch
+	 * @param message off-line message
+	 */
+	void add(OfflineMessage message) {
+		List<OfflineMessage> full = null;
+		boolean schedule = false;
+		synchronized (this) {
+			this.messages.add(message);
+			if (this.messages.size() >= this.maximumSize) {
+				full = take();
+			} else if (!this.scheduled) {
+				this.scheduled = true;
+				schedule = true;
+			}
+		}
+		if (full != null) {
+			log.debug("Offline message batch is full, delivering: " + full.size());
+			deliver(full);
+		} else if (schedule) {
+			try {
+				this.dispatcher.scheduleOnce(new DeliverRequest(), this.window);
+			} catch (IllegalStateException e) {
+				log.debug("Cannot schedule offline message delivery, delivering now");
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Deliver the current batch, if there is one
+	 */
+	void flush() {
+		List<OfflineMessage> batch;
+		synchronized (this) {
+			batch = take();
+		}
+		if (!batch.isEmpty()) {
+			deliver(batch);
+		}
+	}
+
+	/**
+	 * Start a new batch, the old one must be delivered
+	 */
+	private List<OfflineMessage> take() {
+		List<OfflineMessage> batch = this.messages;
+		this.messages = new ArrayList<OfflineMessage>();
+		this.scheduled = false;
+		return batch;
+	}
+
+	private void deliver(List<OfflineMessage> batch) {
+		// stable, so messages with the same time stamp stay in packet order
+		Collections.sort(batch, BY_TIMESTAMP);
+		this.session.receivedOfflineMessages(Collections.unmodifiableList(batch));
+	}
+
+	private class DeliverRequest implements Request {
+		@Override
+		public void execute() {
+			flush();
+		}
+
+		@Override
+		public void failure(Exception ex) {
+			log.error("Failed delivering offline messages", ex);
+		}
+	}
+}
@@ -1,16 +1,23 @@
 package org.openymsg.message;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.openymsg.YahooContact;
 import org.openymsg.connection.YahooConnection;
 import org.openymsg.connection.read.NoOpResponse;
+import org.openymsg.execute.dispatch.Dispatcher;
 import org.openymsg.network.ServiceType;
 
+import java.util.List;
+
 /**
  * //TODO add top javadoc * Incoming messages and typing notifications will be forwarded onto the callback. This service
  * also handles creating the message number sent to yahoo and ack'ing incoming messages back to yahoo.
  * @author neilhart
  */
 public class SessionMessageImpl implements SessionMessage {
+	/** logger */
+	private static final Log log = LogFactory.getLog(SessionMessageImpl.class);
 	/** buzz messsage */
 	public final static String BUZZ = "<ding>";
 	/** blank message number format */
@@ -24,6 +31,10 @@ public class SessionMessageImpl implements SessionMessage {
 	private long messageNumber = System.currentTimeMillis();
 	/** callback for incoming messages and notifications */
 	private SessionMessageCallback callback;
+	/** recognizes redelivered messages, null to deliver every message */
+	private MessageDeduplicator deduplicator;
+	/** collects off-line messages into batches, null to deliver them one at a time */
+	private OfflineMessageCollector offlineMessages;
 
 	/**
 	 * Creates the manager for sending and receiving messages and typing notification
@@ -34,6 +45,36 @@ public class SessionMessageImpl implements SessionMessage {
 	 */
 	public SessionMessageImpl(YahooConnection connection, String username, SessionMessageCallback callback)
 			throws IllegalArgumentException {
+		this(connection, username, callback, null);
+	}
+
+	/**
+	 * Creates the manager for sending and receiving messages and typing notification. Redelivered messages are ack'ed
+	 * but not passed to the callback again.
+	 * @param connection connection to yahoo
+	 * @param username user name
+	 * @param callback callback for notification of message and typing
+	 * @param deduplicator recognizes redelivered messages, null to deliver every message
+	 * @throws IllegalArgumentException if executor, user name, or callback is null
+	 */
+	public SessionMessageImpl(YahooConnection connection, String username, SessionMessageCallback callback,
+			MessageDeduplicator deduplicator) throws IllegalArgumentException {
+		this(connection, username, callback, deduplicator, null);
+	}
+
+	/**
+	 * Creates the manager for sending and receiving messages and typing notification. Off-line messages are collected
+	 * and delivered in batches, sorted by time stamp, when the callback is a
+	 * {@link SessionOfflineMessageBatchCallback}; other callbacks get each one as it arrives.
+	 * @param connection connection to yahoo
+	 * @param username user name
+	 * @param callback callback for notification of message and typing
+	 * @param deduplicator recognizes redelivered messages, null to deliver every message
+	 * @param dispatcher schedules delivery of off-line message batches, null to deliver them one at a time
+	 * @throws IllegalArgumentException if executor, user name, or callback is null
+	 */
+	public SessionMessageImpl(YahooConnection connection, String username, SessionMessageCallback callback,
+			MessageDeduplicator deduplicator, Dispatcher dispatcher) throws IllegalArgumentException {
 		if (connection == null) {
 			throw new IllegalArgumentException("connection cannot be null");
 		}
@@ -46,6 +87,10 @@ public class SessionMessageImpl implements SessionMessage {
 		this.connection = connection;
 		this.username = username;
 		this.callback = callback;
+		this.deduplicator = deduplicator;
+		if (dispatcher != null && callback instanceof SessionOfflineMessageBatchCallback) {
+			this.offlineMessages = new OfflineMessageCollector(this, dispatcher);
+		}
 		this.connection.register(ServiceType.MESSAGE_ACK, new NoOpResponse());
 		this.connection.register(ServiceType.MESSAGE, new MessageResponse(this));
 		this.connection.register(ServiceType.NOTIFY, new TypingNotificationResponse(this));
@@ -83,6 +128,9 @@ public class SessionMessageImpl implements SessionMessage {
 		if (messageId != null) {
 			this.connection.execute(new MessageAckMessage(username, contact, messageId));
 		}
+		if (isDuplicate(contact, messageId)) {
+			return;
+		}
 		this.callback.receivedMessage(contact, message);
 	}
 
@@ -91,21 +139,52 @@ public class SessionMessageImpl implements SessionMessage {
 		if (messageId != null) {
 			this.connection.execute(new MessageAckMessage(username, contact, messageId));
 		}
+		if (isDuplicate(contact, messageId)) {
+			return;
+		}
 		this.callback.receivedBuzz(contact);
 	}
 
 	public void receivedOfflineMessage(YahooContact contact, String message, long timestampInMillis) {
 		if (timestampInMillis == 0) {
 			this.callback.receivedMessage(contact, message);
+		} else if (this.offlineMessages != null) {
+			this.offlineMessages.add(new OfflineMessage(contact, message, timestampInMillis));
 		} else {
 			this.callback.receivedOfflineMessage(contact, message, timestampInMillis);
 		}
 	}
 
+	/**
+	 * Deliver a batch of off-line messages, in one call if the callback takes batches
+	 * @param messages messages sorted by time stamp
+	 */
+	void receivedOfflineMessages(List<OfflineMessage> messages) {
+		if (this.callback instanceof SessionOfflineMessageBatchCallback) {
+			((SessionOfflineMessageBatchCallback) this.callback).receivedOfflineMessages(messages);
+		} else {
+			for (OfflineMessage message : messages) {
+				this.callback.receivedOfflineMessage(message.getFrom(), message.getMessage(),
+						message.getTimestampInMillis());
+			}
+		}
+	}
+
 	public void receivedTypingNotification(YahooContact contact, boolean isTyping) {
 		this.callback.receivedTypingNotification(contact, isTyping);
 	}
 
+	private boolean isDuplicate(YahooContact contact, String messageId) {
+		if (this.deduplicator == null || messageId == null) {
+			return false;
+		}
+		if (this.deduplicator.isDuplicate(contact, messageId)) {
+			log.debug("Dropping redelivered message: " + messageId + " from: " + contact);
+			return true;
+		}
+		return false;
+	}
+
 	protected String buildMessageNumber() {
 		String messageNumber = "" + this.messageNumber++;
 		messageNumber =
@@ -0,0 +1,17 @@
+package org.openymsg.message;
+
+import java.util.List;
+
+/**
+ * Optional callback for off-line messages delivered in batches. If the YahooSessionCallback also implements this
+ * interface, the off-line messages received at login are delivered together, oldest first, instead of one
+ * receivedOfflineMessage call per message.
+ * @author neilhart
+ */
+public interface SessionOfflineMessageBatchCallback {
+	/**
+	 * Off-line messages received together
+	 * @param messages immutable list of messages, sorted by time stamp
+	 */
+	void receivedOfflineMessages(List<OfflineMessage> messages);
+}
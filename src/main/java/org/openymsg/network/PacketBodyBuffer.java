@@ -63,6 +63,15 @@ public class PacketBodyBuffer {
 		addString(value);
 	}
 
+	/**
+	 * Add key/value pairs that were already encoded, such as the buffer of another PacketBodyBuffer. Note: this method
+	 * is NOT thread safe.
+	 * @param encoded encoded key/value pairs, each field ended with a separator
+	 */
+	public void addEncoded(byte[] encoded) {
+		baos.write(encoded, 0, encoded.length);
+	}
+
 	/**
 	 * Return buffer as byte array. Note: this method is NOT thread safe.
 	 */
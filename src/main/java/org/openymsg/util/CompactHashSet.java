@@ -0,0 +1,219 @@
+package org.openymsg.util;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash set keeping its elements in a single array, probed linearly from the hash of each element, instead of wrapping
+ * every element in an entry object as HashSet does. It takes a fraction of the memory of a HashSet, which adds up for
+ * the contact lists of very large rosters. Null elements are not supported, iterators do not support removal, and the
+ * set is not thread safe.
+ * @author neilhart
+ */
+public class CompactHashSet<T> extends AbstractSet<T> {
+	private static final int MINIMUM_CAPACITY = 8;
+	/** elements at or after the slot their hash points to, length is a power of two */
+	private Object[] table;
+	private int size;
+	private int modifications;
+
+	public CompactHashSet() {
+		this.table = new Object[MINIMUM_CAPACITY];
+	}
+
+	/**
+	 * @param expectedSize number of elements the set is sized for
+	 */
+	public CompactHashSet(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize cannot be negative");
+		}
+		this.table = new Object[capacity(expectedSize)];
+	}
+
+	/**
+	 * @param elements elements of the new set, copied without rehashing if they are a CompactHashSet
+	 */
+	public CompactHashSet(Collection<? extends T> elements) {
+		if (elements == null) {
+			throw new IllegalArgumentException("elements cannot be null");
+		}
+		if (elements instanceof CompactHashSet) {
+			CompactHashSet<?> other = (CompactHashSet<?>) elements;
+			this.table = other.table.clone();
+			this.size = other.size;
+		} else {
+			this.table = new Object[capacity(elements.size())];
+			addAll(elements);
+		}
+	}
+
+	@Override
+	public boolean add(T element) {
+		if (element == null) {
+			throw new IllegalArgumentException("element cannot be null");
+		}
+		int index = index(this.table, element);
+		if (this.table[index] != null) {
+			return false;
+		}
+		if ((this.size + 1) * 4 > this.table.length * 3) {
+			resize(this.table.length * 2);
+			index = index(this.table, element);
+		}
+		this.table[index] = element;
+		this.size++;
+		this.modifications++;
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		return element != null && this.table[index(this.table, element)] != null;
+	}
+
+	@Override
+	public boolean remove(Object element) {
+		if (element == null) {
+			return false;
+		}
+		final Object[] table = this.table;
+		final int mask = table.length - 1;
+		int gap = index(table, element);
+		if (table[gap] == null) {
+			return false;
+		}
+		// shift back the elements that probed past the removed one, so no lookup stops early at the gap
+		int i = gap;
+		while (true) {
+			i = (i + 1) & mask;
+			final Object next = table[i];
+			if (next == null) {
+				break;
+			}
+			final int home = hash(next) & mask;
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				table[gap] = next;
+				gap = i;
+			}
+		}
+		table[gap] = null;
+		this.size--;
+		this.modifications++;
+		return true;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> elements) {
+		boolean changed = false;
+		for (Object element : elements) {
+			changed |= remove(element);
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> elements) {
+		final List<Object> removed = new ArrayList<Object>();
+		for (Object element : this.table) {
+			if (element != null && !elements.contains(element)) {
+				removed.add(element);
+			}
+		}
+		return removeAll(removed);
+	}
+
+	@Override
+	public void clear() {
+		if (this.size > 0) {
+			this.table = new Object[MINIMUM_CAPACITY];
+			this.size = 0;
+			this.modifications++;
+		}
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private final Object[] table = CompactHashSet.this.table;
+			private final int modifications = CompactHashSet.this.modifications;
+			private int index = 0;
+			private int remaining = CompactHashSet.this.size;
+
+			@Override
+			public boolean hasNext() {
+				return this.remaining > 0;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public T next() {
+				if (this.modifications != CompactHashSet.this.modifications) {
+					throw new ConcurrentModificationException();
+				}
+				if (this.remaining == 0) {
+					throw new NoSuchElementException();
+				}
+				while (this.table[this.index] == null) {
+					this.index++;
+				}
+				this.remaining--;
+				return (T) this.table[this.index++];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private void resize(int capacity) {
+		final Object[] old = this.table;
+		this.table = new Object[capacity];
+		for (Object element : old) {
+			if (element != null) {
+				this.table[index(this.table, element)] = element;
+			}
+		}
+	}
+
+	/**
+	 * Slot holding the element, or the empty slot where it belongs
+	 */
+	private static int index(Object[] table, Object element) {
+		final int mask = table.length - 1;
+		int i = hash(element) & mask;
+		Object current;
+		while ((current = table[i]) != null && !current.equals(element)) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Spreads the hash code, so elements with neighbouring hash codes do not pile up in neighbouring slots
+	 */
+	private static int hash(Object element) {
+		final int h = element.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int capacity(int expectedSize) {
+		int capacity = MINIMUM_CAPACITY;
+		while (capacity * 3 < expectedSize * 4) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}
@@ -0,0 +1,75 @@
+package org.openymsg.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shares one instance among equal strings, such as the group names and status messages many contacts of a large roster
+ * have in common. Strings are held by weak reference, so an entry only lives as long as something else holds the
+ * string, and the strings of rosters that are gone do not stay pinned in the pool. The pool is bounded; once full,
+ * strings it does not hold yet are returned as they are until collected entries free up room.
+ * @author neilhart
+ */
+public class StringPool {
+	/** default maximum number of pooled strings */
+	public static final int DEFAULT_MAXIMUM_STRINGS = 10000;
+	/** pool shared across sessions */
+	private static final StringPool shared = new StringPool();
+	private final int maximumStrings;
+	/** pooled strings, the key and the value are the same instance */
+	private final Map<String, WeakReference<String>> strings = new WeakHashMap<String, WeakReference<String>>();
+
+	/**
+	 * Create a pool with the default maximum size
+	 */
+	public StringPool() {
+		this(DEFAULT_MAXIMUM_STRINGS);
+	}
+
+	/**
+	 * @param maximumStrings maximum number of distinct strings held
+	 */
+	public StringPool(int maximumStrings) {
+		if (maximumStrings < 1) {
+			throw new IllegalArgumentException("maximumStrings must be positive");
+		}
+		this.maximumStrings = maximumStrings;
+	}
+
+	/**
+	 * Pool shared by all sessions
+	 */
+	public static StringPool getShared() {
+		return shared;
+	}
+
+	/**
+	 * Get the pooled instance of a string
+	 * @param value string to share, may be null
+	 * @return an equal string held by the pool, or the value itself
+	 */
+	public synchronized String share(String value) {
+		if (value == null) {
+			return null;
+		}
+		WeakReference<String> reference = this.strings.get(value);
+		if (reference != null) {
+			String pooled = reference.get();
+			if (pooled != null) {
+				return pooled;
+			}
+		}
+		if (reference != null || this.strings.size() < this.maximumStrings) {
+			this.strings.put(value, new WeakReference<String>(value));
+		}
+		return value;
+	}
+
+	/**
+	 * Number of distinct strings held, including strings that are collected but not yet expunged
+	 */
+	public synchronized int size() {
+		return this.strings.size();
+	}
+}
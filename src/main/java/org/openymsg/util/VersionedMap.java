@@ -0,0 +1,78 @@
+package org.openymsg.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent map whose values are handed out as an immutable snapshot, built at most once per change. The version is
+ * bumped by every change.
+ * @author neilhart
+ * @see VersionedSet
+ */
+public class VersionedMap<K, V> {
+	private final Map<K, V> entries = new ConcurrentHashMap<K, V>();
+	/** immutable copy of the values, null after a change */
+	private volatile Set<V> snapshot = Collections.emptySet();
+	private volatile long version = 0;
+
+	public V get(K key) {
+		return this.entries.get(key);
+	}
+
+	public boolean containsKey(K key) {
+		return this.entries.containsKey(key);
+	}
+
+	public synchronized V put(K key, V value) {
+		V previous = this.entries.put(key, value);
+		if (previous != value) {
+			changed();
+		}
+		return previous;
+	}
+
+	public synchronized V remove(K key) {
+		V previous = this.entries.remove(key);
+		if (previous != null) {
+			changed();
+		}
+		return previous;
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Immutable snapshot of the current values. The same instance is returned until the map changes.
+	 * @return current values
+	 */
+	public Set<V> getValues() {
+		Set<V> current = this.snapshot;
+		if (current != null) {
+			return current;
+		}
+		synchronized (this) {
+			if (this.snapshot == null) {
+				this.snapshot = Collections.unmodifiableSet(new HashSet<V>(this.entries.values()));
+			}
+			return this.snapshot;
+		}
+	}
+
+	/**
+	 * Number of changes made to the map
+	 * @return version
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	private void changed() {
+		this.snapshot = null;
+		this.version++;
+	}
+}
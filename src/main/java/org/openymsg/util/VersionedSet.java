@@ -0,0 +1,91 @@
+package org.openymsg.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Set that hands out immutable snapshots instead of copies. A snapshot is built at most once per change and then
+ * shared by every reader until the next change, so reading an unchanged set costs nothing. The version is bumped by
+ * every change, so a caller holding an older version knows its snapshot is stale.
+ * <p>
+ * Elements and snapshots are kept in {@link CompactHashSet}s, so null elements are not supported.
+ * @author neilhart
+ */
+public class VersionedSet<T> {
+	/** guarded by this */
+	private final Set<T> elements = new CompactHashSet<T>();
+	/** immutable copy of elements, null after a change */
+	private volatile Set<T> snapshot = Collections.emptySet();
+	private volatile long version = 0;
+
+	public synchronized boolean add(T element) {
+		if (this.elements.add(element)) {
+			changed();
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized boolean addAll(Collection<? extends T> elements) {
+		if (this.elements.addAll(elements)) {
+			changed();
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized boolean remove(T element) {
+		if (this.elements.remove(element)) {
+			changed();
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized void clear() {
+		if (!this.elements.isEmpty()) {
+			this.elements.clear();
+			changed();
+		}
+	}
+
+	public synchronized boolean contains(T element) {
+		return this.elements.contains(element);
+	}
+
+	/**
+	 * Immutable snapshot of the current elements. The same instance is returned until the set changes.
+	 * @return current elements
+	 */
+	public Set<T> getSnapshot() {
+		Set<T> current = this.snapshot;
+		if (current != null) {
+			return current;
+		}
+		synchronized (this) {
+			if (this.snapshot == null) {
+				this.snapshot = Collections.unmodifiableSet(new CompactHashSet<T>(this.elements));
+			}
+			return this.snapshot;
+		}
+	}
+
+	/**
+	 * Number of changes made to the set
+	 * @return version
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	private void changed() {
+		this.snapshot = null;
+		this.version++;
+	}
+
+	@Override
+	public String toString() {
+		return getSnapshot().toString();
+	}
+}
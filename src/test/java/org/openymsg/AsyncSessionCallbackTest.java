@@ -0,0 +1,208 @@
+package org.openymsg;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
+import org.openymsg.message.OfflineMessage;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+public class AsyncSessionCallbackTest {
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+	private YahooSessionCallback callback;
+	private QueuedExecutor executor;
+	private YahooContact contact = new YahooContact("testuser", YahooProtocol.YAHOO);
+
+	@Before
+	public void beforeMethod() {
+		callback = mock(YahooSessionCallback.class);
+		executor = new QueuedExecutor();
+	}
+
+	@Test
+	public void testDeliveredInOrder() {
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, executor, 10, CallbackOverflowPolicy.BLOCK);
+		async.connectionSuccessful();
+		async.receivedMessage(contact, "one");
+		async.receivedMessage(contact, "two");
+		verify(callback, never()).connectionSuccessful();
+		assertEquals(3, async.getQueueSize());
+		assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		InOrder inOrder = inOrder(callback);
+		inOrder.verify(callback).connectionSuccessful();
+		inOrder.verify(callback).receivedMessage(contact, "one");
+		inOrder.verify(callback).receivedMessage(contact, "two");
+		assertEquals(0, async.getQueueSize());
+		assertEquals(3, async.getDelivered());
+		assertEquals(0, async.getLag());
+	}
+
+	@Test
+	public void testDropNewest() {
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, executor, 2,
+				CallbackOverflowPolicy.DROP_NEWEST);
+		async.receivedMessage(contact, "one");
+		async.receivedMessage(contact, "two");
+		async.receivedMessage(contact, "three");
+		async.logoffNormalComplete();
+		assertEquals(1, async.getDropped());
+		executor.runAll();
+		verify(callback).receivedMessage(contact, "one");
+		verify(callback).receivedMessage(contact, "two");
+		verify(callback, never()).receivedMessage(contact, "three");
+		verify(callback).logoffNormalComplete();
+	}
+
+	@Test
+	public void testDropOldest() {
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, executor, 2,
+				CallbackOverflowPolicy.DROP_OLDEST);
+		async.authenticationSuccess();
+		async.receivedMessage(contact, "one");
+		async.receivedMessage(contact, "two");
+		assertEquals(1, async.getDropped());
+		executor.runAll();
+		InOrder inOrder = inOrder(callback);
+		inOrder.verify(callback).authenticationSuccess();
+		inOrder.verify(callback).receivedMessage(contact, "two");
+		verify(callback, never()).receivedMessage(contact, "one");
+	}
+
+	@Test
+	public void testBlockWaitsForRoom() {
+		Executor threads = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				new Thread(command).start();
+			}
+		};
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, threads, 1, CallbackOverflowPolicy.BLOCK);
+		for (int i = 0; i < 100; i++) {
+			async.receivedMessage(contact, "" + i);
+		}
+		verify(callback, timeout(5000)).receivedMessage(contact, "99");
+		InOrder inOrder = inOrder(callback);
+		for (int i = 0; i < 100; i++) {
+			inOrder.verify(callback).receivedMessage(contact, "" + i);
+		}
+		assertEquals(0, async.getDropped());
+	}
+
+	@Test
+	public void testFailingCallbackDoesNotStopDelivery() {
+		doThrow(new IllegalStateException("test")).when(callback).receivedBuzz(contact);
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, executor, 10, CallbackOverflowPolicy.BLOCK);
+		async.receivedBuzz(contact);
+		async.receivedMessage(contact, "one");
+		executor.runAll();
+		verify(callback).receivedMessage(contact, "one");
+		assertEquals(2, async.getDelivered());
+	}
+
+	@Test
+	public void testOfflineBatchFallsBack() {
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, executor, 10, CallbackOverflowPolicy.BLOCK);
+		async.receivedOfflineMessages(Arrays.asList(new OfflineMessage(contact, "one", 1L), new OfflineMessage(contact,
+				"two", 2L)));
+		executor.runAll();
+		InOrder inOrder = inOrder(callback);
+		inOrder.verify(callback).receivedOfflineMessage(contact, "one", 1L);
+		inOrder.verify(callback).receivedOfflineMessage(contact, "two", 2L);
+	}
+
+	@Test
+	public void testDroppedBatchCountsItsEvents() {
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, executor, 1,
+				CallbackOverflowPolicy.DROP_NEWEST);
+		async.receivedMessage(contact, "one");
+		async.receivedOfflineMessages(Arrays.asList(new OfflineMessage(contact, "one", 1L), new OfflineMessage(contact,
+				"two", 2L)));
+		assertEquals(2, async.getDropped());
+	}
+
+	@Test
+	public void testRejectedDeliveryDropped() {
+		final RejectedExecutionException rejection = new RejectedExecutionException("test");
+		Executor rejecting = new Executor() {
+			private boolean reject = true;
+
+			@Override
+			public void execute(Runnable command) {
+				if (reject) {
+					reject = false;
+					throw rejection;
+				}
+				executor.execute(command);
+			}
+		};
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, rejecting, 10, CallbackOverflowPolicy.BLOCK);
+		async.receivedMessage(contact, "one");
+		assertEquals(1, async.getDropped());
+		assertEquals(0, async.getQueueSize());
+		// the next event submits again
+		async.receivedMessage(contact, "two");
+		executor.runAll();
+		verify(callback).receivedMessage(contact, "two");
+		verify(callback, never()).receivedMessage(contact, "one");
+	}
+
+	@Test
+	public void testRejectedResubmitDropped() {
+		Executor shutDown = new Executor() {
+			private int accepted = 1;
+
+			@Override
+			public void execute(Runnable command) {
+				if (accepted-- <= 0) {
+					throw new RejectedExecutionException("test");
+				}
+				executor.execute(command);
+			}
+		};
+		AsyncSessionCallback async = new AsyncSessionCallback(callback, shutDown, 100, CallbackOverflowPolicy.BLOCK);
+		for (int i = 0; i < 70; i++) {
+			async.receivedMessage(contact, "" + i);
+		}
+		executor.runAll();
+		assertEquals(64, async.getDelivered());
+		assertEquals(6, async.getDropped());
+		assertEquals(0, async.getQueueSize());
+	}
+
+	@Test
+	public void testNullCallback() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("callback cannot be null");
+		new AsyncSessionCallback(null, executor, 10, CallbackOverflowPolicy.BLOCK);
+	}
+
+	private static final class QueuedExecutor implements Executor {
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		private void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.removeFirst().run();
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.openymsg;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.openymsg.config.SessionConfig;
+import org.openymsg.connection.YahooConnection;
+import org.openymsg.connection.read.SinglePacketResponse;
+import org.openymsg.execute.ExecutorImpl;
+import org.openymsg.execute.dispatch.Request;
+import org.openymsg.message.SessionOfflineMessageBatchCallback;
+import org.openymsg.network.ServiceType;
+import org.openymsg.testing.PacketReader;
+
+import java.util.concurrent.Executor;
+
+public class SessionImplTest {
+	private static final String OFFLINE =
+			"Magic:YMSG Version:16 Length:523 Service:MESSAGE Status:OFFLINE5 SessionId:0x58fe2f  [31] [6] [32] [6] [4] [testbuddy] [5] [testuser] [14] [sending number one] [15] [1334803157] [97] [1]";
+	private YahooContact contact = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+	private YahooConnection connection = mock(YahooConnection.class);
+	private ExecutorImpl executor = mock(ExecutorImpl.class);
+
+	@Test
+	public void testOfflineMessageDeliveredRightAway() {
+		YahooSessionCallback callback = mock(YahooSessionCallback.class);
+		receiveOfflineMessage(callback);
+		verify(callback).receivedOfflineMessage(contact, "sending number one", 1334803157000L);
+		verify(executor, never()).scheduleOnce(any(Request.class), anyLong());
+	}
+
+	@Test
+	public void testOfflineMessageCollectedForBatchCallback() {
+		YahooSessionCallback callback = mock(YahooSessionCallback.class,
+				withSettings().extraInterfaces(SessionOfflineMessageBatchCallback.class));
+		receiveOfflineMessage(callback);
+		verify(callback, never()).receivedOfflineMessage(contact, "sending number one", 1334803157000L);
+		verify(executor).scheduleOnce(any(Request.class), anyLong());
+	}
+
+	@Test
+	public void testOfflineMessageDeliveredRightAwayThroughAsyncCallback() {
+		YahooSessionCallback callback = mock(YahooSessionCallback.class);
+		receiveOfflineMessage(new AsyncSessionCallback(callback, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		}, 10, CallbackOverflowPolicy.BLOCK));
+		verify(callback).receivedOfflineMessage(contact, "sending number one", 1334803157000L);
+		verify(executor, never()).scheduleOnce(any(Request.class), anyLong());
+	}
+
+	private void receiveOfflineMessage(YahooSessionCallback callback) {
+		SessionImpl session = new SessionImpl(mock(SessionConfig.class), callback) {
+			{
+				this.connection = SessionImplTest.this.connection;
+				this.executor = SessionImplTest.this.executor;
+			}
+		};
+		session.initializeSessionMessage("testuser");
+		ArgumentCaptor<SinglePacketResponse> response = ArgumentCaptor.forClass(SinglePacketResponse.class);
+		verify(connection).register(eq(ServiceType.MESSAGE), response.capture());
+		response.getValue().execute(PacketReader.readString(OFFLINE));
+	}
+}
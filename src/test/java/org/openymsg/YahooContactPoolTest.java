@@ -0,0 +1,67 @@
+package org.openymsg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class YahooContactPoolTest {
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void testSameInstance() {
+		YahooContactPool pool = new YahooContactPool();
+		YahooContact contact = pool.get("testuser", YahooProtocol.YAHOO);
+		assertSame(contact, pool.get("testuser", YahooProtocol.YAHOO));
+		assertEquals(new YahooContact("testuser", YahooProtocol.YAHOO), contact);
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void testProtocolsAreSeparate() {
+		YahooContactPool pool = new YahooContactPool();
+		YahooContact yahoo = pool.get("testuser", YahooProtocol.YAHOO);
+		YahooContact msn = pool.get("testuser", YahooProtocol.MSN);
+		assertNotSame(yahoo, msn);
+		assertEquals(YahooProtocol.MSN, msn.getProtocol());
+		assertEquals(2, pool.size());
+	}
+
+	@Test
+	public void testIntern() {
+		YahooContactPool pool = new YahooContactPool();
+		YahooContact contact = new YahooContact("testuser", YahooProtocol.LOTUS);
+		assertSame(contact, pool.intern(contact));
+		assertSame(contact, pool.intern(new YahooContact("testuser", YahooProtocol.LOTUS)));
+		assertSame(contact, pool.get("testuser", YahooProtocol.LOTUS));
+	}
+
+	@Test
+	public void testBounded() {
+		YahooContactPool pool = new YahooContactPool(1);
+		YahooContact first = pool.get("testuser1", YahooProtocol.YAHOO);
+		YahooContact second = pool.get("testuser2", YahooProtocol.YAHOO);
+		assertEquals(1, pool.size());
+		assertSame(first, pool.get("testuser1", YahooProtocol.YAHOO));
+		assertNotSame(second, pool.get("testuser2", YahooProtocol.YAHOO));
+		assertEquals(second, pool.get("testuser2", YahooProtocol.YAHOO));
+	}
+
+	@Test
+	public void testNullName() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("id cannot be null");
+		new YahooContactPool().get(null, YahooProtocol.YAHOO);
+	}
+
+	@Test
+	public void testNullProtocol() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("protocol cannot be null");
+		new YahooContactPool().get("testuser", null);
+	}
+}
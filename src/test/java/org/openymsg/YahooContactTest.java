@@ -14,7 +14,9 @@ public class YahooContactTest {
 
 	@Test
 	public void equalsContract() {
-		EqualsVerifier.forClass(YahooContact.class).verify();
+		EqualsVerifier.forClass(YahooContact.class)
+				.withCachedHashCode("hashCode", "calculateHashCode", new YahooContact("testuser", YahooProtocol.YAHOO))
+				.verify();
 	}
 
 	@Test
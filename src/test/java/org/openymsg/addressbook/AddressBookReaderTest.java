@@ -0,0 +1,88 @@
+package org.openymsg.addressbook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AddressBookReaderTest {
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void testRead() throws Exception {
+		CollectingHandler handler = new CollectingHandler();
+		String revision = new AddressBookReader().read(stream("<ab k=\"testuser\" cc=\"1\" rt=\"1364324557\">"
+				+ "<ct id=\"1\" yi=\"testbuddy1\" fn=\"Test\" ln=\"Buddy\" nn=\"tb\" li=\"Friends\"/>"
+				+ "<ct id=\"2\" lcsid=\"testbuddy2@live.com\" fn=\"Live &amp; Well\"/>"
+				+ "<ct id=\"3\" fn=\"No Id\"/></ab>"), handler);
+		assertEquals("1364324557", revision);
+		assertEquals(3, handler.contacts.size());
+		assertEquals("testbuddy1|Test|Buddy|tb|Friends", handler.contacts.get(0));
+		assertEquals("testbuddy2@live.com|Live & Well|||", handler.contacts.get(1));
+		assertEquals("|No Id|||", handler.contacts.get(2));
+	}
+
+	@Test
+	public void testRemoved() throws Exception {
+		CollectingHandler handler = new CollectingHandler();
+		new AddressBookReader().read(stream("<ab rt=\"2\"><ct yi=\"testbuddy1\" d=\"1\"/>"
+				+ "<ct yi=\"testbuddy2\" fn=\"Test\"/><ct lcsid=\"testbuddy3@live.com\" d=\"1\"/></ab>"), handler);
+		assertEquals(3, handler.contacts.size());
+		assertEquals("-testbuddy1", handler.contacts.get(0));
+		assertEquals("testbuddy2|Test|||", handler.contacts.get(1));
+		assertEquals("-testbuddy3@live.com", handler.contacts.get(2));
+	}
+
+	@Test
+	public void testNoRevision() throws Exception {
+		CollectingHandler handler = new CollectingHandler();
+		assertNull(new AddressBookReader().read(stream("<ab k=\"testuser\" cc=\"1\"></ab>"), handler));
+		assertEquals(0, handler.contacts.size());
+	}
+
+	@Test
+	public void testContactsDeliveredBeforeFailure() throws Exception {
+		CollectingHandler handler = new CollectingHandler();
+		try {
+			new AddressBookReader().read(stream("<ab><ct yi=\"testbuddy1\"/><ct yi=\"testbuddy2\"/><ct"), handler);
+		} catch (IOException e) {
+			assertEquals(2, handler.contacts.size());
+			return;
+		}
+		throw new AssertionError("expected IOException");
+	}
+
+	@Test
+	public void testNullHandler() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("handler cannot be null");
+		new AddressBookReader().read(stream("<ab/>"), null);
+	}
+
+	private InputStream stream(String xml) throws IOException {
+		return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+	}
+
+	private static final class CollectingHandler implements AddressBookReader.Handler {
+		private final List<String> contacts = new ArrayList<String>();
+
+		@Override
+		public void contact(String id, String firstName, String lastName, String nickName, String groupName) {
+			contacts.add(id + "|" + firstName + "|" + lastName + "|" + nickName + "|" + groupName);
+		}
+
+		@Override
+		public void removed(String id) {
+			contacts.add("-" + id);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.openymsg.addressbook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class AddressBookRequestTest {
+	@Test
+	public void testImport() throws Exception {
+		AddressBookRequest request = new AddressBookRequest(null, "T", "Y");
+		request.importEntries(stream("<ab rt=\"1\"><ct yi=\"testbuddy1\" fn=\"Test\"/><ct yi=\"testbuddy2\"/></ab>"));
+		AddressBook addressBook = request.getAddressBook();
+		assertEquals(2, addressBook.getEntries().size());
+		assertEquals("Test", addressBook.getEntry("testbuddy1").getFirstName());
+		assertEquals("1", addressBook.getRevision());
+	}
+
+	@Test
+	public void testChangesApplied() throws Exception {
+		AddressBook addressBook = new AddressBook();
+		AddressBookRequest request = new AddressBookRequest(null, "T", "Y", addressBook);
+		request.importEntries(stream("<ab rt=\"1\"><ct yi=\"testbuddy1\"/><ct yi=\"testbuddy2\"/></ab>"));
+		// in listing order: removed, then added back
+		request.importEntries(stream("<ab rt=\"2\"><ct yi=\"testbuddy1\" d=\"1\"/><ct yi=\"testbuddy2\" d=\"1\"/>"
+				+ "<ct yi=\"testbuddy2\" fn=\"Back\"/><ct yi=\"testbuddy3\"/></ab>"));
+		assertNull(addressBook.getEntry("testbuddy1"));
+		assertEquals("Back", addressBook.getEntry("testbuddy2").getFirstName());
+		assertEquals(2, addressBook.getEntries().size());
+		assertEquals("2", addressBook.getRevision());
+	}
+
+	@Test
+	public void testPartialImportApplied() throws Exception {
+		AddressBookRequest request = new AddressBookRequest(null, "T", "Y");
+		try {
+			request.importEntries(stream("<ab rt=\"1\"><ct yi=\"testbuddy\"/><ct"));
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(1, request.getAddressBook().getEntries().size());
+		assertNull("revision only stored for complete imports", request.getAddressBook().getRevision());
+	}
+
+	private InputStream stream(String xml) throws IOException {
+		return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+	}
+}
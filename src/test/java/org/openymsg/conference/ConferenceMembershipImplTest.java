@@ -1,13 +1,19 @@
 package org.openymsg.conference;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.openymsg.YahooContact;
 import org.openymsg.YahooProtocol;
+import org.openymsg.network.PacketBodyBuffer;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -69,4 +75,33 @@ public class ConferenceMembershipImplTest {
 		answer = membership.addLeft(contact1);
 		assertFalse(answer);
 	}
+
+	@Test
+	public void testEncodedMembers() throws IOException {
+		membership.addMember(contact2);
+		membership.addMember(contact1);
+		byte[] encoded = membership.getEncodedMembers("53");
+		PacketBodyBuffer expected = new PacketBodyBuffer();
+		expected.addElement("53", "1");
+		expected.addElement("53", "2");
+		assertArrayEquals(expected.getBuffer(), encoded);
+		assertSame(encoded, membership.getEncodedMembers("53"));
+		assertNotSame(encoded, membership.getEncodedMembers("3"));
+		membership.addLeft(contact1);
+		byte[] changed = membership.getEncodedMembers("53");
+		assertNotSame(encoded, changed);
+		expected = new PacketBodyBuffer();
+		expected.addElement("53", "2");
+		assertArrayEquals(expected.getBuffer(), changed);
+	}
+
+	@Test
+	public void testMembersSnapshot() {
+		membership.addMember(contact1);
+		Set<YahooContact> members = membership.getMembers();
+		assertSame(members, membership.getMembers());
+		membership.addMember(contact2);
+		assertEquals(1, members.size());
+		assertEquals(2, membership.getMembers().size());
+	}
 }
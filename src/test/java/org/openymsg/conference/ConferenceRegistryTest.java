@@ -0,0 +1,107 @@
+package org.openymsg.conference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openymsg.YahooConference;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooProtocol;
+
+import java.util.List;
+
+public class ConferenceRegistryTest {
+	private long now = 0;
+
+	@Test
+	public void testCapacityEvictsLeastRecentlyUsed() {
+		ConferenceRegistry registry = new ConferenceRegistry(2, 0);
+		YahooConference first = new YahooConference("1");
+		YahooConference second = new YahooConference("2");
+		registry.getOrAdd(first);
+		registry.getOrAdd(second);
+		// use the first, so the second is least recently used
+		assertNotNull(registry.get("1"));
+		registry.getOrAdd(new YahooConference("3"));
+		assertEquals(2, registry.size());
+		assertNull(registry.get("2"));
+		List<ConferenceRegistry.Eviction> evicted = registry.takeEvicted();
+		assertEquals(1, evicted.size());
+		assertSame(second, evicted.get(0).conference);
+		assertEquals(ConferenceEvictionReason.CAPACITY, evicted.get(0).reason);
+		assertTrue(registry.takeEvicted().isEmpty());
+		assertEquals(2, registry.getConferences().getValues().size());
+	}
+
+	@Test
+	public void testIdleEvicted() {
+		ConferenceRegistry registry = new TimedRegistry(10, 1000);
+		registry.getOrAdd(new YahooConference("1"));
+		now = 500;
+		registry.getOrAdd(new YahooConference("2"));
+		now = 1200;
+		assertNotNull(registry.get("2"));
+		assertNull(registry.get("1"));
+		List<ConferenceRegistry.Eviction> evicted = registry.takeEvicted();
+		assertEquals(1, evicted.size());
+		assertEquals("1", evicted.get(0).conference.getId());
+		assertEquals(ConferenceEvictionReason.IDLE, evicted.get(0).reason);
+		now = 2199;
+		assertNotNull(registry.get("2"));
+	}
+
+	@Test
+	public void testEmptyEvicted() {
+		ConferenceRegistry registry = new ConferenceRegistry(10, 0);
+		YahooContact member = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		ConferenceMembershipImpl membership = registry.getOrAdd(new YahooConference("1"));
+		membership.addMember(member);
+		registry.evictIfEmpty("1");
+		assertNotNull(registry.get("1"));
+		membership.addLeft(member);
+		registry.evictIfEmpty("1");
+		assertNull(registry.get("1"));
+		assertEquals(ConferenceEvictionReason.EMPTY, registry.takeEvicted().get(0).reason);
+	}
+
+	@Test
+	public void testInvitedKeepsConference() {
+		ConferenceRegistry registry = new ConferenceRegistry(10, 0);
+		YahooContact decliner = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		YahooContact pending = new YahooContact("testbuddy2", YahooProtocol.YAHOO);
+		ConferenceMembershipImpl membership = registry.getOrAdd(new YahooConference("1"));
+		membership.addInvited(decliner);
+		membership.addInvited(pending);
+		membership.addDecline(decliner);
+		registry.evictIfEmpty("1");
+		assertNotNull(registry.get("1"));
+		assertTrue(registry.takeEvicted().isEmpty());
+		membership.addDecline(pending);
+		registry.evictIfEmpty("1");
+		assertNull(registry.get("1"));
+	}
+
+	@Test
+	public void testRemoveNotEvicted() {
+		ConferenceRegistry registry = new ConferenceRegistry(10, 0);
+		ConferenceMembershipImpl membership = registry.getOrAdd(new YahooConference("1"));
+		assertSame(membership, registry.remove("1"));
+		assertNull(registry.remove("1"));
+		assertTrue(registry.takeEvicted().isEmpty());
+		assertTrue(registry.getConferences().getValues().isEmpty());
+	}
+
+	private class TimedRegistry extends ConferenceRegistry {
+		TimedRegistry(int maximumSize, long idleTimeout) {
+			super(maximumSize, idleTimeout);
+		}
+
+		@Override
+		protected long now() {
+			return now;
+		}
+	}
+}
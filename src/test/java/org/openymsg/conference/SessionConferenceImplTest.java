@@ -1,10 +1,13 @@
 package org.openymsg.conference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.internal.matchers.apachecommons.ReflectionEquals;
@@ -23,6 +26,8 @@ public class SessionConferenceImplTest {
 	private YahooConnection executor;
 	private SessionConferenceImpl session;
 	private SessionConferenceCallback callback;
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
 
 	@Before
 	public void beforeMethod() {
@@ -100,6 +105,11 @@ public class SessionConferenceImplTest {
 		String id = "testuser-8iVmHcCkflGJpBXpjBbzCw--";
 		YahooConference conference = new YahooConference(id);
 		YahooContact decliner = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		YahooContact invited = new YahooContact("testbuddy2", YahooProtocol.YAHOO);
+		Set<YahooContact> invitedContacts = new HashSet<YahooContact>();
+		invitedContacts.add(decliner);
+		invitedContacts.add(invited);
+		session.receivedConferenceInviteAck(conference, invitedContacts, new HashSet<YahooContact>(), null);
 		String message = "Nothankyou.";
 		session.receivedConferenceDecline(conference, decliner, message);
 		ConferenceMembership membership = session.getConferenceMembership(conference);
@@ -107,6 +117,15 @@ public class SessionConferenceImplTest {
 		Mockito.verify(callback).receivedConferenceDecline(conference, decliner, message);
 	}
 
+	@Test
+	public void testReceivedConferenceDeclineUnknown() {
+		YahooConference conference = new YahooConference("unknown");
+		YahooContact decliner = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		session.receivedConferenceDecline(conference, decliner, null);
+		assertNull(session.getConferenceMembership(conference));
+		Mockito.verify(callback).receivedConferenceDecline(conference, decliner, null);
+	}
+
 	/**
 	 * testuser receives a notice that testbuddy has invited testbuddy2 to a conference that testuser is already in
 	 * @throws IOException
@@ -197,12 +216,64 @@ public class SessionConferenceImplTest {
 		String id = "testuser-8iVmHcCkflGJpBXpjBbzCw--";
 		YahooConference conference = new YahooConference(id);
 		YahooContact leaver = new YahooContact("testbuddy2", YahooProtocol.YAHOO);
+		Set<YahooContact> members = new HashSet<YahooContact>();
+		members.add(new YahooContact("testbuddy", YahooProtocol.YAHOO));
+		members.add(leaver);
+		session.receivedConferenceInviteAck(conference, new HashSet<YahooContact>(), members, null);
 		session.receivedConferenceLeft(conference, leaver);
 		ConferenceMembership membership = session.getConferenceMembership(conference);
 		assertTrue(membership.getDeclineOrLeft().contains(leaver));
 		Mockito.verify(callback).receivedConferenceLeft(conference, leaver);
 	}
 
+	@Test
+	public void testLastMemberLeftEvicts() {
+		callback = Mockito.mock(SessionConferenceCallback.class,
+				Mockito.withSettings().extraInterfaces(SessionConferenceEvictionCallback.class));
+		session = new SessionConferenceImpl(username, executor, callback);
+		YahooConference conference = new YahooConference("id");
+		YahooContact leaver = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		Set<YahooContact> members = new HashSet<YahooContact>();
+		members.add(leaver);
+		session.receivedConferenceInviteAck(conference, new HashSet<YahooContact>(), members, null);
+		assertEquals(1, session.getConferences().size());
+		assertEquals(conference, session.getConference("id"));
+		session.receivedConferenceLeft(conference, leaver);
+		Mockito.verify(callback).receivedConferenceLeft(conference, leaver);
+		Mockito.verify((SessionConferenceEvictionCallback) callback).conferenceEvicted(conference,
+				ConferenceEvictionReason.EMPTY);
+		assertNull(session.getConferenceMembership(conference));
+		assertTrue(session.getConferences().isEmpty());
+	}
+
+	@Test
+	public void testCreatedKeptWhileInvitesPending() {
+		YahooConference conference = new YahooConference("id");
+		YahooContact decliner = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		YahooContact pending = new YahooContact("testbuddy2", YahooProtocol.YAHOO);
+		Set<YahooContact> contacts = new HashSet<YahooContact>();
+		contacts.add(decliner);
+		contacts.add(pending);
+		session.createConference("id", contacts, null);
+		assertEquals(contacts, session.getConferenceMembership(conference).getInvited());
+		session.receivedConferenceDecline(conference, decliner, null);
+		assertEquals(conference, session.getConference("id"));
+		session.sendConferenceMessage(conference, "message");
+		session.receivedConferenceDecline(conference, pending, null);
+		assertNull(session.getConferenceMembership(conference));
+	}
+
+	@Test
+	public void testLeaveRemoves() {
+		String conferenceId = "id";
+		YahooConference conference = new YahooConference(conferenceId);
+		session.createConference(conferenceId, new HashSet<YahooContact>(), null);
+		session.leaveConference(conference);
+		assertNull(session.getConferenceMembership(conference));
+		exception.expect(IllegalArgumentException.class);
+		session.leaveConference(conference);
+	}
+
 	@Test
 	public void testReceiveMessage() throws IOException {
 		String id = "testuser-8iVmHcCkflGJpBXpjBbzCw--";
@@ -212,4 +283,15 @@ public class SessionConferenceImplTest {
 		session.receivedConferenceMessage(conference, sender, message);
 		Mockito.verify(callback).receivedConferenceMessage(conference, sender, message);
 	}
+
+	@Test
+	public void testReceiveMessageForUnknownConference() {
+		YahooConference conference = new YahooConference("id");
+		YahooContact sender = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		session.receivedConferenceMessage(conference, sender, "myMessage");
+		ConferenceMembership membership = session.getConferenceMembership(conference);
+		assertTrue(membership.getMembers().contains(sender));
+		session.sendConferenceMessage(conference, "reply");
+		Mockito.verify(executor).execute(argThat(new SendConfereneMessage(username, conference, membership, "reply")));
+	}
 }
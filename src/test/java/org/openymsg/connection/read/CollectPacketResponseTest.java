@@ -1,12 +1,100 @@
 package org.openymsg.connection.read;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
+import org.openymsg.network.YMSG9Packet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import nl.jqno.equalsverifier.EqualsVerifier;
 
 public class CollectPacketResponseTest {
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
 	@Test
 	public void equalsContract() {
 		EqualsVerifier.forClass(CollectPacketResponse.class).verify();
 	}
+
+	@Test
+	public void testCollect() {
+		final List<YMSG9Packet> executed = new ArrayList<YMSG9Packet>();
+		MultiplePacketResponse response = new MultiplePacketResponse() {
+			@Override
+			public void execute(List<YMSG9Packet> packets) {
+				executed.addAll(packets);
+			}
+
+			@Override
+			public boolean isFinished(long status) {
+				return status == 0;
+			}
+		};
+		CollectPacketResponse collector = new CollectPacketResponse(response);
+		YMSG9Packet first = createPacket(5);
+		YMSG9Packet last = createPacket(0);
+		collector.execute(first);
+		assertTrue(executed.isEmpty());
+		collector.execute(last);
+		assertEquals(Arrays.asList(first, last), executed);
+	}
+
+	@Test
+	public void testStream() {
+		StreamingPacketResponse response = mock(StreamingPacketResponse.class);
+		when(response.isFinished(0)).thenReturn(true);
+		CollectPacketResponse collector = new CollectPacketResponse(response);
+		YMSG9Packet first = createPacket(5);
+		YMSG9Packet last = createPacket(0);
+		collector.execute(first);
+		verify(response).fragment(first);
+		verify(response, never()).end();
+		collector.execute(last);
+		collector.execute(first);
+		InOrder inOrder = inOrder(response);
+		inOrder.verify(response).begin();
+		inOrder.verify(response).fragment(first);
+		inOrder.verify(response).fragment(last);
+		inOrder.verify(response).end();
+		inOrder.verify(response).begin();
+		inOrder.verify(response).fragment(first);
+		verify(response, never()).execute(anyListOf(YMSG9Packet.class));
+	}
+
+	@Test
+	public void testStreamEndsOnFailure() {
+		StreamingPacketResponse response = mock(StreamingPacketResponse.class);
+		when(response.isFinished(0)).thenReturn(true);
+		YMSG9Packet last = createPacket(0);
+		doThrow(new IllegalStateException("bad packet")).when(response).fragment(last);
+		CollectPacketResponse collector = new CollectPacketResponse(response);
+		exception.expect(IllegalStateException.class);
+		try {
+			collector.execute(last);
+		} finally {
+			verify(response).end();
+		}
+	}
+
+	private YMSG9Packet createPacket(long status) {
+		YMSG9Packet packet = new YMSG9Packet();
+		packet.status = status;
+		packet.body = new String[0];
+		return packet;
+	}
 }
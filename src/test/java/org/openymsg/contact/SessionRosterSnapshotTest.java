@@ -0,0 +1,81 @@
+package org.openymsg.contact;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooContactPool;
+import org.openymsg.YahooProtocol;
+import org.openymsg.connection.YahooConnection;
+import org.openymsg.contact.group.SessionGroupImpl;
+import org.openymsg.contact.roster.RosterSnapshot;
+import org.openymsg.contact.roster.RosterSnapshotStore;
+import org.openymsg.contact.roster.SessionRosterCallback;
+import org.openymsg.contact.roster.SessionRosterImpl;
+import org.openymsg.execute.dispatch.Dispatcher;
+import org.openymsg.execute.dispatch.Request;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+public class SessionRosterSnapshotTest {
+	private String username = "testuser";
+	private YahooContact contact = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+	private RosterSnapshotStore store;
+	private SessionRosterCallback callback;
+	private SessionRosterImpl sessionRoster;
+	private Dispatcher dispatcher;
+	private SessionRosterSnapshot snapshot;
+
+	@Before
+	public void beforeMethod() throws IOException {
+		YahooConnection connection = mock(YahooConnection.class);
+		store = mock(RosterSnapshotStore.class);
+		callback = mock(SessionRosterCallback.class);
+		dispatcher = mock(Dispatcher.class);
+		sessionRoster = new SessionRosterImpl(connection, username, callback);
+		snapshot = new SessionRosterSnapshot(store, username, sessionRoster, new SessionGroupImpl(connection, username),
+				new YahooContactPool());
+		when(store.load(username)).thenReturn(
+				new RosterSnapshot(Collections.singleton(contact), new HashMap<String, Set<YahooContact>>()));
+	}
+
+	@Test
+	public void testLoadedOnDispatcher() throws IOException {
+		snapshot.load(dispatcher);
+		ArgumentCaptor<Request> request = ArgumentCaptor.forClass(Request.class);
+		verify(dispatcher).execute(request.capture());
+		verify(store, never()).load(anyString());
+		request.getValue().execute();
+		verify(callback).addedContact(contact);
+		assertEquals(Collections.singleton(contact), sessionRoster.getContacts());
+	}
+
+	@Test
+	public void testNotLoadedAfterRoster() throws IOException {
+		snapshot.load(dispatcher);
+		ArgumentCaptor<Request> request = ArgumentCaptor.forClass(Request.class);
+		verify(dispatcher).execute(request.capture());
+		sessionRoster.rosterLoaded();
+		request.getValue().execute();
+		verify(callback, never()).addedContact(contact);
+	}
+
+	@Test
+	public void testDispatcherShutDown() throws IOException {
+		doThrow(new IllegalStateException("shut down")).when(dispatcher).execute(any(Request.class));
+		snapshot.load(dispatcher);
+		verify(store, never()).load(anyString());
+	}
+}
@@ -0,0 +1,143 @@
+package org.openymsg.contact.roster;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.openymsg.YahooContact;
+import org.openymsg.connection.YahooConnection;
+import org.openymsg.contact.ListOfContactsResponse;
+import org.openymsg.contact.group.SessionGroupImpl;
+import org.openymsg.contact.status.SessionStatusImpl;
+import org.openymsg.network.MessageStatus;
+import org.openymsg.network.ServiceType;
+import org.openymsg.network.YMSG9Packet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsing time of synthetic LIST_15 packet sets with 10k and 50k contacts. Every tenth contact is in a second group,
+ * and every hundredth is pending.
+ */
+public class ListOfContactsBenchmarkTest {
+	private static final Log log = LogFactory.getLog(ListOfContactsBenchmarkTest.class);
+	private static final int CONTACTS_PER_PACKET = 500;
+	private static final int GROUPS = 20;
+	private Level level;
+
+	@Before
+	public void beforeMethod() {
+		level = Logger.getRootLogger().getLevel();
+		Logger.getRootLogger().setLevel(Level.INFO);
+	}
+
+	@After
+	public void afterMethod() {
+		Logger.getRootLogger().setLevel(level);
+	}
+
+	@Test
+	@Category(org.openymsg.SlowTest.class)
+	public void test10k() {
+		benchmark(10000);
+	}
+
+	@Test
+	@Category(org.openymsg.SlowTest.class)
+	public void test50k() {
+		benchmark(50000);
+	}
+
+	private void benchmark(int contacts) {
+		List<YMSG9Packet> packets = createPackets(contacts);
+		CountingRoster roster = new CountingRoster();
+		SessionGroupImpl sessionGroup = mock(SessionGroupImpl.class, withSettings().stubOnly());
+		SessionStatusImpl sessionStatus = mock(SessionStatusImpl.class, withSettings().stubOnly());
+		ListOfContactsResponse response = new ListOfContactsResponse(roster, sessionGroup, sessionStatus);
+		// warm up
+		response.execute(packets);
+		roster.count = 0;
+		long start = System.nanoTime();
+		response.execute(packets);
+		long elapsed = System.nanoTime() - start;
+		log.info("LIST_15 with " + contacts + " contacts in " + packets.size() + " packets: " + (elapsed / 1000000)
+				+ " ms");
+		assertEquals(contacts, roster.count);
+	}
+
+	private List<YMSG9Packet> createPackets(int contacts) {
+		List<YMSG9Packet> packets = new ArrayList<YMSG9Packet>();
+		List<String> body = new ArrayList<String>();
+		for (int group = 0; group < GROUPS; group++) {
+			add(body, "302", "318");
+			add(body, "300", "318");
+			add(body, "65", "group" + group);
+			add(body, "302", "319");
+			for (int i = group; i < contacts; i += GROUPS) {
+				addContact(body, i);
+				// a second group membership for every tenth contact
+				if (i % 10 == 0) {
+					addContact(body, (i + 1) % contacts);
+				}
+				if (body.size() >= CONTACTS_PER_PACKET * 8) {
+					packets.add(createPacket(body, MessageStatus.SERVER_ACK));
+					body = new ArrayList<String>();
+				}
+			}
+			add(body, "303", "319");
+			add(body, "301", "318");
+		}
+		add(body, "303", "318");
+		packets.add(createPacket(body, MessageStatus.DEFAULT));
+		return packets;
+	}
+
+	private void addContact(List<String> body, int i) {
+		add(body, "300", "319");
+		add(body, "7", "testuser" + i);
+		if (i % 100 == 0) {
+			add(body, "223", "1");
+		}
+		add(body, "301", "319");
+	}
+
+	private YMSG9Packet createPacket(List<String> body, MessageStatus status) {
+		YMSG9Packet packet = new YMSG9Packet();
+		packet.magic = "YMSG";
+		packet.service = ServiceType.LIST_15;
+		packet.status = status.getValue();
+		packet.body = body.toArray(new String[body.size()]);
+		return packet;
+	}
+
+	private void add(List<String> body, String key, String value) {
+		body.add(key);
+		body.add(value);
+	}
+
+	private static final class CountingRoster extends SessionRosterImpl {
+		private int count = 0;
+
+		private CountingRoster() {
+			super(mock(YahooConnection.class), "testuser",
+					mock(SessionRosterCallback.class, withSettings().stubOnly()));
+		}
+
+		@Override
+		public void loadedContact(YahooContact contact) {
+			count++;
+		}
+
+		@Override
+		public void rosterLoaded() {}
+	}
+}
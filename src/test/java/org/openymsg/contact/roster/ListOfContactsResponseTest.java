@@ -1,9 +1,13 @@
 package org.openymsg.contact.roster;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.openymsg.YahooContact;
 import org.openymsg.YahooContactGroup;
 import org.openymsg.YahooProtocol;
@@ -15,6 +19,7 @@ import org.openymsg.network.YMSG9Packet;
 import org.openymsg.testing.PacketReader;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -39,6 +44,67 @@ public class ListOfContactsResponseTest {
 		verify(sessionGroup).addedGroups(this.getGroups());
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMultipleGroupsAndIgnored() {
+		String test =
+				"Magic:YMSG Version:16 Length:300 Service:LIST_15 Status:DEFAULT SessionId:0x47e133  [302] [318] [300] [318] [65] [Friends] [302] [319] [300] [319] [7] [dog11] [301] [319] [300] [319] [7] [cat22] [301] [319] [303] [319] [301] [318] [300] [318] [65] [Work] [302] [319] [300] [319] [7] [dog11] [301] [319] [303] [319] [301] [318] [303] [318] [302] [320] [300] [320] [7] [spammer] [301] [320] [303] [320]";
+		SessionRosterImpl sessionContact = mock(SessionRosterImpl.class);
+		SessionGroupImpl sessionGroup = mock(SessionGroupImpl.class);
+		SessionStatusImpl sessionStatus = mock(SessionStatusImpl.class);
+		ListOfContactsResponse response = new ListOfContactsResponse(sessionContact, sessionGroup, sessionStatus);
+		List<YMSG9Packet> packets = new ArrayList<YMSG9Packet>();
+		packets.add(PacketReader.readString(test));
+		response.execute(packets);
+		YahooContact dog = new YahooContact("dog11", YahooProtocol.YAHOO);
+		verify(sessionContact).loadedContact(dog);
+		verify(sessionContact).loadedContact(new YahooContact("cat22", YahooProtocol.YAHOO));
+		Set<YahooContact> ignored = new HashSet<YahooContact>();
+		ignored.add(new YahooContact("spammer", YahooProtocol.YAHOO));
+		verify(sessionStatus).addedIgnored(ignored);
+		ArgumentCaptor<Set> captor = ArgumentCaptor.forClass(Set.class);
+		verify(sessionGroup).addedGroups(captor.capture());
+		Set<YahooContactGroup> groups = captor.getValue();
+		assertEquals(2, groups.size());
+		YahooContact friendsDog = null;
+		YahooContact workDog = null;
+		for (YahooContactGroup group : groups) {
+			for (YahooContact contact : group.getContacts()) {
+				if (contact.equals(dog)) {
+					if (group.getName().equals("Friends")) {
+						friendsDog = contact;
+					} else {
+						workDog = contact;
+					}
+				}
+			}
+		}
+		assertEquals(dog, friendsDog);
+		assertSame(friendsDog, workDog);
+	}
+
+	@Test
+	public void testFriendsLoadedBeforeLastPacket() {
+		String first =
+				"Magic:YMSG Version:16 Length:100 Service:LIST_15 Status:SERVER_ACK SessionId:0x47e133  [302] [318] [300] [318] [65] [Friends] [302] [319] [300] [319] [7] [dog11] [301] [319] [300] [319] [7] [cat22]";
+		String last =
+				"Magic:YMSG Version:16 Length:100 Service:LIST_15 Status:DEFAULT SessionId:0x47e133  [301] [319] [300] [319] [7] [cow33] [301] [319] [303] [319] [301] [318] [303] [318]";
+		SessionRosterImpl sessionContact = mock(SessionRosterImpl.class);
+		SessionGroupImpl sessionGroup = mock(SessionGroupImpl.class);
+		SessionStatusImpl sessionStatus = mock(SessionStatusImpl.class);
+		ListOfContactsResponse response = new ListOfContactsResponse(sessionContact, sessionGroup, sessionStatus);
+		response.begin();
+		response.fragment(PacketReader.readString(first));
+		verify(sessionContact).loadedContact(new YahooContact("dog11", YahooProtocol.YAHOO));
+		verify(sessionContact).loadedContact(new YahooContact("cat22", YahooProtocol.YAHOO));
+		verify(sessionContact, never()).rosterLoaded();
+		response.fragment(PacketReader.readString(last));
+		response.end();
+		verify(sessionContact).loadedContact(new YahooContact("cow33", YahooProtocol.YAHOO));
+		verify(sessionContact).rosterLoaded();
+		verify(sessionGroup).addedGroups(Collections.<YahooContactGroup> singleton(new ContactGroupImpl("Friends")));
+	}
+
 	private Set<YahooContactGroup> getGroups() {
 		Set<YahooContactGroup> groups = new HashSet<YahooContactGroup>();
 		groups.add(new ContactGroupImpl("Bros"));
@@ -0,0 +1,94 @@
+package org.openymsg.contact.roster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooProtocol;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class RosterSnapshotFileStoreTest {
+	private String username = "testuser";
+	private RosterSnapshotFileStore store;
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void beforeMethod() {
+		store = new RosterSnapshotFileStore(new File(folder.getRoot(), "snapshots"));
+	}
+
+	@Test
+	public void testNoSnapshot() throws IOException {
+		assertNull(store.load(username));
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		YahooContact yahoo = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		YahooContact msn = new YahooContact("testbuddy@live.com", YahooProtocol.MSN);
+		YahooContact lotus = new YahooContact("testlotus", YahooProtocol.LOTUS);
+		Set<YahooContact> contacts = new HashSet<YahooContact>();
+		contacts.add(yahoo);
+		contacts.add(msn);
+		contacts.add(lotus);
+		Map<String, Set<YahooContact>> groups = new LinkedHashMap<String, Set<YahooContact>>();
+		groups.put("Friends", new HashSet<YahooContact>(contacts));
+		Set<YahooContact> work = new HashSet<YahooContact>();
+		work.add(msn);
+		groups.put("Work", work);
+		groups.put("Empty", new HashSet<YahooContact>());
+		store.save(username, new RosterSnapshot(contacts, groups));
+		RosterSnapshot loaded = store.load(username);
+		assertEquals(contacts, loaded.getContacts());
+		assertEquals(groups, loaded.getGroups());
+	}
+
+	@Test
+	public void testReplace() throws IOException {
+		Set<YahooContact> contacts = new HashSet<YahooContact>();
+		contacts.add(new YahooContact("testbuddy", YahooProtocol.YAHOO));
+		Map<String, Set<YahooContact>> groups = new LinkedHashMap<String, Set<YahooContact>>();
+		store.save(username, new RosterSnapshot(contacts, groups));
+		contacts.add(new YahooContact("testbuddy2", YahooProtocol.YAHOO));
+		store.save(username, new RosterSnapshot(contacts, groups));
+		assertEquals(contacts, store.load(username).getContacts());
+		assertNull(store.load("otheruser"));
+	}
+
+	@Test
+	public void testGroupMemberNotInRoster() throws IOException {
+		YahooContact member = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+		Map<String, Set<YahooContact>> groups = new LinkedHashMap<String, Set<YahooContact>>();
+		groups.put("Friends", new HashSet<YahooContact>());
+		groups.get("Friends").add(member);
+		store.save(username, new RosterSnapshot(new HashSet<YahooContact>(), groups));
+		RosterSnapshot loaded = store.load(username);
+		assertEquals(0, loaded.getContacts().size());
+		assertEquals(groups, loaded.getGroups());
+	}
+
+	@Test
+	public void testCorrupt() throws IOException {
+		File directory = folder.newFolder("corrupt");
+		FileOutputStream out = new FileOutputStream(new File(directory, username + ".roster"));
+		out.write(new byte[] {1, 2, 3, 4, 5});
+		out.close();
+		exception.expect(IOException.class);
+		new RosterSnapshotFileStore(directory).load(username);
+	}
+}
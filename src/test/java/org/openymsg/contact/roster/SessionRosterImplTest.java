@@ -1,8 +1,11 @@
 package org.openymsg.contact.roster;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.openymsg.testing.MessageAssert.argThatMessage;
 
@@ -16,6 +19,9 @@ import org.openymsg.YahooProtocol;
 import org.openymsg.connection.YahooConnection;
 import org.openymsg.contact.group.ContactGroupImpl;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public class SessionRosterImplTest {
 	private String username = "testuser";
 	private YahooConnection executor;
@@ -128,4 +134,29 @@ public class SessionRosterImplTest {
 		assertFalse(session.getContacts().contains(contact));
 		verify(callback).receivedContactAddDeclined(contact, message);
 	}
+
+	@Test
+	public void testSnapshotReconciled() {
+		YahooContact kept = new YahooContact("keptbuddy", YahooProtocol.YAHOO);
+		YahooContact removed = new YahooContact("removedbuddy", YahooProtocol.YAHOO);
+		YahooContact added = new YahooContact("addedbuddy", YahooProtocol.MSN);
+		Set<YahooContact> snapshot = new HashSet<YahooContact>();
+		snapshot.add(kept);
+		snapshot.add(removed);
+		session.loadedSnapshot(snapshot);
+		verify(callback).addedContact(kept);
+		verify(callback).addedContact(removed);
+		assertEquals(snapshot, session.getContacts());
+		session.loadedContact(kept);
+		session.loadedContact(added);
+		session.rosterLoaded();
+		verify(callback, times(1)).addedContact(kept);
+		verify(callback).addedContact(added);
+		verify(callback).removedContact(removed);
+		verify(callback, never()).removedContact(kept);
+		verify(callback).rosterLoaded();
+		assertEquals(2, session.getContacts().size());
+		assertTrue(session.getContacts().contains(kept));
+		assertTrue(session.getContacts().contains(added));
+	}
 }
@@ -1,6 +1,11 @@
 package org.openymsg.contact.status;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
 import org.junit.Test;
+import org.openymsg.YahooStatus;
 
 import nl.jqno.equalsverifier.EqualsVerifier;
 
@@ -9,4 +14,26 @@ public class ContactStatusImplTest {
 	public void testEquals() {
 		EqualsVerifier.forClass(ContactStatusImpl.class).verify();
 	}
+
+	@Test
+	public void testShared() {
+		ContactStatusImpl status =
+				ContactStatusImpl.valueOf(NormalStatusMessage.valueOf(YahooStatus.BUSY), ContactPresence.ON_PAGER, -1L);
+		assertSame(status, ContactStatusImpl.valueOf(NormalStatusMessage.valueOf(YahooStatus.BUSY),
+				ContactPresence.valueOf(false, true), -1L));
+		assertEquals(new ContactStatusImpl(new NormalStatusMessage(YahooStatus.BUSY), new ContactPresence(false, true),
+				-1L), status);
+		assertSame(ContactStatusImpl.OFFLINE,
+				ContactStatusImpl.valueOf(NormalStatusMessage.OFFLINE, ContactPresence.EMPTY, -1L));
+	}
+
+	@Test
+	public void testNotShared() {
+		StatusMessage custom = new CustomStatusMessage(YahooStatus.BUSY, "message");
+		assertNotSame(ContactStatusImpl.valueOf(custom, ContactPresence.ON_PAGER, -1L),
+				ContactStatusImpl.valueOf(custom, ContactPresence.ON_PAGER, -1L));
+		StatusMessage normal = NormalStatusMessage.valueOf(YahooStatus.AVAILABLE);
+		assertNotSame(ContactStatusImpl.valueOf(normal, ContactPresence.ON_PAGER, 100L),
+				ContactStatusImpl.valueOf(normal, ContactPresence.ON_PAGER, 100L));
+	}
 }
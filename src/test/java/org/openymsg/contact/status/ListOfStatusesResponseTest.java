@@ -1,6 +1,9 @@
 package org.openymsg.contact.status;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import org.junit.Test;
@@ -44,6 +47,29 @@ public class ListOfStatusesResponseTest {
 		verify(sessionStatus).statusUpdate(new YahooContact("testuser", YahooProtocol.YAHOO), status);
 	}
 
+	@Test
+	public void testDeliveredAfterLastPacket() {
+		String first =
+				"Magic:YMSG Version:16 Length:100 Service:STATUS_15 Status:SERVER_ACK SessionId:664235ca  [302] [315] [300] [315] [7] [testuser1] [10] [0] [13] [1] [301] [315] [300] [315] [7] [testuser2]";
+		String last =
+				"Magic:YMSG Version:16 Length:100 Service:STATUS_15 Status:DEFAULT SessionId:664235ca  [10] [2] [13] [1] [301] [315] [303] [315]";
+		SessionStatusImpl sessionStatus = mock(SessionStatusImpl.class);
+		ListOfStatusesResponse response = new ListOfStatusesResponse(new SingleStatusResponse(sessionStatus));
+		response.begin();
+		response.fragment(PacketReader.readString(first));
+		YahooContact testuser1 = new YahooContact("testuser1", YahooProtocol.YAHOO);
+		YahooContact testuser2 = new YahooContact("testuser2", YahooProtocol.YAHOO);
+		verify(sessionStatus).beginStatusUpdates();
+		verify(sessionStatus).statusUpdate(testuser1, getContactstatus(YahooStatus.AVAILABLE, false, true));
+		verify(sessionStatus, never()).statusUpdate(eq(testuser2), any(ContactStatusImpl.class));
+		response.fragment(PacketReader.readString(last));
+		verify(sessionStatus, never()).endStatusUpdates();
+		response.end();
+		verify(sessionStatus).statusUpdate(testuser2, getContactstatus(YahooStatus.BUSY, false, true));
+		verify(sessionStatus).beginStatusUpdates();
+		verify(sessionStatus).endStatusUpdates();
+	}
+
 	private ContactStatusImpl getContactstatus(YahooStatus yahooStatus, boolean onChat, boolean onPager) {
 		if (yahooStatus.isCustom()) {
 			throw new IllegalArgumentException("status cannot be custom");
@@ -0,0 +1,96 @@
+package org.openymsg.contact.status;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooContactStatus;
+import org.openymsg.YahooProtocol;
+import org.openymsg.connection.YahooConnection;
+import org.openymsg.network.YMSG9Packet;
+import org.openymsg.testing.PacketReader;
+
+import java.util.Map;
+
+public class SessionStatusImplTest {
+	private static final String TWO_STATUSES =
+			"Magic:YMSG Version:16 Length:96 Service:Y6_STATUS_UPDATE Status:SERVER_ACK SessionId:0x45130f  [302] [315] [300] [315] [7] [testuser1] [10] [0] [13] [1] [301] [315] [300] [315] [7] [testuser2] [10] [2] [13] [1] [301] [315] [303] [315]";
+	private static final String LIST_FIRST =
+			"Magic:YMSG Version:16 Length:100 Service:STATUS_15 Status:SERVER_ACK SessionId:664235ca  [302] [315] [300] [315] [7] [testuser1] [10] [0] [13] [1] [301] [315] [300] [315] [7] [testuser3]";
+	private static final String LIST_LAST =
+			"Magic:YMSG Version:16 Length:100 Service:STATUS_15 Status:DEFAULT SessionId:664235ca  [10] [2] [13] [1] [301] [315] [303] [315]";
+	private YahooConnection connection;
+	private YahooContact contact1 = new YahooContact("testuser1", YahooProtocol.YAHOO);
+	private YahooContact contact2 = new YahooContact("testuser2", YahooProtocol.YAHOO);
+	private YahooContact contact3 = new YahooContact("testuser3", YahooProtocol.YAHOO);
+
+	@Before
+	public void beforeMethod() {
+		connection = mock(YahooConnection.class);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBatch() {
+		SessionStatusCallback callback =
+				mock(SessionStatusCallback.class, withSettings().extraInterfaces(SessionStatusBatchCallback.class));
+		SessionStatusImpl sessionStatus = new SessionStatusImpl(connection, callback);
+		YMSG9Packet packet = PacketReader.readString(TWO_STATUSES);
+		new SingleStatusResponse(sessionStatus).execute(packet);
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		verify((SessionStatusBatchCallback) callback).statusUpdates(captor.capture());
+		verify(callback, never()).statusUpdate(any(YahooContact.class), any(YahooContactStatus.class));
+		Map<YahooContact, YahooContactStatus> statuses = captor.getValue();
+		assertEquals(2, statuses.size());
+		assertEquals(sessionStatus.getStatus(contact1), statuses.get(contact1));
+		assertEquals(sessionStatus.getStatus(contact2), statuses.get(contact2));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testListBatchedAcrossPackets() {
+		SessionStatusCallback callback =
+				mock(SessionStatusCallback.class, withSettings().extraInterfaces(SessionStatusBatchCallback.class));
+		SessionStatusImpl sessionStatus = new SessionStatusImpl(connection, callback);
+		ListOfStatusesResponse response = new ListOfStatusesResponse(new SingleStatusResponse(sessionStatus));
+		response.begin();
+		response.fragment(PacketReader.readString(LIST_FIRST));
+		// a status update read between the packets of the list joins its batch
+		new SingleStatusResponse(sessionStatus).execute(PacketReader.readString(TWO_STATUSES));
+		response.fragment(PacketReader.readString(LIST_LAST));
+		verify((SessionStatusBatchCallback) callback, never()).statusUpdates(any(Map.class));
+		response.end();
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		verify((SessionStatusBatchCallback) callback).statusUpdates(captor.capture());
+		verify(callback, never()).statusUpdate(any(YahooContact.class), any(YahooContactStatus.class));
+		Map<YahooContact, YahooContactStatus> statuses = captor.getValue();
+		assertEquals(3, statuses.size());
+		assertEquals(sessionStatus.getStatus(contact3), statuses.get(contact3));
+	}
+
+	@Test
+	public void testNoBatch() {
+		SessionStatusCallback callback = mock(SessionStatusCallback.class);
+		SessionStatusImpl sessionStatus = new SessionStatusImpl(connection, callback);
+		YMSG9Packet packet = PacketReader.readString(TWO_STATUSES);
+		new SingleStatusResponse(sessionStatus).execute(packet);
+		verify(callback).statusUpdate(contact1, sessionStatus.getStatus(contact1));
+		verify(callback).statusUpdate(contact2, sessionStatus.getStatus(contact2));
+	}
+
+	@Test
+	public void testSingleUpdateNotBatched() {
+		SessionStatusCallback callback =
+				mock(SessionStatusCallback.class, withSettings().extraInterfaces(SessionStatusBatchCallback.class));
+		SessionStatusImpl sessionStatus = new SessionStatusImpl(connection, callback);
+		sessionStatus.statusUpdate(contact1, ContactStatusImpl.OFFLINE);
+		verify(callback).statusUpdate(contact1, ContactStatusImpl.OFFLINE);
+	}
+}
@@ -0,0 +1,133 @@
+package org.openymsg.contact.status;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooContactStatus;
+import org.openymsg.YahooStatus;
+import org.openymsg.connection.YahooConnection;
+import org.openymsg.network.MessageStatus;
+import org.openymsg.network.ServiceType;
+import org.openymsg.network.YMSG9Packet;
+import org.openymsg.testing.AllocationMeter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocation rate of a STATUS_15 burst at login, with shared status objects compared to allocating new ones.
+ */
+public class StatusAllocationBenchmarkTest {
+	private static final Log log = LogFactory.getLog(StatusAllocationBenchmarkTest.class);
+	private static final int CONTACTS = 3000;
+	private static final int ROUNDS = 20;
+	private static final String[] STATUSES = {"0", "0", "0", "2", "10", "9"};
+	private Level level;
+
+	/**
+	 * Trace logging would dominate the allocation
+	 */
+	@Before
+	public void beforeMethod() {
+		level = Logger.getRootLogger().getLevel();
+		Logger.getRootLogger().setLevel(Level.INFO);
+	}
+
+	@After
+	public void afterMethod() {
+		Logger.getRootLogger().setLevel(level);
+	}
+
+	@Test
+	@Category(org.openymsg.SlowTest.class)
+	public void testStatusBurst() {
+		YMSG9Packet packet = createBurst(CONTACTS);
+		CountingCallback callback = new CountingCallback();
+		SessionStatusImpl sessionStatus = new SessionStatusImpl(mock(YahooConnection.class), callback);
+		SingleStatusResponse response = new SingleStatusResponse(sessionStatus);
+		// warm up, and fill the status map
+		for (int i = 0; i < ROUNDS; i++) {
+			response.execute(packet);
+		}
+		AllocationMeter meter = new AllocationMeter();
+		meter.start();
+		for (int i = 0; i < ROUNDS; i++) {
+			response.execute(packet);
+		}
+		long bytes = meter.stop();
+		log.info("STATUS_15 burst: " + (bytes / (ROUNDS * CONTACTS)) + " bytes per status update");
+		assertSame(callback.statuses.get(0), callback.statuses.get(STATUSES.length));
+	}
+
+	@Test
+	@Category(org.openymsg.SlowTest.class)
+	public void testSharedVersusAllocated() {
+		AllocationMeter meter = new AllocationMeter();
+		List<YahooContactStatus> statuses = new ArrayList<YahooContactStatus>(CONTACTS);
+		meter.start();
+		for (int i = 0; i < CONTACTS; i++) {
+			YahooStatus status = YahooStatus.getStatus(Long.parseLong(STATUSES[i % STATUSES.length]));
+			statuses.add(new ContactStatusImpl(new NormalStatusMessage(status), new ContactPresence(false, true), -1L));
+		}
+		long allocated = meter.stop();
+		statuses.clear();
+		meter.start();
+		for (int i = 0; i < CONTACTS; i++) {
+			YahooStatus status = YahooStatus.getStatus(Long.parseLong(STATUSES[i % STATUSES.length]));
+			statuses.add(ContactStatusImpl.valueOf(NormalStatusMessage.valueOf(status),
+					ContactPresence.valueOf(false, true), -1L));
+		}
+		long shared = meter.stop();
+		log.info("status objects for " + CONTACTS + " updates: allocated " + allocated + " bytes, shared " + shared
+				+ " bytes");
+		if (meter.isSupported()) {
+			assertTrue("shared should allocate less: " + shared + " vs " + allocated, shared < allocated);
+		}
+	}
+
+	private YMSG9Packet createBurst(int contacts) {
+		List<String> body = new ArrayList<String>();
+		add(body, "302", "315");
+		for (int i = 0; i < contacts; i++) {
+			add(body, "300", "315");
+			add(body, "7", "testuser" + i);
+			add(body, "10", STATUSES[i % STATUSES.length]);
+			add(body, "13", "1");
+			add(body, "244", "12582847");
+			add(body, "301", "315");
+		}
+		add(body, "303", "315");
+		YMSG9Packet packet = new YMSG9Packet();
+		packet.magic = "YMSG";
+		packet.service = ServiceType.STATUS_15;
+		packet.status = MessageStatus.SERVER_ACK.getValue();
+		packet.body = body.toArray(new String[body.size()]);
+		return packet;
+	}
+
+	private void add(List<String> body, String key, String value) {
+		body.add(key);
+		body.add(value);
+	}
+
+	private static final class CountingCallback implements SessionStatusCallback {
+		private final List<YahooContactStatus> statuses = new ArrayList<YahooContactStatus>();
+
+		@Override
+		public void statusUpdate(YahooContact contact, YahooContactStatus status) {
+			if (statuses.size() < STATUSES.length * 2) {
+				statuses.add(status);
+			}
+		}
+	}
+}
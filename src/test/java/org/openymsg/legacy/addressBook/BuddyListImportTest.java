@@ -0,0 +1,113 @@
+package org.openymsg.legacy.addressBook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openymsg.legacy.network.FriendManager;
+import org.openymsg.legacy.network.YahooUser;
+import org.openymsg.legacy.roster.Roster;
+import org.openymsg.legacy.roster.RosterEvent;
+import org.openymsg.legacy.roster.RosterListener;
+
+import junitx.util.PrivateAccessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class BuddyListImportTest {
+	private BatchCountingRoster roster;
+	private List<RosterEvent> events;
+
+	@Before
+	public void beforeMethod() {
+		roster = new BatchCountingRoster();
+		events = new ArrayList<RosterEvent>();
+		roster.addRosterListener(new RosterListener() {
+			@Override
+			public void rosterChanged(RosterEvent event) {
+				events.add(event);
+			}
+		});
+	}
+
+	@Test
+	public void testImportInBatches() throws Throwable {
+		int contacts = BuddyListImport.BATCH_SIZE * 2 + 5;
+		StringBuilder xml = new StringBuilder("<ab k=\"testuser\" cc=\"1\" rt=\"42\">");
+		for (int i = 0; i < contacts; i++) {
+			xml.append("<ct yi=\"testbuddy").append(i).append("\" fn=\"First").append(i).append("\"/>");
+		}
+		xml.append("</ab>");
+		PrivateAccessor.invoke(roster, "syncedAdd", new Class[] {YahooUser.class},
+				new Object[] {new YahooUser("testbuddy7")});
+		events.clear();
+		new BuddyListImport("testuser", roster, null).importEntries(stream(xml.toString()));
+		assertEquals(3, roster.batches.size());
+		assertEquals(BuddyListImport.BATCH_SIZE, (int) roster.batches.get(0));
+		assertEquals(5, (int) roster.batches.get(2));
+		assertEquals("42", roster.getAddressBookRevision());
+		assertEquals(1, events.size());
+		assertEquals("First7", roster.getUser("testbuddy7").getFirstName());
+	}
+
+	@Test
+	public void testRemovals() throws Throwable {
+		PrivateAccessor.invoke(roster, "syncedAdd", new Class[] {YahooUser.class},
+				new Object[] {new YahooUser("testbuddy")});
+		BuddyListImport buddyListImport = new BuddyListImport("testuser", roster, null);
+		buddyListImport.importEntries(stream("<ab rt=\"1\"><ct yi=\"testbuddy\" fn=\"Test\"/></ab>"));
+		assertEquals("Test", roster.getUser("testbuddy").getFirstName());
+		events.clear();
+		buddyListImport.importEntries(stream("<ab rt=\"2\"><ct yi=\"testbuddy\" d=\"1\"/>"
+				+ "<ct yi=\"unknown\" d=\"1\"/></ab>"));
+		assertEquals(1, roster.removals.size());
+		assertEquals(2, (int) roster.removals.get(0));
+		assertNull(roster.getUser("testbuddy").getFirstName());
+		assertEquals(1, events.size());
+		assertEquals("2", roster.getAddressBookRevision());
+	}
+
+	@Test
+	public void testPartialImportApplied() throws Exception {
+		try {
+			new BuddyListImport("testuser", roster, null)
+					.importEntries(stream("<ab rt=\"42\"><ct yi=\"testbuddy\"/><ct"));
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(1, roster.batches.size());
+		assertNull("revision only stored for complete imports", roster.getAddressBookRevision());
+	}
+
+	private InputStream stream(String xml) throws IOException {
+		return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+	}
+
+	private static final class BatchCountingRoster extends Roster {
+		private final List<Integer> batches = new ArrayList<Integer>();
+		private final List<Integer> removals = new ArrayList<Integer>();
+
+		private BatchCountingRoster() {
+			super(mock(FriendManager.class));
+		}
+
+		@Override
+		public void addOrUpdateAddressBook(Collection<YahooAddressBookEntry> addressBookEntries) {
+			batches.add(addressBookEntries.size());
+			super.addOrUpdateAddressBook(addressBookEntries);
+		}
+
+		@Override
+		public void removeAddressBook(Collection<String> ids) {
+			removals.add(ids.size());
+			super.removeAddressBook(ids);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.openymsg.legacy.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.openymsg.legacy.network.chatroom.YahooChatUser;
+
+/**
+ * Replays a multi-part CHATJOIN for a large room, compounding and parsing it the way receiveChatJoin used to (append
+ * per part, getNthValue per user) and with appendAll and the single pass ChatJoinParser.
+ */
+public class ChatJoinBenchmarkTest {
+	private static final Log log = LogFactory.getLog(ChatJoinBenchmarkTest.class);
+	private static final int USERS = 1000;
+	private static final int PARTS = 10;
+	private static final int ROUNDS = 5;
+
+	@Test
+	@Category(org.openymsg.SlowTest.class)
+	public void testLargeRoomJoin() {
+		// warm up
+		for (int i = 0; i < ROUNDS; i++) {
+			assertEquals(USERS, legacyJoin(createParts()).size());
+			assertEquals(USERS, indexedJoin(createParts()).size());
+		}
+		long legacy = 0;
+		long indexed = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			List<YMSG9Packet> parts = createParts();
+			long start = System.nanoTime();
+			legacyJoin(parts);
+			legacy += System.nanoTime() - start;
+			parts = createParts();
+			start = System.nanoTime();
+			indexedJoin(parts);
+			indexed += System.nanoTime() - start;
+		}
+		log.info("CHATJOIN of " + USERS + " users in " + PARTS + " parts: legacy " + (legacy / ROUNDS / 1000)
+				+ " us, indexed " + (indexed / ROUNDS / 1000) + " us");
+		assertTrue("indexed should be faster: " + indexed + " vs " + legacy, indexed < legacy);
+	}
+
+	private Map<String, YahooChatUser> legacyJoin(List<YMSG9Packet> parts) {
+		YMSG9Packet pkt = parts.get(0);
+		for (int i = 1; i < parts.size(); i++) {
+			pkt.append(parts.get(i));
+		}
+		int cnt = Integer.parseInt(pkt.getValue("108"));
+		while (cnt > 0 && pkt.getNthValue("109", cnt - 1) == null)
+			cnt--;
+		Hashtable<String, YahooChatUser> ht = new Hashtable<String, YahooChatUser>();
+		for (int i = 0; i < cnt; i++) {
+			pkt.generateQuickSetAccessors("109");
+			String userId = pkt.getNthValue("109", i);
+			YahooChatUser ycu = new YahooChatUser(new YahooUser(userId), Integer.parseInt(pkt.getValueFromNthSetQA(
+					"113", i)), pkt.getValueFromNthSetQA("141", i), Integer.parseInt(pkt.getValueFromNthSetQA("110",
+					i)), pkt.getValueFromNthSetQA("142", i));
+			ht.put(ycu.getId(), ycu);
+		}
+		return ht;
+	}
+
+	private Map<String, YahooChatUser> indexedJoin(List<YMSG9Packet> parts) {
+		YMSG9Packet pkt = parts.get(0);
+		pkt.appendAll(parts.subList(1, parts.size()));
+		return ChatJoinParser.parseUsers(pkt, ChatJoinParser.countUsers(pkt), null);
+	}
+
+	/**
+	 * Each part repeats the users of the previous part, as Yahoo does, and the count is overstated
+	 */
+	private List<YMSG9Packet> createParts() {
+		List<YMSG9Packet> parts = new ArrayList<YMSG9Packet>(PARTS);
+		int perPart = USERS / PARTS;
+		for (int part = 0; part < PARTS; part++) {
+			String[] ids = new String[Math.min(part + 2, PARTS) * perPart - part * perPart];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = "testuser" + (part * perPart + i);
+			}
+			String reported = part == 0 ? "" + (USERS * 3) : "0";
+			parts.add(ChatJoinParserTest.createPacket(reported, ids));
+		}
+		return parts;
+	}
+}
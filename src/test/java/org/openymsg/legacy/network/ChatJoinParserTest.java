@@ -0,0 +1,111 @@
+package org.openymsg.legacy.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openymsg.legacy.network.chatroom.YahooChatUser;
+import org.openymsg.legacy.roster.MockFriendManager;
+import org.openymsg.legacy.roster.Roster;
+
+public class ChatJoinParserTest {
+
+	@Test
+	public void testReportedCountTooHigh() {
+		YMSG9Packet pkt = createPacket("5", "testuser1", "testuser2");
+		assertEquals(2, ChatJoinParser.countUsers(pkt));
+	}
+
+	@Test
+	public void testReportedCountTooLow() {
+		YMSG9Packet pkt = createPacket("1", "testuser1", "testuser2");
+		assertEquals(1, ChatJoinParser.countUsers(pkt));
+		Map<String, YahooChatUser> users = ChatJoinParser.parseUsers(pkt, 1, null);
+		assertEquals(Arrays.asList("testuser1"), new ArrayList<String>(users.keySet()));
+	}
+
+	@Test
+	public void testDuplicatesRemoved() {
+		YMSG9Packet pkt = createPacket("3", "testuser1", "testuser2", "testuser1");
+		Map<String, YahooChatUser> users = ChatJoinParser.parseUsers(pkt, ChatJoinParser.countUsers(pkt), null);
+		assertEquals(Arrays.asList("testuser1", "testuser2"), new ArrayList<String>(users.keySet()));
+		YahooChatUser user = users.get("testuser2");
+		assertTrue(user.isMale());
+		assertEquals("alias testuser2", user.getAlias());
+		assertEquals(30, user.getAge());
+		assertEquals("location testuser2", user.getLocation());
+		assertTrue(user.hasWebcam());
+	}
+
+	@Test
+	public void testOptionalFieldsNotTakenFromNextUser() {
+		YMSG9Packet pkt = new YMSG9Packet();
+		pkt.body = new String[] {"104", "room:1", "108", "2", "109", "testuser1", "113", "0", "110", "20", "109",
+				"testuser2", "113", "0", "110", "21", "141", "alias"};
+		Map<String, YahooChatUser> users = ChatJoinParser.parseUsers(pkt, 2, null);
+		assertEquals(null, users.get("testuser1").getAlias());
+		assertEquals("alias", users.get("testuser2").getAlias());
+		assertEquals(21, users.get("testuser2").getAge());
+	}
+
+	@Test
+	public void testUnknownToRoster() throws Exception {
+		Roster roster = new Roster(new MockFriendManager());
+		YMSG9Packet pkt = createPacket("1", "testuser1");
+		YahooChatUser user = ChatJoinParser.parseUsers(pkt, 1, roster).get("testuser1");
+		assertEquals("testuser1", user.getId());
+	}
+
+	@Test
+	public void testAppendAll() {
+		YMSG9Packet first = createPacket("1", "testuser1");
+		List<YMSG9Packet> rest = Arrays.asList(createPacket("1", "testuser2"), createPacket("1", "testuser3"));
+		int length = first.body.length + rest.get(0).body.length + rest.get(1).body.length;
+		first.appendAll(rest);
+		assertEquals(length, first.body.length);
+		assertSame(rest.get(1).body[rest.get(1).body.length - 1], first.body[length - 1]);
+	}
+
+	@Test
+	public void testMergeAllSameAsMerge() {
+		String[] concatFields = {"87", "88"};
+		List<YMSG9Packet> rest = new ArrayList<YMSG9Packet>();
+		rest.add(listPacket("87", "b", "88", "x", "88", "y", "65", "1"));
+		rest.add(listPacket("87", "c", "88", "z", "87", "d"));
+		YMSG9Packet merged = listPacket("87", "a", "87", "a2", "65", "0");
+		for (YMSG9Packet pkt : rest) {
+			merged.merge(pkt, concatFields);
+		}
+		YMSG9Packet mergedAll = listPacket("87", "a", "87", "a2", "65", "0");
+		mergedAll.mergeAll(rest, concatFields);
+		assertEquals(Arrays.asList(merged.body), Arrays.asList(mergedAll.body));
+		assertEquals(Arrays.asList("87", "abcd", "87", "a2", "65", "0", "88", "xz", "88", "y", "65", "1"),
+				Arrays.asList(mergedAll.body));
+	}
+
+	private static YMSG9Packet listPacket(String... body) {
+		YMSG9Packet pkt = new YMSG9Packet();
+		pkt.service = ServiceType.LIST;
+		pkt.body = body;
+		return pkt;
+	}
+
+	static YMSG9Packet createPacket(String reported, String... ids) {
+		List<String> body = new ArrayList<String>();
+		body.addAll(Arrays.asList("104", "room:1", "108", reported));
+		for (String id : ids) {
+			body.addAll(Arrays.asList("109", id, "113", "" + 0x8010, "141", "alias " + id, "110", "30", "142",
+					"location " + id));
+		}
+		YMSG9Packet pkt = new YMSG9Packet();
+		pkt.service = ServiceType.CHATJOIN;
+		pkt.body = body.toArray(new String[body.size()]);
+		return pkt;
+	}
+}
@@ -0,0 +1,71 @@
+package org.openymsg.legacy.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openymsg.legacy.network.event.SessionAdapter;
+import org.openymsg.legacy.network.event.SessionEvent;
+
+public class EventDispatcherTest {
+
+	@Test
+	public void testDispatchedInOrderAndDrainedOnKill() throws Exception {
+		Session session = new Session();
+		final List<ServiceType> types = new ArrayList<ServiceType>();
+		session.addSessionListener(new SessionAdapter() {
+			@Override
+			public void dispatch(FireEvent event) {
+				types.add(event.getType());
+			}
+		});
+		EventDispatcher dispatcher = new EventDispatcher("testuser", session);
+		dispatcher.start();
+		dispatcher.append(new SessionEvent(this), ServiceType.MESSAGE);
+		dispatcher.append(ServiceType.LOGON);
+		dispatcher.append(new SessionEvent(this), ServiceType.NOTIFY);
+		dispatcher.kill();
+		dispatcher.join(5000);
+		assertFalse(dispatcher.isAlive());
+		assertEquals(3, types.size());
+		assertEquals(ServiceType.MESSAGE, types.get(0));
+		assertEquals(ServiceType.LOGON, types.get(1));
+		assertEquals(ServiceType.NOTIFY, types.get(2));
+	}
+
+	@Test
+	public void testNoPollingDelay() throws Exception {
+		Session session = new Session();
+		final CountDownLatch received = new CountDownLatch(1);
+		session.addSessionListener(new SessionAdapter() {
+			@Override
+			public void dispatch(FireEvent event) {
+				received.countDown();
+			}
+		});
+		EventDispatcher dispatcher = new EventDispatcher("testuser", session);
+		dispatcher.start();
+		// an idle dispatcher blocks on the queue rather than sleeping between polls of it
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dispatcher.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(Thread.State.WAITING, dispatcher.getState());
+		dispatcher.append(ServiceType.MESSAGE);
+		assertTrue("event not dispatched", received.await(5, TimeUnit.SECONDS));
+		dispatcher.kill();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAppendAfterKill() {
+		EventDispatcher dispatcher = new EventDispatcher("testuser", new Session());
+		dispatcher.kill();
+		dispatcher.append(ServiceType.MESSAGE);
+	}
+}
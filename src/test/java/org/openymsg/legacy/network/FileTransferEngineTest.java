@@ -0,0 +1,354 @@
+package org.openymsg.legacy.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers against a local HTTP server standing in for the Yahoo file transfer servers
+ */
+public class FileTransferEngineTest {
+	private static final int SIZE = 3 * 1024 * 1024 + 17;
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private HttpServer server;
+	private FileServer files;
+	private FileTransferEngine engine;
+	private byte[] content;
+
+	@Before
+	public void beforeMethod() throws IOException {
+		content = new byte[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			content[i] = (byte) (i * 31 + (i >> 8));
+		}
+		files = new FileServer();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", files);
+		server.start();
+		engine = new FileTransferEngine(2);
+	}
+
+	@After
+	public void afterMethod() {
+		engine.shutdown();
+		server.stop(0);
+	}
+
+	@Test
+	public void testDownload() throws Exception {
+		File target = new File(folder.getRoot(), "file.bin");
+		Progress progress = new Progress();
+		assertEquals(target, engine.download(url("/file.bin"), "Y=1; T=2", target, false, progress));
+		assertArrayEquals(content, read(target));
+		assertFalse(new File(target.getPath() + FileTransferEngine.PARTIAL_SUFFIX).exists());
+		assertEquals("Y=1; T=2", files.cookie);
+		assertNull(files.range);
+		assertEquals(SIZE, progress.last);
+		assertEquals(SIZE, progress.total);
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		File target = new File(folder.getRoot(), "file.bin");
+		cut(target, "/file.bin");
+		Progress progress = new Progress();
+		engine.download(url("/file.bin"), null, target, false, progress);
+		assertEquals("bytes=" + (SIZE - files.sent) + "-", files.range);
+		assertEquals(files.etag, files.ifRange);
+		assertEquals(SIZE, progress.total);
+		assertArrayEquals(content, read(target));
+		assertFalse(new File(target.getPath() + FileTransferEngine.RESUME_SUFFIX).exists());
+	}
+
+	@Test
+	public void testUnknownPartialRestarted() throws Exception {
+		File target = new File(folder.getRoot(), "file.bin");
+		write(new File(target.getPath() + FileTransferEngine.PARTIAL_SUFFIX), new byte[1000000]);
+		engine.download(url("/file.bin"), null, target, false, null);
+		assertNull(files.range);
+		assertArrayEquals(content, read(target));
+	}
+
+	@Test
+	public void testOtherSourceRestarted() throws Exception {
+		File target = new File(folder.getRoot(), "file.bin");
+		cut(target, "/other.bin");
+		engine.download(url("/file.bin"), null, target, false, null);
+		assertNull(files.range);
+		assertArrayEquals(content, read(target));
+	}
+
+	@Test
+	public void testChangedFileRestarted() throws Exception {
+		File target = new File(folder.getRoot(), "file.bin");
+		cut(target, "/file.bin");
+		content[0]++;
+		files.etag = "\"v2\"";
+		engine.download(url("/file.bin"), null, target, false, null);
+		assertEquals(SIZE, files.sent);
+		assertArrayEquals(content, read(target));
+	}
+
+	@Test
+	public void testChangedFileIfRangeIgnored() throws Exception {
+		files.ifRanges = false;
+		File target = new File(folder.getRoot(), "file.bin");
+		cut(target, "/file.bin");
+		content[SIZE - 1]++;
+		files.etag = "\"v2\"";
+		engine.download(url("/file.bin"), null, target, false, null);
+		assertNull(files.range);
+		assertArrayEquals(content, read(target));
+	}
+
+	@Test
+	public void testRangeIgnored() throws Exception {
+		File target = new File(folder.getRoot(), "file.bin");
+		cut(target, "/file.bin");
+		files.ranges = false;
+		engine.download(url("/file.bin"), null, target, false, null);
+		assertEquals(SIZE, files.sent);
+		assertArrayEquals(content, read(target));
+	}
+
+	@Test
+	public void testInterruptedDownloadResumed() throws Exception {
+		files.cutAt = 1500000;
+		File target = new File(folder.getRoot(), "file.bin");
+		File partial = new File(target.getPath() + FileTransferEngine.PARTIAL_SUFFIX);
+		try {
+			engine.download(url("/file.bin"), null, target, false, null);
+			fail("expected the download to be cut");
+		} catch (IOException e) {
+			// expected
+		}
+		assertFalse(target.exists());
+		assertTrue(partial.length() > 0);
+		files.cutAt = -1;
+		engine.download(url("/file.bin"), null, target, false, null);
+		assertEquals("bytes=" + (SIZE - files.sent) + "-", files.range);
+		assertArrayEquals(content, read(target));
+	}
+
+	@Test
+	public void testServerName() throws Exception {
+		files.disposition = "attachment; filename=\"../holiday.bin\"";
+		File target = new File(folder.getRoot(), "file.bin");
+		File saved = engine.download(url("/file.bin"), null, target, true, null);
+		assertEquals(new File(folder.getRoot(), "holiday.bin"), saved);
+		assertArrayEquals(content, read(saved));
+	}
+
+	@Test
+	public void testDownloadRefused() throws Exception {
+		try {
+			engine.download(url("/missing.bin"), null, new File(folder.getRoot(), "file.bin"), false, null);
+			fail("expected a failure");
+		} catch (FileTransferFailedException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("404"));
+		}
+	}
+
+	@Test
+	public void testUpload() throws Exception {
+		File file = folder.newFile("upload.bin");
+		write(file, content);
+		byte[] header = "YMSG header".getBytes("UTF-8");
+		Progress progress = new Progress();
+		engine.upload(url("/upload"), "Y=1; T=2", header, file, progress);
+		byte[] expected = new byte[header.length + SIZE];
+		System.arraycopy(header, 0, expected, 0, header.length);
+		System.arraycopy(content, 0, expected, header.length, SIZE);
+		assertArrayEquals(expected, files.uploaded);
+		assertEquals(String.valueOf(expected.length), files.uploadLength);
+		assertEquals(SIZE, progress.last);
+	}
+
+	@Test
+	public void testUploadFileShrinks() throws Exception {
+		final File file = folder.newFile("upload.bin");
+		write(file, content);
+		try {
+			engine.upload(url("/upload"), null, new byte[0], file, new FileTransferEngine.ProgressListener() {
+				@Override
+				public void progress(long transferred, long total) {
+					write(file, new byte[0]);
+				}
+			});
+			fail("expected the upload to fail");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("File ended"));
+		}
+	}
+
+	@Test
+	public void testConcurrentDownloads() throws Exception {
+		List<Future<File>> downloads = new ArrayList<Future<File>>();
+		for (int i = 0; i < 5; i++) {
+			downloads.add(engine.submitDownload(url("/file.bin"), null, new File(folder.getRoot(), "file" + i),
+					false, null));
+		}
+		for (Future<File> download : downloads) {
+			assertArrayEquals(content, read(download.get(30, TimeUnit.SECONDS)));
+		}
+	}
+
+	@Test
+	public void testNoThreads() {
+		try {
+			new FileTransferEngine(0);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertEquals("threads must be positive", e.getMessage());
+		}
+	}
+
+	/**
+	 * Leave a partial download of the path behind for the target
+	 */
+	private void cut(File target, String path) throws IOException {
+		files.cutAt = 1500000;
+		try {
+			engine.download(url(path), null, target, false, null);
+			fail("expected the download to be cut");
+		} catch (IOException e) {
+			// expected
+		}
+		files.cutAt = -1;
+		files.range = null;
+	}
+
+	private URL url(String path) throws IOException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+	}
+
+	private static byte[] read(File file) throws IOException {
+		return readFully(new FileInputStream(file));
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		try {
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+	private static void write(File file, byte[] bytes) {
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class Progress implements FileTransferEngine.ProgressListener {
+		private long last = -1;
+		private long total;
+
+		@Override
+		public void progress(long transferred, long total) {
+			assertTrue(transferred > last);
+			this.last = transferred;
+			this.total = total;
+		}
+	}
+
+	/**
+	 * Serves the content at /file.bin and /other.bin, honouring ranges, and takes uploads at /upload
+	 */
+	private final class FileServer implements HttpHandler {
+		private volatile boolean ranges = true;
+		private volatile boolean ifRanges = true;
+		private volatile String etag = "\"v1\"";
+		private volatile String ifRange;
+		private volatile int cutAt = -1;
+		private volatile String disposition;
+		private volatile String range;
+		private volatile String cookie;
+		private volatile int sent;
+		private volatile byte[] uploaded;
+		private volatile String uploadLength;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String path = exchange.getRequestURI().getPath();
+				cookie = exchange.getRequestHeaders().getFirst("Cookie");
+				if (path.equals("/upload")) {
+					uploadLength = exchange.getRequestHeaders().getFirst("Content-Length");
+					uploaded = readFully(exchange.getRequestBody());
+					exchange.sendResponseHeaders(200, -1);
+				} else if (path.equals("/file.bin") || path.equals("/other.bin")) {
+					range = exchange.getRequestHeaders().getFirst("Range");
+					ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+					exchange.getResponseHeaders().add("ETag", etag);
+					int start = 0;
+					if (ranges && range != null && (!ifRanges || ifRange == null || ifRange.equals(etag))) {
+						start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+						exchange.getResponseHeaders().add("Content-Range",
+								"bytes " + start + "-" + (SIZE - 1) + "/" + SIZE);
+					}
+					if (disposition != null) {
+						exchange.getResponseHeaders().add("Content-Disposition", disposition);
+					}
+					sent = SIZE - start;
+					exchange.sendResponseHeaders(start > 0 ? 206 : 200, SIZE - start);
+					OutputStream out = exchange.getResponseBody();
+					int end = cutAt < 0 ? SIZE : Math.min(SIZE, start + cutAt);
+					out.write(content, start, end - start);
+					if (end < SIZE) {
+						// drop the connection part way
+						out.flush();
+						throw new IOException("cut");
+					}
+					out.close();
+				} else {
+					exchange.sendResponseHeaders(404, -1);
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
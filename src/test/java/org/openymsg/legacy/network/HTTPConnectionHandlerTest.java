@@ -0,0 +1,349 @@
+package org.openymsg.legacy.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HTTPConnectionHandlerTest {
+	private Properties properties;
+	private ServerSocket proxy;
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger requests = new AtomicInteger();
+	/** number of packets posted in each request */
+	private final List<Integer> posted = Collections.synchronizedList(new ArrayList<Integer>());
+	/** answer with a chunked body */
+	private volatile boolean chunked = false;
+	/** Content-Length sent instead of the real one, when not null */
+	private volatile String contentLength = null;
+	/** close each connection after answering, without saying so */
+	private volatile boolean drop = false;
+	/** held until released before the first request is answered, when not null */
+	private volatile CountDownLatch hold = null;
+
+	@Before
+	public void beforeMethod() throws IOException {
+		// the handler sets the proxy system properties
+		properties = (Properties) System.getProperties().clone();
+		proxy = new ServerSocket(0);
+		Thread thread = new Thread("Test proxy") {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final Socket socket = proxy.accept();
+						connections.incrementAndGet();
+						new Thread("Test proxy connection") {
+							@Override
+							public void run() {
+								serve(socket);
+							}
+						}.start();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@After
+	public void afterMethod() throws IOException {
+		proxy.close();
+		System.setProperties(properties);
+	}
+
+	@Test
+	public void testKeepAliveReusesConnection() throws Exception {
+		HTTPConnectionHandler handler = new HTTPConnectionHandler("localhost", proxy.getLocalPort(), null, true);
+		handler.install(new Session());
+		handler.open(false);
+		try {
+			for (int i = 0; i < 3; i++) {
+				PacketBodyBuffer body = new PacketBodyBuffer();
+				body.addElement("1", "testuser");
+				handler.sendPacket(body, ServiceType.MESSAGE, 0, 0);
+				YMSG9Packet packet = handler.receivePacket();
+				assertEquals(ServiceType.NOTIFY, packet.service);
+				assertEquals("testbuddy", packet.getValue("4"));
+			}
+		} finally {
+			handler.close();
+		}
+		assertEquals(3, requests.get());
+		assertEquals(1, connections.get());
+	}
+
+	@Test
+	public void testWithoutKeepAlive() throws Exception {
+		HTTPConnectionHandler handler = new HTTPConnectionHandler("localhost", proxy.getLocalPort(), null, false);
+		handler.install(new Session());
+		handler.open(false);
+		try {
+			for (int i = 0; i < 2; i++) {
+				PacketBodyBuffer body = new PacketBodyBuffer();
+				body.addElement("1", "testuser");
+				handler.sendPacket(body, ServiceType.MESSAGE, 0, 0);
+				assertEquals("testbuddy", handler.receivePacket().getValue("4"));
+			}
+		} finally {
+			handler.close();
+		}
+		assertEquals(2, requests.get());
+		assertEquals(2, connections.get());
+	}
+
+	@Test
+	public void testQueuedPacketsBatched() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		hold = release;
+		final HTTPConnectionHandler handler =
+				new HTTPConnectionHandler("localhost", proxy.getLocalPort(), null, true);
+		handler.install(new Session());
+		handler.open(false);
+		try {
+			List<Thread> senders = new ArrayList<Thread>();
+			for (int i = 0; i < 3; i++) {
+				Thread sender = new Thread("Test sender " + i) {
+					@Override
+					public void run() {
+						try {
+							send(handler);
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				};
+				senders.add(sender);
+				sender.start();
+				// the first post is in flight, the others wait for it to finish
+				waitUntil(i == 0 ? 1 : 0, sender, i == 0 ? null : Thread.State.BLOCKED);
+			}
+			release.countDown();
+			for (Thread sender : senders) {
+				sender.join(5000);
+			}
+		} finally {
+			handler.close();
+		}
+		assertEquals(2, requests.get());
+		assertEquals(1, posted.get(0).intValue());
+		assertEquals(2, posted.get(1).intValue());
+		assertEquals(1, connections.get());
+	}
+
+	@Test
+	public void testChunkedResponse() throws Exception {
+		chunked = true;
+		HTTPConnectionHandler handler = new HTTPConnectionHandler("localhost", proxy.getLocalPort(), null, true);
+		handler.install(new Session());
+		handler.open(false);
+		try {
+			for (int i = 0; i < 2; i++) {
+				send(handler);
+				assertEquals("testbuddy", handler.receivePacket().getValue("4"));
+			}
+		} finally {
+			handler.close();
+		}
+		assertEquals(2, requests.get());
+		assertEquals(1, connections.get());
+	}
+
+	@Test
+	public void testReconnectWhenDropped() throws Exception {
+		drop = true;
+		HTTPConnectionHandler handler = new HTTPConnectionHandler("localhost", proxy.getLocalPort(), null, true);
+		handler.install(new Session());
+		handler.open(false);
+		try {
+			for (int i = 0; i < 3; i++) {
+				send(handler);
+				assertEquals("testbuddy", handler.receivePacket().getValue("4"));
+			}
+		} finally {
+			handler.close();
+		}
+		assertEquals(3, requests.get());
+		assertEquals(3, connections.get());
+	}
+
+	@Test
+	public void testBadContentLength() throws Exception {
+		assertBadLength("twelve");
+	}
+
+	@Test
+	public void testNegativeContentLength() throws Exception {
+		assertBadLength("-1");
+	}
+
+	/**
+	 * A bad length fails the post with an IOException and closes the connection, and the next post opens a new one
+	 */
+	private void assertBadLength(String length) throws Exception {
+		contentLength = length;
+		HTTPConnectionHandler handler = new HTTPConnectionHandler("localhost", proxy.getLocalPort(), null, true);
+		handler.install(new Session());
+		handler.open(false);
+		try {
+			try {
+				send(handler);
+				fail("bad length accepted");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains(length));
+			}
+			contentLength = null;
+			send(handler);
+			assertEquals("testbuddy", handler.receivePacket().getValue("4"));
+		} finally {
+			handler.close();
+		}
+		assertEquals(2, connections.get());
+	}
+
+	private void send(HTTPConnectionHandler handler) throws IOException {
+		PacketBodyBuffer body = new PacketBodyBuffer();
+		body.addElement("1", "testuser");
+		handler.sendPacket(body, ServiceType.MESSAGE, 0, 0);
+	}
+
+	/**
+	 * Wait until the proxy has received the requests, or the thread is in the state
+	 */
+	private void waitUntil(int received, Thread thread, Thread.State state) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			if (state == null ? posted.size() >= received : thread.getState() == state) {
+				return;
+			}
+			Thread.sleep(10);
+		}
+		fail("timed out waiting for " + (state == null ? received + " requests" : thread.getName()));
+	}
+
+	/**
+	 * Answers every post with one NOTIFY packet, keeping the connection open if the request asks for it and the
+	 * connection is not to be dropped
+	 */
+	private void serve(Socket socket) {
+		try {
+			InputStream in = socket.getInputStream();
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			while (true) {
+				String line = readLine(in);
+				if (line == null) {
+					return;
+				}
+				String version = line.substring(line.lastIndexOf(' ') + 1);
+				int length = 0;
+				while ((line = readLine(in)).length() > 0) {
+					if (line.toLowerCase().startsWith("content-length:")) {
+						length = Integer.parseInt(line.substring(15).trim());
+					}
+				}
+				byte[] body = new byte[length];
+				new DataInputStream(in).readFully(body);
+				posted.add(countPackets(body));
+				requests.incrementAndGet();
+				CountDownLatch latch = hold;
+				if (latch != null) {
+					hold = null;
+					latch.await(5, TimeUnit.SECONDS);
+				}
+				byte[] payload = createPayload();
+				if (chunked) {
+					int half = payload.length / 2;
+					out.writeBytes(version + " 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n");
+					out.writeBytes(Integer.toHexString(half) + "\r\n");
+					out.write(payload, 0, half);
+					out.writeBytes("\r\n" + Integer.toHexString(payload.length - half) + ";ext=1\r\n");
+					out.write(payload, half, payload.length - half);
+					out.writeBytes("\r\n0\r\n\r\n");
+				} else {
+					String header = contentLength == null ? String.valueOf(payload.length) : contentLength;
+					out.writeBytes(version + " 200 OK\r\nContent-Length: " + header + "\r\n\r\n");
+					out.write(payload);
+				}
+				out.flush();
+				if (drop) {
+					socket.close();
+					return;
+				}
+				if (!version.equals("HTTP/1.1")) {
+					socket.close();
+					return;
+				}
+			}
+		} catch (IOException e) {
+			// closed
+		} catch (InterruptedException e) {
+			// test is over
+		}
+	}
+
+	private int countPackets(byte[] body) {
+		int count = 0;
+		for (int i = 0; i + 4 <= body.length; i++) {
+			if (body[i] == 'Y' && body[i + 1] == 'M' && body[i + 2] == 'S' && body[i + 3] == 'G') {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0) {
+				return null;
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	private byte[] createPayload() throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		body.write("4".getBytes("UTF-8"));
+		body.write(0xc0);
+		body.write(0x80);
+		body.write("testbuddy".getBytes("UTF-8"));
+		body.write(0xc0);
+		body.write(0x80);
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(payload);
+		dos.write(new byte[] {1, 0, 0, 0});
+		dos.writeBytes("YMSG");
+		dos.write(new byte[] {0, 0x0f, 0, 0});
+		dos.writeShort(body.size());
+		dos.writeShort(ServiceType.NOTIFY.getValue());
+		dos.writeInt(0);
+		dos.writeInt(0);
+		body.writeTo(dos);
+		return payload.toByteArray();
+	}
+}
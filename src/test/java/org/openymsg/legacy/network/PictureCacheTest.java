@@ -0,0 +1,189 @@
+package org.openymsg.legacy.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PictureCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void testFetchedOnce() throws Exception {
+		CountingCache cache = new CountingCache(10, null);
+		byte[] first = cache.fetch("testbuddy", "1234567", new URL("http://example.com/a.png"));
+		byte[] second = cache.fetch("testbuddy", "1234567", new URL("http://example.com/moved.png"));
+		assertSame(first, second);
+		assertEquals(1, cache.downloads.get());
+		assertSame(first, cache.get("testbuddy", "1234567"));
+		assertNull(cache.get("testbuddy", "7654321"));
+	}
+
+	@Test
+	public void testNotSharedBetweenContacts() throws Exception {
+		CountingCache cache = new CountingCache(10, null);
+		byte[] picture = cache.fetch("testbuddy", "1234567", new URL("http://example.com/a.png"));
+		// anyone can announce the checksum of someone else's picture
+		byte[] other = cache.fetch("otherbuddy", "1234567", new URL("http://example.com/b.png"));
+		assertEquals(2, cache.downloads.get());
+		assertSame(picture, cache.get("testbuddy", "1234567"));
+		assertSame(other, cache.get("otherbuddy", "1234567"));
+		assertNull(cache.get("other", "buddy-1234567"));
+		assertNull(cache.get(null, "1234567"));
+	}
+
+	@Test
+	public void testNoContactNotCached() throws Exception {
+		CountingCache cache = new CountingCache(10, null);
+		cache.fetch(null, "1234567", new URL("http://example.com/a.png"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testNoChecksumNotCached() throws Exception {
+		CountingCache cache = new CountingCache(10, null);
+		cache.fetch("testbuddy", null, new URL("http://example.com/a.png"));
+		cache.fetch("testbuddy", null, new URL("http://example.com/a.png"));
+		assertEquals(2, cache.downloads.get());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws Exception {
+		CountingCache cache = new CountingCache(2, null);
+		URL location = new URL("http://example.com/a.png");
+		cache.fetch("testbuddy", "1", location);
+		cache.fetch("testbuddy", "2", location);
+		cache.get("testbuddy", "1");
+		cache.fetch("testbuddy", "3", location);
+		assertEquals(2, cache.size());
+		assertNull(cache.get("testbuddy", "2"));
+		cache.fetch("testbuddy", "1", location);
+		assertEquals(3, cache.downloads.get());
+	}
+
+	@Test
+	public void testStoredOnDisk() throws Exception {
+		File directory = folder.newFolder("pictures");
+		CountingCache cache = new CountingCache(1, directory);
+		URL location = new URL("http://example.com/a.png");
+		byte[] picture = cache.fetch("testbuddy", "1", location);
+		cache.fetch("testbuddy", "2", location);
+		assertArrayEquals(picture, cache.get("testbuddy", "1"));
+		CountingCache restarted = new CountingCache(10, directory);
+		assertArrayEquals(picture, restarted.fetch("testbuddy", "1", location));
+		assertEquals(0, restarted.downloads.get());
+	}
+
+	@Test
+	public void testChecksumCannotNamePath() throws Exception {
+		File directory = folder.newFolder("pictures");
+		CountingCache cache = new CountingCache(10, directory);
+		cache.fetch("testbuddy", "../../escape", new URL("http://example.com/a.png"));
+		String[] names = directory.list();
+		assertEquals(1, names.length);
+		assertTrue(names[0], names[0].startsWith("picture_"));
+		assertEquals(1, new CountingCache(10, directory).get("testbuddy", "../../escape").length);
+	}
+
+	@Test
+	public void testConcurrentFetchesShareDownload() throws Exception {
+		final CountingCache cache = new CountingCache(10, null);
+		cache.blocked = new CountDownLatch(1);
+		final URL location = new URL("http://example.com/a.png");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<byte[]>> fetches = new ArrayList<Future<byte[]>>();
+			for (int i = 0; i < 4; i++) {
+				fetches.add(executor.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						return cache.fetch("testbuddy", "1234567", location);
+					}
+				}));
+			}
+			assertTrue(cache.started.await(5, TimeUnit.SECONDS));
+			Thread.sleep(100);
+			cache.blocked.countDown();
+			byte[] picture = fetches.get(0).get(5, TimeUnit.SECONDS);
+			for (Future<byte[]> fetch : fetches) {
+				assertSame(picture, fetch.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, cache.downloads.get());
+	}
+
+	@Test
+	public void testFailedDownloadRetried() throws Exception {
+		CountingCache cache = new CountingCache(10, null);
+		cache.failures = 1;
+		URL location = new URL("http://example.com/a.png");
+		try {
+			cache.fetch("testbuddy", "1", location);
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(1, cache.fetch("testbuddy", "1", location).length);
+		assertEquals(2, cache.downloads.get());
+	}
+
+	@Test
+	public void testMaximumPictures() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("maximumPictures must be positive");
+		new PictureCache(0, null);
+	}
+
+	private static final class CountingCache extends PictureCache {
+		private final AtomicInteger downloads = new AtomicInteger();
+		private final CountDownLatch started = new CountDownLatch(1);
+		private volatile CountDownLatch blocked;
+		private volatile int failures;
+
+		private CountingCache(int maximumPictures, File directory) {
+			super(maximumPictures, directory);
+		}
+
+		@Override
+		protected byte[] download(URL location) throws IOException {
+			downloads.incrementAndGet();
+			started.countDown();
+			if (blocked != null) {
+				try {
+					blocked.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted");
+				}
+			}
+			if (failures > 0) {
+				failures--;
+				throw new IOException("unreachable");
+			}
+			return new byte[] {(byte) downloads.get()};
+		}
+	}
+}
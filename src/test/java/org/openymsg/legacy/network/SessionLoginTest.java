@@ -0,0 +1,164 @@
+package org.openymsg.legacy.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openymsg.legacy.network.event.SessionAdapter;
+
+public class SessionLoginTest {
+	private static final String LOGIN_TIMEOUT = "openymsg.network.loginTimeout";
+	private String loginTimeout;
+
+	@Before
+	public void beforeMethod() {
+		loginTimeout = System.getProperty(LOGIN_TIMEOUT);
+		System.setProperty(LOGIN_TIMEOUT, "1");
+	}
+
+	@After
+	public void afterMethod() {
+		if (loginTimeout == null) {
+			System.clearProperty(LOGIN_TIMEOUT);
+		} else {
+			System.setProperty(LOGIN_TIMEOUT, loginTimeout);
+		}
+	}
+
+	@Test
+	public void testRefusedCompletesFuture() throws Exception {
+		FakeConnectionHandler network = new FakeConnectionHandler(true);
+		Session session = new Session(network);
+		LoginFuture future = session.loginAsync("testuser", "password", false, false, false, false);
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("login should be refused");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof LoginRefusedException);
+		}
+		assertEquals(SessionState.UNSTARTED, session.getSessionStatus());
+	}
+
+	@Test
+	public void testRefusedLogin() throws Exception {
+		Session session = new Session(new FakeConnectionHandler(true));
+		try {
+			session.login("testuser", "password", false, false, false, false);
+			fail("login should be refused");
+		} catch (LoginRefusedException e) {
+			assertEquals(AuthenticationState.BAD, e.getStatus());
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		Session session = new Session(new FakeConnectionHandler(false));
+		LoginFuture future = session.loginAsync("testuser", "password", false, false, false, false);
+		assertFalse(future.isDone());
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("login should time out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof InterruptedIOException);
+		}
+		assertEquals(SessionState.UNSTARTED, session.getSessionStatus());
+	}
+
+	@Test
+	public void testSlowCloseDoesNotHoldUpOtherLogins() throws Exception {
+		final CountDownLatch closing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Session slow = new Session(new FakeConnectionHandler(false));
+		slow.addSessionListener(new SessionAdapter() {
+			@Override
+			public void dispatch(FireEvent event) {
+				if (event.getType() == ServiceType.LOGOFF) {
+					closing.countDown();
+					try {
+						release.await(30, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						// test is over
+					}
+				}
+			}
+		});
+		try {
+			LoginFuture slowFuture = slow.loginAsync("slowuser", "password", false, false, false, false);
+			assertTrue(closing.await(10, TimeUnit.SECONDS));
+			Session session = new Session(new FakeConnectionHandler(false));
+			LoginFuture future = session.loginAsync("testuser", "password", false, false, false, false);
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail("login should time out");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof InterruptedIOException);
+			}
+			assertFalse(slowFuture.isDone());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	/**
+	 * Answers AUTH with a refusal, or never answers
+	 */
+	private static final class FakeConnectionHandler extends ConnectionHandler {
+		private final LinkedBlockingQueue<YMSG9Packet> incoming = new LinkedBlockingQueue<YMSG9Packet>();
+		private final boolean refuse;
+
+		private FakeConnectionHandler(boolean refuse) {
+			this.refuse = refuse;
+		}
+
+		@Override
+		void install(Session session) {
+		}
+
+		@Override
+		void open(boolean searchForAddress) {
+		}
+
+		@Override
+		void close() {
+			YMSG9Packet closed = new YMSG9Packet();
+			incoming.add(closed);
+		}
+
+		@Override
+		void sendPacket(PacketBodyBuffer body, ServiceType service, long status, long sessionID) {
+			if (refuse && service == ServiceType.AUTH) {
+				YMSG9Packet packet = new YMSG9Packet();
+				packet.service = ServiceType.AUTHRESP;
+				packet.status = -1;
+				packet.body = new String[] {"66", "13"};
+				incoming.add(packet);
+			}
+		}
+
+		@Override
+		YMSG9Packet receivePacket() throws IOException {
+			try {
+				YMSG9Packet packet = incoming.take();
+				return packet.service == null ? null : packet;
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+
+		@Override
+		boolean isLocked(int millisDuration) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package org.openymsg.legacy.network.chatroom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.openymsg.legacy.network.YahooUser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ChatDirectoryTest {
+	private static final String TOP = "http://insider.msg.yahoo.com/ycontent/?chatcat=0";
+	private static final String ROOMS = "http://insider.msg.yahoo.com/ycontent/?chatroom_1600000002";
+	private static final String CATEGORIES = "<content time=\"1061459725\"><chatCategories>"
+			+ "<category id=\"1600000002\" name=\"Business &amp; Finance\">"
+			+ "<category id=\"1600000003\" name=\"Investing\"></category></category>"
+			+ "<category id=\"1600000004\" name=\"Computers\"></category></chatCategories></content>";
+	private static final String ROOM_LIST = "<content time=\"1055350260\"><chatRooms>"
+			+ "<room type=\"yahoo\" id=\"1600326587\" name=\"Business Lobby\" topic=\"Business\">"
+			+ "<lobby count=\"1\" users=\"12\" voices=\"1\" webcams=\"0\"/>"
+			+ "<lobby count=\"2\" users=\"23\" voices=\"0\" webcams=\"0\"/></room>"
+			+ "<room type=\"user\" id=\"1600004725\" name=\"testuser's room\" topic=\"Welcome\">"
+			+ "<lobby count=\"1\" users=\"1\" voices=\"0\" webcams=\"0\"/></room></chatRooms></content>";
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+	private FakeSource source;
+	private List<Runnable> refreshes;
+	private TestChatDirectory directory;
+
+	@Before
+	public void beforeMethod() {
+		source = new FakeSource();
+		source.listings.put(TOP, CATEGORIES);
+		source.listings.put(ROOMS, ROOM_LIST);
+		refreshes = new ArrayList<Runnable>();
+		directory = new TestChatDirectory(source, refreshes);
+	}
+
+	@Test
+	public void testLoadCategories() throws Exception {
+		YahooChatCategory root = directory.loadCategories("", null);
+		assertEquals(1061459725L, root.getId());
+		assertEquals(2, root.getSubcategories().size());
+		YahooChatCategory business = find(root, 1600000002L);
+		assertEquals("Business & Finance", business.getName());
+		assertEquals(1, business.getSubcategories().size());
+		assertEquals(1600000003L, business.getSubcategories().iterator().next().getId());
+		assertSame(root, directory.getCategories("", null));
+		assertNull(directory.getCategories("", "Y=1; T=2"));
+	}
+
+	@Test
+	public void testCachedWithinInterval() throws Exception {
+		YahooChatCategory root = directory.loadCategories("", null);
+		directory.time += 1000;
+		assertSame(root, directory.loadCategories("", null));
+		assertEquals(1, source.count(TOP));
+		assertTrue(refreshes.isEmpty());
+	}
+
+	@Test
+	public void testConcurrentLoadsFetchOnce() throws Exception {
+		source.blocked = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<YahooChatCategory>> loads = new ArrayList<Future<YahooChatCategory>>();
+			for (int i = 0; i < 4; i++) {
+				loads.add(executor.submit(new Callable<YahooChatCategory>() {
+					@Override
+					public YahooChatCategory call() throws IOException {
+						return directory.loadCategories("", null);
+					}
+				}));
+			}
+			assertTrue(source.opened.await(5, TimeUnit.SECONDS));
+			// let the other loads queue up behind the first
+			Thread.sleep(100);
+			source.blocked.countDown();
+			YahooChatCategory root = loads.get(0).get(5, TimeUnit.SECONDS);
+			for (Future<YahooChatCategory> load : loads) {
+				assertSame(root, load.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, source.count(TOP));
+	}
+
+	@Test
+	public void testStaleReturnedWhileRefreshing() throws Exception {
+		YahooChatCategory root = directory.loadCategories("", null);
+		YahooChatCategory computers = find(root, 1600000004L);
+		directory.time += ChatroomManager.REFRESH_TIMOUT_IN_SECONDS * 1000L;
+		source.listings.put(TOP, "<content time=\"1061459726\"><chatCategories>"
+				+ "<category id=\"1600000004\" name=\"Computers\"></category>"
+				+ "<category id=\"1600000005\" name=\"Music\"></category></chatCategories></content>");
+		assertSame(root, directory.loadCategories("", null));
+		assertEquals(1, refreshes.size());
+		assertSame(root, directory.loadCategories("", null));
+		assertEquals("one refresh at a time", 1, refreshes.size());
+		assertEquals(1, source.count(TOP));
+		refreshes.get(0).run();
+		assertEquals(2, source.count(TOP));
+		assertSame(root, directory.loadCategories("", null));
+		assertSame(computers, find(root, 1600000004L));
+		assertNotNull(find(root, 1600000005L));
+		assertNull(find(root, 1600000002L));
+	}
+
+	@Test
+	public void testFailedRefreshKeepsTree() throws Exception {
+		YahooChatCategory root = directory.loadCategories("", null);
+		directory.time += ChatroomManager.REFRESH_TIMOUT_IN_SECONDS * 1000L;
+		source.listings.remove(TOP);
+		directory.loadCategories("", null);
+		refreshes.get(0).run();
+		assertSame(root, directory.loadCategories("", null));
+		assertEquals(2, root.getSubcategories().size());
+		assertEquals("retried after the next interval", 1, refreshes.size());
+	}
+
+	@Test
+	public void testFailedLoadRetried() throws Exception {
+		source.listings.put(TOP, "<content time=\"1061459725\"><chatCategories>");
+		try {
+			directory.loadCategories("", null);
+		} catch (IOException e) {
+			// expected
+		}
+		source.listings.put(TOP, CATEGORIES);
+		assertEquals(2, directory.loadCategories("", null).getSubcategories().size());
+		assertEquals(2, source.count(TOP));
+	}
+
+	@Test
+	public void testMalformedCategories() throws Exception {
+		source.listings.put(TOP, "<content time=\"1061459725\"><chatCategories>");
+		exception.expect(IOException.class);
+		directory.loadCategories("", null);
+	}
+
+	@Test
+	public void testLoadRooms() throws Exception {
+		YahooChatCategory business = find(directory.loadCategories("", null), 1600000002L);
+		business.loadRooms();
+		assertEquals(1, business.getPublicRooms().size());
+		assertEquals(1, business.getPrivateRooms().size());
+		YahooChatRoom room = business.getPublicRooms().iterator().next();
+		assertEquals("Business", room.getTopic());
+		assertEquals(2, room.lobbyCount());
+		YahooChatLobby lobby = business.getLobby("Business Lobby:2");
+		assertEquals(23, lobby.getReportedUsers());
+		assertNotNull(business.getLobby("testuser's room:1"));
+	}
+
+	@Test
+	public void testReloadRoomsUpdatesInPlace() throws Exception {
+		YahooChatCategory business = find(directory.loadCategories("", null), 1600000002L);
+		business.loadRooms();
+		YahooChatRoom room = business.getPublicRooms().iterator().next();
+		YahooChatLobby lobby = business.getLobby("Business Lobby:1");
+		lobby.addUser(new YahooChatUser(new YahooUser("testuser"), 0, "", 0, ""));
+		source.listings.put(ROOMS, "<content time=\"1055350261\"><chatRooms>"
+				+ "<room type=\"yahoo\" id=\"1600326587\" name=\"Business Lobby\" topic=\"Markets\">"
+				+ "<lobby count=\"1\" users=\"15\" voices=\"2\" webcams=\"1\"/>"
+				+ "<lobby count=\"3\" users=\"4\" voices=\"0\" webcams=\"0\"/></room></chatRooms></content>");
+		business.loadRooms();
+		assertSame(room, business.getPublicRooms().iterator().next());
+		assertEquals("Markets", room.getTopic());
+		assertSame(lobby, business.getLobby("Business Lobby:1"));
+		assertEquals(15, lobby.getReportedUsers());
+		assertEquals(2, lobby.getReportedVoices());
+		assertEquals(1, lobby.getReportedWebcams());
+		assertNotNull(lobby.getUser("testuser"));
+		assertNull(business.getLobby("Business Lobby:2"));
+		assertNotNull(business.getLobby("Business Lobby:3"));
+		assertEquals(2, room.lobbyCount());
+		assertTrue(business.getPrivateRooms().isEmpty());
+		assertNull(business.getLobby("testuser's room:1"));
+	}
+
+	@Test
+	public void testWaitingLoadRoomsDoesNotFetchAgain() throws Exception {
+		final YahooChatCategory business = find(directory.loadCategories("", null), 1600000002L);
+		source.blocked = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Callable<Void> load = new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					business.loadRooms();
+					return null;
+				}
+			};
+			Future<Void> first = executor.submit(load);
+			assertTrue(source.opened.await(5, TimeUnit.SECONDS));
+			Future<Void> second = executor.submit(load);
+			Thread.sleep(100);
+			source.blocked.countDown();
+			first.get(5, TimeUnit.SECONDS);
+			second.get(5, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, source.count(ROOMS));
+		business.loadRooms();
+		assertEquals(2, source.count(ROOMS));
+	}
+
+	@Test
+	public void testManagerUsesDirectory() throws Exception {
+		ChatroomManager manager = new ChatroomManager(null, null, directory);
+		YahooChatCategory root = manager.loadCategories();
+		assertSame(root, new ChatroomManager(null, null, directory).loadCategories());
+		assertEquals(1, source.count(TOP));
+		assertNull(manager.getLobby("Business Lobby:1"));
+	}
+
+	@Test
+	public void testCookiesOfRequestingSession() throws Exception {
+		ChatroomManager first = new ChatroomManager(new String[] {"Y=1", "T=1"}, null, directory);
+		ChatroomManager second = new ChatroomManager(new String[] {"Y=2", "T=2"}, null, directory);
+		YahooChatCategory root = first.loadCategories();
+		assertEquals("Y=1; T=1", source.cookies.get(TOP));
+		assertSame(root, second.loadCategories());
+		directory.time += ChatroomManager.REFRESH_TIMOUT_IN_SECONDS * 1000L;
+		second.loadCategories();
+		refreshes.get(0).run();
+		assertEquals("refreshed with the cookies of the session that asked", "Y=2; T=2", source.cookies.get(TOP));
+		YahooChatCategory business = find(root, 1600000002L);
+		second.loadRooms(business);
+		assertEquals("Y=2; T=2", source.cookies.get(ROOMS));
+	}
+
+	@Test
+	public void testCookiedRoomsNotLoadedWithoutCookies() throws Exception {
+		ChatroomManager cookied = new ChatroomManager(new String[] {"Y=1", "T=1"}, null, directory);
+		YahooChatCategory business = find(cookied.loadCategories(), 1600000002L);
+		cookied.loadRooms(business);
+		assertEquals(2, business.getPublicRooms().size() + business.getPrivateRooms().size());
+		source.listings.put(ROOMS, "<content time=\"1055350261\"><chatRooms></chatRooms></content>");
+		try {
+			business.loadRooms();
+			fail("the shared tree keeps no cookies");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			new ChatroomManager(null, null, directory).loadRooms(business);
+			fail("a manager without cookies cannot load a tree listed with cookies");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, source.count(ROOMS));
+		assertEquals(2, business.getPublicRooms().size() + business.getPrivateRooms().size());
+	}
+
+	@Test
+	public void testUncookiedRoomsLoadedWithoutCookies() throws Exception {
+		YahooChatCategory business = find(directory.loadCategories("", null), 1600000002L);
+		new ChatroomManager(new String[] {"Y=1", "T=1"}, null, directory).loadRooms(business);
+		assertNull(source.cookies.get(ROOMS));
+		assertEquals(1, source.count(ROOMS));
+	}
+
+	@Test
+	public void testExternalEntitiesIgnored() throws Exception {
+		source.listings.put(TOP, "<?xml version=\"1.0\"?><!DOCTYPE content [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>"
+				+ "<content time=\"1\"><chatCategories><category id=\"2\" name=\"&x;\"></category>"
+				+ "</chatCategories></content>");
+		try {
+			YahooChatCategory root = directory.loadCategories("", null);
+			assertFalse(root.getSubcategories().iterator().next().getName().contains("root:"));
+		} catch (IOException e) {
+			// rejecting the document is fine too
+		}
+	}
+
+	private YahooChatCategory find(YahooChatCategory parent, long id) {
+		for (YahooChatCategory category : parent.getSubcategories()) {
+			if (category.getId() == id) {
+				return category;
+			}
+		}
+		return null;
+	}
+
+	private static final class TestChatDirectory extends ChatDirectory {
+		private long time = 1000000L;
+
+		private TestChatDirectory(Source source, final List<Runnable> refreshes) {
+			super(source, ChatroomManager.REFRESH_TIMOUT_IN_SECONDS * 1000L, new java.util.concurrent.Executor() {
+				@Override
+				public void execute(Runnable command) {
+					refreshes.add(command);
+				}
+			});
+		}
+
+		@Override
+		protected long now() {
+			return time;
+		}
+	}
+
+	private static final class FakeSource implements ChatDirectory.Source {
+		private final Map<String, String> listings = new HashMap<String, String>();
+		private final Map<String, Integer> counts = new HashMap<String, Integer>();
+		/** cookies of the last request, by address */
+		private final Map<String, String> cookies = new HashMap<String, String>();
+		private final CountDownLatch opened = new CountDownLatch(1);
+		private volatile CountDownLatch blocked;
+
+		@Override
+		public InputStream open(String address, String cookieLine) throws IOException {
+			String listing;
+			synchronized (this) {
+				Integer count = counts.get(address);
+				counts.put(address, count == null ? 1 : count + 1);
+				cookies.put(address, cookieLine);
+				listing = listings.get(address);
+			}
+			opened.countDown();
+			if (blocked != null) {
+				try {
+					blocked.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted");
+				}
+			}
+			if (listing == null) {
+				throw new IOException("No listing for " + address);
+			}
+			return new ByteArrayInputStream(listing.getBytes("UTF-8"));
+		}
+
+		private synchronized int count(String address) {
+			Integer count = counts.get(address);
+			return count == null ? 0 : count;
+		}
+	}
+}
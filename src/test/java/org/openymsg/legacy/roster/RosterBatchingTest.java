@@ -0,0 +1,175 @@
+package org.openymsg.legacy.roster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junitx.util.PrivateAccessor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openymsg.legacy.network.ContactListType;
+import org.openymsg.legacy.network.FireEvent;
+import org.openymsg.legacy.network.ServiceType;
+import org.openymsg.legacy.network.YahooUser;
+import org.openymsg.legacy.network.event.SessionFriendEvent;
+import org.openymsg.legacy.network.event.SessionListEvent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RosterBatchingTest {
+	private Roster roster;
+	private BatchListener batchListener;
+	private MockRosterListener listener;
+
+	@Before
+	public void setUp() {
+		roster = new Roster(new MockFriendManager());
+		batchListener = new BatchListener();
+		listener = new MockRosterListener();
+		roster.addRosterListener(batchListener);
+		roster.addRosterListener(listener);
+	}
+
+	@Test
+	public void testUnbatchedByDefault() throws Throwable {
+		add(new YahooUser("one"));
+		assertEquals(-1, roster.getBatchWindow());
+		assertEquals(0, batchListener.batches.size());
+		assertEquals(1, batchListener.events.size());
+		assertEquals(1, listener.getEventCount());
+	}
+
+	@Test
+	public void testListPacketBroadcastOnce() {
+		roster.setBatchWindow(0);
+		Set<YahooUser> contacts = new HashSet<YahooUser>();
+		for (int i = 0; i < 50; i++) {
+			contacts.add(new YahooUser("user" + i));
+		}
+		roster.dispatch(new FireEvent(new SessionListEvent(this, ContactListType.Friends, contacts), ServiceType.LIST));
+		assertEquals(1, batchListener.batches.size());
+		assertEquals(50, batchListener.batches.get(0).getEvents().size());
+		assertSame(roster, batchListener.batches.get(0).getSource());
+		assertEquals(0, batchListener.events.size());
+		assertEquals(50, listener.getEventCount());
+		assertEquals(50, roster.size());
+	}
+
+	@Test
+	public void testUpdatesCoalesced() throws Throwable {
+		roster.setBatchWindow(0);
+		YahooUser user = new YahooUser("one");
+		add(user);
+		for (int i = 0; i < 10; i++) {
+			update(new YahooUser("one"));
+		}
+		YahooUser last = new YahooUser("one");
+		roster.dispatch(new FireEvent(new SessionFriendEvent(this, last), ServiceType.Y6_STATUS_UPDATE));
+		List<RosterEvent> events = batchListener.batches.get(0).getEvents();
+		assertEquals(1, events.size());
+		assertEquals(RosterEventType.add, events.get(0).getType());
+		assertSame(last, events.get(0).getUser());
+		assertEquals(1, listener.getEventCount());
+	}
+
+	@Test
+	public void testAddThenRemoveCancelsOut() throws Throwable {
+		roster.setBatchWindow(0);
+		add(new YahooUser("one"));
+		add(new YahooUser("two"));
+		remove("one");
+		roster.flushEvents();
+		List<RosterEvent> events = batchListener.batches.get(0).getEvents();
+		assertEquals(1, events.size());
+		assertEquals("two", events.get(0).getUser().getId());
+	}
+
+	@Test
+	public void testRemoveThenAddIsUpdate() throws Throwable {
+		add(new YahooUser("one"));
+		roster.setBatchWindow(0);
+		remove("one");
+		YahooUser again = new YahooUser("one");
+		add(again);
+		roster.flushEvents();
+		RosterEvent event = batchListener.batches.get(0).getEvents().get(0);
+		assertEquals(RosterEventType.update, event.getType());
+		assertSame(again, event.getUser());
+	}
+
+	@Test
+	public void testUpdateThenRemoveIsRemove() throws Throwable {
+		add(new YahooUser("one"));
+		roster.setBatchWindow(0);
+		update(new YahooUser("one"));
+		remove("one");
+		roster.flushEvents();
+		assertEquals(RosterEventType.remove, batchListener.batches.get(0).getEvents().get(0).getType());
+	}
+
+	@Test
+	public void testNothingPendingNotBroadcast() {
+		roster.setBatchWindow(0);
+		roster.flushEvents();
+		assertEquals(0, batchListener.batches.size());
+	}
+
+	@Test
+	public void testWindow() throws Throwable {
+		batchListener.received = new CountDownLatch(1);
+		roster.setBatchWindow(50);
+		add(new YahooUser("one"));
+		add(new YahooUser("two"));
+		assertEquals(0, listener.getEventCount());
+		assertTrue(batchListener.received.await(5, TimeUnit.SECONDS));
+		assertEquals(1, batchListener.batches.size());
+		assertEquals(2, batchListener.batches.get(0).getEvents().size());
+	}
+
+	@Test
+	public void testTurningOffFlushes() throws Throwable {
+		roster.setBatchWindow(60000);
+		add(new YahooUser("one"));
+		roster.setBatchWindow(-1);
+		assertEquals(1, batchListener.batches.size());
+		add(new YahooUser("two"));
+		assertEquals(1, batchListener.events.size());
+	}
+
+	private void add(YahooUser user) throws Throwable {
+		PrivateAccessor.invoke(roster, "syncedAdd", new Class[] {YahooUser.class}, new Object[] {user});
+	}
+
+	private void update(YahooUser user) throws Throwable {
+		PrivateAccessor.invoke(roster, "syncedUpdate", new Class[] {String.class, YahooUser.class}, new Object[] {
+				user.getId(), user});
+	}
+
+	private void remove(String userId) throws Throwable {
+		PrivateAccessor.invoke(roster, "syncedRemove", new Class[] {String.class}, new Object[] {userId});
+	}
+
+	private static final class BatchListener implements RosterBatchListener {
+		private final List<RosterBatchEvent> batches = new ArrayList<RosterBatchEvent>();
+		private final List<RosterEvent> events = new ArrayList<RosterEvent>();
+		private volatile CountDownLatch received;
+
+		@Override
+		public void rosterChanged(RosterEvent event) {
+			events.add(event);
+		}
+
+		@Override
+		public void rosterChanged(RosterBatchEvent event) {
+			batches.add(event);
+			if (received != null) {
+				received.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package org.openymsg.legacy.roster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.openymsg.YahooContact;
+import org.openymsg.contact.roster.ContactRoster;
+import org.openymsg.legacy.network.ContactListType;
+import org.openymsg.legacy.network.FireEvent;
+import org.openymsg.legacy.network.ServiceType;
+import org.openymsg.legacy.network.Status;
+import org.openymsg.legacy.network.YahooProtocol;
+import org.openymsg.legacy.network.YahooUser;
+import org.openymsg.legacy.network.event.SessionListEvent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Heap retained per contact by large rosters, compared to the HashSet based layout they used before: a legacy
+ * {@link Roster} of YahooUsers, each of which had its own set of group ids, and a {@link ContactRoster}, whose contacts
+ * were kept in a HashSet plus a HashSet snapshot.
+ */
+public class RosterHeapBenchmarkTest {
+	private static final Log log = LogFactory.getLog(RosterHeapBenchmarkTest.class);
+	private static final int GROUPS = 20;
+	private Level level;
+	/** keeps what is measured reachable */
+	private Object retained;
+
+	/**
+	 * Trace logging would dominate the run time
+	 */
+	@Before
+	public void beforeMethod() {
+		level = Logger.getRootLogger().getLevel();
+		Logger.getRootLogger().setLevel(Level.INFO);
+	}
+
+	@After
+	public void afterMethod() {
+		Logger.getRootLogger().setLevel(level);
+		retained = null;
+	}
+
+	@Test
+	@Category(org.openymsg.SlowTest.class)
+	public void testLegacyRoster() {
+		// warm up
+		legacyBefore(1000);
+		legacyAfter(1000);
+		for (int contacts : new int[] {10000, 100000}) {
+			long before = legacyBefore(contacts);
+			long after = legacyAfter(contacts);
+			log.info("legacy roster of " + contacts + " contacts: " + before + " bytes per contact before, " + after
+					+ " after");
+			if (before > 0 && after > 0) {
+				assertTrue("compact roster should be smaller: " + after + " vs " + before, after < before);
+			}
+		}
+	}
+
+	@Test
+	@Category(org.openymsg.SlowTest.class)
+	public void testContactRoster() {
+		contactBefore(1000);
+		contactAfter(1000);
+		for (int contacts : new int[] {10000, 100000}) {
+			long before = contactBefore(contacts);
+			long after = contactAfter(contacts);
+			log.info("contact roster of " + contacts + " contacts: " + before + " bytes per contact before, " + after
+					+ " after");
+			if (before > 0 && after > 0) {
+				assertTrue("compact roster should be smaller: " + after + " vs " + before, after < before);
+			}
+		}
+	}
+
+	private long legacyBefore(int contacts) {
+		String[] groups = groups();
+		retained = null;
+		long start = usedHeap();
+		Map<String, OldYahooUser> users = new ConcurrentHashMap<String, OldYahooUser>();
+		for (int i = 0; i < contacts; i++) {
+			OldYahooUser user = new OldYahooUser(("Contact" + i).toLowerCase(), groups[i % GROUPS]);
+			users.put(user.userId, user);
+		}
+		retained = users;
+		long used = usedHeap() - start;
+		assertEquals(contacts, users.size());
+		return used / contacts;
+	}
+
+	private long legacyAfter(int contacts) {
+		String[] groups = groups();
+		retained = null;
+		long start = usedHeap();
+		Roster roster = new Roster(new MockFriendManager());
+		Set<YahooUser> list = new HashSet<YahooUser>();
+		for (int i = 0; i < contacts; i++) {
+			list.add(new YahooUser("Contact" + i, groups[i % GROUPS], YahooProtocol.YAHOO));
+		}
+		roster.dispatch(new FireEvent(new SessionListEvent(this, ContactListType.Friends, list), ServiceType.LIST));
+		list = null;
+		retained = roster;
+		long used = usedHeap() - start;
+		assertEquals(contacts, roster.size());
+		return used / contacts;
+	}
+
+	private long contactBefore(int contacts) {
+		retained = null;
+		long start = usedHeap();
+		Set<YahooContact> elements = new HashSet<YahooContact>();
+		for (int i = 0; i < contacts; i++) {
+			elements.add(new YahooContact("contact" + i, org.openymsg.YahooProtocol.YAHOO));
+		}
+		Set<YahooContact> snapshot = Collections.unmodifiableSet(new HashSet<YahooContact>(elements));
+		retained = new Object[] {elements, snapshot};
+		long used = usedHeap() - start;
+		assertEquals(contacts, snapshot.size());
+		return used / contacts;
+	}
+
+	private long contactAfter(int contacts) {
+		retained = null;
+		long start = usedHeap();
+		ContactRoster roster = new ContactRoster();
+		for (int i = 0; i < contacts; i++) {
+			roster.loadedContact(new YahooContact("contact" + i, org.openymsg.YahooProtocol.YAHOO));
+		}
+		Set<YahooContact> snapshot = roster.getContacts();
+		retained = roster;
+		long used = usedHeap() - start;
+		assertEquals(contacts, snapshot.size());
+		return used / contacts;
+	}
+
+	private String[] groups() {
+		String[] groups = new String[GROUPS];
+		for (int i = 0; i < GROUPS; i++) {
+			groups[i] = "Group " + i;
+		}
+		return groups;
+	}
+
+	/**
+	 * Heap in use after full collections, as the collector measured it. A full collection may leave some garbage in
+	 * place rather than compact it, so the lowest of several is taken.
+	 */
+	private long usedHeap() {
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 6; i++) {
+			System.gc();
+			long collected = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+					collected += pool.getCollectionUsage().getUsed();
+				}
+			}
+			used = Math.min(used, collected);
+		}
+		return used;
+	}
+
+	/**
+	 * The fields of a YahooUser before its groups were an array
+	 */
+	@SuppressWarnings("unused")
+	private static final class OldYahooUser {
+		private final String userId;
+		private final Set<String> groupIds = new HashSet<String>();
+		private Status status = Status.OFFLINE;
+		private int stealth;
+		private boolean onChat;
+		private boolean onPager;
+		private boolean ignored;
+		private boolean stealthBlocked;
+		private String customStatusMessage;
+		private String customStatus;
+		private long idleTime = -1;
+		private Object addressBookEntry;
+		private YahooProtocol protocol = YahooProtocol.YAHOO;
+
+		private OldYahooUser(String userId, String groupId) {
+			this.userId = userId;
+			this.groupIds.add(groupId);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.openymsg.legacy.support;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class AntiSpamTest {
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void testRepeat() {
+		TestAntiSpam antiSpam = new TestAntiSpam(10, 0, 5, 1000);
+		assertEquals(0, antiSpam.getViolations("testuser", "buy cheap stuff here"));
+		antiSpam.time += 2000;
+		assertEquals(AntiSpam.REPEAT, antiSpam.getViolations("testuser", "<b>buy cheap stuff here</b>"));
+		antiSpam.time += 2000;
+		assertEquals(0, antiSpam.getViolations("testuser", "ok"));
+		antiSpam.time += 2000;
+		assertEquals(0, antiSpam.getViolations("testuser", "ok"));
+		antiSpam.time += 2000;
+		assertEquals(0, antiSpam.getViolations("otheruser", "buy cheap stuff here"));
+	}
+
+	@Test
+	public void testRepeatForgottenAfterHistory() {
+		TestAntiSpam antiSpam = new TestAntiSpam(10, 0, 5, 1000);
+		antiSpam.getViolations("testuser", "the first message");
+		for (int i = 0; i < 5; i++) {
+			antiSpam.time += 2000;
+			antiSpam.getViolations("testuser", "another message " + i);
+		}
+		antiSpam.time += 2000;
+		assertEquals(0, antiSpam.getViolations("testuser", "the first message"));
+	}
+
+	@Test
+	public void testFlood() {
+		TestAntiSpam antiSpam = new TestAntiSpam(10, 0, 3, 1000);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, antiSpam.getViolations("testuser", "hi " + i));
+			antiSpam.time += 100;
+		}
+		assertEquals(AntiSpam.FLOOD, antiSpam.getViolations("testuser", "hi 3"));
+		// slower than three a second
+		antiSpam.time += 1000;
+		assertEquals(0, antiSpam.getViolations("testuser", "hi 4"));
+		antiSpam.time += 400;
+		assertEquals(0, antiSpam.getViolations("testuser", "hi 5"));
+		antiSpam.time += 400;
+		assertEquals(0, antiSpam.getViolations("testuser", "hi 6"));
+	}
+
+	@Test
+	public void testCaps() {
+		TestAntiSpam antiSpam = new TestAntiSpam(10, 0, 5, 1000);
+		antiSpam.getViolations("testuser", "hello");
+		antiSpam.time += 2000;
+		assertEquals(AntiSpam.CAPS, antiSpam.getViolations("testuser", "ANYONE WANT TO CHAT"));
+	}
+
+	@Test
+	public void testMaximumUsers() {
+		TestAntiSpam antiSpam = new TestAntiSpam(2, 0, 5, 1000);
+		antiSpam.getViolations("testuser1", "buy cheap stuff here");
+		antiSpam.getViolations("testuser2", "hello");
+		antiSpam.getViolations("testuser1", "hello");
+		antiSpam.getViolations("testuser3", "hello");
+		assertEquals(2, antiSpam.size());
+		antiSpam.time += 2000;
+		// testuser1 was heard from more recently than testuser2, so is remembered
+		assertEquals(AntiSpam.REPEAT, antiSpam.getViolations("testuser1", "buy cheap stuff here"));
+	}
+
+	@Test
+	public void testIdleUsersForgotten() {
+		TestAntiSpam antiSpam = new TestAntiSpam(10, 60000, 5, 1000);
+		antiSpam.getViolations("testuser1", "buy cheap stuff here");
+		antiSpam.time += 30000;
+		antiSpam.getViolations("testuser2", "hello");
+		antiSpam.time += 40000;
+		assertEquals(0, antiSpam.getViolations("testuser1", "buy cheap stuff here"));
+		assertEquals(2, antiSpam.size());
+	}
+
+	@Test
+	public void testInvalidMaximumUsers() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("maximumUsers must be positive");
+		new AntiSpam(0, 0, 5, 1000);
+	}
+
+	private static class TestAntiSpam extends AntiSpam {
+		private long time = 1000000;
+
+		private TestAntiSpam(int maximumUsers, long idleTimeout, int floodMessages, long floodWindow) {
+			super(maximumUsers, idleTimeout, floodMessages, floodWindow);
+		}
+
+		@Override
+		protected long now() {
+			return this.time;
+		}
+	}
+}
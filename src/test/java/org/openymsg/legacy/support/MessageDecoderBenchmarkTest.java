@@ -0,0 +1,91 @@
+package org.openymsg.legacy.support;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Decodes a mix of chat room traffic, as the tree and straight to text, from one thread and from several threads
+ * sharing the decoder as AntiSpam does.
+ */
+public class MessageDecoderBenchmarkTest {
+	private static final Log log = LogFactory.getLog(MessageDecoderBenchmarkTest.class);
+	private static final int ROUNDS = 20000;
+	private static final int THREADS = 4;
+	private static final String[] TRAFFIC = {"hi all", "anyone from texas?", "lol", "brb",
+			"<font face=\"Arial\" size=\"10\">\u001b[#000000mhello everyone in the room",
+			"\u001b[1mWELCOME TO THE ROOM\u001b[x1m", "<font face=\"Comic Sans MS\" size=\"12\"><fade #ff0000,#0000ff>"
+					+ "who wants to chat?</fade></font>", "<b>asl?</b>", "<red>stop flooding</red> please",
+			"\u001b[38m<font face=\"Verdana\">\u001b[2mjust got back from work\u001b[x2m</font>", "i <3 this song",
+			"<alt #ff0000,#00ff00>party time</alt>", "a < b but c > d", "ok"};
+
+	@Test
+	@Category(org.openymsg.SlowTest.class)
+	public void testDecodeTraffic() throws Exception {
+		final MessageDecoder decoder = new MessageDecoder();
+		for (String message : TRAFFIC) {
+			assertEquals(decoder.decode(message).toText(), decoder.decodeToText(message));
+		}
+		// warm up
+		decodeTree(decoder);
+		decodeText(decoder);
+		long start = System.nanoTime();
+		decodeTree(decoder);
+		long tree = System.nanoTime() - start;
+		start = System.nanoTime();
+		decodeText(decoder);
+		long text = System.nanoTime() - start;
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+			for (int i = 0; i < THREADS; i++) {
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return decodeText(decoder);
+					}
+				});
+			}
+			start = System.nanoTime();
+			for (Future<Integer> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+			long shared = System.nanoTime() - start;
+			int messages = ROUNDS * TRAFFIC.length;
+			log.info("decode " + (tree / messages) + " ns, decodeToText " + (text / messages) + " ns per message, "
+					+ THREADS + " threads sharing the decoder " + (shared / (messages * THREADS)) + " ns per message");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private int decodeTree(MessageDecoder decoder) {
+		int length = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			for (String message : TRAFFIC) {
+				length += decoder.decode(message).toText().length();
+			}
+		}
+		return length;
+	}
+
+	private int decodeText(MessageDecoder decoder) {
+		int length = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			for (String message : TRAFFIC) {
+				length += decoder.decodeToText(message).length();
+			}
+		}
+		return length;
+	}
+}
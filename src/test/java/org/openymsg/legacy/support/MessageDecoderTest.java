@@ -0,0 +1,79 @@
+package org.openymsg.legacy.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class MessageDecoderTest {
+	private final MessageDecoder decoder = new MessageDecoder();
+
+	@Test
+	public void testPlainTextReturned() {
+		String message = "hello everyone, how is it going?";
+		assertSame(message, decoder.decodeToText(message));
+		assertEquals(message, decoder.decode(message).toText());
+		assertEquals("", decoder.decodeToText(""));
+	}
+
+	@Test
+	public void testFontFadeAlt() {
+		assertEquals("hi there", decoder.decodeToText("<font face=\"Arial\" size=\"10\">hi there</font>"));
+		assertEquals("hi there", decoder.decodeToText("<FONT face=\"a>b\">hi there</FONT>"));
+		assertEquals("faded", decoder.decodeToText("<fade #ff0000,#0000ff>faded</fade>"));
+		assertEquals("alternate", decoder.decodeToText("<alt #ff0000,#0000ff>alternate</alt>"));
+	}
+
+	@Test
+	public void testEscapes() {
+		assertEquals("bold italic", decoder.decodeToText("\u001b[1mbold\u001b[x1m \u001b[2mitalic\u001b[x2m"));
+		assertEquals("red", decoder.decodeToText("\u001b[#ff0000mred"));
+		assertEquals("indexed", decoder.decodeToText("\u001b[38mindexed"));
+		assertEquals("lone \u001b escape", decoder.decodeToText("lone \u001b escape"));
+	}
+
+	@Test
+	public void testTruncatedEscape() {
+		assertEquals("cut ", decoder.decodeToText("cut \u001b["));
+		assertEquals("cut ", decoder.decode("cut \u001b[x").toText());
+		assertEquals("cut ", decoder.decode("cut \u001b[#ff").toText());
+	}
+
+	@Test
+	public void testTags() {
+		assertEquals("bold italic underline", decoder.decodeToText("<b>bold</b> <I>italic</I> <u>underline</u>"));
+		assertEquals("red blue", decoder.decodeToText("<red>red</red> <Blue>blue</blue>"));
+		assertEquals("green", decoder.decodeToText("<#00ff00>green"));
+		assertEquals("", decoder.decodeToText("</unknown>"));
+	}
+
+	@Test
+	public void testUnknownTagIsText() {
+		assertEquals("a < b", decoder.decodeToText("a < b"));
+		assertEquals("<3 you", decoder.decodeToText("<3 you"));
+		assertEquals("<font>", decoder.decodeToText("<font>"));
+		assertEquals("<>", decoder.decodeToText("<>"));
+	}
+
+	@Test
+	public void testElements() {
+		MessageElement root = decoder.decode("<b>x</b>y");
+		assertEquals(MessageElement.ROOT, root.type);
+		assertEquals(2, root.children.size());
+		MessageElement bold = root.children.get(0);
+		assertEquals(MessageElement.BOLD, bold.type);
+		assertEquals("x", bold.children.get(0).text);
+		assertEquals("y", root.children.get(1).text);
+	}
+
+	@Test
+	public void testNestedColourClosesToMatch() {
+		MessageElement root = decoder.decode("<red><blue>a</red>b");
+		MessageElement red = root.children.get(0);
+		assertEquals(MessageElement.COLOUR_NAME, red.type);
+		MessageElement blue = red.children.get(0);
+		assertEquals("a", blue.children.get(0).text);
+		// closing red closes blue as well
+		assertEquals("b", root.children.get(1).text);
+	}
+}
@@ -9,14 +9,24 @@
  */
 package org.openymsg.legacy.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
+import org.openymsg.legacy.network.YahooProtocol;
 import org.openymsg.legacy.network.YahooUser;
 
 import nl.jqno.equalsverifier.EqualsVerifier;
 import nl.jqno.equalsverifier.Warning;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
- * Basic Equality and HashCode contract checks.
+ * Basic Equality and HashCode contract checks, and group membership.
  * @author G. der Kinderen, Nimbuzz B.V. guus@nimbuzz.com
  */
 public class YahooUserTest {
@@ -24,4 +34,55 @@ public class YahooUserTest {
 	public void testEquals() {
 		EqualsVerifier.forClass(YahooUser.class).suppress(Warning.STRICT_INHERITANCE).verify();
 	}
+
+	@Test
+	public void testGroups() {
+		YahooUser user = new YahooUser("Buddy", "Friends", YahooProtocol.YAHOO);
+		assertEquals("buddy", user.getId());
+		assertTrue(user.isFriend());
+		user.addGroupId("Work");
+		user.addGroupId("Friends");
+		assertEquals(new HashSet<String>(Arrays.asList("Friends", "Work")), user.getGroupIds());
+		assertTrue(user.getGroupIds().contains("Work"));
+		assertFalse(user.getGroupIds().contains("Family"));
+		assertFalse(user.getGroupIds().contains(null));
+	}
+
+	@Test
+	public void testNoGroups() {
+		YahooUser user = new YahooUser("buddy");
+		assertFalse(user.isFriend());
+		assertTrue(user.getGroupIds().isEmpty());
+		user.addGroupId(null);
+		assertFalse(user.isFriend());
+		assertTrue(new YahooUser("buddy", "", YahooProtocol.YAHOO).isAnonymous());
+	}
+
+	@Test
+	public void testGroupSetCopied() {
+		Set<String> groupIds = new HashSet<String>(Arrays.asList("Friends"));
+		YahooUser user = new YahooUser("buddy", groupIds, YahooProtocol.YAHOO);
+		groupIds.add("Work");
+		assertEquals(1, user.getGroupIds().size());
+	}
+
+	@Test
+	public void testGroupViewFollowsUser() {
+		YahooUser user = new YahooUser("buddy");
+		Set<String> groupIds = user.getGroupIds();
+		user.addGroupId("Friends");
+		assertEquals(1, groupIds.size());
+	}
+
+	@Test
+	public void testGroupNameShared() {
+		YahooUser one = new YahooUser("one", new String("Friends"), YahooProtocol.YAHOO);
+		YahooUser two = new YahooUser("two", new String("Friends"), YahooProtocol.YAHOO);
+		assertSame(one.getGroupIds().iterator().next(), two.getGroupIds().iterator().next());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testGroupsUnmodifiable() {
+		new YahooUser("buddy", "Friends", YahooProtocol.YAHOO).getGroupIds().add("Work");
+	}
 }
@@ -0,0 +1,72 @@
+package org.openymsg.message;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooProtocol;
+
+public class MessageDeduplicatorTest {
+	private YahooContact contact = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+	private long now = 0;
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void testDuplicate() {
+		MessageDeduplicator deduplicator = new MessageDeduplicator();
+		assertFalse(deduplicator.isDuplicate(contact, "1"));
+		assertTrue(deduplicator.isDuplicate(contact, "1"));
+		assertFalse(deduplicator.isDuplicate(contact, "2"));
+		assertFalse(deduplicator.isDuplicate(new YahooContact("testbuddy2", YahooProtocol.YAHOO), "1"));
+		assertFalse(deduplicator.isDuplicate(new YahooContact("testbuddy", YahooProtocol.MSN), "1"));
+	}
+
+	@Test
+	public void testWindow() {
+		MessageDeduplicator deduplicator = new TimedDeduplicator(16, 1000);
+		assertFalse(deduplicator.isDuplicate(contact, "1"));
+		now = 999;
+		assertTrue(deduplicator.isDuplicate(contact, "1"));
+		now = 2000;
+		assertFalse(deduplicator.isDuplicate(contact, "1"));
+		assertTrue(deduplicator.isDuplicate(contact, "1"));
+	}
+
+	@Test
+	public void testBounded() {
+		int size = 100;
+		MessageDeduplicator deduplicator = new MessageDeduplicator(size, 60000);
+		for (int i = 0; i < size * 10; i++) {
+			assertFalse(deduplicator.isDuplicate(contact, "" + i));
+			// everything still in the ring is remembered, after many evictions
+			assertTrue(deduplicator.isDuplicate(contact, "" + i));
+			if (i >= size - 1) {
+				assertTrue(deduplicator.isDuplicate(contact, "" + (i - size + 1)));
+			}
+		}
+		// the oldest are forgotten
+		assertFalse(deduplicator.isDuplicate(contact, "0"));
+	}
+
+	@Test
+	public void testNullMessageId() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("messageId cannot be null");
+		new MessageDeduplicator().isDuplicate(contact, null);
+	}
+
+	private class TimedDeduplicator extends MessageDeduplicator {
+		TimedDeduplicator(int size, long window) {
+			super(size, window);
+		}
+
+		@Override
+		protected long now() {
+			return now;
+		}
+	}
+}
@@ -1,16 +1,27 @@
 package org.openymsg.message;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.openymsg.YahooContact;
 import org.openymsg.YahooProtocol;
 import org.openymsg.connection.YahooConnection;
+import org.openymsg.execute.dispatch.Dispatcher;
+import org.openymsg.execute.dispatch.Request;
 import org.openymsg.network.YMSG9Packet;
 import org.openymsg.testing.PacketReader;
 
+import java.util.List;
+
 public class MessageResponseTest {
 	private String username = "testuser";
 	private SessionMessageCallback callback;
@@ -64,4 +75,47 @@ public class MessageResponseTest {
 		message = "and number three";
 		verify(callback).receivedOfflineMessage(contact, message, 1334803171L * 1000);
 	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testOfflineBatchSorted() {
+		String test =
+				"Magic:YMSG Version:16 Length:523 Service:MESSAGE Status:OFFLINE5 SessionId:0x58fe2f  [31] [6] [32] [6] [4] [testbuddy] [5] [testuser] [14] [sending number two] [15] [1334803164] [97] [1] [31] [6] [32] [6] [4] [testbuddy] [5] [testuser] [14] [sending number one] [15] [1334803157] [97] [1]";
+		String test2 =
+				"Magic:YMSG Version:16 Length:523 Service:MESSAGE Status:OFFLINE5 SessionId:0x58fe2f  [31] [6] [32] [6] [4] [testbuddy] [5] [testuser] [14] [sending number zero] [15] [1334803100] [97] [1]";
+		callback = mock(SessionMessageCallback.class,
+				withSettings().extraInterfaces(SessionOfflineMessageBatchCallback.class));
+		Dispatcher dispatcher = mock(Dispatcher.class);
+		SessionMessageImpl session = new SessionMessageImpl(executor, username, callback, null, dispatcher);
+		MessageResponse response = new MessageResponse(session);
+		response.execute(PacketReader.readString(test));
+		response.execute(PacketReader.readString(test2));
+		ArgumentCaptor<Request> request = ArgumentCaptor.forClass(Request.class);
+		verify(dispatcher).scheduleOnce(request.capture(), anyLong());
+		verify((SessionOfflineMessageBatchCallback) callback, never()).receivedOfflineMessages(any(List.class));
+		request.getValue().execute();
+		ArgumentCaptor<List> messages = ArgumentCaptor.forClass(List.class);
+		verify((SessionOfflineMessageBatchCallback) callback).receivedOfflineMessages(messages.capture());
+		List<OfflineMessage> delivered = messages.getValue();
+		assertEquals(3, delivered.size());
+		assertEquals("sending number zero", delivered.get(0).getMessage());
+		assertEquals("sending number one", delivered.get(1).getMessage());
+		assertEquals("sending number two", delivered.get(2).getMessage());
+		assertEquals(new YahooContact("testbuddy", YahooProtocol.YAHOO), delivered.get(0).getFrom());
+		verify(callback, never()).receivedOfflineMessage(any(YahooContact.class), any(String.class),
+				eq(1334803100000L));
+	}
+
+	@Test
+	public void testOfflineNotCollectedWithoutBatchCallback() {
+		String test =
+				"Magic:YMSG Version:16 Length:523 Service:MESSAGE Status:OFFLINE5 SessionId:0x58fe2f  [31] [6] [32] [6] [4] [testbuddy] [5] [testuser] [14] [sending number one] [15] [1334803157] [97] [1]";
+		Dispatcher dispatcher = mock(Dispatcher.class);
+		SessionMessageImpl session = new SessionMessageImpl(executor, username, callback, null, dispatcher);
+		MessageResponse response = new MessageResponse(session);
+		response.execute(PacketReader.readString(test));
+		verify(callback).receivedOfflineMessage(new YahooContact("testbuddy", YahooProtocol.YAHOO),
+				"sending number one", 1334803157000L);
+		verify(dispatcher, never()).scheduleOnce(any(Request.class), anyLong());
+	}
 }
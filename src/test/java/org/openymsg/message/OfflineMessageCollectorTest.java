@@ -0,0 +1,57 @@
+package org.openymsg.message;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.openymsg.YahooContact;
+import org.openymsg.YahooProtocol;
+import org.openymsg.connection.YahooConnection;
+import org.openymsg.execute.dispatch.Dispatcher;
+import org.openymsg.execute.dispatch.Request;
+
+public class OfflineMessageCollectorTest {
+	private YahooContact contact = new YahooContact("testbuddy", YahooProtocol.YAHOO);
+	private SessionMessageCallback callback;
+	private SessionMessageImpl session;
+	private Dispatcher dispatcher;
+
+	@Before
+	public void beforeMethod() {
+		callback = mock(SessionMessageCallback.class);
+		dispatcher = mock(Dispatcher.class);
+		session = new SessionMessageImpl(mock(YahooConnection.class), "testuser", callback);
+	}
+
+	@Test
+	public void testFullBatchDeliveredRightAway() {
+		OfflineMessageCollector collector = new OfflineMessageCollector(session, dispatcher, 1000, 2);
+		collector.add(new OfflineMessage(contact, "two", 2000L));
+		collector.add(new OfflineMessage(contact, "one", 1000L));
+		collector.add(new OfflineMessage(contact, "three", 3000L));
+		InOrder inOrder = inOrder(callback);
+		inOrder.verify(callback).receivedOfflineMessage(contact, "one", 1000L);
+		inOrder.verify(callback).receivedOfflineMessage(contact, "two", 2000L);
+		verifyNoMoreInteractions(callback);
+		// one for the first batch, one for the new batch
+		verify(dispatcher, times(2)).scheduleOnce((Request) any(), anyLong());
+		collector.flush();
+		verify(callback).receivedOfflineMessage(contact, "three", 3000L);
+	}
+
+	@Test
+	public void testDeliveredWhenCannotSchedule() {
+		doThrow(new IllegalStateException()).when(dispatcher).scheduleOnce((Request) any(), anyLong());
+		OfflineMessageCollector collector = new OfflineMessageCollector(session, dispatcher);
+		collector.add(new OfflineMessage(contact, "one", 1000L));
+		verify(callback).receivedOfflineMessage(contact, "one", 1000L);
+	}
+}
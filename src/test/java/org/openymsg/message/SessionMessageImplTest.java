@@ -132,4 +132,16 @@ public class SessionMessageImplTest {
 		verify(callback, times(2)).receivedBuzz(contact);
 		verify(executor).execute(argThatMessage(new MessageAckMessage(username, contact, messageId)));
 	}
+
+	@Test
+	public void testRedeliveredMessageAckedNotDelivered() {
+		executor = mock(YahooConnection.class);
+		session = new SessionMessageImpl(executor, username, callback, new MessageDeduplicator());
+		String message = "message";
+		String messageId = "1234";
+		session.receivedMessage(contact, message, messageId);
+		session.receivedMessage(contact, message, messageId);
+		verify(executor, times(2)).execute(argThatMessage(new MessageAckMessage(username, contact, messageId)));
+		verify(callback).receivedMessage(contact, message);
+	}
 }
@@ -0,0 +1,40 @@
+package org.openymsg.testing;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures bytes allocated by the current thread. Only works on JVMs that support thread allocation counting (HotSpot);
+ * otherwise every measurement is -1.
+ */
+public class AllocationMeter {
+	private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	private long start;
+
+	public boolean isSupported() {
+		return bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+	}
+
+	public void start() {
+		this.start = allocated();
+	}
+
+	/**
+	 * Bytes allocated since start
+	 * @return bytes allocated, or -1 if not supported
+	 */
+	public long stop() {
+		if (!isSupported()) {
+			return -1;
+		}
+		return allocated() - start;
+	}
+
+	private long allocated() {
+		if (!isSupported()) {
+			return -1;
+		}
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
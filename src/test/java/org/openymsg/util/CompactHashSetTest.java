@@ -0,0 +1,118 @@
+package org.openymsg.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+public class CompactHashSetTest {
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void testSameAsHashSet() {
+		Random random = new Random(42);
+		Set<Integer> expected = new HashSet<Integer>();
+		CompactHashSet<Integer> set = new CompactHashSet<Integer>();
+		for (int i = 0; i < 100000; i++) {
+			Integer element = random.nextInt(2000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(element), set.remove(element));
+			} else {
+				assertEquals(expected.add(element), set.add(element));
+			}
+		}
+		assertEquals(expected.size(), set.size());
+		assertEquals(expected, set);
+		assertEquals(set, expected);
+		assertEquals(expected.hashCode(), set.hashCode());
+	}
+
+	@Test
+	public void testCollidingElements() {
+		CompactHashSet<Colliding> set = new CompactHashSet<Colliding>();
+		for (int i = 0; i < 20; i++) {
+			assertTrue(set.add(new Colliding(i % 3, i)));
+		}
+		// removing from the middle of a run must keep the elements probed past it reachable
+		for (int i = 0; i < 20; i += 2) {
+			assertTrue(set.remove(new Colliding(i % 3, i)));
+		}
+		for (int i = 0; i < 20; i++) {
+			assertEquals(i % 2 == 1, set.contains(new Colliding(i % 3, i)));
+		}
+		assertEquals(10, set.size());
+	}
+
+	@Test
+	public void testCopy() {
+		CompactHashSet<String> set = new CompactHashSet<String>(Arrays.asList("one", "two", "three"));
+		CompactHashSet<String> copy = new CompactHashSet<String>(set);
+		set.remove("one");
+		assertEquals(3, copy.size());
+		assertTrue(copy.contains("one"));
+		assertEquals(new HashSet<String>(Arrays.asList("two", "three")), set);
+	}
+
+	@Test
+	public void testBulkRemoval() {
+		CompactHashSet<String> set = new CompactHashSet<String>(Arrays.asList("one", "two", "three", "four"));
+		assertTrue(set.removeAll(Arrays.asList("one", "five")));
+		assertTrue(set.retainAll(Arrays.asList("two", "three")));
+		assertFalse(set.retainAll(Arrays.asList("two", "three")));
+		assertEquals(new HashSet<String>(Arrays.asList("two", "three")), set);
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.iterator().hasNext());
+	}
+
+	@Test
+	public void testNull() {
+		CompactHashSet<String> set = new CompactHashSet<String>();
+		assertFalse(set.contains(null));
+		assertFalse(set.remove(null));
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("element cannot be null");
+		set.add(null);
+	}
+
+	@Test
+	public void testChangedWhileIterating() {
+		CompactHashSet<String> set = new CompactHashSet<String>(Arrays.asList("one", "two"));
+		Iterator<String> iterator = set.iterator();
+		iterator.next();
+		set.add("three");
+		exception.expect(ConcurrentModificationException.class);
+		iterator.next();
+	}
+
+	private static final class Colliding {
+		private final int hash;
+		private final int value;
+
+		private Colliding(int hash, int value) {
+			this.hash = hash;
+			this.value = value;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Colliding && ((Colliding) obj).value == value;
+		}
+	}
+}
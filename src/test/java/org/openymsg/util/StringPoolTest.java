@@ -0,0 +1,44 @@
+package org.openymsg.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class StringPoolTest {
+	@Test
+	public void testShared() {
+		StringPool pool = new StringPool();
+		String first = new String("Friends");
+		assertSame(first, pool.share(first));
+		assertSame(first, pool.share(new String("Friends")));
+		assertNull(pool.share(null));
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void testFull() {
+		StringPool pool = new StringPool(1);
+		String first = pool.share(new String("one"));
+		String second = new String("two");
+		assertSame(second, pool.share(second));
+		assertNotSame(second, pool.share(new String("two")));
+		assertSame(first, pool.share(new String("one")));
+	}
+
+	@Test
+	public void testUnusedReleased() throws Exception {
+		StringPool pool = new StringPool(1);
+		pool.share(new String("one"));
+		for (int i = 0; i < 50 && pool.size() > 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals(0, pool.size());
+		String second = new String("two");
+		pool.share(second);
+		assertSame(second, pool.share(new String("two")));
+	}
+}
@@ -0,0 +1,80 @@
+package org.openymsg.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.Set;
+
+public class VersionedSetTest {
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void testSnapshotShared() {
+		VersionedSet<String> set = new VersionedSet<String>();
+		set.add("one");
+		Set<String> snapshot = set.getSnapshot();
+		assertSame(snapshot, set.getSnapshot());
+		assertEquals(1, snapshot.size());
+	}
+
+	@Test
+	public void testSnapshotReplacedOnChange() {
+		VersionedSet<String> set = new VersionedSet<String>();
+		set.add("one");
+		Set<String> snapshot = set.getSnapshot();
+		long version = set.getVersion();
+		set.add("two");
+		assertTrue(set.getVersion() > version);
+		assertNotSame(snapshot, set.getSnapshot());
+		assertEquals(1, snapshot.size());
+		assertEquals(2, set.getSnapshot().size());
+	}
+
+	@Test
+	public void testNoChangeKeepsVersion() {
+		VersionedSet<String> set = new VersionedSet<String>();
+		set.addAll(Arrays.asList("one", "two"));
+		Set<String> snapshot = set.getSnapshot();
+		long version = set.getVersion();
+		assertFalse(set.add("one"));
+		assertFalse(set.remove("three"));
+		assertEquals(version, set.getVersion());
+		assertSame(snapshot, set.getSnapshot());
+		assertTrue(set.remove("one"));
+		set.clear();
+		assertEquals(version + 2, set.getVersion());
+		assertTrue(set.getSnapshot().isEmpty());
+	}
+
+	@Test
+	public void testSnapshotUnmodifiable() {
+		VersionedSet<String> set = new VersionedSet<String>();
+		set.add("one");
+		exception.expect(UnsupportedOperationException.class);
+		set.getSnapshot().add("two");
+	}
+
+	@Test
+	public void testMap() {
+		VersionedMap<String, String> map = new VersionedMap<String, String>();
+		map.put("1", "one");
+		Set<String> values = map.getValues();
+		assertSame(values, map.getValues());
+		long version = map.getVersion();
+		map.put("1", "one");
+		assertEquals(version, map.getVersion());
+		map.remove("1");
+		assertEquals(version + 1, map.getVersion());
+		assertTrue(map.getValues().isEmpty());
+		assertEquals(1, values.size());
+	}
+}